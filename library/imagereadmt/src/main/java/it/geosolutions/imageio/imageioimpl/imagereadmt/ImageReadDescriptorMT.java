@@ -219,7 +219,14 @@ import com.sun.media.jai.util.PropertyGeneratorImpl;
  *   if Input is a String it will be converted to a RandomAccessFile, or if it
  *   is a Socket or a URL to an InputStream. If the conversion of the Input
  *   String to RandomAccessFile fails, it will be converted to an
- *   InputStream by accessing it as a resource bundled in a JAR file.</li></p>
+ *   InputStream by accessing it as a resource bundled in a JAR file.
+ *   If Input is an {@link ImageReaderPool}, each tile is read with a reader
+ *   checked out from the pool, so that readers which are not thread safe
+ *   are never used by two threads at once; the Reader parameter is then
+ *   ignored and the "JAI.ImageReadMT.ReaderPool",
+ *   "JAI.ImageReadMT.ReaderPoolSize" and "JAI.ImageReadMT.ReaderPoolReuses"
+ *   properties replace the "JAI.ImageReader" one. Pools are supported in
+ *   rendered mode only.</li></p>
  * 
  * <p><li><a name="ParamImageChoice"</a>
  * If ImageChoice is negative an exception will be thrown when the
@@ -616,6 +623,45 @@ public class ImageReadDescriptorMT extends OperationDescriptorImpl {
     public static final String PROPERTY_NAME_RENDERABLE_INPUT =
         "JAI.RenderableInput";
 
+    /**
+     * Property name "JAI.ImageReadMT.Reads" of the number of reads issued to
+     * the <code>ImageReader</code> so far, as a <code>Long</code>.
+     */
+    public static final String PROPERTY_NAME_READS =
+        "JAI.ImageReadMT.Reads";
+
+    /**
+     * Property name "JAI.ImageReadMT.SavedReads" of the number of reads saved
+     * so far by merging requests of adjacent tiles into a single read, as a
+     * <code>Long</code>.
+     */
+    public static final String PROPERTY_NAME_SAVED_READS =
+        "JAI.ImageReadMT.SavedReads";
+
+    /**
+     * Property name "JAI.ImageReadMT.ReaderPool" of the
+     * {@link ImageReaderPool} the image is read through, if any.
+     */
+    public static final String PROPERTY_NAME_READER_POOL =
+        "JAI.ImageReadMT.ReaderPool";
+
+    /**
+     * Property name "JAI.ImageReadMT.ReaderPoolSize" of the number of readers
+     * created so far by the {@link ImageReaderPool} the image is read
+     * through, as an <code>Integer</code>.
+     */
+    public static final String PROPERTY_NAME_READER_POOL_SIZE =
+        "JAI.ImageReadMT.ReaderPoolSize";
+
+    /**
+     * Property name "JAI.ImageReadMT.ReaderPoolReuses" of the number of reader
+     * check outs served by reusing an idle reader of the
+     * {@link ImageReaderPool} the image is read through, as a
+     * <code>Long</code>.
+     */
+    public static final String PROPERTY_NAME_READER_POOL_REUSES =
+        "JAI.ImageReadMT.ReaderPoolReuses";
+
      /**
      * The name of the operation.
      */
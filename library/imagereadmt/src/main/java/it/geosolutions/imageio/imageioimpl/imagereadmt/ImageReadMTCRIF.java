@@ -315,6 +315,11 @@ public final class ImageReadMTCRIF extends CRIFImpl {
 		// Value to be returned.
 		RenderedImage image = null;
 
+		// Read through a pool of readers if requested.
+		if (pb.getObjectParameter(0) instanceof ImageReaderPool) {
+			return createFromPool(pb, rh);
+		}
+
 		// Get the reader.
 		readerProvided=pb.getObjectParameter(0)!=null&&pb.getObjectParameter(0) instanceof ImageReader;
 		ImageReader reader = getImageReader(pb);
@@ -357,6 +362,48 @@ public final class ImageReadMTCRIF extends CRIFImpl {
 		return image;
 	}
 
+	/**
+	 * Creates a rendering whose tiles are read with readers checked out from
+	 * the {@link ImageReaderPool} provided as input.
+	 */
+	private static RenderedImage createFromPool(ParameterBlock pb,
+			RenderingHints rh) {
+		final ImageReaderPool readerPool = (ImageReaderPool) pb
+				.getObjectParameter(0);
+		int imageIndex = pb.getIntParameter(1);
+		boolean readMetadata = ((Boolean) pb.getObjectParameter(2))
+				.booleanValue();
+		boolean readThumbnails = ((Boolean) pb.getObjectParameter(3))
+				.booleanValue();
+		EventListener[] listeners = (EventListener[]) pb.getObjectParameter(5);
+		Locale locale = (Locale) pb.getObjectParameter(6);
+		ImageReadParam param = (ImageReadParam) pb.getObjectParameter(7);
+
+		// Initialize the layout.
+		ImageLayout layout = (rh != null && rh
+				.containsKey(JAI.KEY_IMAGE_LAYOUT)) ? (ImageLayout) rh
+				.get(JAI.KEY_IMAGE_LAYOUT) : new ImageLayout();
+
+		// The reader used to set up the rendering goes back to the pool
+		// right after.
+		ImageReader reader = null;
+		try {
+			reader = readerPool.checkOut();
+			if (locale != null) {
+				reader.setLocale(locale);
+			}
+			return new ImageReadOpImageMT(layout, rh, param, readerPool,
+					reader, imageIndex, readThumbnails, readMetadata, locale,
+					listeners);
+		} catch (Exception e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (reader != null) {
+				readerPool.checkIn(reader);
+			}
+		}
+	}
+
 	// XXX This implementation of renderable mode is incredibly lame
 	// but the architecture and implementation allow for nothing else.
 	// It would be better if the CRIFs had some kind of state that
@@ -82,12 +82,31 @@ import java.awt.image.BufferedImage;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.EventListener;
+import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
 import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.event.IIOReadProgressListener;
+import javax.imageio.event.IIOReadUpdateListener;
+import javax.imageio.event.IIOReadWarningListener;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
@@ -108,16 +127,77 @@ import com.sun.media.jai.operator.ImageReadDescriptor;
  */
 final class ImageReadOpImageMT extends OpImage {
 
+	/**
+	 * System property setting the maximum number of adjacent tiles which are
+	 * read at once by {@link #getTiles(Point[])}. A value of 1 disables tiles
+	 * merging.
+	 */
+	public static final String MAX_MERGED_TILES_KEY = "it.geosolutions.imagereadmt.maxMergedTiles";
+
+	/**
+	 * Default maximum number of adjacent tiles read at once.
+	 */
+	public static final int DEFAULT_MAX_MERGED_TILES = 64;
+
+	private static final int MAX_MERGED_TILES = Math.max(1, Integer.getInteger(
+			MAX_MERGED_TILES_KEY, DEFAULT_MAX_MERGED_TILES).intValue());
+
+	/**
+	 * System property setting the number of threads reading in parallel the
+	 * blocks of tiles requested through {@link #getTiles(Point[])}. Defaults
+	 * to the number of available processors.
+	 */
+	public static final String BLOCK_READERS_KEY = "it.geosolutions.imagereadmt.blockReaders";
+
+	/**
+	 * Orders tile indices by row, then by column.
+	 */
+	private static final Comparator<Point> TILE_ORDER = new Comparator<Point>() {
+		public int compare(Point p1, Point p2) {
+			if (p1.y != p2.y) {
+				return p1.y < p2.y ? -1 : 1;
+			}
+			return p1.x < p2.x ? -1 : (p1.x == p2.x ? 0 : 1);
+		}
+	};
+
 	/**
 	 * The <code>ImageReadParam</code> used in reading the image.
 	 */
 	private EnhancedImageReadParam param;
 
 	/**
-	 * The <code>ImageReader</code> used to read the image.
+	 * The <code>ImageReader</code> used to read the image; null if the image
+	 * is read through a pool of readers.
 	 */
 	private ImageReader reader;
 
+	/**
+	 * The pool providing the <code>ImageReader</code>s used to read the image;
+	 * may be null.
+	 */
+	private ImageReaderPool readerPool;
+
+	/**
+	 * The <code>Locale</code> to be set on the pooled readers; may be null.
+	 */
+	private Locale locale;
+
+	/**
+	 * The listeners to be registered with the pooled readers; may be null.
+	 */
+	private EventListener[] listeners;
+
+	/**
+	 * The object to lock on when reading thumbnails and metadata.
+	 */
+	private Object readerLock;
+
+	/**
+	 * Whether metadata are being ignored.
+	 */
+	private boolean ignoreMetadata;
+
 	/**
 	 * The index of the image to be read.
 	 */
@@ -165,6 +245,38 @@ final class ImageReadOpImageMT extends OpImage {
 
 	private boolean readerProvided = false;
 
+	/**
+	 * The number of reads issued to the reader.
+	 */
+	private final AtomicLong reads = new AtomicLong();
+
+	/**
+	 * The number of reads saved by merging adjacent tiles.
+	 */
+	private final AtomicLong savedReads = new AtomicLong();
+
+	/**
+	 * Lazily creates the threads shared by all the images to read blocks of
+	 * tiles in parallel.
+	 */
+	private static final class BlockReadersHolder {
+
+		static final ExecutorService EXECUTOR = Executors.newFixedThreadPool(
+				Math.max(1, Integer.getInteger(BLOCK_READERS_KEY,
+						Runtime.getRuntime().availableProcessors()).intValue()),
+				new ThreadFactory() {
+
+					private final AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable r) {
+						Thread thread = new Thread(r, "ImageReadMT-block-reader-"
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+	}
+
 	/**
 	 * Derive the image layout based on the user-supplied layout, reading
 	 * parameters, and image index.
@@ -407,10 +519,39 @@ final class ImageReadOpImageMT extends OpImage {
 			ImageReadParam param, ImageReader reader, int imageIndex,
 			boolean readThumbnails, ImageInputStream streamToClose,
 			boolean readerProvided) throws IOException {
+		this(layout, configuration, param, reader, imageIndex, readThumbnails,
+				streamToClose, readerProvided, null, reader
+						.isIgnoringMetadata(), null, null);
+	}
+
+	/**
+	 * Creates an image whose tiles are read with readers checked out from a
+	 * pool. The provided reader, which has been checked out from the pool,
+	 * is only used during construction.
+	 */
+	ImageReadOpImageMT(ImageLayout layout, Map configuration,
+			ImageReadParam param, ImageReaderPool readerPool,
+			ImageReader reader, int imageIndex, boolean readThumbnails,
+			boolean readMetadata, Locale locale, EventListener[] listeners)
+			throws IOException {
+		this(layout, configuration, param, reader, imageIndex, readThumbnails,
+				null, true, readerPool, !readMetadata, locale, listeners);
+	}
+
+	private ImageReadOpImageMT(ImageLayout layout, Map configuration,
+			ImageReadParam param, ImageReader reader, int imageIndex,
+			boolean readThumbnails, ImageInputStream streamToClose,
+			boolean readerProvided, ImageReaderPool readerPool,
+			boolean ignoreMetadata, Locale locale, EventListener[] listeners)
+			throws IOException {
 		super(null, layoutHelper(layout, param, reader, imageIndex),
 				configuration, false);
 
 		this.readerProvided = readerProvided;
+		this.readerPool = readerPool;
+		this.ignoreMetadata = ignoreMetadata;
+		this.locale = locale;
+		this.listeners = listeners;
 		// Revise parameter 'param' as needed.
 		if (param == null) {
 			// Get the ImageReadParam from the ImageReader.
@@ -481,14 +622,32 @@ final class ImageReadOpImageMT extends OpImage {
 		// Set the ImageReadParam property.
 		setProperty(ImageReadDescriptor.PROPERTY_NAME_IMAGE_READ_PARAM, param);
 
-		// Set the ImageReader property.
-		setProperty(ImageReadDescriptor.PROPERTY_NAME_IMAGE_READER, reader);
+		// Set the reads counters properties, their values being retrieved
+		// when getProperty() is invoked.
+		setProperty(ImageReadDescriptorMT.PROPERTY_NAME_READS,
+				java.awt.Image.UndefinedProperty);
+		setProperty(ImageReadDescriptorMT.PROPERTY_NAME_SAVED_READS,
+				java.awt.Image.UndefinedProperty);
+
+		if (readerPool == null) {
+			// Set the ImageReader property.
+			setProperty(ImageReadDescriptor.PROPERTY_NAME_IMAGE_READER, reader);
+		} else {
+			// Set the pool properties, the statistics being retrieved when
+			// getProperty() is invoked.
+			setProperty(ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL,
+					readerPool);
+			setProperty(ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL_SIZE,
+					java.awt.Image.UndefinedProperty);
+			setProperty(ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL_REUSES,
+					java.awt.Image.UndefinedProperty);
+		}
 
 		// If metadata are being read, set the value of the metadata
 		// properties to UndefinedProperty so that the property
 		// names will appear in the array of property names. The actual
 		// values will be retrieved when getProperty() is invoked.
-		if (!reader.isIgnoringMetadata()) {
+		if (!ignoreMetadata) {
 			// Get the service provider interface, if any.
 			ImageReaderSpi provider = reader.getOriginatingProvider();
 
@@ -529,6 +688,74 @@ final class ImageReadOpImageMT extends OpImage {
 			setProperty(ImageReadDescriptor.PROPERTY_NAME_THUMBNAILS,
 					java.awt.Image.UndefinedProperty);
 		}
+
+		// The reader provided along with a pool belongs to the pool.
+		if (readerPool != null) {
+			this.reader = null;
+			this.readerLock = this;
+		} else {
+			this.readerLock = reader;
+		}
+	}
+
+	/**
+	 * Returns the reader to be used by the calling thread, checking it out
+	 * from the pool if any. The reader must be returned through
+	 * {@link #checkInReader(ImageReader)}.
+	 */
+	private ImageReader checkOutReader() throws IOException {
+		if (readerPool == null) {
+			return reader;
+		}
+		final ImageReader reader = readerPool.checkOut();
+		if (locale != null) {
+			reader.setLocale(locale);
+		}
+		setListeners(reader, true);
+		return reader;
+	}
+
+	/**
+	 * Returns a reader obtained through {@link #checkOutReader()}.
+	 */
+	private void checkInReader(ImageReader reader) {
+		if (readerPool != null) {
+			setListeners(reader, false);
+			readerPool.checkIn(reader);
+		}
+	}
+
+	/**
+	 * Adds or removes the listeners of this image to or from a pooled reader.
+	 */
+	private void setListeners(ImageReader reader, boolean add) {
+		if (listeners == null) {
+			return;
+		}
+		for (int i = 0; i < listeners.length; i++) {
+			EventListener listener = listeners[i];
+			if (listener instanceof IIOReadProgressListener) {
+				if (add) {
+					reader.addIIOReadProgressListener((IIOReadProgressListener) listener);
+				} else {
+					reader.removeIIOReadProgressListener((IIOReadProgressListener) listener);
+				}
+			}
+			if (listener instanceof IIOReadUpdateListener) {
+				if (add) {
+					reader.addIIOReadUpdateListener((IIOReadUpdateListener) listener);
+				} else {
+					reader.removeIIOReadUpdateListener((IIOReadUpdateListener) listener);
+				}
+			}
+			if (listener instanceof IIOReadWarningListener) {
+				if (add) {
+					reader.addIIOReadWarningListener((IIOReadWarningListener) listener);
+				} else {
+					reader.removeIIOReadWarningListener((IIOReadWarningListener) listener);
+				}
+			}
+		}
 	}
 
 	/**
@@ -582,11 +809,14 @@ final class ImageReadOpImageMT extends OpImage {
 		 */
 		Rectangle srcRect = computeSourceRect(destRect);
 		WritableRaster readerTile = null;
+		ImageReader reader = null;
 		try {
 
 			final ImageReadParam param = (ImageReadParam) this.param.clone();
 			param.setSourceRegion(srcRect);
 			param.setDestinationOffset(org);
+			reader = checkOutReader();
+			reads.incrementAndGet();
 			BufferedImage bi = reader.read(imageIndex, param);
 			WritableRaster ras = bi.getRaster();
 			readerTile = ras.createWritableChild(0, 0, ras.getWidth(), ras
@@ -596,6 +826,10 @@ final class ImageReadOpImageMT extends OpImage {
 			throw new RuntimeException(e);
 		} catch (CloneNotSupportedException e) {
 			throw new RuntimeException(e);
+		} finally {
+			if (reader != null) {
+				checkInReader(reader);
+			}
 		}
 
 		WritableRaster tile = null;
@@ -608,6 +842,210 @@ final class ImageReadOpImageMT extends OpImage {
 		return tile;
 	}
 
+	/**
+	 * Returns the requested tiles. Tiles which are not in the cache are read
+	 * merging adjacent ones into rectangular blocks, each block being read at
+	 * once and then split into tiles, so that the reader does not decode again
+	 * and again the source data shared by neighbouring tiles. The blocks are
+	 * read in parallel, the calling thread reading the last one.
+	 * 
+	 * @param tileIndices
+	 *            the indices of the requested tiles.
+	 * @return the requested tiles.
+	 */
+	public Raster[] getTiles(Point[] tileIndices) {
+		if (tileIndices == null) {
+			throw new IllegalArgumentException("tileIndices == null");
+		}
+		final Raster[] tiles = new Raster[tileIndices.length];
+
+		// Look for the tiles to be read, once each
+		final Map<Point, List<Integer>> missing = new HashMap<Point, List<Integer>>();
+		for (int i = 0; i < tileIndices.length; i++) {
+			final Point index = tileIndices[i];
+			if (index.x < getMinTileX() || index.x > getMaxTileX()
+					|| index.y < getMinTileY() || index.y > getMaxTileY()) {
+				continue;
+			}
+			tiles[i] = getTileFromCache(index.x, index.y);
+			if (tiles[i] == null) {
+				List<Integer> positions = missing.get(index);
+				if (positions == null) {
+					positions = new ArrayList<Integer>(1);
+					missing.put(new Point(index), positions);
+				}
+				positions.add(Integer.valueOf(i));
+			}
+		}
+		if (missing.isEmpty()) {
+			return tiles;
+		}
+
+		final List<Rectangle> blocks = mergeTiles(missing.keySet());
+		final int numBlocks = blocks.size();
+		final List<Future<Raster[]>> futures = new ArrayList<Future<Raster[]>>(
+				numBlocks - 1);
+		for (int i = 0; i < numBlocks - 1; i++) {
+			final Rectangle block = blocks.get(i);
+			futures.add(BlockReadersHolder.EXECUTOR.submit(new Callable<Raster[]>() {
+				public Raster[] call() {
+					return readTiles(block);
+				}
+			}));
+		}
+		final Raster[] lastTiles = readTiles(blocks.get(numBlocks - 1));
+
+		for (int i = 0; i < numBlocks; i++) {
+			final Rectangle block = blocks.get(i);
+			final Raster[] blockTiles = i < numBlocks - 1 ? getBlockTiles(futures
+					.get(i)) : lastTiles;
+			for (int ty = block.y, k = 0; ty < block.y + block.height; ty++) {
+				for (int tx = block.x; tx < block.x + block.width; tx++, k++) {
+					for (Integer position : missing.get(new Point(tx, ty))) {
+						tiles[position.intValue()] = blockTiles[k];
+					}
+				}
+			}
+		}
+		return tiles;
+	}
+
+	/**
+	 * Reads the tiles of a block, through {@link #getTile(int, int)} for a
+	 * single tile.
+	 */
+	private Raster[] readTiles(Rectangle block) {
+		if (block.width * block.height == 1) {
+			return new Raster[] { getTile(block.x, block.y) };
+		}
+		return readBlock(block);
+	}
+
+	/**
+	 * Waits for the tiles of a block read in parallel.
+	 */
+	private static Raster[] getBlockTiles(Future<Raster[]> future) {
+		try {
+			return future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new RuntimeException(e);
+		} catch (ExecutionException e) {
+			final Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			throw new RuntimeException(cause);
+		}
+	}
+
+	/**
+	 * Groups the provided tiles into rectangular blocks of adjacent tiles,
+	 * merging runs of consecutive tiles of a row with identical runs of the
+	 * following rows.
+	 * 
+	 * @return the blocks, in tile index units.
+	 */
+	private static List<Rectangle> mergeTiles(Set<Point> tiles) {
+		final Point[] sorted = tiles.toArray(new Point[tiles.size()]);
+		Arrays.sort(sorted, TILE_ORDER);
+
+		final List<Rectangle> blocks = new ArrayList<Rectangle>();
+		// Blocks ending on the previous row, by their first and last column
+		Map<Point, Rectangle> open = new HashMap<Point, Rectangle>();
+		Map<Point, Rectangle> next = new HashMap<Point, Rectangle>();
+		int row = sorted[0].y;
+		int i = 0;
+		while (i < sorted.length) {
+			if (sorted[i].y != row) {
+				if (sorted[i].y != row + 1) {
+					open.clear();
+				} else {
+					final Map<Point, Rectangle> tmp = open;
+					open = next;
+					next = tmp;
+				}
+				next.clear();
+				row = sorted[i].y;
+			}
+
+			// Find a run of consecutive tiles in this row
+			final int first = sorted[i].x;
+			int last = first;
+			i++;
+			while (i < sorted.length && sorted[i].y == row
+					&& sorted[i].x == last + 1
+					&& last - first + 1 < MAX_MERGED_TILES) {
+				last = sorted[i].x;
+				i++;
+			}
+
+			// Extend the block above or start a new one
+			final Point key = new Point(first, last);
+			Rectangle block = open.remove(key);
+			final int width = last - first + 1;
+			if (block != null && (block.height + 1) * width <= MAX_MERGED_TILES) {
+				block.height++;
+			} else {
+				block = new Rectangle(first, row, width, 1);
+				blocks.add(block);
+			}
+			next.put(key, block);
+		}
+		return blocks;
+	}
+
+	/**
+	 * Reads a block of adjacent tiles at once, then splits it into tiles which
+	 * are added to the cache.
+	 * 
+	 * @param block
+	 *            the block to be read, in tile index units.
+	 * @return the tiles of the block, ordered by row.
+	 */
+	private Raster[] readBlock(Rectangle block) {
+		final Rectangle blockRect = new Rectangle(tileXToX(block.x),
+				tileYToY(block.y), block.width * tileWidth, block.height
+						* tileHeight).intersection(getBounds());
+		final Rectangle srcRect = computeSourceRect(blockRect);
+		final WritableRaster raster;
+		ImageReader reader = null;
+		try {
+			final ImageReadParam param = (ImageReadParam) this.param.clone();
+			param.setSourceRegion(srcRect);
+			param.setDestinationOffset(new Point());
+			reader = checkOutReader();
+			reads.incrementAndGet();
+			raster = reader.read(imageIndex, param).getRaster();
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		} catch (CloneNotSupportedException e) {
+			throw new RuntimeException(e);
+		} finally {
+			if (reader != null) {
+				checkInReader(reader);
+			}
+		}
+		savedReads.addAndGet(block.width * block.height - 1);
+
+		final Raster[] tiles = new Raster[block.width * block.height];
+		for (int ty = block.y, k = 0; ty < block.y + block.height; ty++) {
+			for (int tx = block.x; tx < block.x + block.width; tx++, k++) {
+				final Point org = new Point(tileXToX(tx), tileYToY(ty));
+				final Rectangle tileRect = new Rectangle(org.x, org.y,
+						tileWidth, tileHeight).intersection(blockRect);
+				final WritableRaster tile = Raster.createWritableRaster(
+						sampleModel, org);
+				tile.setRect(raster.createChild(tileRect.x - blockRect.x,
+						tileRect.y - blockRect.y, tileRect.width,
+						tileRect.height, tileRect.x, tileRect.y, null));
+				addTileToCache(tx, ty, tile);
+				tiles[k] = tile;
+			}
+		}
+		return tiles;
+	}
+
 	/**
 	 * Throws an IllegalArgumentException since the image has no image sources.
 	 * 
@@ -665,6 +1103,25 @@ final class ImageReadOpImageMT extends OpImage {
 	 *                if <code>propertyName</code> is <code>null</code>.
 	 */
 	public Object getProperty(String name) {
+		// Reads counters
+		if (ImageReadDescriptorMT.PROPERTY_NAME_READS.equalsIgnoreCase(name)) {
+			return Long.valueOf(reads.get());
+		} else if (ImageReadDescriptorMT.PROPERTY_NAME_SAVED_READS
+				.equalsIgnoreCase(name)) {
+			return Long.valueOf(savedReads.get());
+		}
+
+		// Reader pool statistics
+		if (readerPool != null) {
+			if (ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL_SIZE
+					.equalsIgnoreCase(name)) {
+				return Integer.valueOf(readerPool.getNumCreated());
+			} else if (ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL_REUSES
+					.equalsIgnoreCase(name)) {
+				return Long.valueOf(readerPool.getNumReuses());
+			}
+		}
+
 		// Attempt to get property from superclass method.
 		Object property = super.getProperty(name);
 
@@ -680,11 +1137,14 @@ final class ImageReadOpImageMT extends OpImage {
 
 				// Lock the class to avoid a race condition here
 				// and with computeTile().
-				synchronized (reader) {
+				synchronized (readerLock) {
 					// First re-check the flag in case another thread
 					// got here first.
 					if (readThumbnails) {
+						ImageReader reader = null;
 						try {
+							reader = checkOutReader();
+
 							// Get number of thumbnails.
 							int numThumbnails = reader
 									.getNumThumbnails(imageIndex);
@@ -717,17 +1177,21 @@ final class ImageReadOpImageMT extends OpImage {
 							// Unset thumbnail flag to avert subsequent
 							// reading attempts in case this one failed.
 							readThumbnails = false;
+
+							if (reader != null) {
+								checkInReader(reader);
+							}
 						}
 					}
 				}
-			} else if (!reader.isIgnoringMetadata()
+			} else if (!ignoreMetadata
 					&& ((!streamMetadataRead && name
 							.equalsIgnoreCase(ImageReadDescriptor.PROPERTY_NAME_METADATA_STREAM)) || (!imageMetadataRead && name
 							.equalsIgnoreCase(ImageReadDescriptor.PROPERTY_NAME_METADATA_IMAGE)))) {
 
 				// Lock the class to avoid a race condition here
 				// and with computeTile().
-				synchronized (reader) {
+				synchronized (readerLock) {
 
 					// Set flag to indicate stream or image metadata.
 					boolean isStreamMetadata = name
@@ -742,7 +1206,10 @@ final class ImageReadOpImageMT extends OpImage {
 								: ImageReadDescriptor.PROPERTY_NAME_METADATA_IMAGE;
 
 						IIOMetadata metadata = null;
+						ImageReader reader = null;
 						try {
+							reader = checkOutReader();
+
 							// Read metadata.
 							metadata = isStreamMetadata ? reader
 									.getStreamMetadata() : reader
@@ -771,6 +1238,10 @@ final class ImageReadOpImageMT extends OpImage {
 							} else {
 								imageMetadataRead = true;
 							}
+
+							if (reader != null) {
+								checkInReader(reader);
+							}
 						}
 					}
 				}
@@ -782,7 +1253,7 @@ final class ImageReadOpImageMT extends OpImage {
 
 	/**
 	 * Closes an <code>ImageInputStream</code> passed in, if any. Same thing
-	 * for a reader.
+	 * for a reader. A pool of readers is left untouched.
 	 */
 	public void dispose() {
 		if (streamToClose != null) {
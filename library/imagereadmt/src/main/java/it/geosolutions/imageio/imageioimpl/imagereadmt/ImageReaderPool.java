@@ -0,0 +1,284 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2009, GeoSolutions
+ *    All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of GeoSolutions nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY GeoSolutions ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GeoSolutions BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package it.geosolutions.imageio.imageioimpl.imagereadmt;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.LinkedList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.imageio.IIOException;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * A bounded pool of {@link ImageReader}s, all reading the same input.
+ * 
+ * <p>
+ * Most of the <code>ImageReader</code>s are not thread safe, therefore
+ * sharing a single instance among the threads computing the tiles of an
+ * image either serializes the reads or corrupts the reader state. A pool
+ * gives each thread its own reader: {@link #checkOut()} returns an idle reader,
+ * creating a new one through the provided {@link ImageReaderSpi} and
+ * {@link InputFactory} as long as less than <code>maxReaders</code> readers
+ * exist, and waits for a {@link #checkIn(ImageReader)} otherwise.
+ * 
+ * <p>
+ * A pool can be provided as the <i>Input</i> parameter of the "ImageReadMT"
+ * operation, in which case each tile is read with a reader checked out from
+ * the pool.
+ */
+public final class ImageReaderPool {
+
+	/**
+	 * Creates a new input for each reader of the pool.
+	 */
+	public interface InputFactory {
+
+		/**
+		 * Creates a new input, such as a <code>File</code> or a new
+		 * <code>ImageInputStream</code>, which is not shared with other
+		 * readers.
+		 * 
+		 * @return a new input.
+		 * @throws IOException
+		 */
+		Object createInput() throws IOException;
+	}
+
+	/** The provider of the pooled readers */
+	private final ImageReaderSpi readerSpi;
+
+	/** The factory of the inputs of the pooled readers */
+	private final InputFactory inputFactory;
+
+	/** The maximum number of readers */
+	private final int maxReaders;
+
+	/** The permits to check out a reader */
+	private final Semaphore permits;
+
+	/** The readers which are not checked out */
+	private final LinkedList<ImageReader> idleReaders = new LinkedList<ImageReader>();
+
+	/** The number of readers created so far */
+	private final AtomicInteger numCreated = new AtomicInteger();
+
+	/** The number of check outs so far */
+	private final AtomicLong numCheckOuts = new AtomicLong();
+
+	/** The number of check outs served by an idle reader so far */
+	private final AtomicLong numReuses = new AtomicLong();
+
+	private boolean disposed;
+
+	/**
+	 * Creates a pool of readers.
+	 * 
+	 * @param readerSpi
+	 *            the {@link ImageReaderSpi} creating the readers.
+	 * @param inputFactory
+	 *            the {@link InputFactory} creating the input of each reader.
+	 * @param maxReaders
+	 *            the maximum number of readers of the pool.
+	 */
+	public ImageReaderPool(final ImageReaderSpi readerSpi,
+			final InputFactory inputFactory, final int maxReaders) {
+		if (readerSpi == null)
+			throw new IllegalArgumentException("readerSpi == null");
+		if (inputFactory == null)
+			throw new IllegalArgumentException("inputFactory == null");
+		if (maxReaders < 1)
+			throw new IllegalArgumentException("Invalid maxReaders: "
+					+ maxReaders);
+		this.readerSpi = readerSpi;
+		this.inputFactory = inputFactory;
+		this.maxReaders = maxReaders;
+		this.permits = new Semaphore(maxReaders, true);
+	}
+
+	/**
+	 * Checks out a reader, waiting for one to be checked in if the pool is
+	 * exhausted. The reader must be returned through
+	 * {@link #checkIn(ImageReader)} once done.
+	 * 
+	 * @return a reader whose input has been set.
+	 * @throws IOException
+	 *             if the reader or its input cannot be created.
+	 */
+	public ImageReader checkOut() throws IOException {
+		try {
+			permits.acquire();
+		} catch (InterruptedException e) {
+			final InterruptedIOException ioe = new InterruptedIOException(
+					"Interrupted while waiting for a reader");
+			ioe.initCause(e);
+			throw ioe;
+		}
+		ImageReader reader = null;
+		try {
+			synchronized (idleReaders) {
+				if (disposed)
+					throw new IllegalStateException("The pool has been disposed");
+				reader = idleReaders.poll();
+			}
+			numCheckOuts.incrementAndGet();
+			if (reader != null) {
+				numReuses.incrementAndGet();
+			} else {
+				reader = createReader();
+				numCreated.incrementAndGet();
+			}
+			return reader;
+		} finally {
+			if (reader == null)
+				permits.release();
+		}
+	}
+
+	/**
+	 * Returns a reader to the pool.
+	 * 
+	 * @param reader
+	 *            a reader obtained through {@link #checkOut()}.
+	 */
+	public void checkIn(final ImageReader reader) {
+		if (reader == null)
+			throw new IllegalArgumentException("reader == null");
+		boolean dispose;
+		synchronized (idleReaders) {
+			dispose = disposed;
+			if (!dispose)
+				idleReaders.addFirst(reader);
+		}
+		if (dispose)
+			disposeReader(reader);
+		permits.release();
+	}
+
+	/**
+	 * Disposes the idle readers of the pool and closes their inputs. Readers
+	 * which are checked out are disposed as soon as they get checked in.
+	 */
+	public void dispose() {
+		synchronized (idleReaders) {
+			disposed = true;
+			while (!idleReaders.isEmpty())
+				disposeReader(idleReaders.removeFirst());
+		}
+	}
+
+	private ImageReader createReader() throws IOException {
+		Object input = inputFactory.createInput();
+		if (input == null)
+			throw new IIOException("The input factory returned a null input");
+		if (!isInputSupported(input)) {
+			final ImageInputStream stream = ImageIO
+					.createImageInputStream(input);
+			if (stream == null)
+				throw new IIOException("Unable to create an input stream for "
+						+ input);
+			input = stream;
+		}
+		final ImageReader reader = readerSpi.createReaderInstance();
+		reader.setInput(input, false, false);
+		return reader;
+	}
+
+	private boolean isInputSupported(final Object input) {
+		final Class<?>[] inputTypes = readerSpi.getInputTypes();
+		for (int i = 0; i < inputTypes.length; i++) {
+			if (inputTypes[i].isInstance(input))
+				return true;
+		}
+		return false;
+	}
+
+	private static void disposeReader(final ImageReader reader) {
+		final Object input = reader.getInput();
+		reader.dispose();
+		if (input instanceof ImageInputStream) {
+			try {
+				((ImageInputStream) input).close();
+			} catch (IOException e) {
+				// Ignore it.
+			}
+		}
+	}
+
+	/**
+	 * Returns the {@link ImageReaderSpi} creating the readers of this pool.
+	 */
+	public ImageReaderSpi getReaderSpi() {
+		return readerSpi;
+	}
+
+	/**
+	 * Returns the maximum number of readers of this pool.
+	 */
+	public int getMaxReaders() {
+		return maxReaders;
+	}
+
+	/**
+	 * Returns the number of readers created so far.
+	 */
+	public int getNumCreated() {
+		return numCreated.get();
+	}
+
+	/**
+	 * Returns the number of readers which are currently idle.
+	 */
+	public int getNumIdle() {
+		synchronized (idleReaders) {
+			return idleReaders.size();
+		}
+	}
+
+	/**
+	 * Returns the number of check outs so far.
+	 */
+	public long getNumCheckOuts() {
+		return numCheckOuts.get();
+	}
+
+	/**
+	 * Returns the number of check outs which have been served by reusing an
+	 * idle reader so far.
+	 */
+	public long getNumReuses() {
+		return numReuses.get();
+	}
+}
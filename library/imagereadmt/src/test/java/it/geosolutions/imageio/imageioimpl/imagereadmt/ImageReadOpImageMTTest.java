@@ -0,0 +1,169 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2009, GeoSolutions
+ *    All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of GeoSolutions nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY GeoSolutions ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GeoSolutions BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package it.geosolutions.imageio.imageioimpl.imagereadmt;
+
+import it.geosolutions.imageio.imageioimpl.EnhancedImageReadParam;
+
+import java.awt.Point;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.imageio.stream.ImageInputStream;
+import javax.media.jai.ImageLayout;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageReadOpImageMTTest {
+
+	private static final int SIZE = 64;
+
+	private static final int TILE_SIZE = 16;
+
+	private static File createImage() throws IOException {
+		final BufferedImage image = new BufferedImage(SIZE, SIZE,
+				BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < SIZE; y++)
+			for (int x = 0; x < SIZE; x++)
+				image.getRaster().setSample(x, y, 0, x * 3 + y);
+		final File file = File.createTempFile("tiles", ".png");
+		file.deleteOnExit();
+		ImageIO.write(image, "png", file);
+		return file;
+	}
+
+	private static ImageLayout createLayout() {
+		final ImageLayout layout = new ImageLayout();
+		layout.setTileGridXOffset(0).setTileGridYOffset(0)
+				.setTileWidth(TILE_SIZE).setTileHeight(TILE_SIZE);
+		return layout;
+	}
+
+	private static long getLong(ImageReadOpImageMT image, String name) {
+		return ((Long) image.getProperty(name)).longValue();
+	}
+
+	private static void assertTileEquals(Point index, Raster tile) {
+		Assert.assertEquals(index.x * TILE_SIZE, tile.getMinX());
+		Assert.assertEquals(index.y * TILE_SIZE, tile.getMinY());
+		for (int y = tile.getMinY(); y < tile.getMinY() + TILE_SIZE; y++)
+			for (int x = tile.getMinX(); x < tile.getMinX() + TILE_SIZE; x++)
+				Assert.assertEquals((x * 3 + y) & 0xFF, tile.getSample(x, y, 0));
+	}
+
+	@Test
+	public void testMergedReads() throws IOException {
+		final ImageReader reader = ImageIO.getImageReadersByFormatName("png")
+				.next();
+		final ImageInputStream stream = ImageIO
+				.createImageInputStream(createImage());
+		reader.setInput(stream);
+		final ImageReadOpImageMT image = new ImageReadOpImageMT(createLayout(),
+				null, new EnhancedImageReadParam(), reader, 0, false, stream,
+				false);
+		try {
+			final String[] names = image.getPropertyNames();
+			Assert.assertTrue(Arrays.asList(names).contains(
+					ImageReadDescriptorMT.PROPERTY_NAME_READS));
+			Assert.assertTrue(Arrays.asList(names).contains(
+					ImageReadDescriptorMT.PROPERTY_NAME_SAVED_READS));
+			Assert.assertEquals(0, getLong(image,
+					ImageReadDescriptorMT.PROPERTY_NAME_READS));
+
+			// all the tiles, in a single block
+			final Point[] indices = new Point[(SIZE / TILE_SIZE)
+					* (SIZE / TILE_SIZE)];
+			for (int i = 0; i < indices.length; i++)
+				indices[i] = new Point(i % (SIZE / TILE_SIZE), i
+						/ (SIZE / TILE_SIZE));
+			final Raster[] tiles = image.getTiles(indices);
+			for (int i = 0; i < indices.length; i++)
+				assertTileEquals(indices[i], tiles[i]);
+			Assert.assertEquals(1, getLong(image,
+					ImageReadDescriptorMT.PROPERTY_NAME_READS));
+			Assert.assertEquals(indices.length - 1, getLong(image,
+					ImageReadDescriptorMT.PROPERTY_NAME_SAVED_READS));
+
+			// cached tiles are not read again
+			image.getTiles(indices);
+			Assert.assertEquals(1, getLong(image,
+					ImageReadDescriptorMT.PROPERTY_NAME_READS));
+		} finally {
+			image.dispose();
+		}
+	}
+
+	@Test
+	public void testBlocksReadInParallel() throws IOException {
+		final File file = createImage();
+		final ImageReaderSpi spi = ImageIO.getImageReadersByFormatName("png")
+				.next().getOriginatingProvider();
+		final ImageReaderPool pool = new ImageReaderPool(spi,
+				new ImageReaderPool.InputFactory() {
+					public Object createInput() throws IOException {
+						return file;
+					}
+				}, 2);
+		final ImageReader reader = pool.checkOut();
+		final ImageReadOpImageMT image;
+		try {
+			image = new ImageReadOpImageMT(createLayout(), null,
+					new EnhancedImageReadParam(), pool, reader, 0, false,
+					false, null, null);
+		} finally {
+			pool.checkIn(reader);
+		}
+		try {
+			// a 2x1 block and a 2x2 block, one tile being requested twice
+			final Point[] indices = new Point[] { new Point(0, 0),
+					new Point(1, 0), new Point(2, 2), new Point(3, 2),
+					new Point(2, 3), new Point(3, 3), new Point(1, 0) };
+			final Raster[] tiles = image.getTiles(indices);
+			for (int i = 0; i < indices.length; i++)
+				assertTileEquals(indices[i], tiles[i]);
+			Assert.assertSame(tiles[1], tiles[6]);
+			Assert.assertEquals(2, getLong(image,
+					ImageReadDescriptorMT.PROPERTY_NAME_READS));
+			Assert.assertEquals(4, getLong(image,
+					ImageReadDescriptorMT.PROPERTY_NAME_SAVED_READS));
+			Assert.assertTrue(pool.getNumCreated() <= 2);
+			Assert.assertEquals(pool.getNumCreated(), pool.getNumIdle());
+		} finally {
+			image.dispose();
+			pool.dispose();
+		}
+	}
+}
@@ -0,0 +1,191 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2009, GeoSolutions
+ *    All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of GeoSolutions nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY GeoSolutions ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GeoSolutions BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package it.geosolutions.imageio.imageioimpl.imagereadmt;
+
+import it.geosolutions.imageio.imageioimpl.EnhancedImageReadParam;
+
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.spi.ImageReaderSpi;
+import javax.media.jai.ImageLayout;
+import javax.media.jai.JAI;
+import javax.media.jai.ParameterBlockJAI;
+import javax.media.jai.PlanarImage;
+import javax.media.jai.RenderedOp;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+public class ImageReaderPoolTest {
+
+	private static ImageReaderPool createPool(final File file, int maxReaders) {
+		final ImageReaderSpi spi = ImageIO.getImageReadersByFormatName("png")
+				.next().getOriginatingProvider();
+		return new ImageReaderPool(spi, new ImageReaderPool.InputFactory() {
+			public Object createInput() throws IOException {
+				return file;
+			}
+		}, maxReaders);
+	}
+
+	private static File createImage() throws IOException {
+		final BufferedImage image = new BufferedImage(64, 64,
+				BufferedImage.TYPE_BYTE_GRAY);
+		for (int y = 0; y < 64; y++)
+			for (int x = 0; x < 64; x++)
+				image.getRaster().setSample(x, y, 0, x + y);
+		final File file = File.createTempFile("pool", ".png");
+		file.deleteOnExit();
+		ImageIO.write(image, "png", file);
+		return file;
+	}
+
+	@Test
+	public void testConcurrentReads() throws Exception {
+		final File file = createImage();
+		final ImageReaderPool pool = createPool(file, 2);
+		final Set<ImageReader> inUse = Collections
+				.synchronizedSet(new HashSet<ImageReader>());
+		final ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			final List<Future<Integer>> results = new ArrayList<Future<Integer>>();
+			for (int i = 0; i < 32; i++) {
+				final int row = i;
+				results.add(executor.submit(new Callable<Integer>() {
+					public Integer call() throws Exception {
+						final ImageReader reader = pool.checkOut();
+						try {
+							Assert.assertTrue(inUse.add(reader));
+							final ImageReadParam param = reader
+									.getDefaultReadParam();
+							param.setSourceRegion(new java.awt.Rectangle(0,
+									row, 64, 1));
+							final BufferedImage image = reader.read(0, param);
+							return Integer.valueOf(image.getRaster()
+									.getSample(1, 0, 0));
+						} finally {
+							inUse.remove(reader);
+							pool.checkIn(reader);
+						}
+					}
+				}));
+			}
+			for (int i = 0; i < results.size(); i++)
+				Assert.assertEquals(i + 1, results.get(i).get().intValue());
+		} finally {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+
+		Assert.assertTrue(pool.getNumCreated() <= 2);
+		Assert.assertEquals(pool.getNumCreated(), pool.getNumIdle());
+		Assert.assertEquals(32, pool.getNumCheckOuts());
+		Assert.assertEquals(32 - pool.getNumCreated(), pool.getNumReuses());
+		pool.dispose();
+		Assert.assertEquals(0, pool.getNumIdle());
+	}
+
+	@Test
+	public void testBoundedPool() throws Exception {
+		final ImageReaderPool pool = createPool(createImage(), 1);
+		final ImageReader reader = pool.checkOut();
+		final ExecutorService executor = Executors.newSingleThreadExecutor();
+		try {
+			final Future<ImageReader> waiting = executor
+					.submit(new Callable<ImageReader>() {
+						public ImageReader call() throws Exception {
+							return pool.checkOut();
+						}
+					});
+			Thread.sleep(100);
+			Assert.assertFalse(waiting.isDone());
+			pool.checkIn(reader);
+			Assert.assertSame(reader, waiting.get(10, TimeUnit.SECONDS));
+			Assert.assertEquals(1, pool.getNumCreated());
+			Assert.assertEquals(1, pool.getNumReuses());
+			pool.checkIn(reader);
+		} finally {
+			executor.shutdown();
+			pool.dispose();
+		}
+	}
+
+	@Test
+	public void testImageReadMTOperation() throws Exception {
+		final ImageReaderPool pool = createPool(createImage(), 1);
+		ImageReadDescriptorMT.register(JAI.getDefaultInstance());
+		final ParameterBlockJAI pbj = new ParameterBlockJAI("ImageReadMT");
+		pbj.setParameter("Input", pool);
+		pbj.setParameter("ReadParam", new EnhancedImageReadParam());
+		final ImageLayout layout = new ImageLayout();
+		layout.setTileGridXOffset(0).setTileGridYOffset(0).setTileWidth(16)
+				.setTileHeight(16);
+		final RenderedOp image = JAI.create("ImageReadMT", pbj,
+				new RenderingHints(JAI.KEY_IMAGE_LAYOUT, layout));
+		try {
+			final PlanarImage rendering = image.getRendering();
+			Assert.assertSame(pool, rendering
+					.getProperty(ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL));
+			Assert.assertEquals(16, rendering.getTiles().length);
+			final Raster data = rendering.getData();
+			for (int y = 0; y < 64; y++)
+				for (int x = 0; x < 64; x++)
+					Assert.assertEquals(x + y, data.getSample(x, y, 0));
+
+			// the reader created to set up the rendering is reused to read
+			// the tiles
+			Assert.assertEquals(Integer.valueOf(1), rendering
+					.getProperty(ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL_SIZE));
+			Assert.assertTrue(pool.getNumReuses() > 0);
+			Assert.assertEquals(Long.valueOf(pool.getNumReuses()), rendering
+					.getProperty(ImageReadDescriptorMT.PROPERTY_NAME_READER_POOL_REUSES));
+		} finally {
+			image.dispose();
+			pool.dispose();
+		}
+	}
+}
@@ -0,0 +1,167 @@
+package com.jmatio.io;
+
+import com.jmatio.types.MLArray;
+
+/**
+ * MAT-file directory entry.
+ *
+ * Describes a top level array of a MAT-file: its name, class and dimensions
+ * together with the position of its data element in the file. Entries are
+ * built by {@link MatFileReader#readDirectory(java.io.File, MatFileFilter)}
+ * from the array headers only, without reading the array data.
+ */
+public class MatFileEntry
+{
+    private final String name;
+    private final int attributes;
+    private final int[] dims;
+    private final long offset;
+    private final int size;
+    private final boolean compressed;
+    private final int dataType;
+    private final long dataOffset;
+
+    /**
+     * @param name - array name
+     * @param attributes - array flags
+     * @param dims - array dimensions
+     * @param offset - file position of the data element tag
+     * @param size - number of bytes of the data element, tag excluded
+     * @param compressed - <code>true</code> if the data element is
+     *          <code>miCOMPRESSED</code>
+     * @param dataType - type of the real part data, <code>-1</code> if unknown
+     * @param dataOffset - file position of the real part data, <code>-1</code>
+     *          if the data cannot be read in place
+     */
+    MatFileEntry(String name, int attributes, int[] dims, long offset, int size, boolean compressed,
+                 int dataType, long dataOffset)
+    {
+        this.name = name;
+        this.attributes = attributes;
+        this.dims = dims;
+        this.offset = offset;
+        this.size = size;
+        this.compressed = compressed;
+        this.dataType = dataType;
+        this.dataOffset = dataOffset;
+    }
+
+    /**
+     * Gets array name
+     *
+     * @return
+     */
+    public String getName()
+    {
+        return name;
+    }
+
+    /**
+     * Gets array class, one of the <code>MLArray.mx*_CLASS</code> constants
+     *
+     * @return
+     */
+    public int getType()
+    {
+        return attributes & 0xff;
+    }
+
+    /**
+     * Gets array flags
+     *
+     * @return
+     */
+    public int getAttributes()
+    {
+        return attributes;
+    }
+
+    /**
+     * @return - <code>true</code> if the array is complex
+     */
+    public boolean isComplex()
+    {
+        return ( attributes & MLArray.mtFLAG_COMPLEX ) != 0;
+    }
+
+    /**
+     * Gets array dimensions
+     *
+     * @return
+     */
+    public int[] getDimensions()
+    {
+        return dims.clone();
+    }
+
+    /**
+     * Gets the file position of the data element tag
+     *
+     * @return
+     */
+    public long getOffset()
+    {
+        return offset;
+    }
+
+    /**
+     * Gets the number of bytes of the data element, tag excluded
+     *
+     * @return
+     */
+    public int getSize()
+    {
+        return size;
+    }
+
+    /**
+     * @return - <code>true</code> if the data element is
+     *          <code>miCOMPRESSED</code>
+     */
+    public boolean isCompressed()
+    {
+        return compressed;
+    }
+
+    /**
+     * Gets the type of the real part data, one of the <code>MatDataTypes.mi*</code>
+     * constants
+     *
+     * @return - data type, <code>-1</code> if unknown
+     */
+    int getDataType()
+    {
+        return dataType;
+    }
+
+    /**
+     * Gets the file position of the real part data, which is stored in
+     * column-major order
+     *
+     * @return - data position, <code>-1</code> if the data cannot be read in
+     *          place
+     */
+    long getDataOffset()
+    {
+        return dataOffset;
+    }
+
+    /* (non-Javadoc)
+     * @see java.lang.Object#toString()
+     */
+    public String toString()
+    {
+        StringBuffer sb = new StringBuffer();
+        sb.append(name);
+        sb.append(" (");
+        sb.append(MLArray.typeToString(getType()));
+        sb.append(", offset=" + offset);
+        sb.append(", size=" + size);
+        if ( compressed )
+        {
+            sb.append(", compressed");
+        }
+        sb.append(")");
+        return sb.toString();
+    }
+}
@@ -366,51 +366,29 @@ public class MatFileIncrementalWriter
                 }
                 break;
             case MLArray.mxSPARSE_CLASS:
-                int[] ai;
+                MLSparse sparse = (MLSparse)array;
+                ByteBuffer csc;
                 //write ir
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getIR();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
+                csc = ByteBuffer.allocate( sparse.getMaxNZ() << 2 );
+                csc.asIntBuffer().put( sparse.getIR() );
+                tag = new OSArrayTag(MatDataTypes.miINT32, csc );
                 tag.writeTo( dos );
                 //write jc
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getJC();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
+                csc = ByteBuffer.allocate( ( sparse.getN() + 1 ) << 2 );
+                csc.asIntBuffer().put( sparse.getJC() );
+                tag = new OSArrayTag(MatDataTypes.miINT32, csc );
                 tag.writeTo( dos );
                 //write real
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                
-                Double[] ad = ((MLSparse)array).exportReal();
-                
-                for ( int i = 0; i < ad.length; i++ )
-                {
-                    bufferDOS.writeDouble( ad[i].doubleValue() );
-                }
-                
-                tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
+                csc = ByteBuffer.allocate( sparse.getNZ() << 3 );
+                csc.asDoubleBuffer().put( sparse.getPR() );
+                tag = new OSArrayTag(MatDataTypes.miDOUBLE, csc );
                 tag.writeTo( dos );
                 //write real imaginary
                 if ( array.isComplex() )
                 {
-                    buffer = new ByteArrayOutputStream();
-                    bufferDOS = new DataOutputStream(buffer);
-                    ad = ((MLSparse)array).exportImaginary();
-                    for ( int i = 0; i < ad.length; i++ )
-                    {
-                        bufferDOS.writeDouble( ad[i].doubleValue() );
-                    }
-                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
+                    csc = ByteBuffer.allocate( sparse.getNZ() << 3 );
+                    csc.asDoubleBuffer().put( sparse.getPI() );
+                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, csc );
                     tag.writeTo( dos );
                 }
                 break;
@@ -8,14 +8,18 @@ import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
+import java.lang.ref.SoftReference;
 import java.lang.ref.WeakReference;
 import java.lang.reflect.Method;
+import java.nio.BufferUnderflowException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 import java.security.AccessController;
 import java.security.PrivilegedAction;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.zip.InflaterInputStream;
@@ -52,6 +56,15 @@ import com.jmatio.types.MLUInt8;
  * Map content = mfr.getContent();
  * </pre></code>
  * 
+ * Big files can be opened lazily: only the array headers are scanned and
+ * each array is read the first time it is requested.
+ * <pre><code>
+ * MatFileReader mfr = new MatFileReader();
+ * mfr.setSoftReferenceCache( true );
+ * Map directory = mfr.readDirectory( new File( "mat_file.mat" ), new MatFileFilter() );
+ * MLArray mlArrayRetrived = mfr.getMLArray( "my_array" );
+ * </pre></code>
+ * 
  * @see com.jmatio.io.io.io.MatFileFilter
  * @author Wojciech Gradkowski (<a href="mailto:wgradkowski@gmail.com">wgradkowski@gmail.com</a>)
  */
@@ -71,6 +84,12 @@ public class MatFileReader {
     public static final int HEAP_BYTE_BUFFER = 4;
 
     private final static int DEFAULT_ACCESS_METHOD = HEAP_BYTE_BUFFER;
+
+    /**
+     * Number of bytes read (or inflated) to parse an array header while
+     * building the directory
+     */
+    private final static int ARRAY_HEADER_SIZE = 1024;
     /**
      * MAT-file header
      */
@@ -93,6 +112,22 @@ public class MatFileReader {
      */
     private MatFileFilter filter;
 
+    /**
+     * Arrays found by <code>readDirectory</code>, <code>null</code> if the
+     * file was read eagerly
+     */
+    private Map<String, MatFileEntry> directory;
+
+    /**
+     * Tells if arrays loaded from the directory are softly referenced
+     */
+    private boolean softReferenceCache;
+
+    /**
+     * Softly referenced arrays loaded from the directory
+     */
+    private final Map<String, SoftReference<MLArray>> softCache = new HashMap<String, SoftReference<MLArray>>();
+
     /**
      * Creates instance of <code>MatFileReader</code> and reads MAT-file from
      * location given as <code>fileName</code>.
@@ -212,6 +247,8 @@ public class MatFileReader {
         if (data!=null && !data.isEmpty()){
             data.clear();
         }
+        softCache.clear();
+        directory = null;
     }
 
     private boolean init() throws IOException {
@@ -325,9 +362,9 @@ public class MatFileReader {
             MatFileFilter filter, int policy) throws IOException {
         this.filter = filter;
         // clear the results
-        for (String key : data.keySet()) {
-            data.remove(key);
-        }
+        data.clear();
+        softCache.clear();
+        directory = null;
 
         FileChannel roChannel = null;
         EnhancedRandomAccessFile raFile = null;
@@ -492,8 +529,84 @@ public class MatFileReader {
      *         specified name, or null if the file contains no content for this
      *         name.
      */
-    public MLArray getMLArray(String name) {
-        return data.get(name);
+    public synchronized MLArray getMLArray(String name) {
+        try {
+            return readMLArray(name);
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read array " + name, e);
+        }
+    }
+
+    /**
+     * Returns the array of the specified name, reading it from the file if
+     * it has been found by <code>{@link #readDirectory(File, MatFileFilter)}</code>
+     * and it is not loaded yet.
+     * 
+     * Loaded arrays are kept in memory, or only softly referenced if
+     * <code>{@link #setSoftReferenceCache(boolean)}</code> was enabled.
+     * 
+     * @param name
+     *                array name
+     * @return - the <code>MLArray</code> to which this file maps the
+     *         specified name, or null if the file contains no content for this
+     *         name.
+     * @throws IOException
+     *                 if the array cannot be read
+     */
+    public synchronized MLArray readMLArray(String name) throws IOException {
+        MLArray array = data.get(name);
+        if (array != null || directory == null) {
+            return array;
+        }
+        final MatFileEntry entry = directory.get(name);
+        if (entry == null) {
+            return null;
+        }
+        if (softReferenceCache) {
+            final SoftReference<MLArray> reference = softCache.get(name);
+            array = reference != null ? reference.get() : null;
+            if (array != null) {
+                return array;
+            }
+        }
+        array = load(entry);
+        if (softReferenceCache) {
+            softCache.put(name, new SoftReference<MLArray>(array));
+        } else {
+            data.put(name, array);
+        }
+        return array;
+    }
+
+    /**
+     * Tells whether arrays loaded from the directory are only softly
+     * referenced, so that they can be garbage collected and read again when
+     * needed.
+     * 
+     * @param softReferenceCache
+     *                <code>true</code> to softly reference loaded arrays
+     */
+    public synchronized void setSoftReferenceCache(boolean softReferenceCache) {
+        this.softReferenceCache = softReferenceCache;
+    }
+
+    /**
+     * @return - <code>true</code> if loaded arrays are softly referenced
+     */
+    public synchronized boolean isSoftReferenceCache() {
+        return softReferenceCache;
+    }
+
+    /**
+     * Returns the arrays found by
+     * <code>{@link #readDirectory(File, MatFileFilter)}</code>, mapped with
+     * their names.
+     * 
+     * @return - a <code>Map</code> of <code>MatFileEntry</code> objects or
+     *         <code>null</code> if the file was not read lazily
+     */
+    public synchronized Map<String, MatFileEntry> getDirectory() {
+        return directory != null ? Collections.unmodifiableMap(directory) : null;
     }
 
     /**
@@ -501,11 +614,459 @@ public class MatFileReader {
      * MAT-file.
      * 
      * MLArrays are mapped with MLArrays' names
+     * <p>
+     * If the file was read with <code>{@link #readDirectory(File, MatFileFilter)}</code>
+     * all the arrays of the directory are read.
      * 
      * @return - a <code>Map</code> of MLArrays mapped with their names.
      */
-    public Map<String, MLArray> getContent() {
-        return data;
+    public synchronized Map<String, MLArray> getContent() {
+        if (directory == null) {
+            return data;
+        }
+        final Map<String, MLArray> content = new LinkedHashMap<String, MLArray>();
+        for (String name : directory.keySet()) {
+            content.put(name, getMLArray(name));
+        }
+        return content;
+    }
+
+    /**
+     * Scans the MAT-file and builds a directory of the arrays it contains,
+     * without reading their data. Only the header of each array is read, the
+     * beginning of <code>miCOMPRESSED</code> elements being inflated for that
+     * purpose. Arrays are read afterwards, the first time they are requested
+     * through <code>{@link #getMLArray(String)}</code>.
+     * 
+     * @param file
+     *                a valid MAT-file file to be read
+     * @param filter
+     *                the array filter applied to the directory
+     * @return the same as <code>{@link #getDirectory()}</code>
+     * @throws IOException
+     *                 if error occurs during file processing
+     */
+    public synchronized Map<String, MatFileEntry> readDirectory(File file,
+            MatFileFilter filter) throws IOException {
+        this.filter = filter;
+        data.clear();
+        softCache.clear();
+        directory = new LinkedHashMap<String, MatFileEntry>();
+        inputFile = file;
+
+        final EnhancedRandomAccessFile raFile = new EnhancedRandomAccessFile(file, "r");
+        try {
+            final FileChannel roChannel = raFile.getChannel();
+            final long fileSize = roChannel.size();
+            final ByteBuffer buf = ByteBuffer.allocate(128);
+            readFully(roChannel, buf, 0);
+            buf.flip();
+            readHeader(buf);
+
+            final ByteBuffer tagBuf = ByteBuffer.allocate(8);
+            tagBuf.order(byteOrder);
+            long position = 128;
+            while (position + 8 <= fileSize) {
+                tagBuf.clear();
+                readFully(roChannel, tagBuf, position);
+                tagBuf.flip();
+                final int type = tagBuf.getInt();
+                final int size = tagBuf.getInt();
+                if (size < 0 || position + 8 + size > fileSize) {
+                    throw new MatlabIOException("Data element at " + position
+                            + " exceeds the end of file");
+                }
+                ByteBuffer header;
+                switch (type) {
+                case MatDataTypes.miCOMPRESSED:
+                    header = inflateHeader(roChannel, position + 8, size);
+                    if (new ISMatTag(header).type != MatDataTypes.miMATRIX) {
+                        throw new MatlabIOException("Incorrect compressed data tag at " + position);
+                    }
+                    break;
+                case MatDataTypes.miMATRIX:
+                    header = ByteBuffer.allocate(Math.min(size, ARRAY_HEADER_SIZE));
+                    readFully(roChannel, header, position + 8);
+                    header.flip();
+                    header.order(byteOrder);
+                    break;
+                default:
+                    throw new MatlabIOException("Incorrect data tag: " + type);
+                }
+
+                final int[] flags = readFlags(header);
+                final int attributes = (flags.length != 0) ? flags[0] : 0;
+                final int[] dims = readDimension(header);
+                final String name = readName(header);
+                // plain numeric data can be read in place, remember where it is
+                int dataType = -1;
+                long dataOffset = -1;
+                if (type == MatDataTypes.miMATRIX
+                        && isNumeric(attributes & 0xff)
+                        && header.remaining() >= 8) {
+                    final int tmp = header.getInt();
+                    if (tmp >> 16 == 0) {
+                        dataType = tmp;
+                        header.getInt();
+                        dataOffset = position + 8 + header.position();
+                    }
+                }
+                if (filter.matches(name)) {
+                    directory.put(name, new MatFileEntry(name, attributes, dims,
+                            position, size, type == MatDataTypes.miCOMPRESSED,
+                            dataType, dataOffset));
+                }
+                position += 8 + size;
+            }
+        } catch (BufferUnderflowException e) {
+            throw new MatlabIOException("Array header longer than "
+                    + ARRAY_HEADER_SIZE + " bytes");
+        } finally {
+            try {
+                raFile.close();
+            } catch (Throwable t) {
+
+            }
+        }
+        return getDirectory();
+    }
+
+    /**
+     * Reads a region of a two dimensional numeric array found by
+     * <code>{@link #readDirectory(File, MatFileFilter)}</code>, optionally
+     * subsampling it.
+     * <p>
+     * The returned array has the same class of the stored one and contains
+     * the elements
+     * <code>A(row + i * rowStep, column + j * columnStep)</code>. When the
+     * array is not compressed (see
+     * <code>{@link MatFileWriter#setCompressed(boolean)}</code>) only the
+     * column runs covering the region are read from the file, otherwise the
+     * whole array is read and the region is copied from it.
+     * 
+     * @param name
+     *                array name
+     * @param row
+     *                first row of the region
+     * @param column
+     *                first column of the region
+     * @param rows
+     *                number of rows of the region
+     * @param columns
+     *                number of columns of the region
+     * @param rowStep
+     *                row subsampling factor
+     * @param columnStep
+     *                column subsampling factor
+     * @return - the region or <code>null</code> if the directory contains no
+     *         array for this name
+     * @throws IOException
+     *                 if the array is not a two dimensional numeric array or
+     *                 it cannot be read
+     */
+    public synchronized MLNumericArray<?> readRegion(String name, int row,
+            int column, int rows, int columns, int rowStep, int columnStep)
+            throws IOException {
+        if (directory == null) {
+            throw new IllegalStateException("The array directory has not been read");
+        }
+        final MatFileEntry entry = directory.get(name);
+        if (entry == null) {
+            return null;
+        }
+        final int[] dims = entry.getDimensions();
+        if (dims.length != 2 || !isNumeric(entry.getType())) {
+            throw new MatlabIOException("Cannot read a region of " + entry);
+        }
+        if (row < 0 || column < 0 || rows < 1 || columns < 1
+                || row + rows > dims[0] || column + columns > dims[1]) {
+            throw new IllegalArgumentException("Region (" + row + "," + column
+                    + ") " + rows + "x" + columns + " is out of "
+                    + dims[0] + "x" + dims[1]);
+        }
+        if (rowStep < 1 || columnStep < 1) {
+            throw new IllegalArgumentException("Illegal subsampling: "
+                    + rowStep + "x" + columnStep);
+        }
+        final int outRows = (rows - 1) / rowStep + 1;
+        final int outColumns = (columns - 1) / columnStep + 1;
+        final MLNumericArray<?> region = createNumericArray(name, new int[] {
+                outRows, outColumns }, entry.getAttributes());
+
+        long imaginaryOffset = -1;
+        int imaginaryType = -1;
+        final EnhancedRandomAccessFile raFile = entry.getDataOffset() >= 0 ? new EnhancedRandomAccessFile(
+                inputFile, "r") : null;
+        try {
+            if (raFile != null && entry.isComplex()) {
+                // the imaginary part follows the padded real part
+                final ByteBuffer tag = ByteBuffer.allocate(8);
+                tag.order(byteOrder);
+                readFully(raFile.getChannel(), tag, entry.getDataOffset() - 8);
+                tag.flip();
+                tag.getInt();
+                final int size = tag.getInt();
+                final long position = entry.getDataOffset() + size
+                        + (8 - size % 8) % 8;
+                tag.clear();
+                readFully(raFile.getChannel(), tag, position);
+                tag.flip();
+                final int tmp = tag.getInt();
+                if (tmp >> 16 == 0) {
+                    imaginaryType = tmp;
+                    imaginaryOffset = position + 8;
+                }
+            }
+            if (raFile == null || (entry.isComplex() && imaginaryOffset < 0)) {
+                // copy the region from the whole array
+                final MLNumericArray<?> array = (MLNumericArray<?>) readMLArray(name);
+                copyRegion(array.getRealByteBuffer(), region
+                        .getRealByteBuffer(), region.getBytesAllocated(),
+                        dims[0], row, column, outRows, outColumns, rowStep,
+                        columnStep);
+                if (region.isComplex()) {
+                    copyRegion(array.getImaginaryByteBuffer(), region
+                            .getImaginaryByteBuffer(), region
+                            .getBytesAllocated(), dims[0], row, column,
+                            outRows, outColumns, rowStep, columnStep);
+                }
+            } else {
+                readRegion(raFile.getChannel(), entry.getDataOffset(), entry
+                        .getDataType(), region.getRealByteBuffer(), region,
+                        dims[0], row, column, outRows, outColumns, rowStep,
+                        columnStep);
+                if (region.isComplex()) {
+                    readRegion(raFile.getChannel(), imaginaryOffset,
+                            imaginaryType, region.getImaginaryByteBuffer(),
+                            region, dims[0], row, column, outRows, outColumns,
+                            rowStep, columnStep);
+                }
+            }
+        } finally {
+            if (raFile != null) {
+                try {
+                    raFile.close();
+                } catch (Throwable t) {
+
+                }
+            }
+        }
+        return region;
+    }
+
+    /**
+     * Reads a region of column-major data stored in the file, one positional
+     * read per column.
+     * 
+     * @param channel
+     *                the file channel
+     * @param offset
+     *                position of the data
+     * @param dataType
+     *                type of the stored data
+     * @param dest
+     *                the destination buffer
+     * @param storage
+     *                tells how data should be stored in <code>dest</code>
+     * @param m
+     *                number of rows of the stored array
+     */
+    private void readRegion(final FileChannel channel, final long offset,
+            final int dataType, final ByteBuffer dest,
+            final ByteStorageSupport<?> storage, final int m, final int row,
+            final int column, final int outRows, final int outColumns,
+            final int rowStep, final int columnStep) throws IOException {
+        final int size = MatDataTypes.sizeOf(dataType);
+        final int bytes = storage.getBytesAllocated();
+        final ByteBuffer span = ByteBuffer.allocate(((outRows - 1) * rowStep + 1) * size);
+        span.order(byteOrder);
+        final MatFileInputStream mfis = new MatFileInputStream(span, dataType);
+        final ByteBuffer out = dest.duplicate();
+        out.clear();
+        for (int j = 0; j < outColumns; j++) {
+            span.clear();
+            readFully(channel, span, offset
+                    + ((long) (column + j * columnStep) * m + row) * size);
+            span.flip();
+            // readToByteBuffer rewinds the destination, hand it a slice
+            if (rowStep == 1) {
+                out.limit(out.position() + outRows * bytes);
+                mfis.readToByteBuffer(out.slice(), outRows, storage);
+                out.position(out.limit());
+            } else {
+                for (int i = 0; i < outRows; i++) {
+                    span.position(i * rowStep * size);
+                    out.limit(out.position() + bytes);
+                    mfis.readToByteBuffer(out.slice(), 1, storage);
+                    out.position(out.limit());
+                }
+            }
+        }
+    }
+
+    /**
+     * Copies a region of column-major data between array buffers.
+     * 
+     * @param m
+     *                number of rows of the source array
+     */
+    private static void copyRegion(final ByteBuffer src, final ByteBuffer dest,
+            final int bytes, final int m, final int row, final int column,
+            final int outRows, final int outColumns, final int rowStep,
+            final int columnStep) {
+        final ByteBuffer in = src.duplicate();
+        final ByteBuffer out = dest.duplicate();
+        out.clear();
+        final byte[] run = new byte[(rowStep == 1 ? outRows : 1) * bytes];
+        for (int j = 0; j < outColumns; j++) {
+            final int start = (column + j * columnStep) * m + row;
+            if (rowStep == 1) {
+                in.position(start * bytes);
+                in.get(run);
+                out.put(run);
+            } else {
+                for (int i = 0; i < outRows; i++) {
+                    in.position((start + i * rowStep) * bytes);
+                    in.get(run);
+                    out.put(run);
+                }
+            }
+        }
+    }
+
+    /**
+     * Tells if arrays of the given class are stored in a
+     * <code>MLNumericArray</code> backed by a <code>ByteBuffer</code>.
+     */
+    private static boolean isNumeric(final int type) {
+        switch (type) {
+        case MLArray.mxDOUBLE_CLASS:
+        case MLArray.mxSINGLE_CLASS:
+        case MLArray.mxUINT8_CLASS:
+        case MLArray.mxINT8_CLASS:
+        case MLArray.mxINT32_CLASS:
+        case MLArray.mxINT64_CLASS:
+        case MLArray.mxUINT64_CLASS:
+            return true;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Creates an empty numeric array of the class given by
+     * <code>attributes</code>.
+     */
+    private static MLNumericArray<?> createNumericArray(final String name,
+            final int[] dims, final int attributes) throws IOException {
+        final int type = attributes & 0xff;
+        switch (type) {
+        case MLArray.mxDOUBLE_CLASS:
+            return new MLDouble(name, dims, type, attributes);
+        case MLArray.mxSINGLE_CLASS:
+            return new MLSingle(name, dims, type, attributes);
+        case MLArray.mxUINT8_CLASS:
+            return new MLUInt8(name, dims, type, attributes);
+        case MLArray.mxINT8_CLASS:
+            return new MLInt8(name, dims, type, attributes);
+        case MLArray.mxINT32_CLASS:
+            return new MLInt32(name, dims, type, attributes);
+        case MLArray.mxINT64_CLASS:
+            return new MLInt64(name, dims, type, attributes);
+        case MLArray.mxUINT64_CLASS:
+            return new MLUInt64(name, dims, type, attributes);
+        default:
+            throw new MatlabIOException("Not a numeric array type: "
+                    + MLArray.typeToString(type));
+        }
+    }
+
+    /**
+     * Reads a top level array found by
+     * <code>{@link #readDirectory(File, MatFileFilter)}</code>.
+     * 
+     * @param entry
+     *                the directory entry
+     * @return the array
+     * @throws IOException
+     *                 if the array cannot be read
+     */
+    private MLArray load(MatFileEntry entry) throws IOException {
+        final EnhancedRandomAccessFile raFile = new EnhancedRandomAccessFile(inputFile, "r");
+        try {
+            final FileChannel roChannel = raFile.getChannel();
+            ByteBuffer buf;
+            if (entry.isCompressed()) {
+                buf = inflate(new _ChannelInputStream(roChannel,
+                        entry.getOffset() + 8, entry.getSize()), entry.getSize());
+                ISMatTag tag = new ISMatTag(buf);
+                if (tag.type != MatDataTypes.miMATRIX) {
+                    throw new MatlabIOException("Incorrect data tag: " + tag);
+                }
+            } else {
+                buf = ByteBuffer.allocate(entry.getSize());
+                readFully(roChannel, buf, entry.getOffset() + 8);
+                buf.flip();
+                buf.order(byteOrder);
+            }
+            return readMatrix(buf, false);
+        } finally {
+            try {
+                raFile.close();
+            } catch (Throwable t) {
+
+            }
+        }
+    }
+
+    /**
+     * Inflates the first <code>ARRAY_HEADER_SIZE</code> bytes of a
+     * <code>miCOMPRESSED</code> element.
+     * 
+     * @param channel
+     *                the file channel
+     * @param position
+     *                position of the compressed data
+     * @param numOfBytes
+     *                number of compressed bytes
+     * @return - new <code>ByteBuffer</code> positioned after the
+     *         <code>miMATRIX</code> tag
+     * @throws IOException
+     */
+    private ByteBuffer inflateHeader(final FileChannel channel,
+            final long position, final int numOfBytes) throws IOException {
+        final InflaterInputStream iis = new InflaterInputStream(
+                new _ChannelInputStream(channel, position, numOfBytes));
+        final byte[] header = new byte[ARRAY_HEADER_SIZE];
+        int length = 0;
+        try {
+            int i;
+            while (length < header.length
+                    && (i = iis.read(header, length, header.length - length)) > 0) {
+                length += i;
+            }
+        } catch (IOException e) {
+            throw new MatlabIOException("Could not decompress data: " + e);
+        } finally {
+            iis.close();
+        }
+        final ByteBuffer out = ByteBuffer.wrap(header, 0, length);
+        out.order(byteOrder);
+        return out;
+    }
+
+    /**
+     * Reads from the channel until the buffer is full.
+     */
+    private static void readFully(final FileChannel channel,
+            final ByteBuffer buf, long position) throws IOException {
+        while (buf.hasRemaining()) {
+            final int read = channel.read(buf, position);
+            if (read < 0) {
+                throw new MatlabIOException("Unexpected end of file");
+            }
+            position += read;
+        }
     }
 
     private static class _ByteArrayOutputStream extends ByteArrayOutputStream {
@@ -551,6 +1112,45 @@ public class MatFileReader {
         }
     }
 
+    /**
+     * Reads a range of a file channel with positional reads, leaving the
+     * channel position untouched.
+     */
+    private static class _ChannelInputStream extends InputStream {
+        private final FileChannel channel;
+
+        private long position;
+
+        private long limit;
+
+        public _ChannelInputStream(final FileChannel channel,
+                final long position, final long limit) {
+            this.channel = channel;
+            this.position = position;
+            this.limit = limit;
+        }
+
+        @Override
+        public int read() throws IOException {
+            final byte[] b = new byte[1];
+            return read(b, 0, 1) == 1 ? b[0] & 0xff : -1;
+        }
+
+        public int read(byte[] bytes, int off, int len) throws IOException {
+            if (!(limit > 0)) {
+                return -1;
+            }
+            len = (int) Math.min(len, limit);
+            final int read = channel.read(ByteBuffer.wrap(bytes, off, len),
+                    position);
+            if (read > 0) {
+                position += read;
+                limit -= read;
+            }
+            return read;
+        }
+    }
+
     /**
      * Decompresses (inflates) bytes from input stream. Stream marker is being
      * set at +<code>numOfBytes</code> position of the stream.
@@ -570,10 +1170,25 @@ public class MatFileReader {
                     "Compressed buffer length miscalculated!");
         }
 
+        return inflate(new _InputStreamFromBuffer(buf, numOfBytes), numOfBytes);
+    }
+
+    /**
+     * Decompresses (inflates) the bytes of an input stream.
+     * 
+     * @param is -
+     *                input stream of compressed bytes
+     * @param numOfBytes -
+     *                number of compressed bytes
+     * @return - new <code>ByteBuffer</code> with inflated block of data
+     * @throws IOException
+     *                 when error occurs while reading or inflating the stream.
+     */
+    private ByteBuffer inflate(final InputStream is, final int numOfBytes)
+            throws IOException {
         // instead of standard Inlater class instance I use an inflater input
         // stream... gives a great boost to the performance
-        InflaterInputStream iis = new InflaterInputStream(
-                new _InputStreamFromBuffer(buf, numOfBytes));
+        InflaterInputStream iis = new InflaterInputStream(is);
 
         // process data decompression
         byte[] result = new byte[INFLATER_BUFFER_SIZE];
@@ -852,38 +1467,24 @@ public class MatFileReader {
             mlArray = mlchar;
             break;
         case MLArray.mxSPARSE_CLASS:
-            MLSparse sparse = new MLSparse(name, dims, attributes, nzmax);
             // read ir (row indices)
             tag = new ISMatTag(buf);
             int[] ir = tag.readToIntArray();
             // read jc (column count)
             tag = new ISMatTag(buf);
             int[] jc = tag.readToIntArray();
-
             // read pr (real part)
             tag = new ISMatTag(buf);
-            double[] ad1 = tag.readToDoubleArray();
-            int count = 0;
-            for (int column = 0; column < sparse.getN(); column++) {
-                while (count < jc[column + 1]) {
-                    sparse.setReal(ad1[count], ir[count], column);
-                    count++;
-                }
-            }
-
+            double[] pr = tag.readToDoubleArray();
             // read pi (imaginary part)
-            if (sparse.isComplex()) {
+            double[] pi = null;
+            if ((attributes & MLArray.mtFLAG_COMPLEX) != 0) {
                 tag = new ISMatTag(buf);
-                double[] ad2 = tag.readToDoubleArray();
-
-                count = 0;
-                for (int column = 0; column < sparse.getN(); column++) {
-                    while (count < jc[column + 1]) {
-                        sparse.setImaginary(ad2[count], ir[count], column);
-                        count++;
-                    }
-                }
+                pi = tag.readToDoubleArray();
             }
+            // the CSC arrays are used as they are
+            MLSparse sparse = new MLSparse(name, dims, attributes, nzmax, ir,
+                    jc, pr, pi);
             mlArray = sparse;
             break;
         // case MLArray.mxOPAQUE_CLASS:
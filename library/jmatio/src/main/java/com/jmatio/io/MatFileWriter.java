@@ -53,6 +53,11 @@ public class MatFileWriter
 {
 //    private static final Logger logger = Logger.getLogger(MatFileWriter.class);
     
+    /**
+     * Tells if arrays are written as <code>miCOMPRESSED</code> elements
+     */
+    private boolean compressed = true;
+    
     /**
      * Creates the new <code>{@link MatFileWriter}</code> instance
      */
@@ -98,6 +103,27 @@ public class MatFileWriter
         write(channel, data);
     }
     
+    /**
+     * Tells whether arrays are written compressed (<code>miCOMPRESSED</code>),
+     * which is the default, or as plain <code>miMATRIX</code> elements. Plain
+     * numeric arrays can be read by region, see
+     * <code>{@link MatFileReader#readRegion(String, int, int, int, int, int, int)}</code>.
+     * 
+     * @param compressed - <code>false</code> to write plain elements
+     */
+    public synchronized void setCompressed(boolean compressed)
+    {
+        this.compressed = compressed;
+    }
+    
+    /**
+     * @return - <code>true</code> if arrays are written compressed
+     */
+    public synchronized boolean isCompressed()
+    {
+        return compressed;
+    }
+    
     /**
      * Writes <code>MLArrays</code> into file created from
      * <code>filepath</code>.
@@ -171,6 +197,13 @@ public class MatFileWriter
                 //write MATRIX bytes into buffer
                 writeMatrix( dos, matrix );
                 
+                if ( !compressed )
+                {
+                    //write MATRIX element as it is
+                    channel.write( ByteBuffer.wrap( baos.toByteArray() ) );
+                    continue;
+                }
+                
                 //compress data to save storage
                 Deflater compresser = new Deflater();
                 
@@ -385,51 +418,29 @@ public class MatFileWriter
                 }
                 break;
             case MLArray.mxSPARSE_CLASS:
-                int[] ai;
+                MLSparse sparse = (MLSparse)array;
+                ByteBuffer csc;
                 //write ir
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getIR();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
+                csc = ByteBuffer.allocate( sparse.getMaxNZ() << 2 );
+                csc.asIntBuffer().put( sparse.getIR() );
+                tag = new OSArrayTag(MatDataTypes.miINT32, csc );
                 tag.writeTo( dos );
                 //write jc
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                ai = ((MLSparse)array).getJC();
-                for ( int i : ai )
-                {
-                        bufferDOS.writeInt( i );
-                }
-                tag = new OSArrayTag(MatDataTypes.miINT32, buffer.toByteArray() );
+                csc = ByteBuffer.allocate( ( sparse.getN() + 1 ) << 2 );
+                csc.asIntBuffer().put( sparse.getJC() );
+                tag = new OSArrayTag(MatDataTypes.miINT32, csc );
                 tag.writeTo( dos );
                 //write real
-                buffer = new ByteArrayOutputStream();
-                bufferDOS = new DataOutputStream(buffer);
-                
-                Double[] ad = ((MLSparse)array).exportReal();
-                
-                for ( int i = 0; i < ad.length; i++ )
-                {
-                    bufferDOS.writeDouble( ad[i].doubleValue() );
-                }
-                
-                tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
+                csc = ByteBuffer.allocate( sparse.getNZ() << 3 );
+                csc.asDoubleBuffer().put( sparse.getPR() );
+                tag = new OSArrayTag(MatDataTypes.miDOUBLE, csc );
                 tag.writeTo( dos );
                 //write real imaginary
                 if ( array.isComplex() )
                 {
-                    buffer = new ByteArrayOutputStream();
-                    bufferDOS = new DataOutputStream(buffer);
-                    ad = ((MLSparse)array).exportImaginary();
-                    for ( int i = 0; i < ad.length; i++ )
-                    {
-                        bufferDOS.writeDouble( ad[i].doubleValue() );
-                    }
-                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, buffer.toByteArray() );
+                    csc = ByteBuffer.allocate( sparse.getNZ() << 3 );
+                    csc.asDoubleBuffer().put( sparse.getPI() );
+                    tag = new OSArrayTag(MatDataTypes.miDOUBLE, csc );
                     tag.writeTo( dos );
                 }
                 break;
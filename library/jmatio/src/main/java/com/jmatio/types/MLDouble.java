@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.DoubleBuffer;
 
 /**
  * Class represents Double array (matrix)
@@ -49,7 +50,7 @@ public class MLDouble extends MLNumericArray<Double>
      * <a href="http://math.nist.gov/javanumerics/jama/">Jama</a> [math.nist.gov] style: 
      * construct a 2D real matrix from <code>double[][]</code>
      * 
-     * Note: array is converted to Double[]
+     * Note: array is converted to a column-packed double[]
      * 
      * @param name - array name
      * @param vals - two-dimensional array of values
@@ -68,7 +69,8 @@ public class MLDouble extends MLNumericArray<Double>
      */
     public MLDouble(String name, double[] vals, int m)
     {
-        this(name, castToDouble( vals ), m );
+        this(name, new int[] { m, vals.length/m } );
+        getRealView().asDoubleBuffer().put( vals, 0, getSize() );
     }
     /* (non-Javadoc)
      * @see com.jmatio.io.io.types.GenericArrayCreator#createArray(int, int)
@@ -90,35 +92,40 @@ public class MLDouble extends MLNumericArray<Double>
         for ( int m = 0; m < M; m++ ){
            result[m] = new double[N];
            for ( int n = 0; n < N; n++ ){               
-               result[m][n] = getReal(m,n);
+               result[m][n] = getDouble(m,n);
            }
         }
         return result;
     }
     /**
-     * Casts <code>Double[]</code> to <code>double[]</code>
+     * Returns a <code>DoubleBuffer</code> view of the column-packed real
+     * elements. The view shares the array storage.
      * 
-     * @param - source <code>Double[]</code>
-     * @return - result <code>double[]</code>
+     * @return - the real elements
      */
-    private static Double[] castToDouble( double[] d )
+    public DoubleBuffer getRealDoubleBuffer()
     {
-        Double[] dest = new Double[d.length];
-        for ( int i = 0; i < d.length; i++ )
-        {
-            dest[i] = (Double)d[i];
-        }
-        return dest;
+        return getRealView().asDoubleBuffer();
+    }
+    /**
+     * Returns a <code>DoubleBuffer</code> view of the column-packed imaginary
+     * elements. The view shares the array storage.
+     * 
+     * @return - the imaginary elements
+     */
+    public DoubleBuffer getImaginaryDoubleBuffer()
+    {
+        return getImaginaryView().asDoubleBuffer();
     }
     /**
-     * Converts double[][] to Double[]
+     * Converts double[][] to column-packed double[]
      * 
      * @param dd
      * @return
      */
-    private static Double[] double2DToDouble ( double[][] dd )
+    private static double[] double2DToDouble ( double[][] dd )
     {
-        Double[] d = new Double[ dd.length*dd[0].length ];
+        double[] d = new double[ dd.length*dd[0].length ];
         for ( int n = 0; n < dd[0].length; n++ )
         {
             for ( int m = 0; m < dd.length; m++ )
@@ -155,4 +162,30 @@ public class MLDouble extends MLNumericArray<Double>
     {
         return Double.class;
     }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#_get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Double _get( ByteBuffer buffer, int index )
+    {
+        return buffer.getDouble( index << 3 );
+    }
+    
+    @Override
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        return buffer.getDouble( index << 3 );
+    }
+    
+    @Override
+    protected void _copy( ByteBuffer buffer, int index, double[] dest, int destOffset, int length )
+    {
+        checkRange( index, dest.length, destOffset, length );
+        final DoubleBuffer doubles = view( buffer ).asDoubleBuffer();
+        doubles.position( index );
+        doubles.get( dest, destOffset, length );
+    }
 }
@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.IntBuffer;
 
 /**
  * Class represents Int32 (int) array (matrix)
@@ -94,7 +95,7 @@ public class MLInt32 extends MLNumericArray<Integer>
 
            for ( int n = 0; n < N; n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = getInt( getIndex(m,n) );
            }
         }
         return result;
@@ -159,5 +160,55 @@ public class MLInt32 extends MLNumericArray<Integer>
         return buff.array();
     }
     
+    /**
+     * Gets single real array element as a <code>int</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public int getInt(int index)
+    {
+        return getRealByteBuffer().getInt( index << 2 );
+    }
+    
+    /**
+     * Returns a <code>IntBuffer</code> view of the column-packed real
+     * elements. The view shares the array storage.
+     * 
+     * @return - the real elements
+     */
+    public IntBuffer getRealIntBuffer()
+    {
+        return getRealView().asIntBuffer();
+    }
+    
+    /**
+     * Returns a <code>IntBuffer</code> view of the column-packed imaginary
+     * elements. The view shares the array storage.
+     * 
+     * @return - the imaginary elements
+     */
+    public IntBuffer getImaginaryIntBuffer()
+    {
+        return getImaginaryView().asIntBuffer();
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#_get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Integer _get( ByteBuffer buffer, int index )
+    {
+        return buffer.getInt( index << 2 );
+    }
+    
+    @Override
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        return buffer.getInt( index << 2 );
+    }
 
 }
@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 
 /**
  * Class represents Int64 (long) array (matrix)
@@ -93,7 +94,7 @@ public class MLInt64 extends MLNumericArray<Long>
 
            for ( int n = 0; n < N; n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = getLong( getIndex(m,n) );
            }
         }
         return result;
@@ -158,5 +159,55 @@ public class MLInt64 extends MLNumericArray<Long>
         return buff.array();
     }
     
+    /**
+     * Gets single real array element as a <code>long</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public long getLong(int index)
+    {
+        return getRealByteBuffer().getLong( index << 3 );
+    }
+    
+    /**
+     * Returns a <code>LongBuffer</code> view of the column-packed real
+     * elements. The view shares the array storage.
+     * 
+     * @return - the real elements
+     */
+    public LongBuffer getRealLongBuffer()
+    {
+        return getRealView().asLongBuffer();
+    }
+    
+    /**
+     * Returns a <code>LongBuffer</code> view of the column-packed imaginary
+     * elements. The view shares the array storage.
+     * 
+     * @return - the imaginary elements
+     */
+    public LongBuffer getImaginaryLongBuffer()
+    {
+        return getImaginaryView().asLongBuffer();
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#_get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Long _get( ByteBuffer buffer, int index )
+    {
+        return buffer.getLong( index << 3 );
+    }
+    
+    @Override
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        return buffer.getLong( index << 3 );
+    }
 
 }
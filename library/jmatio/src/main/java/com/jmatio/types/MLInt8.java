@@ -86,7 +86,7 @@ public class MLInt8 extends MLNumericArray<Byte>
         for ( int m = 0; m < M; m++ ){
            result[m] = new byte[N];
            for ( int n = 0; n < N; n++ ){               
-               result[m][n] = getReal(m,n);
+               result[m][n] = getByte( getIndex(m,n) );
            }
         }
         return result;
@@ -158,5 +158,23 @@ public class MLInt8 extends MLNumericArray<Byte>
     {
         return buffer.get( index );
     }
+    
+    /**
+     * Gets single real array element as a <code>byte</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public byte getByte(int index)
+    {
+        return getRealByteBuffer().get( index );
+    }
+    
+    @Override
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        return buffer.get( index );
+    }
 
 }
@@ -167,6 +167,105 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
         return _get( imaginary, index );
     }
     
+    /**
+     * Gets single real array element of A(m,n) as a <code>double</code>,
+     * without boxing it.
+     * 
+     * @param m - row index
+     * @param n - column index
+     * @return - array element
+     */
+    public double getDouble(int m, int n)
+    {
+        return getDouble( getIndex(m,n) );
+    }
+    /**
+     * Gets single real array element as a <code>double</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public double getDouble(int index)
+    {
+        return _getDouble( real, index );
+    }
+    /**
+     * Gets single imaginary array element of A(m,n) as a <code>double</code>,
+     * without boxing it.
+     * 
+     * @param m - row index
+     * @param n - column index
+     * @return - array element
+     */
+    public double getImaginaryDouble(int m, int n)
+    {
+        return getImaginaryDouble( getIndex(m,n) );
+    }
+    /**
+     * Gets single imaginary array element as a <code>double</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public double getImaginaryDouble(int index)
+    {
+        checkComplex();
+        return _getDouble( imaginary, index );
+    }
+    /**
+     * Copies a run of column-packed real elements into a <code>double[]</code>.
+     * 
+     * @param index - column-packed vector index of the first element
+     * @param dest - destination array
+     * @param destOffset - position of the first element in <code>dest</code>
+     * @param length - number of elements to be copied
+     */
+    public void copyRealTo(int index, double[] dest, int destOffset, int length)
+    {
+        _copy( real, index, dest, destOffset, length );
+    }
+    /**
+     * Copies a run of column-packed imaginary elements into a
+     * <code>double[]</code>.
+     * 
+     * @param index - column-packed vector index of the first element
+     * @param dest - destination array
+     * @param destOffset - position of the first element in <code>dest</code>
+     * @param length - number of elements to be copied
+     */
+    public void copyImaginaryTo(int index, double[] dest, int destOffset, int length)
+    {
+        checkComplex();
+        _copy( imaginary, index, dest, destOffset, length );
+    }
+    /**
+     * Copies a run of column-packed real elements into a <code>float[]</code>.
+     * 
+     * @param index - column-packed vector index of the first element
+     * @param dest - destination array
+     * @param destOffset - position of the first element in <code>dest</code>
+     * @param length - number of elements to be copied
+     */
+    public void copyRealTo(int index, float[] dest, int destOffset, int length)
+    {
+        _copy( real, index, dest, destOffset, length );
+    }
+    /**
+     * Copies a run of column-packed imaginary elements into a
+     * <code>float[]</code>.
+     * 
+     * @param index - column-packed vector index of the first element
+     * @param dest - destination array
+     * @param destOffset - position of the first element in <code>dest</code>
+     * @param length - number of elements to be copied
+     */
+    public void copyImaginaryTo(int index, float[] dest, int destOffset, int length)
+    {
+        checkComplex();
+        _copy( imaginary, index, dest, destOffset, length );
+    }
     /**
      * Exports column-packed vector of real elements
      * 
@@ -270,6 +369,89 @@ public abstract class MLNumericArray<T extends Number> extends MLArray
         buffer.put( getByteArray( value ) );
     }
     
+    /**
+     * Reads an element as a <code>double</code>. Subclasses override it with
+     * an absolute read of the buffer which does not box the value.
+     */
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        return _get( buffer, index ).doubleValue();
+    }
+    
+    /**
+     * Copies a run of elements into a <code>double[]</code>. Subclasses whose
+     * storage is made of doubles override it with a bulk copy.
+     */
+    protected void _copy( ByteBuffer buffer, int index, double[] dest, int destOffset, int length )
+    {
+        checkRange( index, dest.length, destOffset, length );
+        for ( int i = 0; i < length; i++ )
+        {
+            dest[destOffset + i] = _getDouble( buffer, index + i );
+        }
+    }
+    
+    /**
+     * Copies a run of elements into a <code>float[]</code>. Subclasses whose
+     * storage is made of floats override it with a bulk copy.
+     */
+    protected void _copy( ByteBuffer buffer, int index, float[] dest, int destOffset, int length )
+    {
+        checkRange( index, dest.length, destOffset, length );
+        for ( int i = 0; i < length; i++ )
+        {
+            dest[destOffset + i] = (float) _getDouble( buffer, index + i );
+        }
+    }
+    
+    protected void checkRange( int index, int destLength, int destOffset, int length )
+    {
+        if ( index < 0 || length < 0 || index + length > getSize()
+                || destOffset < 0 || destOffset + length > destLength )
+        {
+            throw new IndexOutOfBoundsException("Invalid range: " + index + "+" + length);
+        }
+    }
+    
+    private void checkComplex()
+    {
+        if ( !isComplex() )
+        {
+            throw new IllegalStateException("Array is not complex");
+        }
+    }
+    
+    /**
+     * Returns a view of a storage buffer, starting at its first element. The
+     * view shares the content of the buffer, but it has its own position
+     * and limit, so that concurrent readers do not interfere each other.
+     */
+    protected static ByteBuffer view( ByteBuffer buffer )
+    {
+        final ByteBuffer view = buffer.duplicate();
+        view.order( buffer.order() );
+        view.clear();
+        return view;
+    }
+    
+    /**
+     * Returns a view of the real part storage. See {@link #view(ByteBuffer)}.
+     */
+    protected ByteBuffer getRealView()
+    {
+        return view( real );
+    }
+    
+    /**
+     * Returns a view of the imaginary part storage. See
+     * {@link #view(ByteBuffer)}.
+     */
+    protected ByteBuffer getImaginaryView()
+    {
+        checkComplex();
+        return view( imaginary );
+    }
+    
     public void putImaginaryByteBuffer( ByteBuffer buff )
     {
         if ( !isComplex() )
@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
 
 public class MLSingle extends MLNumericArray<Float>
 {
@@ -49,4 +50,64 @@ public class MLSingle extends MLNumericArray<Float>
         return Float.class;
     }
 
+    /**
+     * Returns a <code>FloatBuffer</code> view of the column-packed real
+     * elements. The view shares the array storage.
+     * 
+     * @return - the real elements
+     */
+    public FloatBuffer getRealFloatBuffer()
+    {
+        return getRealView().asFloatBuffer();
+    }
+
+    /**
+     * Returns a <code>FloatBuffer</code> view of the column-packed imaginary
+     * elements. The view shares the array storage.
+     * 
+     * @return - the imaginary elements
+     */
+    public FloatBuffer getImaginaryFloatBuffer()
+    {
+        return getImaginaryView().asFloatBuffer();
+    }
+
+    /**
+     * Gets single real array element as a <code>float</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public float getFloat(int index)
+    {
+        return getRealByteBuffer().getFloat( index << 2 );
+    }
+
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#_get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Float _get( ByteBuffer buffer, int index )
+    {
+        return buffer.getFloat( index << 2 );
+    }
+
+    @Override
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        return buffer.getFloat( index << 2 );
+    }
+
+    @Override
+    protected void _copy( ByteBuffer buffer, int index, float[] dest, int destOffset, int length )
+    {
+        checkRange( index, dest.length, destOffset, length );
+        final FloatBuffer floats = view( buffer ).asFloatBuffer();
+        floats.position( index );
+        floats.get( dest, destOffset, length );
+    }
+
 }
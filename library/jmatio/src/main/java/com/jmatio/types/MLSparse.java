@@ -1,17 +1,33 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
-import java.util.SortedMap;
-import java.util.SortedSet;
-import java.util.TreeMap;
-import java.util.TreeSet;
+import java.util.Arrays;
 
+/**
+ * Sparse double matrix.
+ * <p>
+ * Non-zero values are kept in compressed sparse column (CSC) form, the same
+ * layout used by MATLAB and by the MAT-file format: row indices <tt>ir</tt>,
+ * column pointers <tt>jc</tt> and the real and imaginary values <tt>pr</tt>
+ * and <tt>pi</tt>, all stored in primitive arrays. Lookups are a binary search
+ * within a column; setting a value that is not yet stored shifts the entries
+ * that follow it, so matrices are best filled column by column.
+ */
 public class MLSparse extends MLNumericArray<Double>
 {
     int nzmax;
-    private SortedSet<IndexMN> indexSet;
-    private SortedMap<IndexMN, Double> real;  
-    private SortedMap<IndexMN, Double> imaginary;  
+    /** row indices, sorted within each column */
+    private int[] ir;
+    /** column pointers, only valid up to <tt>jc[last+1]</tt> */
+    private int[] jc;
+    /** last column whose pointers are valid, the following ones are empty */
+    private int last;
+    /** number of stored entries */
+    private int nnz;
+    /** real values */
+    private double[] pr;
+    /** imaginary values, <code>null</code> if the array is not complex */
+    private double[] pi;
     
     /**
      * @param name
@@ -23,16 +39,169 @@ public class MLSparse extends MLNumericArray<Double>
     {
         super(name, dims, MLArray.mxSPARSE_CLASS, attributes);
         this.nzmax = nzmax;
+        ensureCapacity( nzmax );
+    }
+
+    /**
+     * Creates a sparse array wrapping CSC arrays, as stored in a MAT-file.
+     * The arrays are not copied.
+     *
+     * @param name - array name
+     * @param dims - array dimensions
+     * @param attributes - array flags
+     * @param nzmax - maximum number of non-zero values
+     * @param ir - row indices, at least <tt>jc[N]</tt> long
+     * @param jc - column pointers, <tt>N+1</tt> long
+     * @param pr - real values, at least <tt>jc[N]</tt> long
+     * @param pi - imaginary values, at least <tt>jc[N]</tt> long, or
+     *            <code>null</code> if the array is not complex
+     */
+    public MLSparse(String name, int[] dims, int attributes, int nzmax,
+                    int[] ir, int[] jc, double[] pr, double[] pi )
+    {
+        super(name, dims, MLArray.mxSPARSE_CLASS, attributes);
+        this.nzmax = nzmax;
+        if ( jc.length != getN() + 1 || jc[0] != 0 )
+        {
+            throw new IllegalArgumentException("Column pointers must have "
+                                    + (getN() + 1) + " elements starting from 0");
+        }
+        for ( int j = 0; j < getN(); j++ )
+        {
+            if ( jc[j] > jc[j+1] )
+            {
+                throw new IllegalArgumentException("Column pointers must not decrease");
+            }
+        }
+        int nnz = jc[getN()];
+        if ( ir.length < nnz || pr.length < nnz || ( isComplex() && ( pi == null || pi.length < nnz ) ) )
+        {
+            throw new IllegalArgumentException("Arrays are too short for " + nnz + " non-zero values");
+        }
+        this.ir = ir;
+        this.jc = jc;
+        this.last = getN() - 1;
+        this.nnz = nnz;
+        this.pr = pr;
+        this.pi = isComplex() ? pi : null;
     }
     
     protected void allocate()
     {
-        real = new TreeMap<IndexMN, Double>();
+        // called by the super constructor, before nzmax is known
+        jc = new int[getN() + 1];
+        last = -1;
+        nnz = 0;
+        ir = new int[0];
+        pr = new double[0];
         if ( isComplex() )
         {
-            imaginary = new TreeMap<IndexMN, Double>();
+            pi = new double[0];
+        }
+    }
+
+    /**
+     * Grows the value arrays so that they can hold at least
+     * <code>capacity</code> entries.
+     *
+     * @param capacity - minimum number of entries
+     */
+    private void ensureCapacity( int capacity )
+    {
+        int length = Math.min( ir.length, pr.length );
+        if ( pi != null )
+        {
+            length = Math.min( length, pi.length );
+        }
+        if ( length >= capacity )
+        {
+            return;
+        }
+        int newLength = Math.max( capacity, length + ( length >> 1 ) + 1 );
+        ir = Arrays.copyOf( ir, newLength );
+        pr = Arrays.copyOf( pr, newLength );
+        if ( pi != null )
+        {
+            pi = Arrays.copyOf( pi, newLength );
+        }
+    }
+
+    /**
+     * Finds the position of A(m,n) in the CSC arrays.
+     *
+     * @param m - row index
+     * @param n - column index
+     * @return - position of the entry or <tt>-(insertion point) - 1</tt> if
+     *           the entry is not stored
+     */
+    private int find( int m, int n )
+    {
+        if ( m < 0 || m >= getM() || n < 0 || n >= getN() )
+        {
+            throw new IndexOutOfBoundsException("(" + m + "," + n + ") is out of "
+                                    + getM() + "x" + getN() );
+        }
+        if ( n > last )
+        {
+            return -nnz - 1;
+        }
+        return Arrays.binarySearch( ir, jc[n], jc[n+1], m );
+    }
+
+    /**
+     * Brings the pointers of the trailing empty columns up to date.
+     */
+    private void sync()
+    {
+        for ( int j = last + 2; j < jc.length; j++ )
+        {
+            jc[j] = nnz;
         }
-        indexSet = new TreeSet<IndexMN>();
+        last = getN() - 1;
+    }
+
+    /**
+     * Returns the position of A(m,n) in the CSC arrays, storing a zero entry
+     * if it is not stored yet.
+     *
+     * @param m - row index
+     * @param n - column index
+     * @return - position of the entry
+     */
+    private int insert( int m, int n )
+    {
+        int pos = find( m, n );
+        if ( pos >= 0 )
+        {
+            return pos;
+        }
+        pos = -pos - 1;
+        if ( n > last )
+        {
+            // appending to a new column, the columns in between stay empty
+            for ( int j = last + 2; j <= n; j++ )
+            {
+                jc[j] = nnz;
+            }
+            jc[n+1] = nnz;
+            last = n;
+        }
+        ensureCapacity( nnz + 1 );
+        System.arraycopy( ir, pos, ir, pos + 1, nnz - pos );
+        System.arraycopy( pr, pos, pr, pos + 1, nnz - pos );
+        ir[pos] = m;
+        pr[pos] = 0;
+        if ( pi != null )
+        {
+            System.arraycopy( pi, pos, pi, pos + 1, nnz - pos );
+            pi[pos] = 0;
+        }
+        for ( int j = n + 1; j <= last + 1; j++ )
+        {
+            jc[j]++;
+        }
+        nnz++;
+        return pos;
     }
     
     /**
@@ -42,7 +211,16 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public int getMaxNZ()
     {
-        return nzmax;
+        return Math.max( nzmax, getNZ() );
+    }
+    /**
+     * Gets the number of stored (non-zero) values
+     *
+     * @return
+     */
+    public int getNZ()
+    {
+        return nnz;
     }
     /**
      * Gets row indices
@@ -52,13 +230,7 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public int[] getIR()
     {
-        int[] ir = new int[nzmax];
-        int i = 0;
-        for ( IndexMN index : indexSet )
-        {
-            ir[i++] = index.m;
-        }
-        return ir;
+        return Arrays.copyOf( ir, getMaxNZ() );
     }
     /**
      * Gets column indices. 
@@ -74,16 +246,30 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public int[] getJC()
     {
-        int[] jc = new int[getN()+1];
-        // jc[j] is the number of nonzero elements in all preceeding columns
-        for ( IndexMN index : indexSet )
+        sync();
+        return jc.clone();
+    }
+    /**
+     * Gets the real values (PR). PR has length number-of-nonzero-values.
+     *
+     * @return real part
+     */
+    public double[] getPR()
+    {
+        return Arrays.copyOf( pr, getNZ() );
+    }
+    /**
+     * Gets the imaginary values (PI). PI has length number-of-nonzero-values.
+     *
+     * @return imaginary part
+     */
+    public double[] getPI()
+    {
+        if ( pi == null )
         {
-            for (int column = index.n + 1; column < jc.length; column++)
-            {
-                jc[column]++;
-            }
+            throw new IllegalStateException("Array is not complex");
         }
-        return jc;
+        return Arrays.copyOf( pi, getNZ() );
     }
     
     /* (non-Javadoc)
@@ -98,12 +284,15 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public Double getReal(int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        if ( real.containsKey(i) )
-        {
-            return real.get(i);
-        }
-        return new Double(0);
+        return getDouble( m, n );
+    }
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#getDouble(int, int)
+     */
+    public double getDouble(int m, int n)
+    {
+        int pos = find( m, n );
+        return pos >= 0 ? pr[pos] : 0;
     }
     
     /* (non-Javadoc)
@@ -114,6 +303,14 @@ public class MLSparse extends MLNumericArray<Double>
         throw new IllegalArgumentException("Can't get Sparse array elements by index. " +
         "Please use getReal(int index) instead.");
     }
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#getDouble(int)
+     */
+    public double getDouble( int index )
+    {
+        throw new IllegalArgumentException("Can't get Sparse array elements by index. " +
+        "Please use getDouble(int m, int n) instead.");
+    }
     /**
      * @param value
      * @param m
@@ -121,9 +318,16 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public void setReal(Double value, int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        indexSet.add(i);
-        real.put(i, value );
+        setReal( value.doubleValue(), m, n );
+    }
+    /**
+     * @param value
+     * @param m
+     * @param n
+     */
+    public void setReal(double value, int m, int n)
+    {
+        pr[ insert( m, n ) ] = value;
     }
     /**
      * @param value
@@ -141,9 +345,20 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public void setImaginary(Double value, int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        indexSet.add(i);
-        imaginary.put(i, value );
+        setImaginary( value.doubleValue(), m, n );
+    }
+    /**
+     * @param value
+     * @param m
+     * @param n
+     */
+    public void setImaginary(double value, int m, int n)
+    {
+        if ( pi == null )
+        {
+            throw new IllegalStateException("Array is not complex");
+        }
+        pi[ insert( m, n ) ] = value;
     }
     /**
      * @param value
@@ -159,12 +374,19 @@ public class MLSparse extends MLNumericArray<Double>
      */
     public Double getImaginary(int m, int n)
     {
-        IndexMN i = new IndexMN(m,n);
-        if ( imaginary.containsKey(i) )
+        return getImaginaryDouble( m, n );
+    }
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#getImaginaryDouble(int, int)
+     */
+    public double getImaginaryDouble(int m, int n)
+    {
+        if ( pi == null )
         {
-            return imaginary.get(i);
+            throw new IllegalStateException("Array is not complex");
         }
-        return new Double(0);
+        int pos = find( m, n );
+        return pos >= 0 ? pi[pos] : 0;
     }
     /* (non-Javadoc)
      * @see com.jmatio.io.io.types.MLNumericArray#getImaginary(int)
@@ -174,43 +396,62 @@ public class MLSparse extends MLNumericArray<Double>
         throw new IllegalArgumentException("Can't get Sparse array elements by index. " +
         "Please use getImaginary(int index) instead.");
     }
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#getImaginaryDouble(int)
+     */
+    public double getImaginaryDouble( int index )
+    {
+        throw new IllegalArgumentException("Can't get Sparse array elements by index. " +
+        "Please use getImaginaryDouble(int m, int n) instead.");
+    }
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#_copy(java.nio.ByteBuffer, int, double[], int, int)
+     */
+    protected void _copy( ByteBuffer buffer, int index, double[] dest, int destOffset, int length )
+    {
+        throw new IllegalArgumentException("Can't copy Sparse array elements by index. " +
+        "Please use getPR() or getPI() instead.");
+    }
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#_copy(java.nio.ByteBuffer, int, float[], int, int)
+     */
+    protected void _copy( ByteBuffer buffer, int index, float[] dest, int destOffset, int length )
+    {
+        throw new IllegalArgumentException("Can't copy Sparse array elements by index. " +
+        "Please use getPR() or getPI() instead.");
+    }
     
     /**
      * Returns the real part (PR) array. PR has length number-of-nonzero-values.
+     * <p>
+     * Every value is boxed, {@link #getPR()} should be preferred.
      *
      * @return real part
      */
     public Double[] exportReal()
     {
-        Double[] ad = new Double[indexSet.size()];
-        int i = 0;
-        for (IndexMN index: indexSet) {
-            if (real.containsKey(index)) {
-                ad[i] = real.get(index);
-            } else {
-                ad[i] = 0.0;
-            }
-            i++;
+        Double[] ad = new Double[nnz];
+        for ( int i = 0; i < nnz; i++ )
+        {
+            ad[i] = pr[i];
         }
         return ad;
     }
     
     /**
      * Returns the imaginary part (PI) array. PI has length number-of-nonzero-values.
+     * <p>
+     * Every value is boxed, {@link #getPI()} should be preferred.
      *
      * @return
      */
     public Double[] exportImaginary()
     {
-        Double[] ad = new Double[indexSet.size()];
-        int i = 0;
-        for (IndexMN index: indexSet) {
-            if (imaginary.containsKey(index)) {
-                ad[i] = imaginary.get(index);
-            } else {
-                ad[i] = 0.0;
-            }
-            i++;
+        double[] values = getPI();
+        Double[] ad = new Double[values.length];
+        for ( int i = 0; i < values.length; i++ )
+        {
+            ad[i] = values[i];
         }
         return ad;
     }
@@ -221,72 +462,75 @@ public class MLSparse extends MLNumericArray<Double>
     {
         StringBuffer sb = new StringBuffer();
         sb.append(name + " = \n");
+        sync();
         
-        for ( IndexMN i : indexSet )
+        for ( int n = 0; n < getN(); n++ )
         {
-            sb.append("\t(");
-            sb.append(i.m + "," + i.n);
-            sb.append(")");
-            sb.append("\t" + getReal(i.m, i.n) );
-            if ( isComplex() )
+            for ( int i = jc[n]; i < jc[n+1]; i++ )
             {
-                sb.append("+" + getImaginary(i.m, i.n) );
+                sb.append("\t(");
+                sb.append(ir[i] + "," + n);
+                sb.append(")");
+                sb.append("\t" + pr[i] );
+                if ( isComplex() )
+                {
+                    sb.append("+" + pi[i] );
+                }
+                sb.append("\n");
             }
-            sb.append("\n");
-            
         }
         
         return sb.toString();
     }
     
-    /**
-     * Matrix index (m,n)
-     * 
-     * @author Wojciech Gradkowski <wgradkowski@gmail.com>
+    /* (non-Javadoc)
+     * @see com.jmatio.types.MLNumericArray#equals(java.lang.Object)
      */
-    private class IndexMN implements Comparable<IndexMN>
+    @Override
+    public boolean equals(Object o)
     {
-        int m;
-        int n;
-        
-        public IndexMN( int m, int n )
+        if ( o instanceof MLSparse )
         {
-            this.m = m;
-            this.n = n;
+            MLSparse s = (MLSparse)o;
+            sync();
+            s.sync();
+            if ( !Arrays.equals( dims, s.dims ) || !Arrays.equals( jc, s.jc )
+                    || isComplex() != s.isComplex() )
+            {
+                return false;
+            }
+            for ( int i = 0; i < nnz; i++ )
+            {
+                if ( ir[i] != s.ir[i] || Double.compare( pr[i], s.pr[i] ) != 0
+                        || ( pi != null && Double.compare( pi[i], s.pi[i] ) != 0 ) )
+                {
+                    return false;
+                }
+            }
+            return true;
         }
+        return super.equals( o );
+    }
         
-        
-        /* (non-Javadoc)
-         * @see java.lang.Comparable#compareTo(java.lang.Object)
-         */
-        public int compareTo(IndexMN anOtherIndex) {
-            return getIndex(m,n) - getIndex(anOtherIndex.m,anOtherIndex.n);
-        }
-
-        /* (non-Javadoc)
-         * @see java.lang.Object#equals(java.lang.Object)
-         */
-        public boolean equals(Object o)
+    /* (non-Javadoc)
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode()
+    {
+        sync();
+        int hash = 31 * Arrays.hashCode( dims ) + Arrays.hashCode( jc );
+        for ( int i = 0; i < nnz; i++ )
         {
-            if (o instanceof IndexMN )
+            long bits = Double.doubleToLongBits( pr[i] );
+            hash = 31 * ( 31 * hash + ir[i] ) + (int)( bits ^ ( bits >>> 32 ) );
+            if ( pi != null )
             {
-                return m == ((IndexMN)o).m && n == ((IndexMN)o).n;
+                bits = Double.doubleToLongBits( pi[i] );
+                hash = 31 * hash + (int)( bits ^ ( bits >>> 32 ) );
             }
-            return super.equals(o);
-        }
-        /* (non-Javadoc)
-         * @see java.lang.Object#toString()
-         */
-        public String toString()
-        {
-            StringBuffer sb = new StringBuffer();
-            sb.append("{");
-            sb.append("m=" + m);
-            sb.append(", ");
-            sb.append("n=" + n);
-            sb.append("}");
-            return sb.toString();
         }
+        return hash;
     }
 
     public int getBytesAllocated()
@@ -1,6 +1,7 @@
 package com.jmatio.types;
 
 import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
 
 /**
  * Class represents Int64 (long) array (matrix)
@@ -92,7 +93,7 @@ public class MLUInt64 extends MLNumericArray<Long>
 
            for ( int n = 0; n < getN(); n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = getLong( getIndex(m,n) );
            }
         }
         return result;
@@ -157,5 +158,67 @@ public class MLUInt64 extends MLNumericArray<Long>
         return buff.array();
     }
     
+    /**
+     * Gets single real array element as a <code>long</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public long getLong(int index)
+    {
+        return getRealByteBuffer().getLong( index << 3 );
+    }
+    
+    /**
+     * Returns a <code>LongBuffer</code> view of the column-packed real
+     * elements. The view shares the array storage.
+     * 
+     * @return - the real elements
+     */
+    public LongBuffer getRealLongBuffer()
+    {
+        return getRealView().asLongBuffer();
+    }
+    
+    /**
+     * Returns a <code>LongBuffer</code> view of the column-packed imaginary
+     * elements. The view shares the array storage.
+     * 
+     * @return - the imaginary elements
+     */
+    public LongBuffer getImaginaryLongBuffer()
+    {
+        return getImaginaryView().asLongBuffer();
+    }
+    
+    /**
+     * Override to accelerate the performance
+     * 
+     * @see com.jmatio.types.MLNumericArray#_get(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected Long _get( ByteBuffer buffer, int index )
+    {
+        return buffer.getLong( index << 3 );
+    }
+    
+    /**
+     * Returns the element as an unsigned value.
+     * 
+     * @see com.jmatio.types.MLNumericArray#_getDouble(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        final long value = buffer.getLong( index << 3 );
+        if ( value >= 0 )
+        {
+            return value;
+        }
+        // halve the value to make it fit a signed long, keeping the
+        // lowest bit for the rounding
+        return ( (value >>> 1) | (value & 1) ) * 2.0;
+    }
 
 }
@@ -94,7 +94,7 @@ public class MLUInt8 extends MLNumericArray<Byte>
 
            for ( int n = 0; n < N; n++ )
            {               
-               result[m][n] = getReal(m,n);
+               result[m][n] = getByte( getIndex(m,n) );
            }
         }
         return result;
@@ -166,5 +166,28 @@ public class MLUInt8 extends MLNumericArray<Byte>
     {
         return buffer.get( index );
     }
+    
+    /**
+     * Gets single real array element as a <code>byte</code>, without
+     * boxing it.
+     * 
+     * @param index - column-packed vector index
+     * @return - array element
+     */
+    public byte getByte(int index)
+    {
+        return getRealByteBuffer().get( index );
+    }
+    
+    /**
+     * Returns the element as an unsigned value.
+     * 
+     * @see com.jmatio.types.MLNumericArray#_getDouble(java.nio.ByteBuffer, int)
+     */
+    @Override
+    protected double _getDouble( ByteBuffer buffer, int index )
+    {
+        return buffer.get( index ) & 0xff;
+    }
 
 }
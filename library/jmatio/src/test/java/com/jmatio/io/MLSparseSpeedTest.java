@@ -0,0 +1,89 @@
+package com.jmatio.io;
+
+import it.geosolutions.resources.TestData;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import com.jmatio.types.MLArray;
+import com.jmatio.types.MLSparse;
+
+/**
+ * Memory and throughput figures for <code>MLSparse</code>. Ignored by default,
+ * enable it to measure the cost of building, querying, writing and reading a
+ * big sparse matrix.
+ */
+public class MLSparseSpeedTest
+{
+    private static final Logger LOGGER = Logger.getLogger(MLSparseSpeedTest.class.toString());
+
+    private static final int SIZE = 100000;
+
+    /** non-zero values per column */
+    private static final int NZ_PER_COLUMN = 20;
+
+    private static final int LOOKUPS = 1000000;
+
+    private static long usedMemory()
+    {
+        Runtime runtime = Runtime.getRuntime();
+        for ( int i = 0; i < 3; i++ )
+        {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Test
+    @Ignore
+    public void testSparseSpeed() throws IOException
+    {
+        final int nnz = SIZE * NZ_PER_COLUMN;
+        final int step = SIZE / NZ_PER_COLUMN;
+        
+        // build column by column
+        long memory = usedMemory();
+        long start = System.nanoTime();
+        MLSparse sparse = new MLSparse("sparse", new int[] {SIZE, SIZE}, 0, nnz);
+        for ( int n = 0; n < SIZE; n++ )
+        {
+            for ( int k = 0; k < NZ_PER_COLUMN; k++ )
+            {
+                sparse.setReal(n + k, (n + k * step) % SIZE, n);
+            }
+        }
+        long time = System.nanoTime() - start;
+        memory = usedMemory() - memory;
+        LOGGER.info("Built " + nnz + " non-zero values in " + time / 1000000
+                + "ms, " + memory / nnz + " bytes per value");
+        
+        // random lookups
+        Random random = new Random(0);
+        double sum = 0;
+        start = System.nanoTime();
+        for ( int i = 0; i < LOOKUPS; i++ )
+        {
+            sum += sparse.getDouble(random.nextInt(SIZE), random.nextInt(SIZE));
+        }
+        time = System.nanoTime() - start;
+        LOGGER.info(LOOKUPS + " lookups in " + time / 1000000 + "ms (" + sum + ")");
+        
+        // write and read back
+        final File file = TestData.temp(this, "sparsespeed.mat");
+        start = System.nanoTime();
+        new MatFileWriter(file, Arrays.asList( (MLArray)sparse ));
+        time = System.nanoTime() - start;
+        LOGGER.info("Written " + file.length() + " bytes in " + time / 1000000 + "ms");
+        
+        start = System.nanoTime();
+        MLSparse read = (MLSparse) new MatFileReader(file).getMLArray("sparse");
+        time = System.nanoTime() - start;
+        LOGGER.info("Read " + read.getNZ() + " non-zero values in " + time / 1000000 + "ms");
+    }
+}
@@ -21,6 +21,7 @@ import com.jmatio.types.MLArray;
 import com.jmatio.types.MLCell;
 import com.jmatio.types.MLChar;
 import com.jmatio.types.MLDouble;
+import com.jmatio.types.MLInt32;
 import com.jmatio.types.MLInt64;
 import com.jmatio.types.MLInt8;
 import com.jmatio.types.MLNumericArray;
@@ -170,6 +171,132 @@ public class MatIOTest
         assertEquals("Test if only one array was red", 1, content.size() );
         
     }
+    /**
+     * Tests reading the array directory and loading arrays on demand.
+     * 
+     * @throws IOException
+     */
+    @Test 
+    public void testReadDirectory() throws IOException
+    {
+        final File file = TestData.temp(this,"directory.mat");
+        
+        MLDouble mlDouble = new MLDouble( "arr", new double[] { 1.3, 2.0, 3.0, 4.0, 5.0, 6.0 }, 3 );
+        MLChar mlChar = new MLChar( "dummy", "I am dummy" );
+        MLInt8 mlInt8 = new MLInt8( "int8", new byte[] { 1, -2, 3, -4 }, 2 );
+        new MatFileWriter( file, Arrays.asList( (MLArray)mlDouble, mlChar, mlInt8 ) );
+        
+        //scan the headers only
+        MatFileReader mfr = new MatFileReader();
+        Map<String, MatFileEntry> directory = mfr.readDirectory( file, new MatFileFilter() );
+        assertEquals( Arrays.asList( "arr", "dummy", "int8" ), new ArrayList<String>( directory.keySet() ) );
+        MatFileEntry entry = directory.get( "arr" );
+        assertEquals( MLArray.mxDOUBLE_CLASS, entry.getType() );
+        assertTrue( Arrays.equals( new int[] { 3, 2 }, entry.getDimensions() ) );
+        assertTrue( entry.isCompressed() );
+        assertEquals( MLArray.mxCHAR_CLASS, directory.get( "dummy" ).getType() );
+        
+        //arrays are read on demand
+        assertEquals( mlInt8, mfr.getMLArray( "int8" ) );
+        assertTrue( mfr.getMLArray( "int8" ) == mfr.getMLArray( "int8" ) );
+        assertEquals( mlDouble, mfr.getMLArray( "arr" ) );
+        assertEquals( null, mfr.getMLArray( "missing" ) );
+        assertEquals( 3, mfr.getContent().size() );
+        
+        //filtered and softly referenced
+        MatFileFilter filter = new MatFileFilter();
+        filter.addArrayName( "dummy" );
+        mfr = new MatFileReader();
+        mfr.setSoftReferenceCache( true );
+        directory = mfr.readDirectory( file, filter );
+        assertEquals( 1, directory.size() );
+        assertEquals( mlChar.contentToString(), mfr.getMLArray( "dummy" ).contentToString() );
+        assertEquals( null, mfr.getMLArray( "arr" ) );
+        
+        //a file created by MATLAB gives the same content either way
+        final File matlabFile = TestData.file(this,"simplestruct.mat");
+        mfr = new MatFileReader();
+        mfr.readDirectory( matlabFile, new MatFileFilter() );
+        Map<String, MLArray> eager = new MatFileReader( matlabFile ).getContent();
+        assertEquals( eager.keySet(), mfr.getDirectory().keySet() );
+        for ( String name : eager.keySet() )
+        {
+            assertEquals( eager.get( name ).contentToString(), mfr.getMLArray( name ).contentToString() );
+        }
+    }
+    
+    /**
+     * Tests reading subsampled regions of arrays stored with and without
+     * compression.
+     * 
+     * @throws IOException
+     */
+    @Test 
+    public void testReadRegion() throws IOException
+    {
+        MLDouble mlDouble = new MLDouble( "complex", new int[] { 7, 5 }, MLArray.mxDOUBLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        MLSingle mlSingle = new MLSingle( "single", new int[] { 7, 5 }, MLArray.mxSINGLE_CLASS, 0 );
+        MLUInt8 mlUInt8 = new MLUInt8( "uint8", new int[] { 7, 5 }, MLArray.mxUINT8_CLASS, 0 );
+        for ( int m = 0; m < 7; m++ )
+        {
+            for ( int n = 0; n < 5; n++ )
+            {
+                mlDouble.setReal( m + n * 10.5, m, n );
+                mlDouble.setImaginary( -m * n - 0.25, m, n );
+                mlSingle.setReal( m * 0.5f - n, m, n );
+                mlUInt8.setReal( (byte)( 200 + m * 5 + n ), m, n );
+            }
+        }
+        List<MLArray> arrays = Arrays.asList( (MLArray)mlDouble, mlSingle, mlUInt8 );
+        
+        for ( boolean compressed : new boolean[] { false, true } )
+        {
+            final File file = TestData.temp(this, compressed ? "region.mat" : "regionplain.mat");
+            MatFileWriter writer = new MatFileWriter();
+            writer.setCompressed( compressed );
+            writer.write( file, arrays );
+            
+            MatFileReader mfr = new MatFileReader();
+            mfr.readDirectory( file, new MatFileFilter() );
+            assertEquals( compressed, mfr.getDirectory().get( "single" ).isCompressed() );
+            
+            //whole arrays
+            assertEquals( mlDouble, mfr.readRegion( "complex", 0, 0, 7, 5, 1, 1 ) );
+            assertEquals( mlUInt8, mfr.readRegion( "uint8", 0, 0, 7, 5, 1, 1 ) );
+            
+            //subsampled regions
+            int[][] regions = new int[][] { { 1, 2, 4, 3, 1, 1 }, { 0, 0, 7, 5, 2, 3 }, { 2, 1, 5, 4, 3, 2 }, { 6, 4, 1, 1, 1, 1 } };
+            for ( int[] r : regions )
+            {
+                for ( MLArray array : arrays )
+                {
+                    MLNumericArray<?> source = (MLNumericArray<?>) array;
+                    MLNumericArray<?> region = mfr.readRegion( array.getName(), r[0], r[1], r[2], r[3], r[4], r[5] );
+                    assertEquals( array.getClass(), region.getClass() );
+                    assertEquals( ( r[2] - 1 ) / r[4] + 1, region.getM() );
+                    assertEquals( ( r[3] - 1 ) / r[5] + 1, region.getN() );
+                    for ( int m = 0; m < region.getM(); m++ )
+                    {
+                        for ( int n = 0; n < region.getN(); n++ )
+                        {
+                            int sm = r[0] + m * r[4];
+                            int sn = r[1] + n * r[5];
+                            assertEquals( source.getDouble( sm, sn ), region.getDouble( m, n ), 0d );
+                            if ( source.isComplex() )
+                            {
+                                assertEquals( source.getImaginaryDouble( sm, sn ), region.getImaginaryDouble( m, n ), 0d );
+                            }
+                        }
+                    }
+                }
+            }
+            
+            //plain arrays can be loaded lazily as well
+            assertEquals( mlDouble, mfr.getMLArray( "complex" ) );
+            assertEquals( mlSingle, new MatFileReader( file ).getMLArray( "single" ) );
+        }
+    }
+    
     /**
      * Test <code>MatFileFilter</code> options
      */
@@ -531,6 +658,50 @@ public class MatIOTest
         }
     }
     
+    /**
+     * Tests that <code>MLSparse</code> keeps its entries in compressed sparse
+     * column order whatever the order they are set.
+     * 
+     * @throws IOException
+     */
+    @Test public void testMLSparseCSC() throws IOException
+    {
+        final File file = TestData.temp(this,"mlsparsecsc.mat");
+        
+        MLSparse mlSparse = new MLSparse("csc", new int[] {4, 3}, 0, 2);
+        mlSparse.setReal(5.0, 3, 2);
+        mlSparse.setReal(1.0, 2, 0);
+        mlSparse.setReal(3.0, 1, 2);
+        mlSparse.setReal(2.0, 0, 1);
+        mlSparse.setReal(4.0, 1, 2);
+        
+        assertEquals(4, mlSparse.getNZ());
+        assertEquals(4, mlSparse.getMaxNZ());
+        assertTrue(Arrays.equals(new int[] {2, 0, 1, 3}, mlSparse.getIR()));
+        assertTrue(Arrays.equals(new int[] {0, 1, 2, 4}, mlSparse.getJC()));
+        assertTrue(Arrays.equals(new double[] {1.0, 2.0, 4.0, 5.0}, mlSparse.getPR()));
+        assertEquals(4.0, mlSparse.getDouble(1, 2), 0d);
+        assertEquals(0.0, mlSparse.getDouble(0, 2), 0d);
+        
+        new MatFileWriter( file.getAbsolutePath(), Arrays.asList( (MLArray)mlSparse ) );
+        MLSparse retrieved = (MLSparse) new MatFileReader( file ).getMLArray( "csc" );
+        assertEquals(mlSparse, retrieved);
+        assertEquals(mlSparse.hashCode(), retrieved.hashCode());
+        assertTrue(Arrays.equals(mlSparse.getPR(), retrieved.getPR()));
+        
+        retrieved.setReal(6.0, 0, 0);
+        assertTrue(!mlSparse.equals(retrieved));
+        
+        // pending trailing columns must not change equality nor hash code
+        MLSparse first = new MLSparse("first", new int[] {4, 3}, 0, 1);
+        first.setReal(1.0, 2, 0);
+        MLSparse second = new MLSparse("second", new int[] {4, 3}, 0, 1);
+        second.setReal(1.0, 2, 0);
+        second.getJC();
+        assertEquals(second.hashCode(), first.hashCode());
+        assertEquals(first, second);
+    }
+    
     /**
      * Regression bug
      * 
@@ -1079,4 +1250,89 @@ public class MatIOTest
         assertEquals( expected[2], mlchar.getString(2) );
         assertEquals( expected[3], mlchar.getString(3) );
     }
+    
+    @Test
+    public void testPrimitiveAccessors() throws IOException
+    {
+        final File file = TestData.temp(this,"primitives.mat");
+        final String fileName = file.getAbsolutePath();
+        
+        //create arrays through the primitive constructors
+        final double[] values = new double[] { 1.5, -2, 3.25, 4, 5, -6e10 };
+        final MLDouble mlDouble = new MLDouble( "double", values, 2 );
+        final MLSingle mlSingle = new MLSingle( "single", new int[] {2, 3}, MLArray.mxSINGLE_CLASS, MLArray.mtFLAG_COMPLEX );
+        for ( int i = 0; i < values.length; i++ )
+        {
+            mlSingle.setReal( (float) values[i], i );
+            mlSingle.setImaginary( (float) -values[i], i );
+        }
+        final MLUInt8 mlUInt8 = new MLUInt8( "uint8", new byte[] { 0, 1, 127, -128, -1, 42 }, 2 );
+        final MLInt32 mlInt32 = new MLInt32( "int32", new int[] { 0, -1, Integer.MAX_VALUE, Integer.MIN_VALUE }, 2 );
+        final MLUInt64 mlUInt64 = new MLUInt64( "uint64", new long[] { 1, -1 }, 1 );
+        
+        //write and read them back, int32 and uint64 do not round trip
+        new MatFileWriter( fileName, Arrays.asList( (MLArray) mlDouble, mlSingle, mlUInt8 ) );
+        final Map<String, MLArray> content = new MatFileReader( fileName ).getContent();
+        final MLDouble readDouble = (MLDouble) content.get( "double" );
+        final MLSingle readSingle = (MLSingle) content.get( "single" );
+        final MLUInt8 readUInt8 = (MLUInt8) content.get( "uint8" );
+        final MLInt32 readInt32 = mlInt32;
+        final MLUInt64 readUInt64 = mlUInt64;
+        
+        //single element getters match the boxed ones
+        for ( int i = 0; i < values.length; i++ )
+        {
+            assertEquals( values[i], readDouble.getDouble(i), 0d );
+            assertEquals( readDouble.getReal(i).doubleValue(), readDouble.getDouble(i), 0d );
+            assertEquals( (float) values[i], readSingle.getFloat(i), 0f );
+            assertEquals( (float) -values[i], readSingle.getImaginaryDouble(i), 0d );
+        }
+        assertEquals( values[3], readDouble.getDouble(1, 1), 0d );
+        assertEquals( 128d, readUInt8.getDouble(3), 0d );
+        assertEquals( 255d, readUInt8.getDouble(4), 0d );
+        assertEquals( (byte) -1, readUInt8.getByte(4) );
+        assertEquals( Integer.MIN_VALUE, readInt32.getInt(3) );
+        assertEquals( (double) Integer.MIN_VALUE, readInt32.getDouble(3), 0d );
+        assertEquals( 18446744073709551615d, readUInt64.getDouble(1), 0d );
+        assertEquals( -1L, readUInt64.getLong(1) );
+        
+        //bulk copies, including conversions
+        final double[] doubles = new double[values.length + 2];
+        readDouble.copyRealTo( 1, doubles, 2, 4 );
+        assertEquals( values[1], doubles[2], 0d );
+        assertEquals( values[4], doubles[5], 0d );
+        final float[] floats = new float[values.length];
+        readSingle.copyImaginaryTo( 0, floats, 0, values.length );
+        readDouble.copyRealTo( 0, floats, 0, 2 );
+        assertEquals( 1.5f, floats[0], 0f );
+        assertEquals( (float) -values[5], floats[5], 0f );
+        readUInt8.copyRealTo( 2, doubles, 0, 3 );
+        assertEquals( 127d, doubles[0], 0d );
+        assertEquals( 128d, doubles[1], 0d );
+        try
+        {
+            readDouble.copyRealTo( 4, doubles, 0, 3 );
+            assertTrue( "Out of range copy should fail", false );
+        }
+        catch ( IndexOutOfBoundsException e )
+        {
+            //expected
+        }
+        try
+        {
+            readDouble.copyImaginaryTo( 0, doubles, 0, 1 );
+            assertTrue( "Not complex arrays should fail", false );
+        }
+        catch ( IllegalStateException e )
+        {
+            //expected
+        }
+        
+        //buffer views do not move the storage position
+        assertEquals( values.length, readDouble.getRealDoubleBuffer().remaining() );
+        assertEquals( values[5], readDouble.getRealDoubleBuffer().get(5), 0d );
+        assertEquals( (float) -values[2], readSingle.getImaginaryFloatBuffer().get(2), 0f );
+        assertEquals( Integer.MAX_VALUE, readInt32.getRealIntBuffer().get(2) );
+        assertEquals( mlDouble, readDouble );
+    }
 }
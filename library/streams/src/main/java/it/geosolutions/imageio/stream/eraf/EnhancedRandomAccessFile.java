@@ -44,6 +44,7 @@ import java.io.FileDescriptor;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.channels.FileChannel;
 
@@ -90,6 +91,9 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 	/** The default buffer size, in bytes. */
 	public static final int DEFAULT_BUFFER_SIZE = 4096;
 
+	/** The size of the scratch buffer used by the bulk primitive reads. */
+	private static final int BULK_BUFFER_SIZE = 8192;
+
 	/** _more_ */
 	protected File file;
 
@@ -137,6 +141,9 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 	/** True if the data in the buffer has been modified. */
 	boolean bufferModified = false;
 
+	/** scratch buffer used by the bulk primitive reads */
+	private ByteBuffer bulkBuffer;
+
 	/** make sure eraf is this long when closed */
 	protected long minLength = 0;
 
@@ -943,8 +950,12 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 	 *             _more_
 	 */
 	public void readShort(short[] pa, int start, int n) throws IOException {
-		for (int i = start, end = n + start; i < end; i++) {
-			pa[i] = readShort();
+		final int chunk = BULK_BUFFER_SIZE / 2;
+		while (n > 0) {
+			final int count = Math.min(n, chunk);
+			readBulk(count * 2).asShortBuffer().get(pa, start, count);
+			start += count;
+			n -= count;
 		}
 	}
 
@@ -1051,6 +1062,32 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 		}
 	}
 
+	/**
+	 * Reads <code>n</code> Unicode characters from this eraf into the given
+	 * array, in the current byte order.
+	 * 
+	 * @param pa
+	 *            the array receiving the characters.
+	 * @param start
+	 *            the offset of the first character in the array.
+	 * @param n
+	 *            the number of characters to read.
+	 * @exception EOFException
+	 *                if this eraf reaches the end before reading all the
+	 *                characters.
+	 * @exception IOException
+	 *                if an I/O error occurs.
+	 */
+	public void readChar(char[] pa, int start, int n) throws IOException {
+		final int chunk = BULK_BUFFER_SIZE / 2;
+		while (n > 0) {
+			final int count = Math.min(n, chunk);
+			readBulk(count * 2).asCharBuffer().get(pa, start, count);
+			start += count;
+			n -= count;
+		}
+	}
+
 	public long readUnsignedInt() throws IOException {
 		// retaining only the first 4 bytes, ignoring sign when extending
 		return ((long) readInt()) & 0xFFFFFFFFL;
@@ -1109,8 +1146,12 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 	 *                if an I/O error occurs.
 	 */
 	public void readInt(int[] pa, int start, int n) throws IOException {
-		for (int i = start, end = n + start; i < end; i++) {
-			pa[i] = readInt();
+		final int chunk = BULK_BUFFER_SIZE / 4;
+		while (n > 0) {
+			final int count = Math.min(n, chunk);
+			readBulk(count * 4).asIntBuffer().get(pa, start, count);
+			start += count;
+			n -= count;
 		}
 	}
 
@@ -1179,8 +1220,12 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 	 *             _more_
 	 */
 	public void readLong(long[] pa, int start, int n) throws IOException {
-		for (int i = start, end = n + start; i < end; i++) {
-			pa[i] = readLong();
+		final int chunk = BULK_BUFFER_SIZE / 8;
+		while (n > 0) {
+			final int count = Math.min(n, chunk);
+			readBulk(count * 8).asLongBuffer().get(pa, start, count);
+			start += count;
+			n -= count;
 		}
 	}
 
@@ -1220,8 +1265,12 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 	 *             _more_
 	 */
 	public void readFloat(float[] pa, int start, int n) throws IOException {
-		for (int i = start, end = n + start; i < end; i++) {
-			pa[i] = Float.intBitsToFloat(readInt());
+		final int chunk = BULK_BUFFER_SIZE / 4;
+		while (n > 0) {
+			final int count = Math.min(n, chunk);
+			readBulk(count * 4).asFloatBuffer().get(pa, start, count);
+			start += count;
+			n -= count;
 		}
 	}
 
@@ -1261,9 +1310,37 @@ public class EnhancedRandomAccessFile implements DataInput, DataOutput {
 	 *             _more_
 	 */
 	public void readDouble(double[] pa, int start, int n) throws IOException {
-		for (int i = start, end = n + start; i < end; i++) {
-			pa[i] = Double.longBitsToDouble(readLong());
+		final int chunk = BULK_BUFFER_SIZE / 8;
+		while (n > 0) {
+			final int count = Math.min(n, chunk);
+			readBulk(count * 8).asDoubleBuffer().get(pa, start, count);
+			start += count;
+			n -= count;
+		}
+	}
+
+	/**
+	 * Reads <code>nbytes</code> bytes, at most {@link #BULK_BUFFER_SIZE}, in
+	 * the scratch buffer used by the bulk primitive reads, and returns it
+	 * ordered as this eraf.
+	 * 
+	 * @param nbytes
+	 *            the number of bytes to read.
+	 * @return the scratch buffer, holding the bytes read.
+	 * @exception EOFException
+	 *                if this eraf reaches the end before reading all the bytes.
+	 * @exception IOException
+	 *                if an I/O error occurs.
+	 */
+	private ByteBuffer readBulk(int nbytes) throws IOException {
+		if (bulkBuffer == null) {
+			bulkBuffer = ByteBuffer.allocate(BULK_BUFFER_SIZE);
 		}
+		readFully(bulkBuffer.array(), 0, nbytes);
+		bulkBuffer.clear();
+		bulkBuffer.limit(nbytes);
+		bulkBuffer.order(getByteOrder());
+		return bulkBuffer;
 	}
 
 	/**
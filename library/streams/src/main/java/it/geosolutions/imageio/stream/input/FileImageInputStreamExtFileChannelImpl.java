@@ -120,9 +120,36 @@ public class FileImageInputStreamExtFileChannelImpl extends ImageInputStreamImpl
     }
 
     public void setByteOrder(ByteOrder byteOrder) {
+        // keep the inherited byte order in synch, it is used by the
+        // ImageInputStreamImpl methods which are not overridden here
+        super.setByteOrder(byteOrder);
         fileChannelInputStream.setByteOrder(byteOrder);
     }
 
+    public void readFully(short[] s, int off, int len) throws IOException {
+        fileChannelInputStream.readFully(s, off, len);
+    }
+
+    public void readFully(char[] c, int off, int len) throws IOException {
+        fileChannelInputStream.readFully(c, off, len);
+    }
+
+    public void readFully(int[] i, int off, int len) throws IOException {
+        fileChannelInputStream.readFully(i, off, len);
+    }
+
+    public void readFully(long[] l, int off, int len) throws IOException {
+        fileChannelInputStream.readFully(l, off, len);
+    }
+
+    public void readFully(float[] f, int off, int len) throws IOException {
+        fileChannelInputStream.readFully(f, off, len);
+    }
+
+    public void readFully(double[] d, int off, int len) throws IOException {
+        fileChannelInputStream.readFully(d, off, len);
+    }
+
     public int skipBytes(int n) throws IOException {
         return fileChannelInputStream.skipBytes(n);
     }
@@ -136,10 +136,57 @@ public  class FileImageInputStreamExtImpl extends ImageInputStreamImpl
     }
 
     public void setByteOrder(ByteOrder byteOrder) {
-
+        // keep the inherited byte order in synch, it is used by the
+        // ImageInputStreamImpl methods which are not overridden here
+        super.setByteOrder(byteOrder);
         eraf.setByteOrder(byteOrder);
     }
 
+    public void readFully(short[] s, int off, int len) throws IOException {
+        checkBulkRead(s.length, off, len);
+        eraf.readShort(s, off, len);
+        streamPos = eraf.getFilePointer();
+    }
+
+    public void readFully(char[] c, int off, int len) throws IOException {
+        checkBulkRead(c.length, off, len);
+        eraf.readChar(c, off, len);
+        streamPos = eraf.getFilePointer();
+    }
+
+    public void readFully(int[] i, int off, int len) throws IOException {
+        checkBulkRead(i.length, off, len);
+        eraf.readInt(i, off, len);
+        streamPos = eraf.getFilePointer();
+    }
+
+    public void readFully(long[] l, int off, int len) throws IOException {
+        checkBulkRead(l.length, off, len);
+        eraf.readLong(l, off, len);
+        streamPos = eraf.getFilePointer();
+    }
+
+    public void readFully(float[] f, int off, int len) throws IOException {
+        checkBulkRead(f.length, off, len);
+        eraf.readFloat(f, off, len);
+        streamPos = eraf.getFilePointer();
+    }
+
+    public void readFully(double[] d, int off, int len) throws IOException {
+        checkBulkRead(d.length, off, len);
+        eraf.readDouble(d, off, len);
+        streamPos = eraf.getFilePointer();
+    }
+
+    private void checkBulkRead(int arrayLength, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > arrayLength || off + len < 0) {
+            throw new IndexOutOfBoundsException(
+                    "off < 0 || len < 0 || off + len > array length!");
+        }
+        bitOffset = 0;
+    }
+
     public int skipBytes(int n) throws IOException {
 
         return eraf.skipBytes(n);
@@ -0,0 +1,424 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.stream.input;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An implementation of {@link ImageInputStream} that gets its input from a
+ * {@link File} by mapping it in memory. The file is mapped as a sequence of
+ * read only {@link MappedByteBuffer} segments, hence files larger than 2GB
+ * are supported, and no data is copied by the stream itself: pages are loaded
+ * on demand and cached by the operating system.
+ * 
+ * <p>
+ * Multi byte values and primitive arrays are decoded straight from the mapped
+ * segments, in the byte order of the stream. The file contents must not change
+ * while the stream is open. The mappings are released by the garbage
+ * collector once the stream has been closed and is no longer referenced.
+ */
+public class FileImageInputStreamExtMappedImpl extends ImageInputStreamImpl
+        implements FileImageInputStreamExt {
+
+    /** The default size of the mapped segments, 1GB. */
+    public static final int DEFAULT_SEGMENT_SIZE = 1 << 30;
+
+    /** the associated {@link File}*/
+    private final File file;
+
+    private final long length;
+
+    private final int segmentSize;
+
+    private MappedByteBuffer[] segments;
+
+    private boolean isClosed;
+
+    /**
+     * Constructs a {@link FileImageInputStreamExtMappedImpl} that will read
+     * from a given {@link File}, using segments of
+     * {@link #DEFAULT_SEGMENT_SIZE} bytes.
+     * 
+     * @param f
+     *                a {@link File} to read from.
+     * 
+     * @exception NullPointerException
+     *                    if <code>f</code> is <code>null</code>.
+     * @exception FileNotFoundException
+     *                    if <code>f</code> is a directory or cannot be opened
+     *                    for reading for any other reason.
+     * @exception IOException
+     *                    if an I/O error occurs.
+     */
+    public FileImageInputStreamExtMappedImpl(File f) throws FileNotFoundException,
+            IOException {
+        this(f, DEFAULT_SEGMENT_SIZE);
+    }
+
+    /**
+     * Constructs a {@link FileImageInputStreamExtMappedImpl} that will read
+     * from a given {@link File}, mapping it in segments of the given size.
+     * 
+     * @param f
+     *                a {@link File} to read from.
+     * @param segmentSize
+     *                the size in bytes of each mapped segment.
+     * 
+     * @exception NullPointerException
+     *                    if <code>f</code> is <code>null</code>.
+     * @exception IllegalArgumentException
+     *                    if <code>segmentSize</code> is not positive.
+     * @exception FileNotFoundException
+     *                    if <code>f</code> is a directory or cannot be opened
+     *                    for reading for any other reason.
+     * @exception IOException
+     *                    if an I/O error occurs.
+     */
+    public FileImageInputStreamExtMappedImpl(File f, int segmentSize) throws IOException {
+        // //
+        //
+        // Check that the input file is a valid file
+        //
+        // //
+        if (f == null) {
+            throw new NullPointerException("f == null!");
+        }
+        if (segmentSize <= 0) {
+            throw new IllegalArgumentException("segmentSize <= 0!");
+        }
+        final StringBuilder buff = new StringBuilder("Invalid input file provided");
+        if (!f.exists() || f.isDirectory()) {
+            buff.append("exists: ").append(f.exists()).append("\n");
+            buff.append("isDirectory: ").append(f.isDirectory()).append("\n");
+            throw new FileNotFoundException(buff.toString());
+        }
+        if (!f.canRead()) {
+            buff.append("canRead: ").append(f.canRead()).append("\n");
+            throw new IOException(buff.toString());
+        }
+        this.file = f;
+        this.segmentSize = segmentSize;
+
+        // The mappings stay valid once the channel has been closed
+        final RandomAccessFile raf = new RandomAccessFile(f, "r");
+        try {
+            final FileChannel channel = raf.getChannel();
+            this.length = channel.size();
+            final int numSegments = (int) ((length + segmentSize - 1) / segmentSize);
+            this.segments = new MappedByteBuffer[numSegments];
+            for (int i = 0; i < numSegments; i++) {
+                final long position = (long) i * segmentSize;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, position,
+                        Math.min(segmentSize, length - position));
+            }
+        } finally {
+            raf.close();
+        }
+
+        // NOTE: this must be done accordingly to what ImageInputStreamImpl
+        // does, otherwise some ImageReader subclasses might not work.
+        setByteOrder(ByteOrder.BIG_ENDIAN);
+    }
+
+    public void setByteOrder(ByteOrder byteOrder) {
+        super.setByteOrder(byteOrder);
+        for (MappedByteBuffer segment : segments) {
+            segment.order(byteOrder);
+        }
+    }
+
+    /**
+     * Returns the number of elements of <code>elementSize</code> bytes, up to
+     * <code>len</code>, which can be read from the current segment starting
+     * at the current position. Zero is returned if an element spans two
+     * segments or the end of the file has been reached.
+     */
+    private int available(int elementSize, int len) throws IOException {
+        checkClosed();
+        if (streamPos >= length) {
+            return 0;
+        }
+        final int index = (int) (streamPos % segmentSize);
+        final int remaining = segments[(int) (streamPos / segmentSize)].limit() - index;
+        return Math.min(len, remaining / elementSize);
+    }
+
+    /**
+     * Returns the segment holding the next <code>size</code> bytes,
+     * positioned at the current stream position, and moves the stream
+     * position past them. Returns <code>null</code> if the bytes span two
+     * segments or go beyond the end of the file.
+     */
+    private ByteBuffer buffer(int size) throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos + size > length) {
+            return null;
+        }
+        final int index = (int) (streamPos % segmentSize);
+        final MappedByteBuffer segment = segments[(int) (streamPos / segmentSize)];
+        if (index + size > segment.limit()) {
+            return null;
+        }
+        segment.position(index);
+        streamPos += size;
+        return segment;
+    }
+
+    /**
+     * Reads a byte from the mapped file.
+     */
+    public int read() throws IOException {
+        final ByteBuffer buffer = buffer(1);
+        return buffer != null ? buffer.get() & 0xff : -1;
+    }
+
+    /**
+     * Read up to <code>len</code> bytes into an array, at a specified offset.
+     * 
+     * @param b
+     *                the byte array to receive the bytes.
+     * @param off
+     *                the offset in the array where copying will start.
+     * @param len
+     *                the number of bytes to copy.
+     * @return the actual number of bytes read, or -1 if there is not more data
+     *         due to the end of the file being reached.
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length || off + len < 0) {
+            throw new IndexOutOfBoundsException(
+                    "off < 0 || len < 0 || off + len > b.length!");
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
+        }
+        int read = 0;
+        while (len > 0) {
+            final int n = available(1, len);
+            if (n == 0) {
+                break;
+            }
+            buffer(n).get(b, off, n);
+            off += n;
+            len -= n;
+            read += n;
+        }
+        return read;
+    }
+
+    public short readShort() throws IOException {
+        final ByteBuffer buffer = buffer(2);
+        return buffer != null ? buffer.getShort() : super.readShort();
+    }
+
+    public int readInt() throws IOException {
+        final ByteBuffer buffer = buffer(4);
+        return buffer != null ? buffer.getInt() : super.readInt();
+    }
+
+    public long readLong() throws IOException {
+        final ByteBuffer buffer = buffer(8);
+        return buffer != null ? buffer.getLong() : super.readLong();
+    }
+
+    public float readFloat() throws IOException {
+        final ByteBuffer buffer = buffer(4);
+        return buffer != null ? buffer.getFloat() : super.readFloat();
+    }
+
+    public double readDouble() throws IOException {
+        final ByteBuffer buffer = buffer(8);
+        return buffer != null ? buffer.getDouble() : super.readDouble();
+    }
+
+    public void readFully(short[] s, int off, int len) throws IOException {
+        checkBounds(s.length, off, len);
+        while (len > 0) {
+            final int n = available(2, len);
+            if (n == 0) {
+                // The next value spans two segments
+                s[off++] = readShort();
+                len--;
+                continue;
+            }
+            buffer(2 * n).asShortBuffer().get(s, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readFully(char[] c, int off, int len) throws IOException {
+        checkBounds(c.length, off, len);
+        while (len > 0) {
+            final int n = available(2, len);
+            if (n == 0) {
+                c[off++] = readChar();
+                len--;
+                continue;
+            }
+            buffer(2 * n).asCharBuffer().get(c, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readFully(int[] i, int off, int len) throws IOException {
+        checkBounds(i.length, off, len);
+        while (len > 0) {
+            final int n = available(4, len);
+            if (n == 0) {
+                i[off++] = readInt();
+                len--;
+                continue;
+            }
+            buffer(4 * n).asIntBuffer().get(i, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readFully(long[] l, int off, int len) throws IOException {
+        checkBounds(l.length, off, len);
+        while (len > 0) {
+            final int n = available(8, len);
+            if (n == 0) {
+                l[off++] = readLong();
+                len--;
+                continue;
+            }
+            buffer(8 * n).asLongBuffer().get(l, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readFully(float[] f, int off, int len) throws IOException {
+        checkBounds(f.length, off, len);
+        while (len > 0) {
+            final int n = available(4, len);
+            if (n == 0) {
+                f[off++] = readFloat();
+                len--;
+                continue;
+            }
+            buffer(4 * n).asFloatBuffer().get(f, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    public void readFully(double[] d, int off, int len) throws IOException {
+        checkBounds(d.length, off, len);
+        while (len > 0) {
+            final int n = available(8, len);
+            if (n == 0) {
+                d[off++] = readDouble();
+                len--;
+                continue;
+            }
+            buffer(8 * n).asDoubleBuffer().get(d, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    private static void checkBounds(int arrayLength, int off, int len) {
+        if (off < 0 || len < 0 || off + len > arrayLength || off + len < 0) {
+            throw new IndexOutOfBoundsException(
+                    "off < 0 || len < 0 || off + len > array length!");
+        }
+    }
+
+    /**
+     * Returns the length of the mapped file.
+     * 
+     * @return the file length as a <code>long</code>.
+     */
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Releases the mapped segments.
+     * 
+     * @throws IOException
+     *                 in case something bad happens.
+     */
+    public void close() throws IOException {
+        try {
+            if (!isClosed) {
+                super.close();
+            }
+        } finally {
+            isClosed = true;
+            segments = new MappedByteBuffer[0];
+        }
+    }
+
+    /**
+     * Retrieves the {@link File} we are connected to.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Disposes this {@link FileImageInputStreamExtMappedImpl} by releasing
+     * its mapped segments.
+     * 
+     */
+    public void dispose() {
+        try {
+            close();
+        } catch (IOException e) {
+
+        }
+    }
+
+    /**
+     * Provides a simple description for this {@link ImageInputStream}.
+     * 
+     * @return a simple description for this {@link ImageInputStream}.
+     */
+    public String toString() {
+        return "FileImageInputStreamExtMappedImpl which points to " + this.file.toString();
+    }
+
+    public File getTarget() {
+        return file;
+    }
+
+    public Class<File> getBinding() {
+        return File.class;
+    }
+}
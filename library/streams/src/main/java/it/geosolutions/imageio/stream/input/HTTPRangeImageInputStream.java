@@ -0,0 +1,338 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.stream.input;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An {@link ImageInputStream} reading a remote resource by means of HTTP
+ * <code>Range</code> requests, so that only the accessed portions of it are
+ * downloaded.
+ *
+ * <p>
+ * The resource is split in fixed size blocks which are kept in a LRU cache.
+ * Missing blocks needed by a read are fetched with a single request, and the
+ * request is extended to the following blocks when the stream is accessed
+ * sequentially, doubling the read ahead at each sequential miss.
+ *
+ * <p>
+ * The server must support byte ranges, otherwise an {@link IOException} is
+ * thrown at construction time.
+ */
+public class HTTPRangeImageInputStream extends ImageInputStreamImpl {
+
+    /** Default size of the cached blocks, 64KB */
+    public static final int DEFAULT_BLOCK_SIZE = 64 * 1024;
+
+    /** Default number of cached blocks, 16MB with the default block size */
+    public static final int DEFAULT_CACHE_SIZE = 256;
+
+    /** Maximum number of blocks read ahead on sequential access */
+    private static final int MAX_READ_AHEAD = 16;
+
+    private final URL url;
+
+    private final int blockSize;
+
+    private final int cacheSize;
+
+    /** The length of the remote resource */
+    private final long length;
+
+    /** The cached blocks, in access order */
+    private final Map<Long, byte[]> cache;
+
+    /** Index of the last block accessed */
+    private long lastBlock = -1;
+
+    /** Number of blocks to read ahead at the next sequential miss */
+    private int readAhead;
+
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * Creates a stream reading the provided URL with the default block and
+     * cache sizes.
+     *
+     * @param url
+     *                the http(s) {@link URL} of the resource.
+     * @throws IOException
+     *                 if the server doesn't support range requests.
+     */
+    public HTTPRangeImageInputStream(URL url) throws IOException {
+        this(url, DEFAULT_BLOCK_SIZE, DEFAULT_CACHE_SIZE);
+    }
+
+    /**
+     * Creates a stream reading the provided URL.
+     *
+     * @param url
+     *                the http(s) {@link URL} of the resource.
+     * @param blockSize
+     *                the size in bytes of the cached blocks.
+     * @param cacheSize
+     *                the maximum number of cached blocks.
+     * @throws IOException
+     *                 if the server doesn't support range requests.
+     */
+    public HTTPRangeImageInputStream(URL url, int blockSize, int cacheSize)
+            throws IOException {
+        if (url == null) {
+            throw new NullPointerException("url == null!");
+        }
+        if (!"http".equalsIgnoreCase(url.getProtocol())
+                && !"https".equalsIgnoreCase(url.getProtocol())) {
+            throw new IllegalArgumentException("Not an http URL: " + url);
+        }
+        if (blockSize <= 0) {
+            throw new IllegalArgumentException("Invalid block size: "
+                    + blockSize);
+        }
+        if (cacheSize <= 0) {
+            throw new IllegalArgumentException("Invalid cache size: "
+                    + cacheSize);
+        }
+        this.url = url;
+        this.blockSize = blockSize;
+        this.cacheSize = cacheSize;
+        this.cache = new LinkedHashMap<Long, byte[]>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Long, byte[]> eldest) {
+                return size() > HTTPRangeImageInputStream.this.cacheSize;
+            }
+        };
+
+        // the first block tells the length of the resource, and usually
+        // holds the header the reader is going to look at first
+        final HttpURLConnection connection = open(0, blockSize - 1);
+        try {
+            length = parseLength(connection);
+            final byte[] block = new byte[(int) Math.min(blockSize, length)];
+            readBlocks(connection, 0, block);
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Returns the URL this stream reads from.
+     */
+    public URL getURL() {
+        return url;
+    }
+
+    /**
+     * Returns the length of the remote resource.
+     */
+    public long length() {
+        return length;
+    }
+
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
+        }
+        len = (int) Math.min(len, length - streamPos);
+        int n = 0;
+        while (n < len) {
+            final long index = streamPos / blockSize;
+            byte[] block = cache.get(index);
+            if (block == null) {
+                block = load(index, streamPos + len - n);
+            }
+            lastBlock = index;
+            final int start = (int) (streamPos - index * blockSize);
+            final int count = Math.min(block.length - start, len - n);
+            System.arraycopy(block, start, b, off + n, count);
+            n += count;
+            streamPos += count;
+        }
+        return n;
+    }
+
+    /**
+     * Fetches the missing block with the provided index, together with the
+     * following missing blocks up to the one holding the provided end
+     * position and the blocks read ahead.
+     *
+     * @return the requested block.
+     */
+    private byte[] load(final long index, final long end) throws IOException {
+        if (index == lastBlock + 1) {
+            readAhead = Math.min(Math.max(1, readAhead * 2), MAX_READ_AHEAD);
+        } else {
+            readAhead = 0;
+        }
+        final long lastIndex = (length - 1) / blockSize;
+        long last = Math.min((end - 1) / blockSize + readAhead, lastIndex);
+        // don't fetch more than the cache can hold
+        last = Math.min(last, index + cacheSize - 1);
+        // merge the following missing blocks into one request
+        long to = index;
+        while (to < last && !cache.containsKey(to + 1)) {
+            to++;
+        }
+
+        final long from = index * blockSize;
+        final HttpURLConnection connection = open(from,
+                Math.min((to + 1) * blockSize, length) - 1);
+        try {
+            if (parseStart(connection) != from) {
+                throw new IOException("Unexpected range returned by " + url);
+            }
+            final byte[] block = new byte[(int) Math.min(blockSize, length
+                    - from)];
+            readBlocks(connection, index, block);
+            return block;
+        } catch (IOException e) {
+            connection.disconnect();
+            throw e;
+        }
+    }
+
+    /**
+     * Reads the content of a range response into the cache, the first block
+     * being stored in the provided array.
+     */
+    private void readBlocks(final HttpURLConnection connection,
+            final long index, final byte[] first) throws IOException {
+        final InputStream in = connection.getInputStream();
+        try {
+            final long end = parseEnd(connection);
+            byte[] block = first;
+            long i = index;
+            while (true) {
+                readFully(in, block);
+                cache.put(i, block);
+                final long next = ++i * blockSize;
+                if (next > end) {
+                    break;
+                }
+                block = new byte[(int) Math.min(blockSize, length - next)];
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    private static void readFully(final InputStream in, final byte[] b)
+            throws IOException {
+        int n = 0;
+        while (n < b.length) {
+            final int count = in.read(b, n, b.length - n);
+            if (count == -1) {
+                throw new EOFException("Unexpected end of HTTP response");
+            }
+            n += count;
+        }
+    }
+
+    /**
+     * Issues a request for the provided inclusive byte range.
+     */
+    private HttpURLConnection open(final long from, final long to)
+            throws IOException {
+        final HttpURLConnection connection = (HttpURLConnection) url
+                .openConnection();
+        connection.setRequestProperty("Range", "bytes=" + from + "-" + to);
+        final int code = connection.getResponseCode();
+        if (code != HttpURLConnection.HTTP_PARTIAL) {
+            connection.disconnect();
+            throw new IOException("Range request not supported by " + url
+                    + ", status " + code);
+        }
+        return connection;
+    }
+
+    /**
+     * Returns the three values of the <code>Content-Range</code> header of
+     * the response: first position, last position and total length, the
+     * latter being -1 if unknown.
+     */
+    private long[] parseContentRange(final HttpURLConnection connection)
+            throws IOException {
+        final String range = connection.getHeaderField("Content-Range");
+        if (range != null && range.startsWith("bytes ")) {
+            final int dash = range.indexOf('-');
+            final int slash = range.indexOf('/');
+            if (dash > 0 && slash > dash) {
+                try {
+                    final String total = range.substring(slash + 1).trim();
+                    return new long[] {
+                            Long.parseLong(range.substring(6, dash).trim()),
+                            Long.parseLong(range.substring(dash + 1, slash)
+                                    .trim()),
+                            "*".equals(total) ? -1 : Long.parseLong(total) };
+                } catch (NumberFormatException e) {
+                    // fall through
+                }
+            }
+        }
+        throw new IOException("Invalid Content-Range returned by " + url
+                + ": " + range);
+    }
+
+    private long parseLength(final HttpURLConnection connection)
+            throws IOException {
+        final long length = parseContentRange(connection)[2];
+        if (length <= 0) {
+            throw new IOException("Unknown length of " + url);
+        }
+        return length;
+    }
+
+    private long parseStart(final HttpURLConnection connection)
+            throws IOException {
+        return parseContentRange(connection)[0];
+    }
+
+    private long parseEnd(final HttpURLConnection connection)
+            throws IOException {
+        return parseContentRange(connection)[1];
+    }
+
+    /**
+     * Closes this stream, releasing the cached blocks.
+     */
+    public void close() throws IOException {
+        super.close();
+        cache.clear();
+    }
+}
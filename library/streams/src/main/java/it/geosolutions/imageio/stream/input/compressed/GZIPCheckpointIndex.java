@@ -0,0 +1,698 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.stream.input.compressed;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipException;
+
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An index of restart points inside the compressed data of a GZIP stream.
+ * 
+ * <p>
+ * Deflate compressed data can only be decoded front to back, since each
+ * block may refer to the 32K of data preceding it. This index records, at
+ * the start of a deflate block every <code>span</code> bytes of uncompressed
+ * data, the bit offset of the block in the compressed stream along with the
+ * 32K of uncompressed data preceding it, so that decompression can be
+ * resumed from there by {@link SeekableGZIPImageInputStream}.
+ * 
+ * <p>
+ * The index is built by a full scan of the compressed data and can be saved
+ * to a sidecar file in order to be reused later on. Only the first member of
+ * a GZIP stream is indexed.
+ */
+public final class GZIPCheckpointIndex {
+
+    /** Default distance in bytes of uncompressed data between checkpoints */
+    public static final long DEFAULT_SPAN = 1 << 20;
+
+    /** Size of the deflate window */
+    static final int WINDOW_SIZE = 32768;
+
+    /** Magic number identifying an index file */
+    private static final int MAGIC = 0x475a4958; // GZIX
+
+    private static final int VERSION = 1;
+
+    private static final byte[] EMPTY_WINDOW = new byte[0];
+
+    /** The length of the compressed stream, or -1 if unknown */
+    private final long compressedLength;
+
+    /** The length of the uncompressed data */
+    private final long length;
+
+    /** The distance between checkpoints */
+    private final long span;
+
+    /** Bit offsets of the checkpoints in the compressed stream */
+    private final long[] bitOffsets;
+
+    /** Offsets of the checkpoints in the uncompressed data */
+    private final long[] offsets;
+
+    /** Uncompressed data preceding each checkpoint, up to the window size */
+    private final byte[][] windows;
+
+    private GZIPCheckpointIndex(long compressedLength, long length, long span,
+            long[] bitOffsets, long[] offsets, byte[][] windows) {
+        this.compressedLength = compressedLength;
+        this.length = length;
+        this.span = span;
+        this.bitOffsets = bitOffsets;
+        this.offsets = offsets;
+        this.windows = windows;
+    }
+
+    /**
+     * Builds an index by scanning a GZIP stream from its current position.
+     * 
+     * @param iis
+     *                the {@link ImageInputStream} positioned at the start of
+     *                the GZIP header.
+     * @param span
+     *                the distance in bytes of uncompressed data between
+     *                checkpoints.
+     * @return the index.
+     * @throws IOException
+     *                 if the stream cannot be read or it is not a valid GZIP
+     *                 stream.
+     */
+    public static GZIPCheckpointIndex build(final ImageInputStream iis,
+            final long span) throws IOException {
+        if (span <= 0) {
+            throw new IllegalArgumentException("Invalid span: " + span);
+        }
+        final long dataStart = skipHeader(iis);
+        return new Scanner(iis, dataStart, span).scan();
+    }
+
+    /**
+     * Loads an index from a sidecar file.
+     * 
+     * @param indexFile
+     *                the sidecar file.
+     * @return the index.
+     * @throws IOException
+     *                 if the file cannot be read or it is not an index.
+     */
+    public static GZIPCheckpointIndex read(final File indexFile)
+            throws IOException {
+        final DataInputStream in = new DataInputStream(new InflaterInputStream(
+                new BufferedInputStream(new FileInputStream(indexFile))));
+        try {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+                throw new IOException("Not a valid GZIP index file: "
+                        + indexFile);
+            }
+            final long compressedLength = in.readLong();
+            final long length = in.readLong();
+            final long span = in.readLong();
+            final int count = in.readInt();
+            if (count <= 0 || span <= 0) {
+                throw new IOException("Not a valid GZIP index file: "
+                        + indexFile);
+            }
+            final long[] bitOffsets = new long[count];
+            final long[] offsets = new long[count];
+            final byte[][] windows = new byte[count][];
+            for (int i = 0; i < count; i++) {
+                bitOffsets[i] = in.readLong();
+                offsets[i] = in.readLong();
+                final int windowLength = in.readInt();
+                if (windowLength < 0 || windowLength > WINDOW_SIZE) {
+                    throw new IOException("Not a valid GZIP index file: "
+                            + indexFile);
+                }
+                windows[i] = new byte[windowLength];
+                in.readFully(windows[i]);
+            }
+            return new GZIPCheckpointIndex(compressedLength, length, span,
+                    bitOffsets, offsets, windows);
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * Saves this index to a sidecar file.
+     * 
+     * @param indexFile
+     *                the sidecar file.
+     * @throws IOException
+     */
+    public void write(final File indexFile) throws IOException {
+        final DataOutputStream out = new DataOutputStream(
+                new DeflaterOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(indexFile))));
+        try {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(compressedLength);
+            out.writeLong(length);
+            out.writeLong(span);
+            out.writeInt(offsets.length);
+            for (int i = 0; i < offsets.length; i++) {
+                out.writeLong(bitOffsets[i]);
+                out.writeLong(offsets[i]);
+                out.writeInt(windows[i].length);
+                out.write(windows[i]);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Checks whether this index can be used for the provided compressed
+     * stream, by comparing the stream lengths when known.
+     * 
+     * @param iis
+     *                the compressed stream.
+     * @return <code>false</code> if this index has been built for a stream
+     *         of a different length.
+     * @throws IOException
+     */
+    public boolean isValidFor(final ImageInputStream iis) throws IOException {
+        final long streamLength = iis.length();
+        return compressedLength < 0 || streamLength < 0
+                || compressedLength == streamLength;
+    }
+
+    /**
+     * Returns the length of the uncompressed data.
+     * 
+     * @return the uncompressed length.
+     */
+    public long getLength() {
+        return length;
+    }
+
+    /**
+     * Returns the distance in bytes of uncompressed data between checkpoints.
+     * 
+     * @return the span.
+     */
+    public long getSpan() {
+        return span;
+    }
+
+    /**
+     * Returns the number of checkpoints of this index.
+     * 
+     * @return the number of checkpoints.
+     */
+    public int getNumCheckpoints() {
+        return offsets.length;
+    }
+
+    /**
+     * Returns the last checkpoint which is not after the provided offset.
+     */
+    int getCheckpoint(final long offset) {
+        int i = Arrays.binarySearch(offsets, offset);
+        return i >= 0 ? i : Math.max(0, -i - 2);
+    }
+
+    long getBitOffset(final int checkpoint) {
+        return bitOffsets[checkpoint];
+    }
+
+    long getOffset(final int checkpoint) {
+        return offsets[checkpoint];
+    }
+
+    byte[] getWindow(final int checkpoint) {
+        return windows[checkpoint];
+    }
+
+    /**
+     * Skips a GZIP member header, returning the position of the compressed
+     * data.
+     */
+    static long skipHeader(final ImageInputStream iis) throws IOException {
+        final int id1 = iis.read();
+        final int id2 = iis.read();
+        if (id1 != 0x1f || id2 != 0x8b) {
+            throw new ZipException("Not in GZIP format");
+        }
+        if (iis.read() != 8) {
+            throw new ZipException("Unsupported compression method");
+        }
+        final int flags = iis.read();
+        if (flags < 0) {
+            throw new EOFException();
+        }
+        // skip MTIME, XFL and OS fields
+        iis.readFully(new byte[6]);
+        // skip optional extra field
+        if ((flags & 4) != 0) {
+            final int b1 = iis.read();
+            final int b2 = iis.read();
+            if (b2 < 0) {
+                throw new EOFException();
+            }
+            iis.readFully(new byte[(b2 << 8) | b1]);
+        }
+        // skip optional file name and comment
+        for (int flag = 8; flag <= 16; flag <<= 1) {
+            if ((flags & flag) != 0) {
+                int b;
+                while ((b = iis.read()) != 0) {
+                    if (b < 0) {
+                        throw new EOFException();
+                    }
+                }
+            }
+        }
+        // skip optional header CRC
+        if ((flags & 2) != 0) {
+            iis.readFully(new byte[2]);
+        }
+        return iis.getStreamPosition();
+    }
+
+    /**
+     * A plain deflate decoder, keeping track of the bit position of each block
+     * and of the last 32K of uncompressed data in order to record checkpoints.
+     */
+    private static final class Scanner {
+
+        private static final int MAX_BITS = 15;
+
+        private static final int FAST_BITS = 10;
+
+        private static final int WINDOW_MASK = WINDOW_SIZE - 1;
+
+        private static final short[] LENGTH_BASE = { 3, 4, 5, 6, 7, 8, 9, 10,
+                11, 13, 15, 17, 19, 23, 27, 31, 35, 43, 51, 59, 67, 83, 99,
+                115, 131, 163, 195, 227, 258 };
+
+        private static final short[] LENGTH_EXTRA = { 0, 0, 0, 0, 0, 0, 0, 0,
+                1, 1, 1, 1, 2, 2, 2, 2, 3, 3, 3, 3, 4, 4, 4, 4, 5, 5, 5, 5, 0 };
+
+        private static final short[] DIST_BASE = { 1, 2, 3, 4, 5, 7, 9, 13,
+                17, 25, 33, 49, 65, 97, 129, 193, 257, 385, 513, 769, 1025,
+                1537, 2049, 3073, 4097, 6145, 8193, 12289, 16385, 24577 };
+
+        private static final short[] DIST_EXTRA = { 0, 0, 0, 0, 1, 1, 2, 2, 3,
+                3, 4, 4, 5, 5, 6, 6, 7, 7, 8, 8, 9, 9, 10, 10, 11, 11, 12, 12,
+                13, 13 };
+
+        private static final short[] CODE_LENGTHS_ORDER = { 16, 17, 18, 0, 8,
+                7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1, 15 };
+
+        /** A canonical Huffman code, with a lookup table for short codes */
+        private static final class Huffman {
+
+            final short[] count = new short[MAX_BITS + 1];
+
+            final short[] symbol;
+
+            final int[] fast = new int[1 << FAST_BITS];
+
+            Huffman(int maxSymbols) {
+                symbol = new short[maxSymbols];
+            }
+        }
+
+        private final ImageInputStream iis;
+
+        private final long dataStart;
+
+        private final long span;
+
+        private final byte[] buffer = new byte[65536];
+
+        /** Stream position of the first byte of the buffer */
+        private long bufferStart;
+
+        private int bufferPos;
+
+        private int bufferLength;
+
+        private int bitBuffer;
+
+        private int bitCount;
+
+        private final byte[] window = new byte[WINDOW_SIZE];
+
+        /** Number of uncompressed bytes */
+        private long out;
+
+        private final Huffman lengthCode = new Huffman(288);
+
+        private final Huffman distanceCode = new Huffman(30);
+
+        private final short[] lengths = new short[320];
+
+        private final List<long[]> positions = new ArrayList<long[]>();
+
+        private final List<byte[]> windows = new ArrayList<byte[]>();
+
+        Scanner(ImageInputStream iis, long dataStart, long span) {
+            this.iis = iis;
+            this.dataStart = dataStart;
+            this.span = span;
+            this.bufferStart = dataStart;
+        }
+
+        GZIPCheckpointIndex scan() throws IOException {
+            iis.seek(dataStart);
+            long lastCheckpoint = 0;
+            addCheckpoint();
+            boolean last;
+            do {
+                if (out - lastCheckpoint >= span) {
+                    addCheckpoint();
+                    lastCheckpoint = out;
+                }
+                last = bits(1) == 1;
+                switch (bits(2)) {
+                case 0:
+                    stored();
+                    break;
+                case 1:
+                    fixed();
+                    break;
+                case 2:
+                    dynamic();
+                    break;
+                default:
+                    throw new ZipException("Invalid deflate block type");
+                }
+            } while (!last);
+
+            // check the uncompressed size in the trailer, after the CRC
+            dropBits(bitCount & 7);
+            bits(16);
+            bits(16);
+            final long size = bits(16) | ((long) bits(16) << 16);
+            if (size != (out & 0xffffffffL)) {
+                throw new ZipException("Corrupt GZIP trailer");
+            }
+
+            final int count = positions.size();
+            final long[] bitOffsets = new long[count];
+            final long[] offsets = new long[count];
+            for (int i = 0; i < count; i++) {
+                bitOffsets[i] = positions.get(i)[0];
+                offsets[i] = positions.get(i)[1];
+            }
+            return new GZIPCheckpointIndex(iis.length(), out, span,
+                    bitOffsets, offsets, windows.toArray(new byte[count][]));
+        }
+
+        private void addCheckpoint() {
+            final long bitOffset = (bufferStart + bufferPos) * 8 - bitCount;
+            final byte[] checkpointWindow;
+            if (out == 0) {
+                checkpointWindow = EMPTY_WINDOW;
+            } else if (out < WINDOW_SIZE) {
+                checkpointWindow = new byte[(int) out];
+                System.arraycopy(window, 0, checkpointWindow, 0, (int) out);
+            } else {
+                checkpointWindow = new byte[WINDOW_SIZE];
+                final int start = (int) out & WINDOW_MASK;
+                System.arraycopy(window, start, checkpointWindow, 0,
+                        WINDOW_SIZE - start);
+                System.arraycopy(window, 0, checkpointWindow, WINDOW_SIZE
+                        - start, start);
+            }
+            positions.add(new long[] { bitOffset, out });
+            windows.add(checkpointWindow);
+        }
+
+        private int nextByte() throws IOException {
+            if (bufferPos == bufferLength) {
+                bufferStart += bufferLength;
+                bufferPos = 0;
+                bufferLength = Math.max(0, iis.read(buffer, 0, buffer.length));
+                if (bufferLength == 0) {
+                    return -1;
+                }
+            }
+            return buffer[bufferPos++] & 0xff;
+        }
+
+        /** Loads up to the requested number of bits, if available */
+        private void fill(final int need) throws IOException {
+            while (bitCount < need) {
+                final int b = nextByte();
+                if (b < 0) {
+                    return;
+                }
+                bitBuffer |= b << bitCount;
+                bitCount += 8;
+            }
+        }
+
+        private int bits(final int need) throws IOException {
+            if (bitCount < need) {
+                fill(need);
+                if (bitCount < need) {
+                    throw new EOFException("Unexpected end of GZIP data");
+                }
+            }
+            final int value = bitBuffer & ((1 << need) - 1);
+            dropBits(need);
+            return value;
+        }
+
+        private void dropBits(final int n) {
+            bitBuffer >>>= n;
+            bitCount -= n;
+        }
+
+        private void put(final int b) {
+            window[(int) out & WINDOW_MASK] = (byte) b;
+            out++;
+        }
+
+        private void stored() throws IOException {
+            // go to a byte boundary
+            dropBits(bitCount & 7);
+            int length = bits(16);
+            if ((bits(16) ^ 0xffff) != length) {
+                throw new ZipException("Invalid stored block length");
+            }
+            while (length > 0 && bitCount > 0) {
+                put(bits(8));
+                length--;
+            }
+            while (length > 0) {
+                final int b = nextByte();
+                if (b < 0) {
+                    throw new EOFException("Unexpected end of GZIP data");
+                }
+                put(b);
+                length--;
+            }
+        }
+
+        private void fixed() throws IOException {
+            int symbol = 0;
+            for (; symbol < 144; symbol++) {
+                lengths[symbol] = 8;
+            }
+            for (; symbol < 256; symbol++) {
+                lengths[symbol] = 9;
+            }
+            for (; symbol < 280; symbol++) {
+                lengths[symbol] = 7;
+            }
+            for (; symbol < 288; symbol++) {
+                lengths[symbol] = 8;
+            }
+            construct(lengthCode, lengths, 0, 288);
+            for (symbol = 0; symbol < 30; symbol++) {
+                lengths[symbol] = 5;
+            }
+            construct(distanceCode, lengths, 0, 30);
+            codes();
+        }
+
+        private void dynamic() throws IOException {
+            final int nlen = bits(5) + 257;
+            final int ndist = bits(5) + 1;
+            final int ncode = bits(4) + 4;
+            if (nlen > 286 || ndist > 30) {
+                throw new ZipException("Invalid dynamic block code counts");
+            }
+            int index = 0;
+            for (; index < ncode; index++) {
+                lengths[CODE_LENGTHS_ORDER[index]] = (short) bits(3);
+            }
+            for (; index < 19; index++) {
+                lengths[CODE_LENGTHS_ORDER[index]] = 0;
+            }
+            construct(lengthCode, lengths, 0, 19);
+
+            index = 0;
+            while (index < nlen + ndist) {
+                int symbol = decode(lengthCode);
+                if (symbol < 16) {
+                    lengths[index++] = (short) symbol;
+                } else {
+                    short length = 0;
+                    if (symbol == 16) {
+                        if (index == 0) {
+                            throw new ZipException("Invalid repeated length");
+                        }
+                        length = lengths[index - 1];
+                        symbol = 3 + bits(2);
+                    } else if (symbol == 17) {
+                        symbol = 3 + bits(3);
+                    } else {
+                        symbol = 11 + bits(7);
+                    }
+                    if (index + symbol > nlen + ndist) {
+                        throw new ZipException("Too many code lengths");
+                    }
+                    while (symbol-- > 0) {
+                        lengths[index++] = length;
+                    }
+                }
+            }
+            if (lengths[256] == 0) {
+                throw new ZipException("Missing end of block code");
+            }
+            construct(lengthCode, lengths, 0, nlen);
+            construct(distanceCode, lengths, nlen, ndist);
+            codes();
+        }
+
+        private void codes() throws IOException {
+            while (true) {
+                int symbol = decode(lengthCode);
+                if (symbol < 256) {
+                    put(symbol);
+                } else if (symbol == 256) {
+                    return;
+                } else {
+                    symbol -= 257;
+                    if (symbol >= 29) {
+                        throw new ZipException("Invalid literal/length code");
+                    }
+                    int length = LENGTH_BASE[symbol] + bits(LENGTH_EXTRA[symbol]);
+                    symbol = decode(distanceCode);
+                    if (symbol >= 30) {
+                        throw new ZipException("Invalid distance code");
+                    }
+                    final int distance = DIST_BASE[symbol]
+                            + bits(DIST_EXTRA[symbol]);
+                    if (distance > out) {
+                        throw new ZipException("Invalid distance too far back");
+                    }
+                    while (length-- > 0) {
+                        window[(int) out & WINDOW_MASK] = window[(int) (out - distance)
+                                & WINDOW_MASK];
+                        out++;
+                    }
+                }
+            }
+        }
+
+        private int decode(final Huffman h) throws IOException {
+            fill(MAX_BITS);
+            final int entry = h.fast[bitBuffer & ((1 << FAST_BITS) - 1)];
+            if (entry != 0 && (entry & 0xf) <= bitCount) {
+                dropBits(entry & 0xf);
+                return entry >>> 4;
+            }
+            // long code, decode bit by bit
+            int code = 0;
+            int first = 0;
+            int index = 0;
+            for (int length = 1; length <= MAX_BITS; length++) {
+                code |= bits(1);
+                final int count = h.count[length];
+                if (code - count < first) {
+                    return h.symbol[index + (code - first)];
+                }
+                index += count;
+                first += count;
+                first <<= 1;
+                code <<= 1;
+            }
+            throw new ZipException("Invalid Huffman code");
+        }
+
+        private static void construct(final Huffman h, final short[] lengths,
+                final int offset, final int n) throws ZipException {
+            final short[] count = h.count;
+            Arrays.fill(count, (short) 0);
+            for (int symbol = 0; symbol < n; symbol++) {
+                count[lengths[offset + symbol]]++;
+            }
+            if (count[0] == n) {
+                // no codes, decoding will fail
+                Arrays.fill(h.fast, 0);
+                return;
+            }
+            int left = 1;
+            for (int length = 1; length <= MAX_BITS; length++) {
+                left <<= 1;
+                left -= count[length];
+                if (left < 0) {
+                    throw new ZipException("Over-subscribed Huffman code");
+                }
+            }
+
+            // symbols sorted by length, and first code of each length
+            final int[] offs = new int[MAX_BITS + 1];
+            final int[] next = new int[MAX_BITS + 1];
+            int code = 0;
+            for (int length = 1; length < MAX_BITS; length++) {
+                offs[length + 1] = offs[length] + count[length];
+            }
+            for (int length = 2; length <= MAX_BITS; length++) {
+                code = (code + count[length - 1]) << 1;
+                next[length] = code;
+            }
+            Arrays.fill(h.fast, 0);
+            for (int symbol = 0; symbol < n; symbol++) {
+                final int length = lengths[offset + symbol];
+                if (length != 0) {
+                    h.symbol[offs[length]++] = (short) symbol;
+                    final int c = next[length]++;
+                    if (length <= FAST_BITS) {
+                        int reversed = Integer.reverse(c) >>> (32 - length);
+                        for (; reversed < 1 << FAST_BITS; reversed += 1 << length) {
+                            h.fast[reversed] = (symbol << 4) | length;
+                        }
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,399 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.stream.input.compressed;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An {@link ImageInputStream} decompressing a GZIP stream which, unlike
+ * {@link GZIPImageInputStream}, supports random access.
+ * 
+ * <p>
+ * Reading forward just decompresses the data. When seeking backward, a
+ * {@link GZIPCheckpointIndex} is built by scanning the whole stream once, and
+ * decompression is then resumed from the closest checkpoint preceding the
+ * requested position. The same happens when seeking forward past a checkpoint.
+ * An index built beforehand, possibly loaded from a sidecar file, can be
+ * provided at construction time.
+ * 
+ * <p>
+ * Only the first member of the GZIP stream is read, and its CRC is not
+ * checked.
+ */
+public class SeekableGZIPImageInputStream extends ImageInputStreamImpl {
+
+    /** The compressed stream */
+    private final ImageInputStream iis;
+
+    /** Position of the GZIP header in the compressed stream */
+    private final long headerStart;
+
+    /** Position of the deflate data in the compressed stream */
+    private final long dataStart;
+
+    private final long span;
+
+    private GZIPCheckpointIndex index;
+
+    private final Inflater inflater = new Inflater(true);
+
+    private final byte[] input = new byte[8192];
+
+    /** Position of the next byte to read from the compressed stream */
+    private long inputPos;
+
+    /** Bit offset of the deflate data inside the first input byte */
+    private int shift;
+
+    /**
+     * Empty deflate blocks ending at the bit offset of the deflate data, to
+     * be merged with the first input byte, or <code>null</code>
+     */
+    private byte[] prefix;
+
+    /** Offset in the uncompressed data of the next inflated byte */
+    private long inflaterPos = -1;
+
+    private byte[] skipBuffer;
+
+    private final byte[] singleByte = new byte[1];
+
+    /**
+     * Creates a stream reading the GZIP data from the current position of the
+     * provided stream, with the default checkpoint span.
+     * 
+     * @param iis
+     *                the compressed {@link ImageInputStream}.
+     * @throws IOException
+     *                 if the GZIP header cannot be read.
+     */
+    public SeekableGZIPImageInputStream(ImageInputStream iis)
+            throws IOException {
+        this(iis, GZIPCheckpointIndex.DEFAULT_SPAN);
+    }
+
+    /**
+     * Creates a stream reading the GZIP data from the current position of the
+     * provided stream.
+     * 
+     * @param iis
+     *                the compressed {@link ImageInputStream}.
+     * @param span
+     *                the distance in bytes of uncompressed data between the
+     *                checkpoints of the index, when built.
+     * @throws IOException
+     *                 if the GZIP header cannot be read.
+     */
+    public SeekableGZIPImageInputStream(ImageInputStream iis, long span)
+            throws IOException {
+        if (iis == null) {
+            throw new NullPointerException("iis == null!");
+        }
+        if (span <= 0) {
+            throw new IllegalArgumentException("Invalid span: " + span);
+        }
+        this.iis = iis;
+        this.span = span;
+        this.headerStart = iis.getStreamPosition();
+        this.dataStart = GZIPCheckpointIndex.skipHeader(iis);
+    }
+
+    /**
+     * Creates a stream reading the GZIP data from the current position of the
+     * provided stream, using an existing index.
+     * 
+     * @param iis
+     *                the compressed {@link ImageInputStream}.
+     * @param index
+     *                the {@link GZIPCheckpointIndex} of the stream.
+     * @throws IOException
+     *                 if the GZIP header cannot be read.
+     * @throws IllegalArgumentException
+     *                 if the index does not match the stream.
+     */
+    public SeekableGZIPImageInputStream(ImageInputStream iis,
+            GZIPCheckpointIndex index) throws IOException {
+        this(iis, index.getSpan());
+        if (!index.isValidFor(iis)) {
+            throw new IllegalArgumentException(
+                    "The index doesn't match the input stream");
+        }
+        this.index = index;
+    }
+
+    /**
+     * Returns the checkpoint index of this stream, building it if needed.
+     * 
+     * @return the {@link GZIPCheckpointIndex}.
+     * @throws IOException
+     *                 if the compressed stream cannot be scanned.
+     */
+    public GZIPCheckpointIndex getIndex() throws IOException {
+        checkClosed();
+        if (index == null) {
+            iis.seek(headerStart);
+            index = GZIPCheckpointIndex.build(iis, span);
+        }
+        return index;
+    }
+
+    /**
+     * Returns the length of the uncompressed data if known, that is if the
+     * index has been built, -1 otherwise.
+     */
+    public long length() {
+        return index != null ? index.getLength() : -1L;
+    }
+
+    public int read() throws IOException {
+        return read(singleByte, 0, 1) == -1 ? -1 : singleByte[0] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (!moveTo(streamPos)) {
+            return -1;
+        }
+        final int n = inflate(b, off, len);
+        if (n > 0) {
+            streamPos += n;
+        }
+        return n;
+    }
+
+    /**
+     * Moves the inflater to the provided offset of the uncompressed data,
+     * resuming from a checkpoint when needed.
+     * 
+     * @return <code>false</code> if the offset is past the end of the data.
+     */
+    private boolean moveTo(final long offset) throws IOException {
+        if (offset == inflaterPos) {
+            return true;
+        }
+        if (inflaterPos < 0 || offset < inflaterPos) {
+            if (inflaterPos >= 0 || offset > 0) {
+                getIndex();
+            }
+            if (index != null) {
+                resume(index.getCheckpoint(offset));
+            } else {
+                resume(dataStart * 8, 0, new byte[0]);
+            }
+        } else if (index != null) {
+            final int checkpoint = index.getCheckpoint(offset);
+            if (index.getOffset(checkpoint) > inflaterPos) {
+                resume(checkpoint);
+            }
+        }
+
+        // decompress up to the requested offset
+        if (skipBuffer == null) {
+            skipBuffer = new byte[8192];
+        }
+        while (inflaterPos < offset) {
+            final int n = inflate(skipBuffer, 0, (int) Math.min(
+                    skipBuffer.length, offset - inflaterPos));
+            if (n == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void resume(final int checkpoint) {
+        resume(index.getBitOffset(checkpoint), index.getOffset(checkpoint),
+                index.getWindow(checkpoint));
+    }
+
+    /**
+     * Resets the inflater to start decompressing at the provided bit offset,
+     * which is the start of a deflate block preceded by the given window of
+     * uncompressed data.
+     */
+    private void resume(final long bitOffset, final long offset,
+            final byte[] window) {
+        inflater.reset();
+        if (window.length > 0) {
+            inflater.setDictionary(window);
+        }
+        inputPos = bitOffset >>> 3;
+        shift = (int) (bitOffset & 7);
+        prefix = shift != 0 ? emptyBlocks(shift) : null;
+        inflaterPos = offset;
+    }
+
+    /**
+     * Returns a sequence of empty, non final, deflate blocks whose length in
+     * bits is congruent to the provided shift modulo 8. The last byte only
+     * holds the last <code>shift</code> bits of the sequence.
+     * 
+     * <p>
+     * The compressed bytes can't be shifted in order to start the inflater
+     * inside a byte, since stored blocks are padded to the byte boundaries of
+     * the original stream. The empty blocks take the place of the bits of the
+     * previous block instead, keeping the alignment. Fixed Huffman empty
+     * blocks are 10 bits long, a dynamic one only coding the end of block
+     * symbol is 93 bits long, and combined they give any odd or even length.
+     */
+    private static byte[] emptyBlocks(final int shift) {
+        final BitWriter writer = new BitWriter();
+        int fixed = shift / 2;
+        if ((shift & 1) != 0) {
+            // BFINAL = 0, BTYPE = 2, HLIT = 257, HDIST = 1, HCLEN = 18
+            writer.write(0, 1);
+            writer.write(2, 2);
+            writer.write(0, 5);
+            writer.write(0, 5);
+            writer.write(14, 4);
+            // code length code: 1 -> "0", 0 -> "10", 18 -> "11", in the
+            // order 16, 17, 18, 0, 8, 7, 9, 6, 10, 5, 11, 4, 12, 3, 13, 2, 14, 1
+            writer.write(0, 3);
+            writer.write(0, 3);
+            writer.write(2, 3);
+            writer.write(2, 3);
+            for (int i = 0; i < 13; i++) {
+                writer.write(0, 3);
+            }
+            writer.write(1, 3);
+            // literals 0-255 unused: 138 + 118 zeros
+            writer.writeCode(3, 2);
+            writer.write(127, 7);
+            writer.writeCode(3, 2);
+            writer.write(107, 7);
+            // end of block coded on 1 bit, no distance codes
+            writer.writeCode(0, 1);
+            writer.writeCode(2, 2);
+            // the end of block itself
+            writer.writeCode(0, 1);
+            fixed = ((shift - 5) & 7) / 2;
+        }
+        for (int i = 0; i < fixed; i++) {
+            // BFINAL = 0, BTYPE = 1, end of block "0000000"
+            writer.write(0, 1);
+            writer.write(1, 2);
+            writer.writeCode(0, 7);
+        }
+        return writer.toByteArray();
+    }
+
+    /** Writes bits starting from the least significant bit of each byte */
+    private static final class BitWriter {
+
+        private byte[] bytes = new byte[16];
+
+        private int count;
+
+        /** Writes a value, least significant bit first */
+        void write(final int value, final int bits) {
+            for (int i = 0; i < bits; i++) {
+                put((value >>> i) & 1);
+            }
+        }
+
+        /** Writes a Huffman code, most significant bit first */
+        void writeCode(final int code, final int bits) {
+            for (int i = bits - 1; i >= 0; i--) {
+                put((code >>> i) & 1);
+            }
+        }
+
+        private void put(final int bit) {
+            if (count >> 3 == bytes.length) {
+                final byte[] newBytes = new byte[bytes.length * 2];
+                System.arraycopy(bytes, 0, newBytes, 0, bytes.length);
+                bytes = newBytes;
+            }
+            bytes[count >> 3] |= bit << (count & 7);
+            count++;
+        }
+
+        byte[] toByteArray() {
+            final byte[] result = new byte[(count + 7) >> 3];
+            System.arraycopy(bytes, 0, result, 0, result.length);
+            return result;
+        }
+    }
+
+    private int inflate(final byte[] b, final int off, final int len)
+            throws IOException {
+        try {
+            int n;
+            while ((n = inflater.inflate(b, off, len)) == 0) {
+                if (inflater.finished() || inflater.needsDictionary()) {
+                    return -1;
+                }
+                if (inflater.needsInput()) {
+                    fill();
+                }
+            }
+            inflaterPos += n;
+            return n;
+        } catch (DataFormatException e) {
+            final String s = e.getMessage();
+            throw new ZipException(s != null ? s : "Invalid GZIP data format");
+        }
+    }
+
+    /**
+     * Provides the inflater with more input, preceded by empty blocks in
+     * place of the bits of the previous block when resuming from a checkpoint
+     * which is not on a byte boundary.
+     */
+    private void fill() throws IOException {
+        iis.seek(inputPos);
+        final int n = iis.read(input, 0, input.length);
+        if (n == -1) {
+            throw new EOFException("Unexpected end of GZIP input stream");
+        }
+        inputPos += n;
+        if (prefix == null) {
+            inflater.setInput(input, 0, n);
+            return;
+        }
+        final int last = prefix.length - 1;
+        final byte[] merged = new byte[last + n];
+        System.arraycopy(prefix, 0, merged, 0, last);
+        merged[last] = (byte) (prefix[last] | (input[0] & (0xff << shift)));
+        System.arraycopy(input, 1, merged, prefix.length, n - 1);
+        prefix = null;
+        inflater.setInput(merged, 0, merged.length);
+    }
+
+    /**
+     * Closes this stream and the underlying compressed stream.
+     */
+    public void close() throws IOException {
+        super.close();
+        inflater.end();
+        iis.close();
+    }
+}
@@ -116,7 +116,10 @@ public class FileImageInputStreamExtImplSpi extends ImageInputStreamSpi {
 
 			if (other instanceof FileImageInputStreamSpi)
 				registry.deregisterServiceProvider(other);
-			if (this != other)
+			if (other instanceof FileImageInputStreamExtMappedImplSpi)
+				FileImageInputStreamExtMappedImplSpi.setOrdering(registry, this,
+						(FileImageInputStreamExtMappedImplSpi) other);
+			else if (this != other)
 				registry.setOrdering(targetClass, this, other);
 
 		}
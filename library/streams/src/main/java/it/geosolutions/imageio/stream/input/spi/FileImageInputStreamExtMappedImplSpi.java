@@ -0,0 +1,159 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.stream.input.spi;
+
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtMappedImpl;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.ImageIO;
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ServiceRegistry;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Implementation of an {@link ImageInputStreamSpi} for instantiating a
+ * {@link FileImageInputStreamExtMappedImpl}, which reads a {@link File} by
+ * mapping it in memory.
+ * 
+ * <p>
+ * By default this provider is ordered after the
+ * {@link FileImageInputStreamExtImplSpi}, so that
+ * {@link ImageIO#createImageInputStream(Object)} keeps returning
+ * {@link it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl}
+ * instances. Setting the {@link #PREFERRED_KEY} system property to
+ * <code>true</code> makes memory mapped streams the default for files.
+ * 
+ * @see ImageInputStream
+ * @see ImageInputStreamSpi
+ * @see ImageIO#createImageInputStream(Object)
+ */
+public class FileImageInputStreamExtMappedImplSpi extends ImageInputStreamSpi {
+
+    /** Logger. */
+    private final static Logger LOGGER = Logger
+            .getLogger("it.geosolutions.imageio.stream.input.spi");
+
+    /**
+     * System property telling whether this provider should be preferred to
+     * the {@link FileImageInputStreamExtImplSpi}.
+     */
+    public static final String PREFERRED_KEY = "it.geosolutions.stream.useMemoryMapping";
+
+    private static final String vendorName = "GeoSolutions";
+
+    private static final String version = "1.0";
+
+    private static final Class<File> inputClass = File.class;
+
+    private static final boolean preferred = Boolean.getBoolean(PREFERRED_KEY);
+
+    static {
+        if (preferred && LOGGER.isLoggable(Level.INFO)) {
+            LOGGER.info("Files will be read by means of memory mapped ImageInputStreams");
+        }
+    }
+
+    public FileImageInputStreamExtMappedImplSpi() {
+        super(vendorName, version, inputClass);
+    }
+
+    /**
+     * @see ImageInputStreamSpi#getDescription(Locale).
+     */
+    public String getDescription(Locale locale) {
+        return "Service provider that creates memory mapped FileImageInputStreamExt instances";
+    }
+
+    /**
+     * Upon registration, this method orders this SPI with respect to the
+     * {@link FileImageInputStreamExtImplSpi}, according to the
+     * {@link #PREFERRED_KEY} system property.
+     * 
+     * @param registry
+     *            ServiceRegistry where this object has been registered.
+     * @param category
+     *            a Class object indicating the registry category under which
+     *            this object has been registered.
+     */
+    public void onRegistration(ServiceRegistry registry, Class<?> category) {
+        super.onRegistration(registry, category);
+        Class<ImageInputStreamSpi> targetClass = ImageInputStreamSpi.class;
+        for (Iterator<? extends ImageInputStreamSpi> i = registry.getServiceProviders(
+                targetClass, true); i.hasNext();) {
+            ImageInputStreamSpi other = i.next();
+            if (other instanceof FileImageInputStreamExtImplSpi) {
+                setOrdering(registry, (FileImageInputStreamExtImplSpi) other, this);
+            } else if (preferred && this != other) {
+                registry.setOrdering(targetClass, this, other);
+            }
+        }
+    }
+
+    /**
+     * Orders the two file based providers, according to the
+     * {@link #PREFERRED_KEY} system property. Both providers rely on this
+     * method, whatever their registration order, so that no cycle is created.
+     */
+    static void setOrdering(ServiceRegistry registry, FileImageInputStreamExtImplSpi spi,
+            FileImageInputStreamExtMappedImplSpi mappedSpi) {
+        Class<ImageInputStreamSpi> targetClass = ImageInputStreamSpi.class;
+        registry.unsetOrdering(targetClass, spi, mappedSpi);
+        registry.unsetOrdering(targetClass, mappedSpi, spi);
+        if (preferred) {
+            registry.setOrdering(targetClass, mappedSpi, spi);
+        } else {
+            registry.setOrdering(targetClass, spi, mappedSpi);
+        }
+    }
+
+    /**
+     * Returns an instance of the ImageInputStream implementation associated
+     * with this service provider.
+     * 
+     * @param input
+     *            an object of the class type returned by getInputClass.
+     * @param useCache
+     *            ignored, the file is mapped in memory.
+     * @param cacheDir
+     *            ignored, the file is mapped in memory.
+     * 
+     * @return an ImageInputStream instance, or <code>null</code> if the
+     *         input is not a {@link File} or it cannot be mapped.
+     */
+    public ImageInputStream createInputStreamInstance(Object input, boolean useCache,
+            File cacheDir) {
+        if (!(input instanceof File)) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("The provided input is not a file.");
+            return null;
+        }
+
+        try {
+            return new FileImageInputStreamExtMappedImpl((File) input);
+        } catch (IOException e) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+            return null;
+        }
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.stream.input.spi;
+
+import it.geosolutions.imageio.stream.input.HTTPRangeImageInputStream;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.Iterator;
+import java.util.Locale;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ServiceRegistry;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Implementation of an {@link ImageInputStreamSpi} for instantiating an
+ * {@link HTTPRangeImageInputStream} for an http(s) {@link URL}, so that the
+ * resource is read by means of range requests instead of being downloaded
+ * as a whole.
+ *
+ * <p>
+ * Other URLs, as well as resources on servers which don't support range
+ * requests, are handed to the {@link URLImageInputStreamSpi}.
+ *
+ * @see HTTPRangeImageInputStream
+ * @see URLImageInputStreamSpi
+ */
+public class HTTPRangeImageInputStreamSpi extends ImageInputStreamSpi {
+    /** Logger. */
+    private final static Logger LOGGER = Logger.getLogger("it.geosolutions.imageio.stream.input");
+
+    private static final URLImageInputStreamSpi urlStreamSPI = new URLImageInputStreamSpi();
+
+    private static final String vendorName = "GeoSolutions";
+
+    private static final String version = "1.0";
+
+    private static final Class<?> inputClass = URL.class;
+
+    /**
+     * Default constructor for a {@link HTTPRangeImageInputStreamSpi};
+     */
+    public HTTPRangeImageInputStreamSpi() {
+        super(vendorName, version, inputClass);
+    }
+
+    /**
+     *
+     * @see javax.imageio.spi.ImageInputStreamSpi#createInputStreamInstance(java.lang.Object,
+     *      boolean, java.io.File)
+     */
+    public ImageInputStream createInputStreamInstance(Object input,
+            boolean useCache, File cacheDir) {
+        // is it a URL?
+        if (!(input instanceof URL)) {
+            if (LOGGER.isLoggable(Level.FINE))
+                LOGGER.fine("The provided input is not a valid URL.");
+            return null;
+        }
+
+        final URL sourceURL = (URL) input;
+        final String protocol = sourceURL.getProtocol();
+        if ("http".equalsIgnoreCase(protocol) || "https".equalsIgnoreCase(protocol)) {
+            try {
+                return new HTTPRangeImageInputStream(sourceURL);
+            } catch (IOException e) {
+                if (LOGGER.isLoggable(Level.FINE))
+                    LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+            }
+        }
+        return urlStreamSPI.createInputStreamInstance(input, useCache, cacheDir);
+    }
+
+    /**
+     * @see ImageInputStreamSpi#getDescription(Locale).
+     */
+    public String getDescription(Locale locale) {
+        return "Service provider that reads the object pointed by an http URL through range requests";
+    }
+
+    /**
+     * Upon registration, this method ensures that this SPI is listed before
+     * an already registered {@link URLImageInputStreamSpi}, which would
+     * otherwise download the whole resource. The
+     * {@link URLImageInputStreamSpi} does the same when it is registered
+     * after this SPI.
+     *
+     * @param registry
+     *            ServiceRegistry where this object has been registered.
+     * @param category
+     *            a Class object indicating the registry category under which
+     *            this object has been registered.
+     */
+    public void onRegistration(ServiceRegistry registry, Class<?> category) {
+        super.onRegistration(registry, category);
+        Class<ImageInputStreamSpi> targetClass = ImageInputStreamSpi.class;
+        for (Iterator<? extends ImageInputStreamSpi> i = registry.getServiceProviders(targetClass, false); i.hasNext();) {
+            ImageInputStreamSpi other = i.next();
+            if (other instanceof URLImageInputStreamSpi)
+                registry.setOrdering(targetClass, this, other);
+        }
+    }
+}
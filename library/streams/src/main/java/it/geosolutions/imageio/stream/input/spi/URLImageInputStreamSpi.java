@@ -22,12 +22,14 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.net.URL;
+import java.util.Iterator;
 import java.util.Locale;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
 import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ServiceRegistry;
 import javax.imageio.stream.FileCacheImageInputStream;
 import javax.imageio.stream.ImageInputStream;
 import javax.imageio.stream.MemoryCacheImageInputStream;
@@ -87,7 +89,7 @@ public class URLImageInputStreamSpi extends ImageInputStreamSpi {
             // URL that points to a file?
             final URL sourceURL = ((URL) input);
             final File tempFile = ImageIOUtilities.urlToFile(sourceURL);
-            if (tempFile.exists() && tempFile.isFile() && tempFile.canRead())
+            if (tempFile != null && tempFile.exists() && tempFile.isFile() && tempFile.canRead())
                 return fileStreamSPI.createInputStreamInstance(tempFile,useCache, cacheDir);
 
             // URL that does NOT points to a file, let's open up a stream
@@ -109,4 +111,25 @@ public class URLImageInputStreamSpi extends ImageInputStreamSpi {
     public String getDescription(Locale locale) {
         return "Service provider that helps connecting to the object pointed by a URL";
     }
+
+    /**
+     * Upon registration, this method ensures that an already registered
+     * {@link HTTPRangeImageInputStreamSpi} is listed before this SPI, so that
+     * http URLs are read through range requests.
+     *
+     * @param registry
+     *            ServiceRegistry where this object has been registered.
+     * @param category
+     *            a Class object indicating the registry category under which
+     *            this object has been registered.
+     */
+    public void onRegistration(ServiceRegistry registry, Class<?> category) {
+        super.onRegistration(registry, category);
+        Class<ImageInputStreamSpi> targetClass = ImageInputStreamSpi.class;
+        for (Iterator<? extends ImageInputStreamSpi> i = registry.getServiceProviders(targetClass, false); i.hasNext();) {
+            ImageInputStreamSpi other = i.next();
+            if (other instanceof HTTPRangeImageInputStreamSpi)
+                registry.setOrdering(targetClass, other, this);
+        }
+    }
 }
@@ -0,0 +1,176 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.stream;
+
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtFileChannelImpl;
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtMappedImpl;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteOrder;
+import java.util.Random;
+import java.util.logging.Logger;
+
+import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.ImageInputStream;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Timing tests for the file based {@link ImageInputStream} implementations.
+ * They are ignored by default, enable them to compare the throughput of the
+ * different streams.
+ */
+public class ImageInputStreamSpeedTest {
+
+    private static final Logger LOGGER = Logger.getLogger(ImageInputStreamSpeedTest.class
+            .toString());
+
+    private static final int LOOP = 5;
+
+    /** Size of the sample file, 64MB. */
+    private static final int FILE_SIZE = 64 * 1024 * 1024;
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+
+    private static final int RANDOM_READS = 1000000;
+
+    private static final String[] STREAMS = new String[] { "FileImageInputStream",
+            "FileImageInputStreamExtImpl", "FileImageInputStreamExtFileChannelImpl",
+            "FileImageInputStreamExtMappedImpl" };
+
+    static File createSampleFile(int size) throws IOException {
+        final File file = File.createTempFile("sample", ".bin");
+        file.deleteOnExit();
+        final Random random = new Random(0);
+        final byte[] chunk = new byte[CHUNK_SIZE];
+        final OutputStream out = new BufferedOutputStream(new FileOutputStream(file));
+        try {
+            for (int written = 0; written < size; written += chunk.length) {
+                random.nextBytes(chunk);
+                out.write(chunk, 0, Math.min(chunk.length, size - written));
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    static ImageInputStream createStream(String name, File file) throws IOException {
+        if (name.equals("FileImageInputStream")) {
+            return new FileImageInputStream(file);
+        } else if (name.equals("FileImageInputStreamExtImpl")) {
+            return new FileImageInputStreamExtImpl(file);
+        } else if (name.equals("FileImageInputStreamExtFileChannelImpl")) {
+            return new FileImageInputStreamExtFileChannelImpl(file);
+        } else {
+            return new FileImageInputStreamExtMappedImpl(file);
+        }
+    }
+
+    static void reportTime(String message, long total, int loop) {
+        LOGGER.info(message + ": total " + (total / 1000000) + " ms, average "
+                + (total / loop / 1000000d) + " ms");
+    }
+
+    @Test
+    @Ignore
+    public void testSequentialReads() throws IOException {
+        final File file = createSampleFile(FILE_SIZE);
+        final String[] arrayTypes = new String[] { "byte", "short", "float", "double" };
+        for (String name : STREAMS) {
+            for (ByteOrder byteOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+                    ByteOrder.LITTLE_ENDIAN }) {
+                final long[] times = new long[arrayTypes.length];
+                for (int i = 0; i <= LOOP; i++) {
+                    final ImageInputStream stream = createStream(name, file);
+                    try {
+                        stream.setByteOrder(byteOrder);
+                        for (int t = 0; t < arrayTypes.length; t++) {
+                            stream.seek(0);
+                            long start = System.nanoTime();
+                            readFile(stream, arrayTypes[t]);
+                            // the first run is a warm up
+                            if (i > 0) {
+                                times[t] += System.nanoTime() - start;
+                            }
+                        }
+                    } finally {
+                        stream.close();
+                    }
+                }
+                for (int t = 0; t < arrayTypes.length; t++) {
+                    reportTime(name + ", " + byteOrder + ", " + arrayTypes[t] + "[] reads",
+                            times[t], LOOP);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads the whole sample file in chunks of {@link #CHUNK_SIZE} bytes,
+     * through the readFully method for the given primitive array type.
+     */
+    private static void readFile(ImageInputStream stream, String arrayType) throws IOException {
+        final byte[] bytes = new byte[CHUNK_SIZE];
+        final short[] shorts = new short[CHUNK_SIZE / 2];
+        final float[] floats = new float[CHUNK_SIZE / 4];
+        final double[] doubles = new double[CHUNK_SIZE / 8];
+        for (int read = 0; read < FILE_SIZE; read += CHUNK_SIZE) {
+            if (arrayType.equals("byte")) {
+                stream.readFully(bytes);
+            } else if (arrayType.equals("short")) {
+                stream.readFully(shorts, 0, shorts.length);
+            } else if (arrayType.equals("float")) {
+                stream.readFully(floats, 0, floats.length);
+            } else {
+                stream.readFully(doubles, 0, doubles.length);
+            }
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testRandomReads() throws IOException {
+        final File file = createSampleFile(FILE_SIZE);
+        for (String name : STREAMS) {
+            long total = 0;
+            for (int i = 0; i <= LOOP; i++) {
+                final Random random = new Random(0);
+                final ImageInputStream stream = createStream(name, file);
+                try {
+                    long start = System.nanoTime();
+                    for (int j = 0; j < RANDOM_READS; j++) {
+                        stream.seek(random.nextInt(FILE_SIZE - 8));
+                        stream.readLong();
+                    }
+                    if (i > 0) {
+                        total += System.nanoTime() - start;
+                    }
+                } finally {
+                    stream.close();
+                }
+            }
+            reportTime(name + ", random reads", total, LOOP);
+        }
+    }
+}
@@ -21,23 +21,50 @@ package it.geosolutions.imageio.stream;
  * 
  * @author Simone Giannecchini, GeoSolutions
  */
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtFileChannelImpl;
 import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtMappedImpl;
+import it.geosolutions.imageio.stream.input.HTTPRangeImageInputStream;
+import it.geosolutions.imageio.stream.input.compressed.GZIPCheckpointIndex;
+import it.geosolutions.imageio.stream.input.compressed.SeekableGZIPImageInputStream;
+import it.geosolutions.imageio.stream.input.spi.FileImageInputStreamExtMappedImplSpi;
+import it.geosolutions.imageio.stream.input.spi.HTTPRangeImageInputStreamSpi;
 import it.geosolutions.imageio.stream.input.spi.StringImageInputStreamSpi;
 import it.geosolutions.imageio.stream.input.spi.URLImageInputStreamSpi;
 import it.geosolutions.resources.TestData;
 
 import java.awt.HeadlessException;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URI;
 import java.net.URL;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
+import java.util.zip.Deflater;
+import java.util.zip.GZIPOutputStream;
 import java.util.logging.Logger;
 
 import javax.imageio.ImageIO;
+import javax.imageio.spi.ImageInputStreamSpi;
+import javax.imageio.spi.ServiceRegistry;
+import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 import javax.media.jai.JAI;
 import javax.media.jai.RenderedOp;
 import javax.media.jai.widget.ScrollingImagePanel;
@@ -45,6 +72,10 @@ import javax.swing.JFrame;
 
 import org.junit.Test;
 
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
 import junit.framework.Assert;
 
 public class TestImageInputStream  {
@@ -395,4 +426,512 @@ public class TestImageInputStream  {
             Assert.fail(e.getClass().getSimpleName() + " should not be thrown");
         }
     }
+
+    /**
+     * Testing {@link FileImageInputStreamExtMappedImpl} against
+     * {@link FileImageInputStream}, using tiny segments so that values span
+     * segment boundaries.
+     */
+    @Test
+    public void fileImageInputStreamExtMappedImpl() throws IOException {
+        final File file = TestData.temp(this, "mapped.bin");
+        final int count = 1000;
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeByte(1);
+            for (int i = 0; i < count; i++) {
+                out.writeShort(i * 31);
+                out.writeInt(i * 1234567);
+                out.writeLong(i * 123456789012345L);
+                out.writeFloat(i / 7f);
+                out.writeDouble(i / 3d);
+            }
+        } finally {
+            out.close();
+        }
+
+        for (ByteOrder byteOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+                ByteOrder.LITTLE_ENDIAN }) {
+            for (int segmentSize : new int[] { 7, 4096,
+                    FileImageInputStreamExtMappedImpl.DEFAULT_SEGMENT_SIZE }) {
+                final FileImageInputStream expected = new FileImageInputStream(file);
+                final FileImageInputStreamExtMappedImpl actual = new FileImageInputStreamExtMappedImpl(
+                        file, segmentSize);
+                try {
+                    Assert.assertEquals(file.length(), actual.length());
+                    expected.setByteOrder(byteOrder);
+                    actual.setByteOrder(byteOrder);
+                    Assert.assertEquals(expected.readByte(), actual.readByte());
+
+                    // single values
+                    for (int i = 0; i < count / 2; i++) {
+                        Assert.assertEquals(expected.readShort(), actual.readShort());
+                        Assert.assertEquals(expected.readInt(), actual.readInt());
+                        Assert.assertEquals(expected.readLong(), actual.readLong());
+                        Assert.assertEquals(expected.readFloat(), actual.readFloat(), 0f);
+                        Assert.assertEquals(expected.readDouble(), actual.readDouble(), 0d);
+                    }
+                    Assert.assertEquals(expected.getStreamPosition(), actual.getStreamPosition());
+
+                    // bulk reads of each primitive type from the same position
+                    final long position = actual.getStreamPosition();
+                    final int n = count / 4;
+                    final short[] s1 = new short[n], s2 = new short[n];
+                    expected.readFully(s1, 0, n);
+                    actual.readFully(s2, 0, n);
+                    Assert.assertTrue(Arrays.equals(s1, s2));
+                    final int[] i1 = new int[n], i2 = new int[n];
+                    expected.readFully(i1, 0, n);
+                    actual.readFully(i2, 0, n);
+                    Assert.assertTrue(Arrays.equals(i1, i2));
+                    final long[] l1 = new long[n], l2 = new long[n];
+                    expected.readFully(l1, 0, n);
+                    actual.readFully(l2, 0, n);
+                    Assert.assertTrue(Arrays.equals(l1, l2));
+                    final float[] f1 = new float[n], f2 = new float[n];
+                    expected.readFully(f1, 0, n);
+                    actual.readFully(f2, 0, n);
+                    Assert.assertTrue(Arrays.equals(f1, f2));
+                    final double[] d1 = new double[n], d2 = new double[n];
+                    expected.readFully(d1, 0, n);
+                    actual.readFully(d2, 0, n);
+                    Assert.assertTrue(Arrays.equals(d1, d2));
+                    final char[] c1 = new char[n], c2 = new char[n];
+                    expected.readFully(c1, 0, n);
+                    actual.readFully(c2, 0, n);
+                    Assert.assertTrue(Arrays.equals(c1, c2));
+
+                    // bytes, after seeking back
+                    expected.seek(position);
+                    actual.seek(position);
+                    final byte[] b1 = new byte[count], b2 = new byte[count];
+                    expected.readFully(b1);
+                    actual.readFully(b2);
+                    Assert.assertTrue(Arrays.equals(b1, b2));
+
+                    // end of file
+                    actual.seek(file.length() - 2);
+                    Assert.assertEquals(2, actual.read(b2, 0, 10));
+                    Assert.assertEquals(-1, actual.read());
+                    try {
+                        actual.seek(file.length() - 2);
+                        actual.readInt();
+                        Assert.fail("EOFException must be thrown.");
+                    } catch (EOFException e) {
+                        // OK
+                    }
+                } finally {
+                    expected.close();
+                    actual.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Testing the bulk primitive reads of {@link FileImageInputStreamExtImpl}
+     * and {@link FileImageInputStreamExtFileChannelImpl} against
+     * {@link FileImageInputStream}, with buffers smaller than the values.
+     */
+    @Test
+    public void fileImageInputStreamExtBulkReads() throws IOException {
+        final int count = 1000;
+        final File file = createPrimitivesFile(count);
+        for (ByteOrder byteOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+                ByteOrder.LITTLE_ENDIAN }) {
+            final ImageInputStream[] streams = new ImageInputStream[] {
+                    new FileImageInputStreamExtImpl(file),
+                    new FileImageInputStreamExtImpl(file, 7),
+                    new FileImageInputStreamExtFileChannelImpl(file) };
+            for (ImageInputStream actual : streams) {
+                final FileImageInputStream expected = new FileImageInputStream(file);
+                try {
+                    assertSameReads(expected, actual, byteOrder, count);
+                } finally {
+                    expected.close();
+                    actual.close();
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes a temporary file holding a byte followed by <code>count</code>
+     * groups of short, int, long, float and double values, so that most of
+     * them are not aligned.
+     */
+    private File createPrimitivesFile(int count) throws IOException {
+        final File file = TestData.temp(this, "primitives.bin");
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)));
+        try {
+            out.writeByte(1);
+            for (int i = 0; i < count; i++) {
+                out.writeShort(i * 31);
+                out.writeInt(i * 1234567);
+                out.writeLong(i * 123456789012345L);
+                out.writeFloat(i / 7f);
+                out.writeDouble(i / 3d);
+            }
+        } finally {
+            out.close();
+        }
+        return file;
+    }
+
+    /**
+     * Checks that single values and primitive arrays read from the two
+     * streams, positioned at the beginning of a file created by
+     * {@link #createPrimitivesFile(int)}, are the same.
+     */
+    private static void assertSameReads(ImageInputStream expected, ImageInputStream actual,
+            ByteOrder byteOrder, int count) throws IOException {
+        expected.setByteOrder(byteOrder);
+        actual.setByteOrder(byteOrder);
+        Assert.assertEquals(byteOrder, actual.getByteOrder());
+        Assert.assertEquals(expected.readByte(), actual.readByte());
+
+        // single values
+        for (int i = 0; i < count / 2; i++) {
+            Assert.assertEquals(expected.readShort(), actual.readShort());
+            Assert.assertEquals(expected.readInt(), actual.readInt());
+            Assert.assertEquals(expected.readLong(), actual.readLong());
+            Assert.assertEquals(expected.readFloat(), actual.readFloat(), 0f);
+            Assert.assertEquals(expected.readDouble(), actual.readDouble(), 0d);
+        }
+        Assert.assertEquals(expected.getStreamPosition(), actual.getStreamPosition());
+
+        // bulk reads of each primitive type
+        final long position = actual.getStreamPosition();
+        final int n = count / 4;
+        final short[] s1 = new short[n], s2 = new short[n];
+        expected.readFully(s1, 0, n);
+        actual.readFully(s2, 0, n);
+        Assert.assertTrue(Arrays.equals(s1, s2));
+        final int[] i1 = new int[n], i2 = new int[n];
+        expected.readFully(i1, 0, n);
+        actual.readFully(i2, 0, n);
+        Assert.assertTrue(Arrays.equals(i1, i2));
+        final long[] l1 = new long[n], l2 = new long[n];
+        expected.readFully(l1, 0, n);
+        actual.readFully(l2, 0, n);
+        Assert.assertTrue(Arrays.equals(l1, l2));
+        final float[] f1 = new float[n], f2 = new float[n];
+        expected.readFully(f1, 0, n);
+        actual.readFully(f2, 0, n);
+        Assert.assertTrue(Arrays.equals(f1, f2));
+        final double[] d1 = new double[n], d2 = new double[n];
+        expected.readFully(d1, 0, n);
+        actual.readFully(d2, 0, n);
+        Assert.assertTrue(Arrays.equals(d1, d2));
+        final char[] c1 = new char[n], c2 = new char[n];
+        expected.readFully(c1, 0, n);
+        actual.readFully(c2, 0, n);
+        Assert.assertTrue(Arrays.equals(c1, c2));
+        Assert.assertEquals(expected.getStreamPosition(), actual.getStreamPosition());
+
+        // bytes, after seeking back
+        expected.seek(position);
+        actual.seek(position);
+        final byte[] b1 = new byte[count], b2 = new byte[count];
+        expected.readFully(b1);
+        actual.readFully(b2);
+        Assert.assertTrue(Arrays.equals(b1, b2));
+    }
+
+    /**
+     * Testing that {@link FileImageInputStreamExtMappedImplSpi} does not
+     * replace {@link FileImageInputStreamExtImplSpi} unless requested.
+     */
+    @Test
+    public void fileImageInputStreamExtMappedImplSpi() throws IOException {
+        final File file = TestData.file(this, "sample.jpeg");
+        final ImageInputStream stream = ImageIO.createImageInputStream(file);
+        try {
+            Assert.assertTrue(stream instanceof FileImageInputStreamExtImpl);
+        } finally {
+            stream.close();
+        }
+
+        final ImageInputStream mapped = new FileImageInputStreamExtMappedImplSpi()
+                .createInputStreamInstance(file, false, null);
+        try {
+            Assert.assertTrue(mapped instanceof FileImageInputStreamExtMappedImpl);
+            Assert.assertEquals(file.length(), mapped.length());
+        } finally {
+            mapped.close();
+        }
+    }
+
+    /**
+     * Testing random access to GZIP data by means of
+     * {@link SeekableGZIPImageInputStream}.
+     */
+    @Test
+    public void seekableGZIPImageInputStream() throws IOException {
+        // text like data with some noise, ~1.5MB
+        final Random random = new Random(42);
+        final ByteArrayOutputStream text = new ByteArrayOutputStream();
+        while (text.size() < 1500000) {
+            final String line = random.nextInt(1000) + " " + random.nextGaussian() + " "
+                    + (random.nextInt(10) == 0 ? Long.toHexString(random.nextLong()) : "-9999")
+                    + "\r\n";
+            text.write(line.getBytes("US-ASCII"));
+        }
+        final byte[] data = text.toByteArray();
+        final long span = 100000;
+
+        for (int level : new int[] { Deflater.NO_COMPRESSION, Deflater.BEST_SPEED,
+                Deflater.DEFAULT_COMPRESSION, Deflater.BEST_COMPRESSION }) {
+            final byte[] compressed = gzip(data, level);
+
+            // sequential read
+            SeekableGZIPImageInputStream stream = new SeekableGZIPImageInputStream(
+                    new MemoryCacheImageInputStream(new ByteArrayInputStream(compressed)), span);
+            try {
+                final byte[] read = new byte[data.length];
+                stream.readFully(read);
+                Assert.assertTrue(Arrays.equals(data, read));
+                Assert.assertEquals(-1, stream.read());
+
+                // random reads, building the index
+                assertRandomReads(stream, data, random);
+                final GZIPCheckpointIndex index = stream.getIndex();
+                Assert.assertEquals(data.length, index.getLength());
+                Assert.assertEquals(data.length, stream.length());
+                Assert.assertTrue(index.getNumCheckpoints() > 1);
+            } finally {
+                stream.close();
+            }
+
+            // reuse the index saved to a sidecar file
+            final File indexFile = TestData.temp(this, "index.gzidx", true);
+            stream = new SeekableGZIPImageInputStream(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(compressed)), span);
+            try {
+                stream.getIndex().write(indexFile);
+            } finally {
+                stream.close();
+            }
+            final GZIPCheckpointIndex index = GZIPCheckpointIndex.read(indexFile);
+            stream = new SeekableGZIPImageInputStream(new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(compressed)), index);
+            try {
+                assertRandomReads(stream, data, random);
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    /**
+     * Testing {@link HTTPRangeImageInputStream} against a local HTTP server.
+     */
+    @Test
+    public void httpRangeImageInputStream() throws IOException {
+        final Random random = new Random(7);
+        final byte[] data = new byte[1000000];
+        random.nextBytes(data);
+        final int blockSize = 4096;
+        final AtomicInteger requests = new AtomicInteger();
+        final HTTPRangeImageInputStreamSpi spi = new HTTPRangeImageInputStreamSpi();
+
+        HttpServer server = startServer(data, true, requests);
+        try {
+            final URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/data");
+
+            // random reads
+            HTTPRangeImageInputStream stream = new HTTPRangeImageInputStream(url, blockSize, 64);
+            try {
+                Assert.assertEquals(data.length, stream.length());
+                Assert.assertEquals(1, requests.get());
+                assertRandomReads(stream, data, random);
+
+                // cached blocks are not fetched again
+                final int count = requests.get();
+                stream.seek(data.length / 2);
+                stream.readFully(new byte[blockSize]);
+                stream.seek(data.length / 2);
+                stream.readFully(new byte[blockSize]);
+                Assert.assertEquals(count + 1, requests.get());
+            } finally {
+                stream.close();
+            }
+
+            // sequential read, the read ahead merges block fetches
+            requests.set(0);
+            stream = new HTTPRangeImageInputStream(url, blockSize, 64);
+            try {
+                final byte[] read = new byte[data.length];
+                for (int i = 0; i < read.length; i++) {
+                    read[i] = stream.readByte();
+                }
+                Assert.assertTrue(Arrays.equals(data, read));
+                Assert.assertEquals(-1, stream.read());
+                Assert.assertTrue(requests.get() < data.length / blockSize / 8);
+            } finally {
+                stream.close();
+            }
+
+            ImageInputStream iis = spi.createInputStreamInstance(url, true, null);
+            try {
+                Assert.assertTrue(iis instanceof HTTPRangeImageInputStream);
+            } finally {
+                iis.close();
+            }
+
+            // the registered SPIs pick range requests as well
+            iis = ImageIO.createImageInputStream(url);
+            try {
+                Assert.assertTrue(iis instanceof HTTPRangeImageInputStream);
+            } finally {
+                iis.close();
+            }
+        } finally {
+            server.stop(0);
+        }
+
+        // no range support, the SPI falls back on a cached stream
+        server = startServer(data, false, requests);
+        try {
+            final URL url = new URL("http://localhost:" + server.getAddress().getPort() + "/data");
+            try {
+                new HTTPRangeImageInputStream(url);
+                Assert.fail("Range requests are not supported");
+            } catch (IOException e) {
+                // expected
+            }
+            final ImageInputStream iis = spi.createInputStreamInstance(url, true, null);
+            try {
+                Assert.assertFalse(iis instanceof HTTPRangeImageInputStream);
+                final byte[] read = new byte[data.length];
+                iis.readFully(read);
+                Assert.assertTrue(Arrays.equals(data, read));
+            } finally {
+                iis.close();
+            }
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Testing that {@link HTTPRangeImageInputStreamSpi} is ordered before
+     * {@link URLImageInputStreamSpi} whatever their registration order.
+     */
+    @Test
+    public void httpRangeImageInputStreamSpiOrdering() {
+        assertHTTPRangeFirst(new URLImageInputStreamSpi(), new HTTPRangeImageInputStreamSpi());
+        assertHTTPRangeFirst(new HTTPRangeImageInputStreamSpi(), new URLImageInputStreamSpi());
+    }
+
+    private static void assertHTTPRangeFirst(ImageInputStreamSpi first, ImageInputStreamSpi second) {
+        final ServiceRegistry registry = new ServiceRegistry(Collections.<Class<?>> singletonList(
+                ImageInputStreamSpi.class).iterator());
+        registry.registerServiceProvider(first, ImageInputStreamSpi.class);
+        registry.registerServiceProvider(second, ImageInputStreamSpi.class);
+        final Iterator<ImageInputStreamSpi> spis = registry.getServiceProviders(
+                ImageInputStreamSpi.class, true);
+        Assert.assertTrue(spis.next() instanceof HTTPRangeImageInputStreamSpi);
+        Assert.assertTrue(spis.next() instanceof URLImageInputStreamSpi);
+    }
+
+    /**
+     * Starts a local HTTP server returning the provided data, honoring single
+     * byte range requests if asked to.
+     */
+    private static HttpServer startServer(final byte[] data, final boolean ranges,
+            final AtomicInteger requests) throws IOException {
+        final HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+        server.createContext("/data", new HttpHandler() {
+            public void handle(HttpExchange exchange) throws IOException {
+                requests.incrementAndGet();
+                final String range = exchange.getRequestHeaders().getFirst("Range");
+                int from = 0;
+                int to = data.length - 1;
+                if (ranges && range != null && range.startsWith("bytes=")) {
+                    final int dash = range.indexOf('-');
+                    from = Integer.parseInt(range.substring(6, dash));
+                    to = Math.min(Integer.parseInt(range.substring(dash + 1)), to);
+                    exchange.getResponseHeaders().set("Content-Range",
+                            "bytes " + from + "-" + to + "/" + data.length);
+                    exchange.sendResponseHeaders(206, to - from + 1);
+                } else {
+                    exchange.sendResponseHeaders(200, data.length);
+                }
+                final OutputStream out = exchange.getResponseBody();
+                out.write(data, from, to - from + 1);
+                out.close();
+            }
+        });
+        server.start();
+        return server;
+    }
+
+    /**
+     * Testing random access to GZIP data mixing compressible and
+     * incompressible chunks, which are stored in stored deflate blocks that
+     * must start on a byte boundary.
+     */
+    @Test
+    public void seekableGZIPImageInputStreamWithStoredBlocks() throws IOException {
+        final Random random = new Random(7);
+        final ByteArrayOutputStream mixed = new ByteArrayOutputStream();
+        while (mixed.size() < 1500000) {
+            if (random.nextBoolean()) {
+                final byte[] noise = new byte[10000 + random.nextInt(30000)];
+                random.nextBytes(noise);
+                mixed.write(noise);
+            } else {
+                final int end = mixed.size() + 10000 + random.nextInt(30000);
+                while (mixed.size() < end) {
+                    mixed.write((random.nextInt(1000) + " -9999\r\n").getBytes("US-ASCII"));
+                }
+            }
+        }
+        final byte[] data = mixed.toByteArray();
+
+        for (int level : new int[] { Deflater.BEST_SPEED, Deflater.DEFAULT_COMPRESSION }) {
+            final SeekableGZIPImageInputStream stream = new SeekableGZIPImageInputStream(
+                    new MemoryCacheImageInputStream(new ByteArrayInputStream(gzip(data, level))),
+                    100000);
+            try {
+                Assert.assertTrue(stream.getIndex().getNumCheckpoints() > 1);
+                for (int i = 0; i < 4; i++) {
+                    assertRandomReads(stream, data, random);
+                }
+            } finally {
+                stream.close();
+            }
+        }
+    }
+
+    private static byte[] gzip(byte[] data, final int level) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final GZIPOutputStream out = new GZIPOutputStream(bytes) {
+            {
+                def.setLevel(level);
+            }
+        };
+        out.write(data);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    private static void assertRandomReads(ImageInputStream stream, byte[] data, Random random)
+            throws IOException {
+        final byte[] read = new byte[5000];
+        for (int i = 0; i < 50; i++) {
+            final int position = random.nextInt(data.length - read.length);
+            stream.seek(position);
+            stream.readFully(read);
+            for (int j = 0; j < read.length; j++) {
+                Assert.assertEquals(data[position + j], read[j]);
+            }
+        }
+        stream.seek(data.length - 1);
+        Assert.assertEquals(data[data.length - 1] & 0xff, stream.read());
+        Assert.assertEquals(-1, stream.read());
+    }
 }
@@ -18,6 +18,7 @@ package it.geosolutions.imageio.plugins.arcgrid;
 
 import it.geosolutions.imageio.plugins.arcgrid.raster.AsciiGridRaster;
 import it.geosolutions.imageio.plugins.arcgrid.raster.AsciiGridRaster.AsciiGridRasterType;
+import it.geosolutions.imageio.plugins.arcgrid.raster.AsciiGridRowIndex;
 import it.geosolutions.imageio.plugins.arcgrid.spi.AsciiGridsImageReaderSpi;
 import it.geosolutions.imageio.utilities.Utilities;
 
@@ -68,6 +69,12 @@ public final class AsciiGridsImageReader extends ImageReader {
 	/** Defaul tile size. */
 	private static final int DEFAULT_TILE_SIZE = 1048576 / 2; // 1 MByte
 
+	/** Suffix of the sidecar file holding the row index of a source file. */
+	public static final String ROW_INDEX_SUFFIX = ".ridx";
+
+	/** Default distance in rows between two entries of the row index. */
+	public static final int DEFAULT_ROW_INDEX_STEP = 1;
+
 	/** Image Dimensions */
 	private int width = -1;
 
@@ -130,6 +137,18 @@ public final class AsciiGridsImageReader extends ImageReader {
 	/** The {@link AsciiGridsImageMetadata} associated to this reader. */
 	private AsciiGridsImageMetadata metadata;
 
+	/** The source file, if the input has been provided as a file. */
+	private File inputFile = null;
+
+	/** <code>true</code> if a row index has to be used to read regions */
+	private boolean rowIndexEnabled = false;
+
+	/** Distance in rows between two entries of the row index. */
+	private int rowIndexStep = DEFAULT_ROW_INDEX_STEP;
+
+	/** <code>true</code> once the row index has been looked up */
+	private boolean rowIndexInitialized = false;
+
 	/**
 	 * Constructor.
 	 * 
@@ -217,6 +236,7 @@ public final class AsciiGridsImageReader extends ImageReader {
 				throw new IllegalArgumentException(
 							"Input file does not exists!");
 			}
+			inputFile = inFile;
 		} else
 
 		// ////////////////////////////////////////////////////////////////////
@@ -233,6 +253,7 @@ public final class AsciiGridsImageReader extends ImageReader {
 				throw new IllegalArgumentException(
 						"Input file does not exists!");
 			}
+			inputFile = inFile;
 		} else {
 			// is not something we can decode
 			if (LOGGER.isLoggable(Level.SEVERE))
@@ -645,9 +666,119 @@ public final class AsciiGridsImageReader extends ImageReader {
 					.info("readRaster(final int imageIndex, ImageReadParam param)");
 		if (param == null)
 			param = getDefaultReadParam();
+		if (rowIndexEnabled)
+			initializeRowIndex();
 		return rasterReader.readRaster(param);
 	}
 
+	/**
+	 * Looks up the row index for the current input. A valid sidecar index file
+	 * is loaded if available, otherwise the index is built by scanning the
+	 * whole data once and saved to the sidecar file, if possible.
+	 */
+	private synchronized void initializeRowIndex() throws IOException {
+		if (rowIndexInitialized)
+			return;
+		rowIndexInitialized = true;
+		final File indexFile = getRowIndexFile();
+		if (indexFile != null && indexFile.exists()) {
+			try {
+				final AsciiGridRowIndex index = AsciiGridRowIndex.read(indexFile);
+				if (index.isValidFor(rasterReader, inputFile, rowIndexStep)) {
+					rasterReader.setRowIndex(index);
+					return;
+				}
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.fine("Discarding stale row index " + indexFile);
+			} catch (IOException e) {
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.log(Level.FINE, e.getLocalizedMessage(), e);
+			}
+		}
+
+		final AsciiGridRowIndex index;
+		try {
+			index = rasterReader.buildRowIndex(rowIndexStep, inputFile);
+		} catch (IOException e) {
+			// we can still read by counting samples
+			if (LOGGER.isLoggable(Level.WARNING))
+				LOGGER.log(Level.WARNING, "Unable to build the row index", e);
+			return;
+		}
+		rasterReader.setRowIndex(index);
+		if (indexFile != null) {
+			try {
+				index.write(indexFile);
+			} catch (IOException e) {
+				// the index is kept in memory for this reader only
+				if (LOGGER.isLoggable(Level.FINE))
+					LOGGER.log(Level.FINE, "Unable to write the row index "
+							+ indexFile, e);
+				indexFile.delete();
+			}
+		}
+	}
+
+	/**
+	 * Returns the sidecar file holding the row index of the current input,
+	 * or <code>null</code> if the input has not been provided as a file.
+	 * 
+	 * @return the row index file.
+	 */
+	public File getRowIndexFile() {
+		if (inputFile == null)
+			return null;
+		return new File(inputFile.getParentFile(), inputFile.getName()
+				+ ROW_INDEX_SUFFIX);
+	}
+
+	/**
+	 * Enables the row index. When enabled, the stream position of the rows is
+	 * collected during a first scan of the data and used to seek straight to
+	 * the rows of the requested source regions. When the input is a file the
+	 * index is saved next to it, in a file having the same name plus
+	 * {@link #ROW_INDEX_SUFFIX}, and reused by later readers.
+	 * 
+	 * @param rowIndexEnabled
+	 *            <code>true</code> to enable the row index.
+	 */
+	public void setRowIndexEnabled(final boolean rowIndexEnabled) {
+		this.rowIndexEnabled = rowIndexEnabled;
+	}
+
+	/**
+	 * Tells whether the row index is enabled.
+	 * 
+	 * @return <code>true</code> if the row index is enabled.
+	 */
+	public boolean isRowIndexEnabled() {
+		return rowIndexEnabled;
+	}
+
+	/**
+	 * Sets the distance in rows between two entries of the row index. Larger
+	 * steps make the index smaller, at the price of counting the samples of at
+	 * most <code>rowIndexStep - 1</code> rows when seeking.
+	 * 
+	 * @param rowIndexStep
+	 *            the row step, which must be positive.
+	 */
+	public void setRowIndexStep(final int rowIndexStep) {
+		if (rowIndexStep < 1)
+			throw new IllegalArgumentException("Invalid row step: "
+					+ rowIndexStep);
+		this.rowIndexStep = rowIndexStep;
+	}
+
+	/**
+	 * Returns the distance in rows between two entries of the row index.
+	 * 
+	 * @return the row step.
+	 */
+	public int getRowIndexStep() {
+		return rowIndexStep;
+	}
+
 	/**
 	 * 
 	 * Reads the tile indicated by the <code>tileX</code> and
@@ -841,6 +972,8 @@ public final class AsciiGridsImageReader extends ImageReader {
 		imageType = null;
 		imageSize = -1;
 		metadata = null;
+		inputFile = null;
+		rowIndexInitialized = false;
 	}
 
 	public void processImageProgress(float percentageDone) {
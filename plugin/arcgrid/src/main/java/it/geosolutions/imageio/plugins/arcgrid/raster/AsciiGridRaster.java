@@ -23,6 +23,7 @@ import it.geosolutions.imageio.utilities.StringToDouble;
 import java.awt.Rectangle;
 import java.awt.image.WritableRaster;
 import java.io.EOFException;
+import java.io.File;
 import java.io.IOException;
 import java.util.SortedMap;
 import java.util.TreeMap;
@@ -214,6 +215,12 @@ public abstract class AsciiGridRaster {
 	 */
 	protected TreeMap<Long,Long> tileMarker = new TreeMap<Long,Long>();
 
+	/**
+	 * An optional index of the stream positions of the rows, used to seek
+	 * straight to the first row of a source region.
+	 */
+	protected volatile AsciiGridRowIndex rowIndex = null;
+
 	/** the width of a tile */
 	protected int tileWidth = -1;
 
@@ -496,6 +503,43 @@ public abstract class AsciiGridRaster {
 		return dataStartAt;
 	}
 
+	/**
+	 * Returns the {@link AsciiGridRowIndex} used to locate rows, if any.
+	 * 
+	 * @return the row index or <code>null</code>
+	 */
+	public AsciiGridRowIndex getRowIndex() {
+		return rowIndex;
+	}
+
+	/**
+	 * Sets the {@link AsciiGridRowIndex} to be used to locate rows.
+	 * 
+	 * @param rowIndex
+	 *            the row index or <code>null</code> to count samples from
+	 *            the start of the data.
+	 */
+	public void setRowIndex(final AsciiGridRowIndex rowIndex) {
+		this.rowIndex = rowIndex;
+	}
+
+	/**
+	 * Builds an {@link AsciiGridRowIndex} by scanning the data values of this
+	 * raster.
+	 * 
+	 * @param step
+	 *            the distance in rows between two entries of the index.
+	 * @param source
+	 *            the source file of this raster, or <code>null</code>.
+	 * @return the row index.
+	 * @throws IOException
+	 */
+	public AsciiGridRowIndex buildRowIndex(final int step, final File source)
+			throws IOException {
+		return AsciiGridRowIndex.build(imageIS, dataStartAt, nCols, nRows,
+				step, source);
+	}
+
 	/**
 	 * This method reads data values from the ImageInputStream and returns a
 	 * raster having these data values as samples. When image is tiled or
@@ -620,7 +664,7 @@ public abstract class AsciiGridRaster {
 		dstHeight = ((dstHeight - 1) / ySubsamplingFactor) + 1;
 
 		// Number of spaces to count before I find useful data
-		final long samplesToThrowAwayBeforeFirstValidSample = (nCols * srcRegionYOffset);
+		final long samplesToThrowAwayBeforeFirstValidSample = ((long) nCols * srcRegionYOffset);
 
 		final TileFactory factory = (TileFactory) JAI.getDefaultInstance().getRenderingHint(JAI.KEY_TILE_FACTORY);
 		if (factory != null)
@@ -690,7 +734,7 @@ public abstract class AsciiGridRaster {
 							// remaining number of spaces.
 
 							imageIS.seek(markedPos.longValue());
-							samplesCounted = (int) key;
+							samplesCounted = key;
 						}
 					} else {
 						// positioning on the first data byte
@@ -700,6 +744,23 @@ public abstract class AsciiGridRaster {
 				}
 
 			}
+
+			// //
+			//
+			// 2.A bis: Looking at the row index, if any, which may point to a
+			// row closer to the requested one
+			//
+			// //
+			final AsciiGridRowIndex index = rowIndex;
+			if (index != null
+					&& samplesCounted < samplesToThrowAwayBeforeFirstValidSample) {
+				final int indexedRow = index.getIndexedRow(srcRegionYOffset);
+				final long indexedSamples = (long) indexedRow * nCols;
+				if (indexedSamples > samplesCounted) {
+					imageIS.seek(index.getRowOffset(indexedRow));
+					samplesCounted = indexedSamples;
+				}
+			}
 		}
 		streamPosition = imageIS.getStreamPosition();
 		// //
@@ -757,7 +818,7 @@ public abstract class AsciiGridRaster {
 						// tileMarker
 						if ((samplesCounted % (tileH * tileW)) == 0) {
 							key = Long.valueOf(samplesCounted);
-							val = Long.valueOf(streamPosition);
+							val = Long.valueOf(streamPosition - 1);
 							synchronized (tileTreeMutex) {
 								if (!tileMarker.containsKey(key)) {
 									tileMarker.put(key, val);
@@ -767,7 +828,11 @@ public abstract class AsciiGridRaster {
 					}
 				}
 
-				prevCh = ch;
+				// Whitespaces preceding the first sample found do not count,
+				// since we start from a position where samplesCounted
+				// samples have been already read
+				if (prevCh != -1 || ((ch != 32) && (ch != 10) && (ch != 13) && (ch != 9)))
+					prevCh = ch;
 
 				if (hasListeners) {
 					// //
@@ -784,6 +849,10 @@ public abstract class AsciiGridRaster {
 					}
 				}
 			}
+
+			// we have just read the first character of the first useful
+			// sample, let's go back to it
+			imageIS.seek(streamPosition - 1);
 		}
 
 		// /////////////////////////////////////////////////////////////////////
@@ -0,0 +1,262 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.plugins.arcgrid.raster;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * An index of the stream positions where the rows of an ASCII grid start.
+ *
+ * <p>
+ * Since each value of an ASCII grid may be written with a different number of
+ * characters, the only way to find a given row is counting all the samples
+ * preceding it. This index records, for every <code>step</code>-th row, the
+ * position of the first character of its first sample, so that an
+ * {@link AsciiGridRaster} can seek straight to the rows of a source region.
+ *
+ * <p>
+ * The index can be saved to a sidecar file and loaded back later on. The
+ * sidecar stores the length and the last modification time of the source
+ * file, in order to detect stale indexes.
+ */
+public final class AsciiGridRowIndex {
+
+	/** Magic number identifying a row index file */
+	private final static int MAGIC = 0x41475249; // AGRI
+
+	private final static int VERSION = 1;
+
+	private final static int BUFFER_SIZE = 65536;
+
+	/** The number of columns of the indexed raster */
+	private final int nCols;
+
+	/** The number of rows of the indexed raster */
+	private final int nRows;
+
+	/** The distance in rows between two consecutive entries */
+	private final int step;
+
+	/** The length of the source file, or -1 if unknown */
+	private final long sourceLength;
+
+	/** The last modification time of the source file, or -1 if unknown */
+	private final long sourceLastModified;
+
+	/** Stream position of the first sample of the rows 0, step, 2*step, ... */
+	private final long[] offsets;
+
+	private AsciiGridRowIndex(int nCols, int nRows, int step,
+			long sourceLength, long sourceLastModified, long[] offsets) {
+		this.nCols = nCols;
+		this.nRows = nRows;
+		this.step = step;
+		this.sourceLength = sourceLength;
+		this.sourceLastModified = sourceLastModified;
+		this.offsets = offsets;
+	}
+
+	/**
+	 * Builds a row index by scanning the data values of an ASCII grid.
+	 *
+	 * @param inStream
+	 *            the {@link ImageInputStream} to read from.
+	 * @param dataStartAt
+	 *            the stream position of the first data value.
+	 * @param nCols
+	 *            the number of columns of the raster.
+	 * @param nRows
+	 *            the number of rows of the raster.
+	 * @param step
+	 *            the distance in rows between two consecutive entries.
+	 * @param source
+	 *            the source file the index refers to, or <code>null</code>.
+	 * @return the row index.
+	 * @throws EOFException
+	 *             if the stream ends before the last indexed row.
+	 * @throws IOException
+	 */
+	public static AsciiGridRowIndex build(final ImageInputStream inStream,
+			final long dataStartAt, final int nCols, final int nRows,
+			final int step, final File source) throws IOException {
+		if (nCols <= 0 || nRows <= 0)
+			throw new IllegalArgumentException("Invalid raster size: " + nCols
+					+ "x" + nRows);
+		if (step < 1)
+			throw new IllegalArgumentException("Invalid row step: " + step);
+
+		final long[] offsets = new long[(nRows - 1) / step + 1];
+		final long samplesPerEntry = (long) nCols * step;
+		final byte[] buffer = new byte[BUFFER_SIZE];
+		long position = dataStartAt;
+		long samples = 0;
+		int entries = 0;
+		boolean inValue = false;
+		inStream.seek(dataStartAt);
+		while (entries < offsets.length) {
+			final int read = inStream.read(buffer, 0, BUFFER_SIZE);
+			if (read == -1)
+				throw new EOFException("EOF found while indexing row "
+						+ (entries * step));
+			for (int i = 0; i < read && entries < offsets.length; i++) {
+				final byte b = buffer[i];
+				if (b == 32 || b == 10 || b == 13 || b == 9) {
+					inValue = false;
+				} else if (!inValue) {
+					// start of a new sample
+					inValue = true;
+					if (samples % samplesPerEntry == 0)
+						offsets[entries++] = position + i;
+					samples++;
+				}
+			}
+			position += read;
+		}
+		return new AsciiGridRowIndex(nCols, nRows, step,
+				source != null ? source.length() : -1,
+				source != null ? source.lastModified() : -1, offsets);
+	}
+
+	/**
+	 * Loads a row index from a sidecar file.
+	 *
+	 * @param indexFile
+	 *            the sidecar file.
+	 * @return the row index.
+	 * @throws IOException
+	 *             if the file cannot be read or it is not a row index.
+	 */
+	public static AsciiGridRowIndex read(final File indexFile)
+			throws IOException {
+		final DataInputStream in = new DataInputStream(new BufferedInputStream(
+				new FileInputStream(indexFile)));
+		try {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				throw new IOException("Not a valid row index file: "
+						+ indexFile);
+			final int nCols = in.readInt();
+			final int nRows = in.readInt();
+			final int step = in.readInt();
+			final long sourceLength = in.readLong();
+			final long sourceLastModified = in.readLong();
+			if (nCols <= 0 || nRows <= 0 || step < 1)
+				throw new IOException("Not a valid row index file: "
+						+ indexFile);
+			final long[] offsets = new long[(nRows - 1) / step + 1];
+			for (int i = 0; i < offsets.length; i++)
+				offsets[i] = in.readLong();
+			return new AsciiGridRowIndex(nCols, nRows, step, sourceLength,
+					sourceLastModified, offsets);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Saves this row index to a sidecar file.
+	 *
+	 * @param indexFile
+	 *            the sidecar file.
+	 * @throws IOException
+	 */
+	public void write(final File indexFile) throws IOException {
+		final DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(indexFile)));
+		try {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(nCols);
+			out.writeInt(nRows);
+			out.writeInt(step);
+			out.writeLong(sourceLength);
+			out.writeLong(sourceLastModified);
+			for (int i = 0; i < offsets.length; i++)
+				out.writeLong(offsets[i]);
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * Checks whether this row index can be used for the provided raster.
+	 *
+	 * @param raster
+	 *            the {@link AsciiGridRaster} to be read.
+	 * @param source
+	 *            the source file of the raster, or <code>null</code>.
+	 * @param step
+	 *            the requested distance in rows between two entries.
+	 * @return <code>true</code> if this index matches the raster.
+	 */
+	public boolean isValidFor(final AsciiGridRaster raster, final File source,
+			final int step) {
+		if (this.step != step || nCols != raster.getNCols()
+				|| nRows != raster.getNRows()
+				|| offsets[0] != raster.getDataStartAt())
+			return false;
+		if (source != null)
+			return sourceLength == source.length()
+					&& sourceLastModified == source.lastModified();
+		return true;
+	}
+
+	/**
+	 * Returns the closest indexed row which is not after the provided one.
+	 *
+	 * @param row
+	 *            the requested row.
+	 * @return the indexed row.
+	 */
+	public int getIndexedRow(final int row) {
+		if (row < 0 || row >= nRows)
+			throw new IndexOutOfBoundsException("Illegal row: " + row);
+		return (row / step) * step;
+	}
+
+	/**
+	 * Returns the stream position of the first sample of an indexed row.
+	 *
+	 * @param indexedRow
+	 *            a row returned by {@link #getIndexedRow(int)}.
+	 * @return the stream position of the first character of the row.
+	 */
+	public long getRowOffset(final int indexedRow) {
+		if (indexedRow % step != 0)
+			throw new IllegalArgumentException("Row " + indexedRow
+					+ " is not indexed");
+		return offsets[indexedRow / step];
+	}
+
+	/**
+	 * Returns the distance in rows between two consecutive entries.
+	 *
+	 * @return the row step.
+	 */
+	public int getStep() {
+		return step;
+	}
+}
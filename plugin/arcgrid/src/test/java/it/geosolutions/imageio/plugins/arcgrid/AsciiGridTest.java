@@ -18,6 +18,7 @@ package it.geosolutions.imageio.plugins.arcgrid;
 
 import it.geosolutions.imageio.plugins.arcgrid.AsciiGridsImageMetadata.RasterSpaceType;
 import it.geosolutions.imageio.plugins.arcgrid.raster.AsciiGridRaster;
+import it.geosolutions.imageio.plugins.arcgrid.spi.AsciiGridsImageReaderSpi;
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
 import it.geosolutions.resources.TestData;
 
@@ -31,6 +32,7 @@ import java.io.FileNotFoundException;
 import java.io.FileOutputStream;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.io.PrintWriter;
 import java.util.logging.Logger;
 import java.util.zip.GZIPInputStream;
 
@@ -103,6 +105,9 @@ public class AsciiGridTest extends TestCase {
         // Read an ESRI ArcGrid file and write it back to GRASS
         suite.addTest(new AsciiGridTest("testReadAsEsriAndWriteAsGrass"));
 
+        // Read regions of an ArcGrid file using a sidecar row index
+        suite.addTest(new AsciiGridTest("testRowIndex"));
+
         return suite;
     }
 
@@ -454,6 +459,96 @@ public class AsciiGridTest extends TestCase {
         }             
     }
 
+    /**
+     * Read regions of an ArcGrid file using a sidecar row index
+     */
+    public void testRowIndex() throws IOException {
+        // values of different lengths, CRLF line terminators and extra spaces
+        final int width = 37, height = 53;
+        final File file = TestData.temp(this, "rowindex.asc", true);
+        final PrintWriter out = new PrintWriter(file, "ISO-8859-1");
+        out.print("ncols " + width + "\r\nnrows " + height
+                + "\r\nxllcorner 0\r\nyllcorner 0\r\ncellsize 1\r\nNODATA_value -9999\r\n");
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                out.print(getRowIndexSample(x, y));
+                out.print(x % 5 == 0 ? "   " : " ");
+            }
+            out.print("\r\n");
+        }
+        out.close();
+        final File indexFile = new File(file.getParentFile(), file.getName()
+                + AsciiGridsImageReader.ROW_INDEX_SUFFIX);
+        indexFile.delete();
+        indexFile.deleteOnExit();
+
+        final Rectangle[] regions = new Rectangle[] {
+                new Rectangle(0, 0, width, height), new Rectangle(0, 17, 10, 5),
+                new Rectangle(5, 52, 20, 1), new Rectangle(36, 1, 1, 40),
+                new Rectangle(3, 30, 20, 20) };
+        for (int step : new int[] { 1, 4 }) {
+            indexFile.delete();
+            for (int i = 0; i < 2; i++) {
+                final AsciiGridsImageReader reader = new AsciiGridsImageReader(
+                        new AsciiGridsImageReaderSpi());
+                reader.setRowIndexEnabled(true);
+                reader.setRowIndexStep(step);
+                reader.setInput(file);
+                assertEquals(indexFile, reader.getRowIndexFile());
+                for (Rectangle region : regions) {
+                    final ImageReadParam param = reader.getDefaultReadParam();
+                    param.setSourceRegion(region);
+                    final Raster raster = reader.readRaster(0, param);
+                    assertEquals(region.width, raster.getWidth());
+                    assertEquals(region.height, raster.getHeight());
+                    for (int y = 0; y < region.height; y++) {
+                        for (int x = 0; x < region.width; x++) {
+                            assertEquals(getRowIndexSample(region.x + x, region.y + y),
+                                    raster.getSampleDouble(x, y, 0), DELTA);
+                        }
+                    }
+                }
+                // the first reader builds the index, the second one loads it
+                assertNotNull(reader.getRasterReader().getRowIndex());
+                assertEquals(step, reader.getRasterReader().getRowIndex().getStep());
+                assertTrue(indexFile.exists());
+                reader.dispose();
+            }
+        }
+
+        // compare regions of a real file read with and without the index
+        final File demFile = TestData.file(this, "dem.asc");
+        final AsciiGridsImageReader reader = new AsciiGridsImageReader(
+                new AsciiGridsImageReaderSpi());
+        final AsciiGridsImageReader indexedReader = new AsciiGridsImageReader(
+                new AsciiGridsImageReaderSpi());
+        indexedReader.setRowIndexEnabled(true);
+        indexedReader.setInput(demFile);
+        indexedReader.getRowIndexFile().deleteOnExit();
+        for (Rectangle region : new Rectangle[] { new Rectangle(0, 1000, 300, 200),
+                new Rectangle(700, 1399, 704, 1), new Rectangle(200, 300, 1000, 1000) }) {
+            reader.setInput(demFile);
+            final ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceRegion(region);
+            param.setSourceSubsampling(1, 2, 0, 0);
+            final Raster expected = reader.readRaster(0, param);
+            final Raster actual = indexedReader.readRaster(0, param);
+            assertEquals(expected.getHeight(), actual.getHeight());
+            for (int y = 0; y < expected.getHeight(); y++) {
+                for (int x = 0; x < expected.getWidth(); x++) {
+                    assertEquals(expected.getSampleDouble(x, y, 0),
+                            actual.getSampleDouble(x, y, 0), DELTA);
+                }
+            }
+        }
+        reader.dispose();
+        indexedReader.dispose();
+    }
+
+    private static double getRowIndexSample(int x, int y) {
+        return (x * 7 + y * 131) % 10 == 0 ? -9999 : y * 1000 + x + (x % 3) / 4d;
+    }
+
     private static boolean compare(final RenderedOp image, final RenderedOp image2,
             final String error[]) {
         return compare(image, image2, error, Double.NaN);
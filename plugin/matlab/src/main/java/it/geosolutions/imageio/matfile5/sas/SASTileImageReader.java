@@ -31,10 +31,8 @@ import java.awt.image.DataBufferDouble;
 import java.awt.image.DataBufferFloat;
 import java.awt.image.Raster;
 import java.awt.image.WritableRaster;
+import java.io.File;
 import java.io.IOException;
-import java.nio.ByteBuffer;
-import java.nio.DoubleBuffer;
-import java.nio.FloatBuffer;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -45,7 +43,6 @@ import javax.imageio.metadata.IIOMetadata;
 
 import com.jmatio.io.MatFileFilter;
 import com.jmatio.io.MatFileReader;
-import com.jmatio.types.MLArray;
 import com.jmatio.types.MLDouble;
 import com.jmatio.types.MLNumericArray;
 
@@ -94,7 +91,11 @@ public class SASTileImageReader extends MatFileImageReader {
 
             try {
 
-                matReader = new MatFileReader(fileName, filter, true);
+                // only scan the array headers, the tile data is read when
+                // requested and can be released under memory pressure
+                matReader = new MatFileReader();
+                matReader.setSoftReferenceCache(true);
+                matReader.readDirectory(new File(fileName), filter);
                 sasTile = new SASTileMetadata(matReader);
                 dataArrays = new LinkedList<String>();
                 dataArrays.add(sasTile.isLogScale() ? SASTileMetadata.SAS_TILE_LOG :SASTileMetadata.SAS_TILE_RAW);
@@ -228,12 +229,22 @@ public class SASTileImageReader extends MatFileImageReader {
         // ////////////////////////////////////////////////////////////////////
         final Rectangle roi = new Rectangle(srcRegionXOffset, srcRegionYOffset, srcRegionWidth, srcRegionHeight);
 
-        final MLArray mlArrayRetrived = matReader.getMLArray(dataArrays.get(imageIndex));
-        final ByteBuffer real = ((MLNumericArray<Number>) mlArrayRetrived).getRealByteBuffer();
-        final ByteBuffer imaginary = ((MLNumericArray<Number>) mlArrayRetrived).getImaginaryByteBuffer();
+        // //
+        //
+        // The matrix has a row for each image row, therefore only the columns
+        // of the source region need to be read. When the file is not
+        // compressed only the bytes covering them are read.
+        //
+        // //
+        final MLNumericArray<?> mlArray;
+        if (srcRegion != null) {
+            mlArray = matReader.readRegion(dataArrays.get(imageIndex), roi.y, roi.x, roi.height, roi.width, 1, 1);
+        } else {
+            mlArray = (MLNumericArray<?>) matReader.readMLArray(dataArrays.get(imageIndex));
+        }
         
-        final boolean isDouble = (mlArrayRetrived instanceof MLDouble)? true : false;
-        final int imageSize = width * height;
+        final boolean isDouble = (mlArray instanceof MLDouble)? true : false;
+        final int imageSize = mlArray.getM() * mlArray.getN();
         
         // //
         //
@@ -252,8 +263,8 @@ public class SASTileImageReader extends MatFileImageReader {
         // 1, 4, 7, 2, 5, 8, 3, 6, 9
         //
         // //
-        final int smWidth = height;
-        final int smHeight = width;
+        final int smWidth = mlArray.getM();
+        final int smHeight = mlArray.getN();
         final BandedSampleModel sampleModel = new BandedSampleModel(isDouble?DataBuffer.TYPE_DOUBLE:DataBuffer.TYPE_FLOAT, smWidth, smHeight, 2);
         
         final ColorModel cm = ImageIOUtilities.createColorModel(sampleModel);
@@ -261,11 +272,8 @@ public class SASTileImageReader extends MatFileImageReader {
         if (isDouble){
 	        final double[][]dataArray = new double[2][imageSize];
 
-	        final DoubleBuffer buffReal = real.asDoubleBuffer();
-	        buffReal.get(dataArray[0]);
-	
-	        final DoubleBuffer buffImaginary = imaginary.asDoubleBuffer();
-	        buffImaginary.get(dataArray[1]);
+	        mlArray.copyRealTo(0, dataArray[0], 0, imageSize);
+	        mlArray.copyImaginaryTo(0, dataArray[1], 0, imageSize);
 	        
 	        final DataBufferDouble dbb = new DataBufferDouble(dataArray, imageSize);
 	        originalRasterData = Raster.createWritableRaster(sampleModel,dbb, null);
@@ -273,31 +281,13 @@ public class SASTileImageReader extends MatFileImageReader {
         } else {
             	final float[][] dataArray = new float[2][imageSize];
     	        
-    	        final FloatBuffer buffReal = real.asFloatBuffer();
-    	        buffReal.get(dataArray[0]);
-    	
-    	        final FloatBuffer buffImaginary = imaginary.asFloatBuffer();
-    	        buffImaginary.get(dataArray[1]);
+    	        mlArray.copyRealTo(0, dataArray[0], 0, imageSize);
+    	        mlArray.copyImaginaryTo(0, dataArray[1], 0, imageSize);
     	
     	        final DataBufferFloat dbb = new DataBufferFloat(dataArray, imageSize);
     	        originalRasterData = Raster.createWritableRaster(sampleModel,dbb, null);
         }
-        BufferedImage data = new BufferedImage(cm, originalRasterData, false,null);
-
-        //
-        // CROP
-        //
-        if (srcRegion != null) {
-            
-            //Transpose haven't been executed yet.
-            //the actual image has x-y swapped.
-            
-            final int x = roi.y;
-            final int y = roi.x;
-            final int w = roi.height;
-            final int h = roi.width;
-            data = data.getSubimage(x, y, w, h);
-        } 
+        final BufferedImage data = new BufferedImage(cm, originalRasterData, false,null);
         
         //Tuneup the image read param to use the adjusted one
         final ImageReadParam tunedParam = getDefaultReadParam();
@@ -0,0 +1,224 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.plugins.png;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import ar.com.hjg.pngj.FilterType;
+import ar.com.hjg.pngj.IFilterWriteStrategy;
+import ar.com.hjg.pngj.IImageLine;
+import ar.com.hjg.pngj.ImageInfo;
+
+/**
+ * A cheap adaptive filter selection. The filter of each row is chosen looking at the raw
+ * scanline, estimating the entropy of the output of all the five PNG filters with the sum of the
+ * absolute values of the residuals, computed in a single pass over the row, without actually
+ * filtering it five times as the PNGJ adaptive strategies do.
+ * 
+ * <p>
+ * As recommended by the PNG specification, palette and sub-byte images are never filtered, the
+ * residuals of their indexes and packed samples being a poor estimate of the compressed size.
+ * 
+ * <p>
+ * The filter used most often is remembered for each image type, that is, for each combination of
+ * scanline provider and PNG pixel layout. Later images of the same type start from it, evaluate
+ * only one row every {@link #CACHED_EVALUATION_INTERVAL} and switch to another filter only when
+ * it is clearly better.
+ * 
+ * <p>
+ * Instances are meant to encode a single image, and are not thread safe.
+ */
+public final class AdaptiveFilterStrategy implements IFilterWriteStrategy {
+
+    /** Rows between two evaluations once a filter has been cached for the image type */
+    static final int CACHED_EVALUATION_INTERVAL = 8;
+
+    /** The most used filter for each image type */
+    private static final Map<String, FilterType> CACHE = new ConcurrentHashMap<String, FilterType>();
+
+    private final String imageType;
+
+    private final int bytesPerPixel;
+
+    private final int bytesPerRow;
+
+    /** The cached filter for this image type, if any */
+    private final FilterType preferred;
+
+    /** Rows between two evaluations, 0 if the filter is fixed */
+    private final int evaluationInterval;
+
+    private final long[] sums = new long[5];
+
+    private final int[] usage = new int[5];
+
+    private FilterType current;
+
+    private int row = 0;
+
+    /**
+     * Creates a strategy for an image with the given layout, whose scanlines are produced by the
+     * given provider
+     */
+    public AdaptiveFilterStrategy(ImageInfo info, ScanlineProvider scanlines) {
+        this.imageType = scanlines.getClass().getName() + "[channels=" + info.channels
+                + ", bitDepth=" + info.bitDepth + ", alpha=" + info.alpha + ", greyscale="
+                + info.greyscale + ", indexed=" + info.indexed + "]";
+        this.bytesPerPixel = info.bytesPixel;
+        this.bytesPerRow = info.bytesPerRow;
+        this.preferred = CACHE.get(imageType);
+        if (info.indexed || info.bitDepth < 8) {
+            current = FilterType.FILTER_NONE;
+            evaluationInterval = 0;
+        } else if (preferred != null) {
+            current = preferred;
+            evaluationInterval = CACHED_EVALUATION_INTERVAL;
+        } else {
+            current = FilterType.FILTER_PAETH;
+            evaluationInterval = 1;
+        }
+    }
+
+    /**
+     * Chooses the filter for the next row of the image.
+     * 
+     * @param raw the raw row, starting at <code>offset</code>
+     * @param previous the raw previous row, starting at 0, all zeroes for the first row
+     */
+    public FilterType selectFilter(byte[] raw, int offset, byte[] previous) {
+        if (evaluationInterval > 0 && row % evaluationInterval == 0) {
+            current = cheapestFilter(raw, offset, previous);
+            usage[current.val]++;
+        }
+        row++;
+        return current;
+    }
+
+    /**
+     * Records the filter used most often as the preferred one for this image type. To be called
+     * once the image has been encoded.
+     */
+    public void end() {
+        int best = 0;
+        for (int i = 1; i < usage.length; i++) {
+            if (usage[i] > usage[best]) {
+                best = i;
+            }
+        }
+        if (usage[best] > 0) {
+            CACHE.put(imageType, FilterType.getByVal(best));
+        }
+    }
+
+    /**
+     * Wraps the given line so that the filter of each row is selected as soon as PNGJ gets its
+     * raw bytes, before filtering it.
+     */
+    public IImageLine wrap(final IImageLine line) {
+        final byte[] previous = new byte[bytesPerRow];
+        return new IImageLine() {
+
+            public void writeToPngRaw(byte[] raw) {
+                line.writeToPngRaw(raw);
+                // PNGJ stores the filter type in the first byte
+                selectFilter(raw, 1, previous);
+                System.arraycopy(raw, 1, previous, 0, bytesPerRow);
+            }
+
+            public void readFromPngRaw(byte[] raw, int len, int offset, int step) {
+                line.readFromPngRaw(raw, len, offset, step);
+            }
+
+            public void endReadFromPngRaw() {
+                line.endReadFromPngRaw();
+            }
+        };
+    }
+
+    public List<FilterType> shouldTest(int rown) {
+        return Collections.emptyList();
+    }
+
+    public void reportResultsForFilter(int rown, FilterType type, byte[] filtered,
+            boolean tentative) {
+        // nothing to do, the choice is made on the raw rows
+    }
+
+    public FilterType preferedType(int rown) {
+        return current;
+    }
+
+    private FilterType cheapestFilter(byte[] raw, int offset, byte[] previous) {
+        final int bpp = bytesPerPixel;
+        long none = 0, sub = 0, up = 0, average = 0, paeth = 0;
+        // first pixel, with no left neighbour
+        for (int i = 0; i < bpp; i++) {
+            final int x = raw[offset + i] & 0xff;
+            final int b = previous[i] & 0xff;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) x);
+            up += Math.abs((byte) (x - b));
+            average += Math.abs((byte) (x - (b >> 1)));
+            paeth += Math.abs((byte) (x - b));
+        }
+        for (int i = bpp; i < bytesPerRow; i++) {
+            final int x = raw[offset + i] & 0xff;
+            final int a = raw[offset + i - bpp] & 0xff;
+            final int b = previous[i] & 0xff;
+            final int c = previous[i - bpp] & 0xff;
+            none += Math.abs((byte) x);
+            sub += Math.abs((byte) (x - a));
+            up += Math.abs((byte) (x - b));
+            average += Math.abs((byte) (x - ((a + b) >> 1)));
+            paeth += Math.abs((byte) (x - paethPredictor(a, b, c)));
+        }
+        sums[0] = none;
+        sums[1] = sub;
+        sums[2] = up;
+        sums[3] = average;
+        sums[4] = paeth;
+
+        int best = 0;
+        for (int i = 1; i < sums.length; i++) {
+            if (sums[i] < sums[best]) {
+                best = i;
+            }
+        }
+        // stick to the cached filter unless another one is at least 5% better
+        if (preferred != null && sums[preferred.val] * 20 <= sums[best] * 21) {
+            return preferred;
+        }
+        return FilterType.getByVal(best);
+    }
+
+    static int paethPredictor(int a, int b, int c) {
+        final int p = a + b - c;
+        final int pa = Math.abs(p - a);
+        final int pb = Math.abs(p - b);
+        final int pc = Math.abs(p - c);
+        if (pa <= pb && pa <= pc) {
+            return a;
+        } else if (pb <= pc) {
+            return b;
+        } else {
+            return c;
+        }
+    }
+}
@@ -75,6 +75,8 @@ public class PNGImageWriter extends ImageWriter {
 
         private FilterType filterType;
 
+        private boolean adaptiveFiltering;
+
         PNGImageWriteParam() {
     
             canWriteCompressed = true;
@@ -91,6 +93,18 @@ public class PNGImageWriter extends ImageWriter {
         public void setFilterType(FilterType filterType) {
             this.filterType = filterType;
         }
+
+        /**
+         * Returns true if the filter of each row is chosen on the fly by an
+         * {@link AdaptiveFilterStrategy}, ignoring the filter type
+         */
+        public boolean isAdaptiveFiltering() {
+            return adaptiveFiltering;
+        }
+
+        public void setAdaptiveFiltering(boolean adaptiveFiltering) {
+            this.adaptiveFiltering = adaptiveFiltering;
+        }
     
         public String[] getCompressionQualityDescriptions() {
             super.getCompressionQualityDescriptions(); // Performs checks.
@@ -126,6 +140,7 @@ public class PNGImageWriter extends ImageWriter {
     
             compressionQuality = DEFAULT_COMPRESSION_QUALITY;
             filterType=FilterType.FILTER_DEFAULT;
+            adaptiveFiltering = false;
         }
     }
     /** The LOGGER for this class. */
@@ -133,10 +148,53 @@ public class PNGImageWriter extends ImageWriter {
             .getLogger("it.geosolutions.imageio.plugins.png");
     
     private OutputStream outputStream;
+
+    private int deflateThreads = 1;
+
+    private int deflateChunkSize = PNGWriter.DEFAULT_CHUNK_SIZE;
     
     public PNGImageWriter(ImageWriterSpi originatingProvider) {
         super(originatingProvider);
     }
+
+    /**
+     * Returns the number of threads used to deflate the image data.
+     */
+    public int getDeflateThreads() {
+        return deflateThreads;
+    }
+
+    /**
+     * Sets the number of threads used to deflate the image data. With more than one thread the
+     * scanlines are deflated in chunks concurrently, see {@link PNGWriter}. The default, 1,
+     * encodes on the calling thread.
+     */
+    public void setDeflateThreads(int deflateThreads) {
+        if (deflateThreads < 1) {
+            throw new IllegalArgumentException("The number of deflate threads must be positive: "
+                    + deflateThreads);
+        }
+        this.deflateThreads = deflateThreads;
+    }
+
+    /**
+     * Returns the approximate size in bytes of the chunks of scanlines deflated in parallel.
+     */
+    public int getDeflateChunkSize() {
+        return deflateChunkSize;
+    }
+
+    /**
+     * Sets the approximate size in bytes of the chunks of scanlines deflated in parallel,
+     * defaults to {@link PNGWriter#DEFAULT_CHUNK_SIZE}.
+     */
+    public void setDeflateChunkSize(int deflateChunkSize) {
+        if (deflateChunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive: "
+                    + deflateChunkSize);
+        }
+        this.deflateChunkSize = deflateChunkSize;
+    }
     
     /**
      * Get a default {@link ImageWriteParam} instance.
@@ -207,15 +265,21 @@ public class PNGImageWriter extends ImageWriter {
         // Getting image Write params
         float quality=PNGImageWriteParam.DEFAULT_COMPRESSION_QUALITY;
         FilterType filter=PNGImageWriteParam.DEFAULT_FILTER_TYPE;
+        boolean adaptiveFiltering=false;
         if(writeParam!=null){
             PNGImageWriteParam param = (PNGImageWriteParam) writeParam;
             quality=param.getCompressionQuality();
             filter=param.getFilterType();
+            adaptiveFiltering=param.isAdaptiveFiltering();
         }
     
         // actual write
         try{
-            new PNGWriter().writePNG(srcImage, outputStream, quality, filter);
+            PNGWriter writer = new PNGWriter();
+            writer.setDeflateThreads(deflateThreads);
+            writer.setChunkSize(deflateChunkSize);
+            writer.setAdaptiveFiltering(adaptiveFiltering);
+            writer.writePNG(srcImage, outputStream, quality, filter);
         } catch (Exception e){
             throw new IOException(e);
         } finally{
@@ -19,27 +19,120 @@ package it.geosolutions.imageio.plugins.png;
 import java.awt.image.ColorModel;
 import java.awt.image.IndexColorModel;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.OutputStream;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.logging.Level;
 import java.util.logging.Logger;
+import java.util.zip.Adler32;
+import java.util.zip.Deflater;
 
 import ar.com.hjg.pngj.FilterType;
+import ar.com.hjg.pngj.IImageLine;
 import ar.com.hjg.pngj.ImageInfo;
+import ar.com.hjg.pngj.PngHelperInternal;
 import ar.com.hjg.pngj.PngWriter;
+import ar.com.hjg.pngj.chunks.ChunkHelper;
+import ar.com.hjg.pngj.chunks.ChunkRaw;
+import ar.com.hjg.pngj.chunks.PngChunkIEND;
+import ar.com.hjg.pngj.chunks.PngChunkIHDR;
 import ar.com.hjg.pngj.chunks.PngChunkPLTE;
 import ar.com.hjg.pngj.chunks.PngChunkTRNS;
 
 /**
  * Encodes the image in PNG using the PNGJ library
  * 
+ * <p>
+ * By default the image data is deflated on the calling thread. When more than one deflate thread
+ * is configured, the filtered scanlines are instead split in chunks of about
+ * {@link #getChunkSize()} bytes which are deflated concurrently, each one primed with the last
+ * 32KB of the previous chunk as dictionary, and joined back into a single zlib stream, in the same
+ * way as pigz does.
+ * 
  * @author Andrea Aime - GeoSolutions
  */
 public class PNGWriter {
 
     private static final Logger LOGGER = Logger.getAnonymousLogger();
 
+    /** The default size of the chunks deflated in parallel, 128KB */
+    public static final int DEFAULT_CHUNK_SIZE = 128 * 1024;
+
+    /** The size of the deflate window, and thus of the dictionary used to prime each chunk */
+    private static final int DICTIONARY_SIZE = 32 * 1024;
+
+    private int deflateThreads = 1;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private boolean adaptiveFiltering = false;
+
+    /**
+     * Returns the number of threads used to deflate the image data.
+     */
+    public int getDeflateThreads() {
+        return deflateThreads;
+    }
+
+    /**
+     * Sets the number of threads used to deflate the image data, 1 (the default) deflates on the
+     * calling thread by means of the PNGJ encoder.
+     */
+    public void setDeflateThreads(int deflateThreads) {
+        if (deflateThreads < 1) {
+            throw new IllegalArgumentException("The number of deflate threads must be positive: "
+                    + deflateThreads);
+        }
+        this.deflateThreads = deflateThreads;
+    }
+
+    /**
+     * Returns the approximate size in bytes of the chunks of filtered scanlines deflated in
+     * parallel.
+     */
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Sets the approximate size in bytes of the chunks of filtered scanlines deflated in
+     * parallel. Each chunk holds whole scanlines, at least one.
+     */
+    public void setChunkSize(int chunkSize) {
+        if (chunkSize < 1) {
+            throw new IllegalArgumentException("The chunk size must be positive: " + chunkSize);
+        }
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Returns true if the filter of each row is chosen by an {@link AdaptiveFilterStrategy}
+     */
+    public boolean isAdaptiveFiltering() {
+        return adaptiveFiltering;
+    }
+
+    /**
+     * Enables the {@link AdaptiveFilterStrategy}, choosing the filter of each row on the fly. When
+     * enabled the filter type passed to
+     * {@link #writePNG(RenderedImage, OutputStream, float, FilterType)} is ignored.
+     */
+    public void setAdaptiveFiltering(boolean adaptiveFiltering) {
+        this.adaptiveFiltering = adaptiveFiltering;
+    }
+
     public RenderedImage writePNG(RenderedImage image, OutputStream outStream, float quality,
             FilterType filterType) throws Exception {
+        if (deflateThreads > 1) {
+            return writeParallelPNG(image, outStream, quality, filterType);
+        }
         
         // compute the compression level similarly to what the Clib code does
         int level = Math.round(9 * (1f - quality));
@@ -59,37 +152,32 @@ public class PNGWriter {
         pw.setShouldCloseStream(false);
         try {
             pw.setCompLevel(level);
-            pw.setFilterType(filterType);
+            AdaptiveFilterStrategy adaptive = null;
+            IImageLine line = scanlines;
+            if (adaptiveFiltering) {
+                adaptive = new AdaptiveFilterStrategy(ii, scanlines);
+                pw.setFilterStrategy(adaptive);
+                line = adaptive.wrap(scanlines);
+            } else {
+                pw.setFilterType(filterType);
+            }
 
             if (indexed) {
                 IndexColorModel icm = (IndexColorModel) colorModel;
-                PngChunkPLTE palette = pw.getMetadata().createPLTEChunk();
-                int ncolors = icm.getMapSize();
-                palette.setNentries(ncolors);
-                for (int i = 0; i < ncolors; i++) {
-                    final int red = icm.getRed(i);
-                    final int green = icm.getGreen(i);
-                    final int blue = icm.getBlue(i);
-                    palette.setEntry(i, red, green, blue);
-                }
+                pw.getChunksList().queue(createPalette(ii, icm));
                 if (icm.hasAlpha()) {
-                    PngChunkTRNS transparent = new PngChunkTRNS(ii);
-                    int[] alpha = new int[ncolors];
-                    for (int i = 0; i < ncolors; i++) {
-                        final int a = icm.getAlpha(i);
-                        alpha[i] = a;
-                    }
-                    transparent.setPalletteAlpha(alpha);
-                    pw.getChunksList().queue(transparent);
-
+                    pw.getChunksList().queue(createTransparency(ii, icm));
                 }
             }
 
             // write out the actual image lines
             for (int row = 0; row < image.getHeight(); row++) {
-                pw.writeRow(scanlines);
+                pw.writeRow(line);
             }
             pw.end();
+            if (adaptive != null) {
+                adaptive.end();
+            }
         } catch (Exception e) {
             LOGGER.log(Level.SEVERE, "Failed to encode the PNG", e);
             throw e;
@@ -100,6 +188,253 @@ public class PNGWriter {
         return image;
     }
 
+    /**
+     * Encodes the image deflating chunks of scanlines in parallel, see the class javadoc
+     */
+    private RenderedImage writeParallelPNG(RenderedImage image, OutputStream outStream,
+            float quality, FilterType filterType) throws Exception {
+        int level = Math.round(9 * (1f - quality));
+        ScanlineProvider scanlines = ScanlineProviderFactory.getProvider(image);
+        if (scanlines == null) {
+            throw new IllegalArgumentException("Could not find a scanline extractor for "
+                    + image);
+        }
+
+        ColorModel colorModel = image.getColorModel();
+        boolean indexed = colorModel instanceof IndexColorModel;
+        ImageInfo ii = getImageInfo(image, scanlines, colorModel, indexed);
+        ExecutorService executor = DeflateExecutorHolder.EXECUTOR;
+        LinkedList<Future<byte[]>> pending = new LinkedList<Future<byte[]>>();
+        try {
+            // signature and header chunks
+            PngHelperInternal.writeBytes(outStream, PngHelperInternal.getPngIdSignature());
+            createHeader(ii).createRawChunk().writeChunk(outStream);
+            if (indexed) {
+                IndexColorModel icm = (IndexColorModel) colorModel;
+                createPalette(ii, icm).createRawChunk().writeChunk(outStream);
+                if (icm.hasAlpha()) {
+                    createTransparency(ii, icm).createRawChunk().writeChunk(outStream);
+                }
+            }
+
+            // filter the scanlines in chunks, and deflate them in parallel keeping
+            // at most one chunk per thread in flight
+            final int filteredRowLength = ii.bytesPerRow + 1;
+            final int rowsPerChunk = Math.max(1, chunkSize / filteredRowLength);
+            AdaptiveFilterStrategy adaptive = adaptiveFiltering ? new AdaptiveFilterStrategy(ii,
+                    scanlines) : null;
+            ScanlineFilter filter = new ScanlineFilter(ii, filterType, adaptive);
+            Adler32 adler = new Adler32();
+            byte[] row = new byte[ii.bytesPerRow];
+            byte[] previous = new byte[ii.bytesPerRow];
+            byte[] dictionary = null;
+            for (int startRow = 0; startRow < ii.rows; startRow += rowsPerChunk) {
+                int rows = Math.min(rowsPerChunk, ii.rows - startRow);
+                byte[] filtered = new byte[rows * filteredRowLength];
+                for (int r = 0; r < rows; r++) {
+                    scanlines.next(row, 0, ii.bytesPerRow);
+                    filter.filter(row, previous, filtered, r * filteredRowLength);
+                    byte[] tmp = previous;
+                    previous = row;
+                    row = tmp;
+                }
+                adler.update(filtered);
+
+                boolean first = startRow == 0;
+                boolean last = startRow + rows >= ii.rows;
+                pending.add(executor.submit(new DeflateTask(filtered, dictionary, level, first,
+                        last, adler.getValue())));
+                dictionary = updateDictionary(dictionary, filtered);
+
+                while (pending.size() >= deflateThreads || (last && !pending.isEmpty())) {
+                    writeIDAT(outStream, pending.removeFirst().get());
+                }
+            }
+
+            new PngChunkIEND(ii).createRawChunk().writeChunk(outStream);
+            outStream.flush();
+            if (adaptive != null) {
+                adaptive.end();
+            }
+        } catch (ExecutionException e) {
+            LOGGER.log(Level.SEVERE, "Failed to encode the PNG", e.getCause());
+            Throwable cause = e.getCause();
+            throw cause instanceof Exception ? (Exception) cause : e;
+        } catch (Exception e) {
+            LOGGER.log(Level.SEVERE, "Failed to encode the PNG", e);
+            throw e;
+        } finally {
+            for (Future<byte[]> future : pending) {
+                future.cancel(false);
+            }
+        }
+
+        return image;
+    }
+
+    /**
+     * Returns the last 32KB of the data deflated so far, given the previous dictionary and the
+     * last deflated chunk
+     */
+    private static byte[] updateDictionary(byte[] dictionary, byte[] chunk) {
+        if (chunk.length >= DICTIONARY_SIZE || dictionary == null) {
+            int length = Math.min(chunk.length, DICTIONARY_SIZE);
+            byte[] result = new byte[length];
+            System.arraycopy(chunk, chunk.length - length, result, 0, length);
+            return result;
+        }
+        int kept = Math.min(dictionary.length, DICTIONARY_SIZE - chunk.length);
+        byte[] result = new byte[kept + chunk.length];
+        System.arraycopy(dictionary, dictionary.length - kept, result, 0, kept);
+        System.arraycopy(chunk, 0, result, kept, chunk.length);
+        return result;
+    }
+
+    private static void writeIDAT(OutputStream outStream, byte[] data) {
+        if (data.length == 0) {
+            return;
+        }
+        ChunkRaw chunk = new ChunkRaw(data.length, ChunkHelper.b_IDAT, false);
+        chunk.data = data;
+        chunk.writeChunk(outStream);
+    }
+
+    /**
+     * Deflates a chunk of filtered scanlines as a piece of the zlib stream of the image: the
+     * first chunk carries the zlib header, the last one the final deflate block and the Adler32
+     * checksum, all the others end with a sync flush so that they can be simply concatenated.
+     */
+    static final class DeflateTask implements Callable<byte[]> {
+
+        private final byte[] data;
+
+        private final byte[] dictionary;
+
+        private final int level;
+
+        private final boolean first;
+
+        private final boolean last;
+
+        /** The checksum of the whole stream, used by the last chunk only */
+        private final long adler;
+
+        DeflateTask(byte[] data, byte[] dictionary, int level, boolean first, boolean last,
+                long adler) {
+            this.data = data;
+            this.dictionary = dictionary;
+            this.level = level;
+            this.first = first;
+            this.last = last;
+            this.adler = adler;
+        }
+
+        public byte[] call() throws Exception {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(data.length / 2 + 64);
+            if (first) {
+                // zlib header: deflate with a 32KB window, no preset dictionary
+                int cmf = 0x78;
+                int flevel = level < 2 ? 0 : level < 6 ? 1 : level == 6 ? 2 : 3;
+                int flg = flevel << 6;
+                flg += 31 - ((cmf << 8) + flg) % 31;
+                out.write(cmf);
+                out.write(flg);
+            }
+
+            Deflater deflater = new Deflater(level, true);
+            try {
+                if (dictionary != null) {
+                    deflater.setDictionary(dictionary);
+                }
+                deflater.setInput(data);
+                byte[] buffer = new byte[Math.max(data.length / 2, 1024)];
+                if (last) {
+                    deflater.finish();
+                    while (!deflater.finished()) {
+                        int n = deflater.deflate(buffer);
+                        out.write(buffer, 0, n);
+                    }
+                } else {
+                    int n;
+                    do {
+                        n = deflater.deflate(buffer, 0, buffer.length, Deflater.SYNC_FLUSH);
+                        out.write(buffer, 0, n);
+                    } while (n == buffer.length);
+                }
+            } finally {
+                deflater.end();
+            }
+
+            if (last) {
+                out.write((int) (adler >>> 24));
+                out.write((int) (adler >>> 16));
+                out.write((int) (adler >>> 8));
+                out.write((int) adler);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    /**
+     * Lazily creates the threads shared by all the parallel encoders
+     */
+    private static final class DeflateExecutorHolder {
+
+        static final ExecutorService EXECUTOR = Executors.newCachedThreadPool(new ThreadFactory() {
+
+            private final AtomicInteger count = new AtomicInteger();
+
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "PNGWriter-deflate-" + count.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    private static PngChunkIHDR createHeader(ImageInfo ii) {
+        PngChunkIHDR header = new PngChunkIHDR(ii);
+        header.setCols(ii.cols);
+        header.setRows(ii.rows);
+        header.setBitspc(ii.bitDepth);
+        int colorType = ii.alpha ? 0x04 : 0;
+        if (ii.indexed) {
+            colorType = 0x03;
+        } else if (!ii.greyscale) {
+            colorType |= 0x02;
+        }
+        header.setColormodel(colorType);
+        header.setCompmeth(0);
+        header.setFilmeth(0);
+        header.setInterlaced(0);
+        return header;
+    }
+
+    private static PngChunkPLTE createPalette(ImageInfo ii, IndexColorModel icm) {
+        PngChunkPLTE palette = new PngChunkPLTE(ii);
+        int ncolors = icm.getMapSize();
+        palette.setNentries(ncolors);
+        for (int i = 0; i < ncolors; i++) {
+            final int red = icm.getRed(i);
+            final int green = icm.getGreen(i);
+            final int blue = icm.getBlue(i);
+            palette.setEntry(i, red, green, blue);
+        }
+        return palette;
+    }
+
+    private static PngChunkTRNS createTransparency(ImageInfo ii, IndexColorModel icm) {
+        PngChunkTRNS transparent = new PngChunkTRNS(ii);
+        int ncolors = icm.getMapSize();
+        int[] alpha = new int[ncolors];
+        for (int i = 0; i < ncolors; i++) {
+            final int a = icm.getAlpha(i);
+            alpha[i] = a;
+        }
+        transparent.setPalletteAlpha(alpha);
+        return transparent;
+    }
+
     /**
      * Quick method used for checking if the image can be optimized with the selected scanline extractors or if the image must be rescaled to byte
      * before writing the image.
@@ -0,0 +1,174 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.plugins.png;
+
+import ar.com.hjg.pngj.FilterType;
+import ar.com.hjg.pngj.ImageInfo;
+
+/**
+ * Applies the PNG filters to the scanlines of an image, choosing the filter of each row according
+ * to the configured {@link FilterType} in the same way as PNGJ does, or by means of an
+ * {@link AdaptiveFilterStrategy}. Used by the {@link PNGWriter} parallel encoder, which filters
+ * the rows itself before deflating them.
+ */
+final class ScanlineFilter {
+
+    /** Number of rows between two filter selections in {@link FilterType#FILTER_AGGRESSIVE} mode */
+    private static final int AGGRESSIVE_DISCOVER_ROWS = 8;
+
+    private final FilterType filterType;
+
+    private final AdaptiveFilterStrategy adaptive;
+
+    private final int bytesPerPixel;
+
+    private final int bytesPerRow;
+
+    /** Rows between two filter selections, or 0 if the filter type is fixed */
+    private final int discoverRows;
+
+    /** Scratch row used when selecting the best filter */
+    private final byte[] candidate;
+
+    private FilterType currentType;
+
+    private int row = 0;
+
+    ScanlineFilter(ImageInfo info, FilterType filterType) {
+        this(info, filterType, null);
+    }
+
+    /**
+     * Creates a filter whose rows are filtered as chosen by the given adaptive strategy, if not
+     * <code>null</code>, or by the given filter type otherwise
+     */
+    ScanlineFilter(ImageInfo info, FilterType filterType, AdaptiveFilterStrategy adaptive) {
+        this.adaptive = adaptive;
+        this.bytesPerPixel = info.bytesPixel;
+        this.bytesPerRow = info.bytesPerRow;
+        if (filterType.val >= 0) {
+            this.filterType = filterType;
+        } else if (filterType == FilterType.FILTER_DEFAULT) {
+            // same choice as PNGJ, no filtering for small, indexed or packed images
+            boolean small = info.rows < 8 && info.cols < 8;
+            this.filterType = small || info.indexed || info.bitDepth < 8 ? FilterType.FILTER_NONE
+                    : FilterType.FILTER_PAETH;
+        } else {
+            this.filterType = filterType;
+        }
+        if (this.filterType == FilterType.FILTER_AGGRESSIVE) {
+            discoverRows = AGGRESSIVE_DISCOVER_ROWS;
+        } else if (this.filterType == FilterType.FILTER_VERYAGGRESSIVE) {
+            discoverRows = 1;
+        } else {
+            discoverRows = 0;
+        }
+        this.candidate = discoverRows > 0 ? new byte[bytesPerRow] : null;
+        this.currentType = this.filterType.val >= 0 ? this.filterType : FilterType.FILTER_PAETH;
+    }
+
+    /**
+     * Filters the next row of the image, writing the filter type followed by the filtered bytes
+     * in <code>out</code>, starting at <code>offset</code>.
+     * 
+     * @param raw the raw bytes of the row
+     * @param previous the raw bytes of the previous row, all zeroes for the first one
+     */
+    void filter(byte[] raw, byte[] previous, byte[] out, int offset) {
+        FilterType type;
+        if (adaptive != null) {
+            type = adaptive.selectFilter(raw, 0, previous);
+        } else if (filterType == FilterType.FILTER_CYCLIC) {
+            type = FilterType.getByVal(row % 5);
+        } else if (discoverRows > 0) {
+            if (row % discoverRows == 0) {
+                currentType = selectFilter(raw, previous);
+            }
+            type = currentType;
+        } else {
+            type = currentType;
+        }
+        row++;
+
+        out[offset] = (byte) type.val;
+        filterRow(type, raw, previous, out, offset + 1);
+    }
+
+    /**
+     * Returns the filter type minimizing the sum of the absolute values of the filtered bytes,
+     * the usual heuristic suggested by the PNG specification.
+     */
+    private FilterType selectFilter(byte[] raw, byte[] previous) {
+        FilterType best = FilterType.FILTER_NONE;
+        long bestSum = Long.MAX_VALUE;
+        for (int val = 0; val < 5; val++) {
+            FilterType type = FilterType.getByVal(val);
+            filterRow(type, raw, previous, candidate, 0);
+            long sum = 0;
+            for (int i = 0; i < bytesPerRow; i++) {
+                sum += Math.abs(candidate[i]);
+            }
+            if (sum < bestSum) {
+                bestSum = sum;
+                best = type;
+            }
+        }
+        return best;
+    }
+
+    private void filterRow(FilterType type, byte[] raw, byte[] previous, byte[] out, int offset) {
+        final int bpp = bytesPerPixel;
+        final int length = bytesPerRow;
+        switch (type) {
+        case FILTER_NONE:
+            System.arraycopy(raw, 0, out, offset, length);
+            break;
+        case FILTER_SUB:
+            System.arraycopy(raw, 0, out, offset, bpp);
+            for (int i = bpp; i < length; i++) {
+                out[offset + i] = (byte) (raw[i] - raw[i - bpp]);
+            }
+            break;
+        case FILTER_UP:
+            for (int i = 0; i < length; i++) {
+                out[offset + i] = (byte) (raw[i] - previous[i]);
+            }
+            break;
+        case FILTER_AVERAGE:
+            for (int i = 0; i < bpp; i++) {
+                out[offset + i] = (byte) (raw[i] - ((previous[i] & 0xff) >> 1));
+            }
+            for (int i = bpp; i < length; i++) {
+                out[offset + i] = (byte) (raw[i] - (((raw[i - bpp] & 0xff) + (previous[i] & 0xff)) >> 1));
+            }
+            break;
+        case FILTER_PAETH:
+            for (int i = 0; i < bpp; i++) {
+                // with no left pixel the Paeth predictor is the upper one
+                out[offset + i] = (byte) (raw[i] - previous[i]);
+            }
+            for (int i = bpp; i < length; i++) {
+                final int predictor = AdaptiveFilterStrategy.paethPredictor(raw[i - bpp] & 0xff,
+                        previous[i] & 0xff, previous[i - bpp] & 0xff);
+                out[offset + i] = (byte) (raw[i] - predictor);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unsupported filter type " + type);
+        }
+    }
+}
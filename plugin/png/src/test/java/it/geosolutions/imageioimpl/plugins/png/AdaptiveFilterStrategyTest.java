@@ -0,0 +1,110 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2009, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.png;
+
+import static org.junit.Assert.assertEquals;
+import it.geosolutions.imageio.plugins.png.AdaptiveFilterStrategy;
+import it.geosolutions.imageio.plugins.png.PNGImageWriter;
+import it.geosolutions.imageio.plugins.png.PNGImageWriter.PNGImageWriteParam;
+import it.geosolutions.imageio.plugins.png.PNGImageWriterSPI;
+import it.geosolutions.imageio.plugins.png.PNGWriter;
+import it.geosolutions.imageio.plugins.png.ScanlineProvider;
+import it.geosolutions.imageio.plugins.png.ScanlineProviderFactory;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+
+import org.junit.Test;
+
+import ar.com.hjg.pngj.FilterType;
+import ar.com.hjg.pngj.ImageInfo;
+
+public class AdaptiveFilterStrategyTest {
+
+    @Test
+    public void selectFilter() {
+        BufferedImage image = new BufferedImage(64, 4, BufferedImage.TYPE_BYTE_GRAY);
+        ScanlineProvider scanlines = ScanlineProviderFactory.getProvider(image);
+        ImageInfo info = new ImageInfo(64, 4, 8, false, true, false);
+        AdaptiveFilterStrategy strategy = new AdaptiveFilterStrategy(info, scanlines);
+
+        // a horizontal ramp is best predicted by the left pixel
+        byte[] previous = new byte[64];
+        byte[] ramp = new byte[64];
+        for (int i = 0; i < ramp.length; i++) {
+            ramp[i] = (byte) (i * 3);
+        }
+        assertEquals(FilterType.FILTER_SUB, strategy.selectFilter(ramp, 0, previous));
+
+        // noise repeated from the row above is best predicted by the upper pixel
+        byte[] noise = new byte[64];
+        for (int i = 0; i < noise.length; i++) {
+            noise[i] = (byte) (i * 7919 % 251);
+        }
+        assertEquals(FilterType.FILTER_UP, strategy.selectFilter(noise, 0, noise));
+        assertEquals(FilterType.FILTER_UP, strategy.preferedType(1));
+
+        // flat rows need no filtering at all
+        assertEquals(FilterType.FILTER_NONE, strategy.selectFilter(previous, 0, previous));
+    }
+
+    @Test
+    public void encode() throws Exception {
+        int[] types = new int[] { BufferedImage.TYPE_4BYTE_ABGR, BufferedImage.TYPE_INT_RGB,
+                BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_USHORT_GRAY };
+        for (int type : types) {
+            BufferedImage image = new BufferedImage(300, 200, type);
+            new SampleImagePainter().paintImage(image);
+            // twice, the second time with a cached filter for the image type
+            for (int i = 0; i < 2; i++) {
+                for (int threads : new int[] { 1, 2 }) {
+                    PNGWriter writer = new PNGWriter();
+                    writer.setAdaptiveFiltering(true);
+                    writer.setDeflateThreads(threads);
+                    writer.setChunkSize(10000);
+                    ByteArrayOutputStream bos = new ByteArrayOutputStream();
+                    writer.writePNG(image, bos, 0.5f, FilterType.FILTER_NONE);
+
+                    BufferedImage readBack = ImageIO.read(new ByteArrayInputStream(bos
+                            .toByteArray()));
+                    ImageAssert.assertImagesEqual(image, readBack);
+                }
+            }
+        }
+    }
+
+    @Test
+    public void imageWriter() throws Exception {
+        BufferedImage image = new BufferedImage(300, 200, BufferedImage.TYPE_3BYTE_BGR);
+        new SampleImagePainter().paintImage(image);
+
+        PNGImageWriter writer = (PNGImageWriter) new PNGImageWriterSPI().createWriterInstance();
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        writer.setOutput(bos);
+        PNGImageWriteParam wp = (PNGImageWriteParam) writer.getDefaultWriteParam();
+        wp.setAdaptiveFiltering(true);
+        writer.write(null, new IIOImage(image, null, null), wp);
+        writer.dispose();
+
+        BufferedImage readBack = ImageIO.read(new ByteArrayInputStream(bos.toByteArray()));
+        ImageAssert.assertImagesEqual(image, readBack);
+    }
+}
@@ -0,0 +1,106 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2009, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.png;
+
+import it.geosolutions.imageio.plugins.png.PNGWriter;
+
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.util.logging.Logger;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+import ar.com.hjg.pngj.FilterType;
+
+/**
+ * Timing tests for the PNG encoder. They are ignored by default, enable them to compare the
+ * speed and output size of the different encoding options.
+ */
+public class PNGWriterSpeedTest {
+
+    private static final Logger LOGGER = Logger.getLogger(PNGWriterSpeedTest.class.toString());
+
+    private static final int LOOP = 10;
+
+    private static final int SIZE = 2048;
+
+    static BufferedImage createSampleImage(int imageType) {
+        BufferedImage image = new BufferedImage(SIZE, SIZE, imageType);
+        SampleImagePainter painter = new SampleImagePainter();
+        painter.setLines(2000);
+        painter.paintImage(image);
+        return image;
+    }
+
+    static void report(String message, long total, int loop, int size) {
+        LOGGER.info(message + ": average " + (total / loop / 1000000d) + " ms, size " + size
+                + " bytes");
+    }
+
+    @Test
+    @Ignore
+    public void testParallelDeflate() throws Exception {
+        BufferedImage image = createSampleImage(BufferedImage.TYPE_4BYTE_ABGR);
+        for (int threads : new int[] { 1, 2, 4, 8 }) {
+            PNGWriter writer = new PNGWriter();
+            writer.setDeflateThreads(threads);
+            // warm up
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            writer.writePNG(image, out, 0.5f, FilterType.FILTER_DEFAULT);
+
+            long start = System.nanoTime();
+            for (int i = 0; i < LOOP; i++) {
+                out = new ByteArrayOutputStream();
+                writer.writePNG(image, out, 0.5f, FilterType.FILTER_DEFAULT);
+            }
+            report(threads == 1 ? "serial" : threads + " deflate threads",
+                    System.nanoTime() - start, LOOP, out.size());
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testFilterStrategies() throws Exception {
+        FilterType[] filterTypes = new FilterType[] { FilterType.FILTER_NONE,
+                FilterType.FILTER_SUB, FilterType.FILTER_UP, FilterType.FILTER_AVERAGE,
+                FilterType.FILTER_PAETH, FilterType.FILTER_DEFAULT, FilterType.FILTER_AGGRESSIVE,
+                FilterType.FILTER_VERYAGGRESSIVE, null };
+        int[] imageTypes = new int[] { BufferedImage.TYPE_4BYTE_ABGR,
+                BufferedImage.TYPE_BYTE_INDEXED, BufferedImage.TYPE_BYTE_GRAY };
+        for (int imageType : imageTypes) {
+            BufferedImage image = createSampleImage(imageType);
+            for (FilterType filterType : filterTypes) {
+                // a null filter type stands for the adaptive strategy
+                PNGWriter writer = new PNGWriter();
+                writer.setAdaptiveFiltering(filterType == null);
+                // warm up
+                ByteArrayOutputStream out = new ByteArrayOutputStream();
+                writer.writePNG(image, out, 0.5f, filterType);
+
+                long start = System.nanoTime();
+                for (int i = 0; i < LOOP; i++) {
+                    out = new ByteArrayOutputStream();
+                    writer.writePNG(image, out, 0.5f, filterType);
+                }
+                report("image type " + imageType + ", "
+                        + (filterType == null ? "adaptive" : filterType.toString()),
+                        System.nanoTime() - start, LOOP, out.size());
+            }
+        }
+    }
+}
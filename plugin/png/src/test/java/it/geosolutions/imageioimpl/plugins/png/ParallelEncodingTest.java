@@ -0,0 +1,148 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2009, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.png;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import it.geosolutions.imageio.plugins.png.PNGImageWriter;
+import it.geosolutions.imageio.plugins.png.PNGImageWriterSPI;
+import it.geosolutions.imageio.plugins.png.PNGWriter;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.Raster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameters;
+
+import ar.com.hjg.pngj.FilterType;
+import ar.com.hjg.pngj.PngReaderByte;
+
+/**
+ * Checks the images encoded deflating chunks of scanlines in parallel decode to the same pixels
+ * as the ones encoded serially
+ */
+@RunWith(Parameterized.class)
+public class ParallelEncodingTest {
+
+    static final int WIDTH = 517;
+
+    static final int HEIGHT = 311;
+
+    static final FilterType[] FILTER_TYPES = new FilterType[] { FilterType.FILTER_NONE,
+            FilterType.FILTER_SUB, FilterType.FILTER_UP, FilterType.FILTER_AVERAGE,
+            FilterType.FILTER_PAETH, FilterType.FILTER_DEFAULT, FilterType.FILTER_AGGRESSIVE,
+            FilterType.FILTER_CYCLIC };
+
+    BufferedImage image;
+
+    String name;
+
+    public ParallelEncodingTest(String name, int imageType) {
+        this.name = name;
+        image = new BufferedImage(WIDTH, HEIGHT, imageType);
+        new SampleImagePainter().paintImage(image);
+    }
+
+    @Parameters(name = "{0}")
+    public static Collection parameters() throws Exception {
+        String[] types = new String[] { "4BYTE_ABGR", "INT_ARGB", "3BYTE_BGR", "INT_RGB",
+                "BYTE_INDEXED", "BYTE_GRAY", "USHORT_GRAY", "BYTE_BINARY" };
+
+        List<Object[]> parameters = new ArrayList<Object[]>();
+        for (int i = 0; i < types.length; i++) {
+            String type = types[i];
+            Field field = BufferedImage.class.getDeclaredField("TYPE_" + type);
+            int imageType = (Integer) field.get(null);
+            parameters.add(new Object[] { type.toLowerCase(), imageType });
+        }
+
+        return parameters;
+    }
+
+    @Test
+    public void compareWithSerialEncoding() throws Exception {
+        for (FilterType filterType : FILTER_TYPES) {
+            for (float quality : new float[] { 0f, 0.5f, 1f }) {
+                ByteArrayOutputStream serial = new ByteArrayOutputStream();
+                new PNGWriter().writePNG(image, serial, quality, filterType);
+
+                // small chunks, to get many of them, and also bigger than the dictionary
+                for (int chunkSize : new int[] { 1000, 40000 }) {
+                    PNGWriter writer = new PNGWriter();
+                    writer.setDeflateThreads(4);
+                    writer.setChunkSize(chunkSize);
+                    ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+                    writer.writePNG(image, parallel, quality, filterType);
+
+                    String message = name + ", " + filterType + ", quality " + quality
+                            + ", chunk size " + chunkSize;
+                    assertSamePixels(message, serial.toByteArray(), parallel.toByteArray());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void imageWriter() throws Exception {
+        // same quality and filter as the default write param
+        ByteArrayOutputStream serial = new ByteArrayOutputStream();
+        new PNGWriter().writePNG(image, serial, 1f / 3, FilterType.FILTER_DEFAULT);
+
+        PNGImageWriter writer = (PNGImageWriter) new PNGImageWriterSPI().createWriterInstance();
+        writer.setDeflateThreads(3);
+        writer.setDeflateChunkSize(5000);
+        ByteArrayOutputStream parallel = new ByteArrayOutputStream();
+        writer.setOutput(parallel);
+        ImageWriteParam wp = writer.getDefaultWriteParam();
+        writer.write(null, new IIOImage(image, null, null), wp);
+        writer.dispose();
+
+        assertSamePixels(name, serial.toByteArray(), parallel.toByteArray());
+    }
+
+    private void assertSamePixels(String message, byte[] expected, byte[] actual)
+            throws IOException {
+        // PNGJ checks the chunk CRCs and the zlib stream, including its checksum
+        PngReaderByte pngReader = new PngReaderByte(new ByteArrayInputStream(actual));
+        try {
+            pngReader.readRows();
+        } finally {
+            pngReader.close();
+        }
+
+        Raster expectedRaster = ImageIO.read(new ByteArrayInputStream(expected)).getRaster();
+        Raster actualRaster = ImageIO.read(new ByteArrayInputStream(actual)).getRaster();
+        assertEquals(message, expectedRaster.getNumBands(), actualRaster.getNumBands());
+        for (int b = 0; b < expectedRaster.getNumBands(); b++) {
+            assertArrayEquals(message, expectedRaster.getSamples(0, 0, WIDTH, HEIGHT, b,
+                    (int[]) null), actualRaster.getSamples(0, 0, WIDTH, HEIGHT, b, (int[]) null));
+        }
+    }
+}
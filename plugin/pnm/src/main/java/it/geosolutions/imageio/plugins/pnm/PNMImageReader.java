@@ -90,7 +90,6 @@ import java.awt.image.WritableRaster;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Iterator;
-import java.util.StringTokenizer;
 
 import javax.imageio.ImageReadParam;
 import javax.imageio.ImageReader;
@@ -154,9 +153,17 @@ public class PNMImageReader extends ImageReader {
 	/** The original image height. */
 	private int height;
 
-	private String aLine;
+	/** Size of the buffer used to scan ASCII samples. */
+	private static final int ASCII_BUFFER_SIZE = 8192;
 
-	private StringTokenizer token;
+	/** Buffer holding the ASCII sample bytes being scanned. */
+	private byte[] asciiBuffer;
+
+	/** Position of the next byte to be scanned in the ASCII buffer. */
+	private int asciiPos;
+
+	/** Number of valid bytes in the ASCII buffer. */
+	private int asciiCount;
 
 	private PNMMetadata metadata;
 
@@ -231,98 +238,12 @@ public class PNMImageReader extends ImageReader {
 			// Set the variant.
 			metadata.setVariant(variant);
 
-			// //
-			//
-			// WIDTH
-			//
-			// //
-			byte b = -1;
-			while ((b = iis.readByte()) == '\n' || b == '\r' || b == '#'
-					|| b == ' ') {
-				if (b == '#')
-					while ((b = iis.readByte()) != '\n')
-						;
-			}
-			if (b < 48 || b > 57)
-				throw new RuntimeException(I18N.getString("PNMImageReader0"));
-			StringBuffer number = new StringBuffer();
-			number.append(b - 48);
-			while ((b = iis.readByte()) > 0 && b >= 48 && b <= 57)
-				number.append(b - 48);
-
-			// got a number?
-			try {
-				width = Integer.parseInt(number.toString());
-				if (b != '\n' && b != '\r' && b != '#' && b != ' ')
-					throw new RuntimeException(I18N
-							.getString("PNMImageReader0"));
-			} catch (NumberFormatException e) {
-				throw new RuntimeException(I18N.getString("PNMImageReader0"));
-
-			}
-
-			// //
-			//
-			// HEIGHT
-			//
-			// //
-			b = -1;
-			while ((b = iis.readByte()) == '\n' || b == '\r' || b == '#'
-					|| b == ' ') {
-				if (b == '#')
-					while ((b = iis.readByte()) != '\n')
-						;
-			}
-			if (b < 48 || b > 57)
-				throw new RuntimeException(I18N.getString("PNMImageReader0"));
-			number = new StringBuffer();
-			number.append(b - 48);
-			while ((b = iis.readByte()) > 0 && b >= 48 && b <= 57)
-				number.append(b - 48);
-			// got a number?
-			try {
-				height = Integer.parseInt(number.toString());
-				if (b != '\n' && b != '\r' && b != '#' && b != ' ')
-					throw new RuntimeException(I18N
-							.getString("PNMImageReader0"));
-			} catch (NumberFormatException e) {
-				throw new RuntimeException(I18N.getString("PNMImageReader0"));
-
-			}
-
+			width = readHeaderInteger();
+			height = readHeaderInteger();
 			if (variant == PBM_ASCII || variant == PBM_RAW) {
 				maxValue = 1;
 			} else {
-				// //
-				//
-				// MaxValue
-				//
-				// //
-				b = -1;
-				while ((b = iis.readByte()) == '\n' || b == '\r' || b == '#'
-						|| b == ' ') {
-					if (b == '#')
-						while ((b = iis.readByte()) != '\n')
-							;
-				}
-				if (b < 48 || b > 57)
-					throw new RuntimeException(I18N
-							.getString("PNMImageReader0"));
-				number = new StringBuffer();
-				number.append(b - 48);
-				while ((b = iis.readByte()) > 0 && b >= 48 && b <= 57)
-					number.append(b - 48);
-				// got a number?
-				try {
-					maxValue = Integer.parseInt(number.toString());
-					if (b != '\n' && b != '\r' && b != '#' && b != ' ')
-						throw new RuntimeException(I18N
-								.getString("PNMImageReader0"));
-				} catch (NumberFormatException e) {
-					throw new RuntimeException(I18N
-							.getString("PNMImageReader0"));
-
-				}
+				maxValue = readHeaderInteger();
 			}
 
 			metadata.setWidth(width);
@@ -331,11 +252,9 @@ public class PNMImageReader extends ImageReader {
 
 			gotHeader = true;
 
-			// Store the stream position where the image data starts
-			while ((b = iis.readByte()) == '\n' || b == '\r' || b == '#'
-					|| b == ' ')
-				;
-			imageDataOffset = iis.getStreamPosition() - 1;
+			// Store the stream position where the image data starts: raw
+			// data follows the single whitespace ending the last header field
+			imageDataOffset = iis.getStreamPosition();
 		}
 	}
 
@@ -406,6 +325,8 @@ public class PNMImageReader extends ImageReader {
 
 		// read header
 		readHeader();
+		if (!isRaw(variant))
+			resetScanner();
 
 		Rectangle sourceRegion = new Rectangle(0, 0, 0, 0);
 		Rectangle destinationRegion = new Rectangle(0, 0, 0, 0);
@@ -597,7 +518,7 @@ public class PNMImageReader extends ImageReader {
 					int b = 0;
 					int pos = 7;
 					for (j = 0; j < width; j++) {
-						b |= (readInteger(iis) & 1) << pos;
+						b |= readBit(iis) << pos;
 						pos--;
 						if (pos == -1) {
 							buf[n++] = (byte) b;
@@ -611,7 +532,7 @@ public class PNMImageReader extends ImageReader {
 					processImageProgress(100.0F * i / height);
 				}
 			else {
-				skipInteger(iis, sourceRegion.y * width + sourceRegion.x);
+				skipBits(iis, sourceRegion.y * width + sourceRegion.x);
 				int skipX = scaleX - 1;
 				int skipY = (scaleY - 1) * width + width
 						- destinationRegionWidth * scaleX;
@@ -622,20 +543,20 @@ public class PNMImageReader extends ImageReader {
 					int b = 0;
 					int pos = 7 - (destinationRegion.x & 7);
 					for (j = 0; j < destinationRegionWidth; j++) {
-						b |= (readInteger(iis) & 1) << pos;
+						b |= readBit(iis) << pos;
 						pos--;
 						if (pos == -1) {
 							buf[n++] = (byte) b;
 							b = 0;
 							pos = 7;
 						}
-						skipInteger(iis, skipX);
+						skipBits(iis, skipX);
 					}
 					if (pos != 7)
 						buf[n++] = (byte) b;
 
 					n += destinationRegion.x >> 3;
-					skipInteger(iis, skipY);
+					skipBits(iis, skipY);
 					processImageUpdate(bi, 0, i, destinationRegionWidth, 1, 1,
 							1, destBands);
 					processImageProgress(100.0F * i / destinationRegionHeight);
@@ -732,8 +653,8 @@ public class PNMImageReader extends ImageReader {
 				DataBufferUShort sbuf = (DataBufferUShort) raster
 						.getDataBuffer();
 				short[] shortArray = sbuf.getData();
-				skipInteger(iis, sourceRegion.y * width * numBands
-						+ sourceRegion.x);
+				skipInteger(iis, (sourceRegion.y * width + sourceRegion.x)
+						* numBands);
 				 i = 0;
 				if (seleBand) {
 					short[] data = new short[numBands];
@@ -772,8 +693,8 @@ public class PNMImageReader extends ImageReader {
 			case DataBuffer.TYPE_INT:
 				DataBufferInt ibuf = (DataBufferInt) raster.getDataBuffer();
 				int[] intArray = ibuf.getData();
-				skipInteger(iis, sourceRegion.y * width * numBands
-						+ sourceRegion.x);
+				skipInteger(iis, (sourceRegion.y * width + sourceRegion.x)
+						* numBands);
 				 i = 0;
 				if (seleBand) {
 					int[] data = new int[numBands];
@@ -856,46 +777,111 @@ public class PNMImageReader extends ImageReader {
 		stream.reset();
 	}
 
-	/** Reads the next integer. */
-	private int readInteger(ImageInputStream stream) throws IOException {
-		boolean foundDigit = false;
-
-		while (aLine == null) {
-			aLine = stream.readLine();
-			if (aLine == null)
-				return 0;
-			int pos = aLine.indexOf("#");
-			if (pos == 0)
-				aLine = null;
-			else if (pos > 0)
-				aLine = aLine.substring(0, pos - 1);
-
-			if (aLine != null)
-				token = new StringTokenizer(aLine);
+	/**
+	 * Reads a header integer, skipping the leading whitespace and comments,
+	 * together with the whitespace character ending it.
+	 */
+	private int readHeaderInteger() throws IOException {
+		int b;
+		while ((b = iis.read()) == '\n' || b == '\r' || b == '\t' || b == ' '
+				|| b == '#') {
+			if (b == '#')
+				while ((b = iis.read()) != '\n' && b != '\r' && b != -1)
+					;
+		}
+		if (b < '0' || b > '9')
+			throw new RuntimeException(I18N.getString("PNMImageReader0"));
+		long value = b - '0';
+		while ((b = iis.read()) >= '0' && b <= '9') {
+			value = value * 10 + b - '0';
+			if (value > Integer.MAX_VALUE)
+				throw new RuntimeException(I18N.getString("PNMImageReader0"));
+		}
+		if (b == '#') {
+			while ((b = iis.read()) != '\n' && b != '\r' && b != -1)
+				;
+		} else if (b != '\n' && b != '\r' && b != '\t' && b != ' ') {
+			throw new RuntimeException(I18N.getString("PNMImageReader0"));
 		}
+		return (int) value;
+	}
 
-		String s;
-		while (token.hasMoreTokens()) {
-			s = token.nextToken();
+	/** Makes the ASCII sample scanner start from the current stream position. */
+	private void resetScanner() {
+		if (asciiBuffer == null)
+			asciiBuffer = new byte[ASCII_BUFFER_SIZE];
+		asciiPos = 0;
+		asciiCount = 0;
+	}
 
-			try {
-				return new Integer(s).intValue();
-			} catch (NumberFormatException e) {
-				continue;
+	/** Returns the next sample byte, or -1 at the end of the stream. */
+	private int nextByte(ImageInputStream stream) throws IOException {
+		if (asciiPos == asciiCount) {
+			asciiPos = 0;
+			asciiCount = stream.read(asciiBuffer, 0, asciiBuffer.length);
+			if (asciiCount <= 0) {
+				asciiCount = 0;
+				return -1;
 			}
 		}
+		return asciiBuffer[asciiPos++] & 0xFF;
+	}
 
-		if (!foundDigit) {
-			aLine = null;
-			return readInteger(stream);
+	/**
+	 * Skips separators and comments up to the next digit, which is returned,
+	 * or -1 at the end of the stream.
+	 */
+	private int nextDigit(ImageInputStream stream) throws IOException {
+		int b;
+		while ((b = nextByte(stream)) != -1) {
+			if (b >= '0' && b <= '9')
+				return b;
+			if (b == '#')
+				while ((b = nextByte(stream)) != '\n' && b != '\r' && b != -1)
+					;
 		}
+		return -1;
+	}
 
-		return 0;
+	/** Reads the next integer, 0 at the end of the stream. */
+	private int readInteger(ImageInputStream stream) throws IOException {
+		int b = nextDigit(stream);
+		if (b == -1)
+			return 0;
+		int value = b - '0';
+		while ((b = nextByte(stream)) >= '0' && b <= '9')
+			value = value * 10 + b - '0';
+		// leave the terminator, it may start a comment
+		if (b != -1)
+			asciiPos--;
+		return value;
 	}
 
 	private void skipInteger(ImageInputStream stream, int num)
 			throws IOException {
+		for (int i = 0; i < num; i++) {
+			int b = nextDigit(stream);
+			if (b == -1)
+				return;
+			while ((b = nextByte(stream)) >= '0' && b <= '9')
+				;
+			if (b != -1)
+				asciiPos--;
+		}
+	}
+
+	/**
+	 * Reads the next PBM pixel. Plain PBM pixels are single digits which do
+	 * not need to be separated by whitespace.
+	 */
+	private int readBit(ImageInputStream stream) throws IOException {
+		int b = nextDigit(stream);
+		return b == -1 ? 0 : (b - '0') & 1;
+	}
+
+	private void skipBits(ImageInputStream stream, int num) throws IOException {
 		for (int i = 0; i < num; i++)
-			readInteger(stream);
+			if (nextDigit(stream) == -1)
+				return;
 	}
 }
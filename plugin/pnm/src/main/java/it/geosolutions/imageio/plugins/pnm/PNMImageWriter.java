@@ -73,6 +73,9 @@
  */
 package it.geosolutions.imageio.plugins.pnm;
 
+import it.geosolutions.imageio.utilities.FastByteArrayWrapper;
+import it.geosolutions.imageio.utilities.NumberToByteArray;
+
 import java.awt.Rectangle;
 import java.awt.color.ColorSpace;
 import java.awt.image.ColorModel;
@@ -137,6 +140,9 @@ public class PNMImageWriter extends ImageWriter {
     /** The output stream to write into */
     private ImageOutputStream stream = null;
 
+    /** Formats ASCII samples without intermediate <code>String</code>s. */
+    private final NumberToByteArray digits = new NumberToByteArray();
+
     /** Constructs <code>PNMImageWriter</code> based on the provided
      *  <code>ImageWriterSpi</code>.
      */
@@ -556,6 +562,10 @@ public class PNMImageWriter extends ImageWriter {
         // ASCII mode.  Not used in raw mode.
         int count = 0;
 
+        // ASCII samples of a row are formatted here and written in one call.
+        FastByteArrayWrapper line = isRaw(variant) ? null
+                : new FastByteArrayWrapper(w * numBands * 4 + 64);
+
         // Process line by line
         int lastRow = sourceRegion.y + sourceRegion.height;
 
@@ -577,30 +587,34 @@ public class PNMImageWriter extends ImageWriter {
 
             if (isPBMInverted)
                 for (int i = 0; i < size; i += scaleX)
-                    bpixels[i] ^= 1;
+                    pixels[i] ^= 1;
 
             switch (variant) {
             case PBM_ASCII:
             	for (int i = 0; i < size; i += scaleX) {
                     if ((count++ % 16) == 0)
-                        stream.write(lineSeparator);
+                        line.write(lineSeparator);
                     else
-                        stream.write(SPACE);
+                        line.write(SPACE);
 
-                    writeInteger(stream, isPBMInverted?(byte)~pixels[i]:pixels[i]);
+                    writeInteger(line, pixels[i]);
                 }
-                stream.write(lineSeparator);
+                line.write(lineSeparator);
+                stream.write(line.getByteArray(), 0, line.size());
+                line.reset();
                 break;
             case PGM_ASCII:
                 for (int i = 0; i < size; i += scaleX) {
                     if ((count++ % 16) == 0)
-                        stream.write(lineSeparator);
+                        line.write(lineSeparator);
                     else
-                        stream.write(SPACE);
+                        line.write(SPACE);
 
-                    writeInteger(stream, pixels[i]);
+                    writeInteger(line, pixels[i]);
                 }
-                stream.write(lineSeparator);
+                line.write(lineSeparator);
+                stream.write(line.getByteArray(), 0, line.size());
+                line.reset();
                 break;
 
             case PPM_ASCII:
@@ -609,28 +623,30 @@ public class PNMImageWriter extends ImageWriter {
                     for (int i = 0; i < size; i += scaleX * numBands) {
                         for (int j = 0; j < numBands; j++) {
                             if ((count++ % 16) == 0)
-                                stream.write(lineSeparator);
+                                line.write(lineSeparator);
                             else
-                                stream.write(SPACE);
+                                line.write(SPACE);
 
-                            writeInteger(stream, pixels[i + j]);
+                            writeInteger(line, pixels[i + j]);
                         }
                     }
                 } else {
                     for (int i = 0; i < size; i += scaleX) {
                         if ((count++ % 5) == 0)
-                            stream.write(lineSeparator);
+                            line.write(lineSeparator);
                         else
-                            stream.write(SPACE);
+                            line.write(SPACE);
 
-                        writeInteger(stream, (reds[pixels[i]] & 0xFF));
-                        stream.write(SPACE);
-                        writeInteger(stream, (greens[pixels[i]] & 0xFF));
-                        stream.write(SPACE);
-                        writeInteger(stream, (blues[pixels[i]] & 0xFF));
+                        writeInteger(line, (reds[pixels[i]] & 0xFF));
+                        line.write(SPACE);
+                        writeInteger(line, (greens[pixels[i]] & 0xFF));
+                        line.write(SPACE);
+                        writeInteger(line, (blues[pixels[i]] & 0xFF));
                     }
                 }
-                stream.write(lineSeparator);
+                line.write(lineSeparator);
+                stream.write(line.getByteArray(), 0, line.size());
+                line.reset();
                 break;
 
             case PBM_RAW:
@@ -701,6 +717,11 @@ public class PNMImageWriter extends ImageWriter {
         output.write(Integer.toString(i).getBytes());
     }
 
+    /** Appends the ASCII digits of an integer to the row buffer. */
+    private void writeInteger(FastByteArrayWrapper output, int i) throws IOException {
+        digits.append(output, i);
+    }
+
     /** Writes a byte to the output in ASCII format. */
     private void writeByte(ImageOutputStream output, byte b) throws IOException {
         output.write(Byte.toString(b).getBytes());
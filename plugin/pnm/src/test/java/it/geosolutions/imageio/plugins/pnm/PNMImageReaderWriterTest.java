@@ -0,0 +1,322 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2009, GeoSolutions
+ *    All rights reserved.
+ *
+ * Redistribution and use in source and binary forms, with or without
+ * modification, are permitted provided that the following conditions are met:
+ *     * Redistributions of source code must retain the above copyright
+ *       notice, this list of conditions and the following disclaimer.
+ *     * Redistributions in binary form must reproduce the above copyright
+ *       notice, this list of conditions and the following disclaimer in the
+ *       documentation and/or other materials provided with the distribution.
+ *     * Neither the name of GeoSolutions nor the
+ *       names of its contributors may be used to endorse or promote products
+ *       derived from this software without specific prior written permission.
+ *
+ * THIS SOFTWARE IS PROVIDED BY GeoSolutions ``AS IS'' AND ANY
+ * EXPRESS OR IMPLIED WARRANTIES, INCLUDING, BUT NOT LIMITED TO, THE IMPLIED
+ * WARRANTIES OF MERCHANTABILITY AND FITNESS FOR A PARTICULAR PURPOSE ARE
+ * DISCLAIMED. IN NO EVENT SHALL GeoSolutions BE LIABLE FOR ANY
+ * DIRECT, INDIRECT, INCIDENTAL, SPECIAL, EXEMPLARY, OR CONSEQUENTIAL DAMAGES
+ * (INCLUDING, BUT NOT LIMITED TO, PROCUREMENT OF SUBSTITUTE GOODS OR SERVICES;
+ * LOSS OF USE, DATA, OR PROFITS; OR BUSINESS INTERRUPTION) HOWEVER CAUSED AND
+ * ON ANY THEORY OF LIABILITY, WHETHER IN CONTRACT, STRICT LIABILITY, OR TORT
+ * (INCLUDING NEGLIGENCE OR OTHERWISE) ARISING IN ANY WAY OUT OF THE USE OF THIS
+ * SOFTWARE, EVEN IF ADVISED OF THE POSSIBILITY OF SUCH DAMAGE.
+ */
+package it.geosolutions.imageio.plugins.pnm;
+
+import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
+import java.awt.image.BufferedImage;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.StringTokenizer;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageReadParam;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import com.sun.media.imageio.plugins.pnm.PNMImageWriteParam;
+
+public class PNMImageReaderWriterTest {
+
+	private static final int WIDTH = 19;
+
+	private static final int HEIGHT = 13;
+
+	private static byte[] write(BufferedImage image, boolean raw,
+			int scaleX, int scaleY) throws IOException {
+		final PNMImageWriter writer = new PNMImageWriter(
+				new PNMImageWriterSpi());
+		final PNMImageWriteParam param = (PNMImageWriteParam) writer
+				.getDefaultWriteParam();
+		param.setRaw(raw);
+		if (scaleX != 1 || scaleY != 1)
+			param.setSourceSubsampling(scaleX, scaleY, 0, 0);
+		final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		final ImageOutputStream stream = new MemoryCacheImageOutputStream(bytes);
+		writer.setOutput(stream);
+		writer.write(null, new IIOImage(image, null, null), param);
+		stream.close();
+		writer.dispose();
+		return bytes.toByteArray();
+	}
+
+	private static PNMImageReader createReader(byte[] data) {
+		final PNMImageReader reader = new PNMImageReader(
+				new PNMImageReaderSpi());
+		final ImageInputStream stream = new MemoryCacheImageInputStream(
+				new ByteArrayInputStream(data));
+		reader.setInput(stream);
+		return reader;
+	}
+
+	private static Raster read(byte[] data, ImageReadParam param)
+			throws IOException {
+		final PNMImageReader reader = createReader(data);
+		try {
+			return reader.read(0, param).getRaster();
+		} finally {
+			reader.dispose();
+		}
+	}
+
+	private static byte[] bytes(String text) {
+		try {
+			return text.getBytes("US-ASCII");
+		} catch (IOException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static BufferedImage createImage(int type, int dataType,
+			int numBands, int maxValue) {
+		final BufferedImage image;
+		if (type == BufferedImage.TYPE_CUSTOM) {
+			final ColorSpace cs = ColorSpace.getInstance(numBands == 1 ? ColorSpace.CS_GRAY
+					: ColorSpace.CS_sRGB);
+			final ComponentColorModel cm = new ComponentColorModel(cs, false,
+					false, Transparency.OPAQUE, dataType);
+			image = new BufferedImage(cm, cm.createCompatibleWritableRaster(
+					WIDTH, HEIGHT), false, null);
+		} else {
+			image = new BufferedImage(WIDTH, HEIGHT, type);
+		}
+		final WritableRaster raster = image.getRaster();
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				for (int b = 0; b < raster.getNumBands(); b++)
+					raster.setSample(x, y, b,
+							(x * 31 + y * 17 + b * 1000) % (maxValue + 1));
+		return image;
+	}
+
+	/**
+	 * Asserts that <code>actual</code> holds the pixels of the source region
+	 * of <code>expected</code> picked by the given subsampling.
+	 */
+	private static void assertPixels(Raster expected, Rectangle region,
+			int scaleX, int scaleY, Raster actual) {
+		Assert.assertEquals((region.width + scaleX - 1) / scaleX, actual
+				.getWidth());
+		Assert.assertEquals((region.height + scaleY - 1) / scaleY, actual
+				.getHeight());
+		Assert.assertEquals(expected.getNumBands(), actual.getNumBands());
+		for (int y = 0; y < actual.getHeight(); y++)
+			for (int x = 0; x < actual.getWidth(); x++)
+				for (int b = 0; b < actual.getNumBands(); b++)
+					Assert.assertEquals("pixel " + x + "," + y + " band " + b,
+							expected.getSample(region.x + x * scaleX, region.y
+									+ y * scaleY, b), actual.getSample(x, y, b));
+	}
+
+	/**
+	 * Writes the image in the requested variant, then reads it back whole,
+	 * clipped and subsampled.
+	 */
+	private static void assertRoundTrip(BufferedImage image, boolean raw,
+			char variant) throws IOException {
+		final byte[] data = write(image, raw, 1, 1);
+		Assert.assertEquals('P', data[0]);
+		Assert.assertEquals(variant, data[1]);
+		final Raster source = image.getRaster();
+		final Rectangle all = new Rectangle(0, 0, WIDTH, HEIGHT);
+		assertPixels(source, all, 1, 1, read(data, null));
+
+		final Rectangle[] regions = new Rectangle[] { all,
+				new Rectangle(8, 2, 9, 7), new Rectangle(3, 1, 13, 11) };
+		final int[][] scales = new int[][] { { 1, 1 }, { 2, 3 }, { 3, 2 },
+				{ 1, 4 } };
+		for (int r = 0; r < regions.length; r++)
+			for (int s = 0; s < scales.length; s++) {
+				final ImageReadParam param = new ImageReadParam();
+				param.setSourceRegion(regions[r]);
+				param.setSourceSubsampling(scales[s][0], scales[s][1], 0, 0);
+				assertPixels(source, regions[r], scales[s][0], scales[s][1],
+						read(data, param));
+			}
+	}
+
+	@Test
+	public void testBitmapRoundTrip() throws IOException {
+		final BufferedImage image = createImage(
+				BufferedImage.TYPE_BYTE_BINARY, DataBuffer.TYPE_BYTE, 1, 1);
+		// the default binary palette maps 1 to white, which PBM stores as 0
+		final BufferedImage inverted = new BufferedImage(WIDTH, HEIGHT,
+				BufferedImage.TYPE_BYTE_BINARY);
+		final WritableRaster raster = inverted.getRaster();
+		for (int y = 0; y < HEIGHT; y++)
+			for (int x = 0; x < WIDTH; x++)
+				raster.setSample(x, y, 0, 1 - image.getRaster().getSample(x,
+						y, 0));
+		assertRoundTripInverted(image, inverted, false, '1');
+		assertRoundTripInverted(image, inverted, true, '4');
+	}
+
+	private static void assertRoundTripInverted(BufferedImage image,
+			BufferedImage inverted, boolean raw, char variant)
+			throws IOException {
+		final byte[] data = write(image, raw, 1, 1);
+		Assert.assertEquals(variant, data[1]);
+		final Rectangle all = new Rectangle(0, 0, WIDTH, HEIGHT);
+		assertPixels(inverted.getRaster(), all, 1, 1, read(data, null));
+
+		final Rectangle region = new Rectangle(3, 1, 13, 11);
+		for (int scale = 1; scale <= 3; scale++) {
+			final ImageReadParam param = new ImageReadParam();
+			param.setSourceRegion(region);
+			param.setSourceSubsampling(scale, scale, 0, 0);
+			assertPixels(inverted.getRaster(), region, scale, scale, read(
+					data, param));
+		}
+	}
+
+	@Test
+	public void testGraymapRoundTrip() throws IOException {
+		final BufferedImage image = createImage(BufferedImage.TYPE_BYTE_GRAY,
+				DataBuffer.TYPE_BYTE, 1, 255);
+		assertRoundTrip(image, false, '2');
+		assertRoundTrip(image, true, '5');
+	}
+
+	@Test
+	public void testPixmapRoundTrip() throws IOException {
+		final BufferedImage image = createImage(BufferedImage.TYPE_CUSTOM,
+				DataBuffer.TYPE_BYTE, 3, 255);
+		assertRoundTrip(image, false, '3');
+		assertRoundTrip(image, true, '6');
+	}
+
+	@Test
+	public void testSixteenBitRoundTrip() throws IOException {
+		// the region skip of multi band images is scaled by the band count
+		assertRoundTrip(createImage(BufferedImage.TYPE_CUSTOM,
+				DataBuffer.TYPE_USHORT, 3, 65535), false, '3');
+		assertRoundTrip(createImage(BufferedImage.TYPE_CUSTOM,
+				DataBuffer.TYPE_USHORT, 1, 65535), false, '2');
+	}
+
+	@Test
+	public void testPlainWithComments() throws IOException {
+		final Raster gray = read(bytes("P2\n# comment\n3 # width\n2\n"
+				+ "# max\n300\n0 1#x\n299\n# row\n 10\t200 3 # end"), null);
+		Assert.assertEquals(DataBuffer.TYPE_USHORT, gray.getDataBuffer()
+				.getDataType());
+		final int[] expected = new int[] { 0, 1, 299, 10, 200, 3 };
+		for (int i = 0; i < expected.length; i++)
+			Assert.assertEquals(expected[i], gray.getSample(i % 3, i / 3, 0));
+
+		final Raster rgb = read(bytes("P3 2 1 255\n1 2 3 # first\n"
+				+ "# second\n4 5\n6\n"), null);
+		for (int i = 0; i < 6; i++)
+			Assert.assertEquals(i + 1, rgb.getSample(i / 3, 0, i % 3));
+	}
+
+	@Test
+	public void testPlainBitmapSingleDigits() throws IOException {
+		// plain PBM samples need no separating whitespace
+		final Raster bits = read(bytes("P1\n# bits\n5 3\n01101\n1 0 0 1 1\n"
+				+ "0#c\n0001"), null);
+		final String expected = "011011001100001";
+		for (int i = 0; i < expected.length(); i++)
+			Assert.assertEquals(expected.charAt(i) - '0', bits.getSample(i % 5,
+					i / 5, 0));
+	}
+
+	@Test
+	public void testImageDataOffset() throws IOException {
+		// raw data starts right after the single whitespace ending the
+		// header, even when the samples look like whitespace or digits
+		final byte[] data = bytes("P5\n# gray\n4 1\n255\n \n9\t");
+		final PNMImageReader reader = createReader(data);
+		try {
+			for (int pass = 0; pass < 2; pass++) {
+				final Raster raster = reader.read(0, null).getRaster();
+				Assert.assertEquals(4, raster.getWidth());
+				Assert.assertEquals(' ', raster.getSample(0, 0, 0));
+				Assert.assertEquals('\n', raster.getSample(1, 0, 0));
+				Assert.assertEquals('9', raster.getSample(2, 0, 0));
+				Assert.assertEquals('\t', raster.getSample(3, 0, 0));
+			}
+		} finally {
+			reader.dispose();
+		}
+
+		// the plain scanner starts at the same offset, after getWidth parsed
+		// the header
+		final PNMImageReader plain = createReader(bytes("P2 2 1 65535 "
+				+ "12345 7"));
+		try {
+			Assert.assertEquals(2, plain.getWidth(0));
+			final Raster raster = plain.read(0, null).getRaster();
+			Assert.assertEquals(12345, raster.getSample(0, 0, 0));
+			Assert.assertEquals(7, raster.getSample(1, 0, 0));
+		} finally {
+			plain.dispose();
+		}
+	}
+
+	@Test
+	public void testInvertedBitmapOutput() throws IOException {
+		// black is 0 in the default binary palette, PBM stores it as 1
+		final BufferedImage image = new BufferedImage(WIDTH, 2,
+				BufferedImage.TYPE_BYTE_BINARY);
+		for (int x = 0; x < WIDTH; x++)
+			image.getRaster().setSample(x, 0, 0, x % 3 == 0 ? 1 : 0);
+		for (int x = 0; x < WIDTH; x++)
+			image.getRaster().setSample(x, 1, 0, 1);
+
+		final String text = new String(write(image, false, 1, 1), "US-ASCII");
+		final StringTokenizer tokens = new StringTokenizer(text.substring(text
+				.indexOf(WIDTH + " 2") + (WIDTH + " 2").length()));
+		for (int x = 0; x < WIDTH; x++)
+			Assert.assertEquals(x % 3 == 0 ? "0" : "1", tokens.nextToken());
+		for (int x = 0; x < WIDTH; x++)
+			Assert.assertEquals("0", tokens.nextToken());
+		Assert.assertFalse(tokens.hasMoreTokens());
+
+		// subsampled raw output does not go through the packed row copy
+		final Raster raw = read(write(image, true, 2, 1), null);
+		Assert.assertEquals((WIDTH + 1) / 2, raw.getWidth());
+		for (int x = 0; x < raw.getWidth(); x++) {
+			Assert.assertEquals(x * 2 % 3 == 0 ? 0 : 1, raw.getSample(x, 0, 0));
+			Assert.assertEquals(0, raw.getSample(x, 1, 0));
+		}
+	}
+}
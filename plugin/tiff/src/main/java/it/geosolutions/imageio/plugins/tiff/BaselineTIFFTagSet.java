@@ -777,6 +777,14 @@ public class BaselineTIFFTagSet extends TIFFTagSet {
      * @see #TAG_PREDICTOR
      */
     public static final int PREDICTOR_HORIZONTAL_DIFFERENCING = 2;
+
+    /**
+     * A value to be used with the "Predictor" tag, as defined by the
+     * Adobe Photoshop TIFF Technical Note 3 for floating point data.
+     *
+     * @see #TAG_PREDICTOR
+     */
+    public static final int PREDICTOR_FLOATING_POINT = 3;
     
     /**
      * Constant specifying the "WhitePoint" tag.
@@ -1678,6 +1686,8 @@ public class BaselineTIFFTagSet extends TIFFTagSet {
                          "None");
             addValueName(PREDICTOR_HORIZONTAL_DIFFERENCING,
                          "Horizontal Differencing");
+            addValueName(PREDICTOR_FLOATING_POINT,
+                         "Floating Point");
         }
     }
 
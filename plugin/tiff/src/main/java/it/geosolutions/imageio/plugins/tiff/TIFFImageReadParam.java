@@ -73,8 +73,11 @@
  */
 package it.geosolutions.imageio.plugins.tiff;
 
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFTileCache;
+
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
 
 import javax.imageio.ImageReadParam;
 
@@ -107,6 +110,24 @@ import javax.imageio.ImageReadParam;
  * to the <code>ImageReadParam</code> being used.  The reader's
  * <code>read</code> method may be called with the
  * <code>ImageReadParam</code> set.
+ *
+ * <p> Strips and tiles are normally decoded one after the other on
+ * the thread calling the reader.  If an <code>ExecutorService</code>
+ * is provided by means of the <code>setDecodingExecutor</code> method,
+ * the reader will fetch the compressed data of each strip or tile
+ * and decompress them concurrently on the threads of the executor.
+ *
+ * <p> A subsampled read normally decodes the full resolution image.
+ * If <code>setUseOverviews(true)</code> is called, the reader serves
+ * it from the reduced resolution image, internal or stored in an
+ * external <code>.ovr</code> file, which best matches the requested
+ * subsampling, rescaling the source region accordingly.
+ *
+ * <p> Overlapping reads of the same file decompress the same strips
+ * or tiles again.  A <code>TIFFTileCache</code> provided by means of
+ * the <code>setTileCache</code> method, or the process wide one when
+ * enabled, lets the reader keep the decoded strips and tiles and
+ * serve later reads from them.
  */
 public class TIFFImageReadParam extends ImageReadParam {
 
@@ -116,6 +137,12 @@ public class TIFFImageReadParam extends ImageReadParam {
 
     TIFFColorConverter colorConverter = null;
 
+    ExecutorService decodingExecutor = null;
+
+    boolean useOverviews = false;
+
+    TIFFTileCache tileCache = null;
+
     /**
      * Constructs a <code>TIFFImageReadParam</code>.  Tags defined by
      * the <code>TIFFTagSet</code>s <code>BaselineTIFFTagSet</code>,
@@ -236,4 +263,110 @@ public class TIFFImageReadParam extends ImageReadParam {
     public TIFFColorConverter getColorConverter() {
         return this.colorConverter;
     }
+
+    /**
+     * Sets the <code>ExecutorService</code> to be used by the
+     * <code>ImageReader</code> to decode the image strips or tiles in
+     * parallel.  A value of <code>null</code> (the default) makes the
+     * reader decode all strips or tiles on the calling thread.
+     *
+     * <p> The executor is not shut down by the reader.  Parallel
+     * decoding is not performed when a <code>TIFFDecompressor</code>
+     * has been set by means of <code>setTIFFDecompressor</code>, since
+     * a single decompressor instance cannot be used concurrently.
+     *
+     * @param decodingExecutor the <code>ExecutorService</code> to be
+     * used for decoding, or <code>null</code> to decode serially.
+     *
+     * @see #getDecodingExecutor
+     */
+    public void setDecodingExecutor(ExecutorService decodingExecutor) {
+        this.decodingExecutor = decodingExecutor;
+    }
+
+    /**
+     * Returns the <code>ExecutorService</code> that is currently set
+     * to be used for decoding the image strips or tiles in parallel,
+     * or <code>null</code> if none has been set.
+     *
+     * @return the current <code>ExecutorService</code>, or
+     * <code>null</code>.
+     *
+     * @see #setDecodingExecutor(ExecutorService)
+     */
+    public ExecutorService getDecodingExecutor() {
+        return this.decodingExecutor;
+    }
+
+    /**
+     * Sets whether subsampled reads may be served from the overviews
+     * of the image.  If <code>true</code>, a read whose source
+     * subsampling is greater than one is redirected to the coarsest
+     * reduced resolution image whose resolution is not lower than the
+     * requested one, either an internal one following the image in the
+     * file or one of an external <code>.ovr</code> file.  The source
+     * region and subsampling are rescaled to the selected overview, so
+     * the returned image has the same size as the one decoded from the
+     * full resolution data, but its pixels are taken from the overview.
+     * The default is <code>false</code>.
+     *
+     * <p> Overviews are not used when a destination type is set, nor
+     * for overviews and masks themselves.
+     *
+     * @param useOverviews <code>true</code> to allow reading from the
+     * overviews.
+     *
+     * @see #getUseOverviews
+     */
+    public void setUseOverviews(boolean useOverviews) {
+        this.useOverviews = useOverviews;
+    }
+
+    /**
+     * Returns whether subsampled reads may be served from the overviews
+     * of the image.
+     *
+     * @return <code>true</code> if overviews may be used.
+     *
+     * @see #setUseOverviews(boolean)
+     */
+    public boolean getUseOverviews() {
+        return this.useOverviews;
+    }
+
+    /**
+     * Sets the <code>TIFFTileCache</code> holding the decoded strips
+     * and tiles of the images read from files.  A value of
+     * <code>null</code> (the default) makes the reader use the process
+     * wide cache returned by <code>TIFFTileCache.getInstance()</code>,
+     * which is disabled unless configured.  The same cache can be
+     * shared by several parameters and readers.
+     *
+     * <p> The cache is not used when a <code>TIFFDecompressor</code>,
+     * a <code>TIFFColorConverter</code> or a destination type has been
+     * set, for images whose samples need a color conversion, for
+     * planar images, and when the input is not a file.
+     *
+     * @param tileCache the <code>TIFFTileCache</code> to be used, or
+     * <code>null</code> for the process wide one.
+     *
+     * @see #getTileCache
+     */
+    public void setTileCache(TIFFTileCache tileCache) {
+        this.tileCache = tileCache;
+    }
+
+    /**
+     * Returns the <code>TIFFTileCache</code> that is currently set to
+     * hold the decoded strips and tiles, or <code>null</code> if none
+     * has been set.
+     *
+     * @return the current <code>TIFFTileCache</code>, or
+     * <code>null</code>.
+     *
+     * @see #setTileCache(TIFFTileCache)
+     */
+    public TIFFTileCache getTileCache() {
+        return this.tileCache;
+    }
 }
@@ -78,6 +78,8 @@ import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriter;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+
 import javax.imageio.ImageWriteParam;
 
 
@@ -194,6 +196,26 @@ import javax.imageio.ImageWriteParam;
  */
 public class TIFFImageWriteParam extends ImageWriteParam {
 
+    /**
+     * Overview resampling computing each pixel from the top left
+     * pixel of the corresponding 2x2 block of the previous level.
+     */
+    public static final int OVERVIEW_RESAMPLING_NEAREST = 0;
+
+    /**
+     * Overview resampling computing each sample as the mean of the
+     * corresponding 2x2 block of the previous level, rounded for
+     * integral data types.
+     */
+    public static final int OVERVIEW_RESAMPLING_AVERAGE = 1;
+
+    /**
+     * Overview resampling computing each sample as the most frequent
+     * value of the corresponding 2x2 block of the previous level,
+     * suited to classified data.
+     */
+    public static final int OVERVIEW_RESAMPLING_MODE = 2;
+
     TIFFCompressor compressor = null;
 
     TIFFColorConverter colorConverter = null;
@@ -203,6 +225,20 @@ public class TIFFImageWriteParam extends ImageWriteParam {
     
     private boolean forceToBigTIFF = false;
 
+    private boolean trailingIFD = false;
+
+    private int numOverviews = 0;
+
+    private int overviewResampling = OVERVIEW_RESAMPLING_NEAREST;
+
+    private boolean cloudOptimized = false;
+
+    private int tileDataAlignment = 1;
+
+    private boolean tileLeaderTrailer = false;
+
+    ExecutorService encodingExecutor = null;
+
     public boolean isForceToBigTIFF() {
 		return forceToBigTIFF;
 	}
@@ -416,4 +452,267 @@ public class TIFFImageWriteParam extends ImageWriteParam {
     public void unsetColorConverter() {
         this.colorConverter = null;
     }
+
+    /**
+     * Sets the <code>ExecutorService</code> to be used by the
+     * <code>ImageWriter</code> to fetch and compress the image strips
+     * or tiles in parallel.  The compressed data is still written to
+     * the output in the usual order, so the resulting stream is the
+     * same one written serially.  A value of <code>null</code> (the
+     * default) makes the writer compress all strips or tiles on the
+     * calling thread.
+     *
+     * <p> The executor is not shut down by the writer.  Parallel
+     * compression is not performed when a <code>TIFFCompressor</code>
+     * has been set by means of <code>setTIFFCompressor</code>, since
+     * a single compressor instance cannot be used concurrently, nor
+     * for compression types other than None, LZW, PackBits, ZLib and
+     * Deflate.
+     *
+     * @param encodingExecutor the <code>ExecutorService</code> to be
+     * used for compression, or <code>null</code> to compress serially.
+     *
+     * @see #getEncodingExecutor
+     */
+    public void setEncodingExecutor(ExecutorService encodingExecutor) {
+        this.encodingExecutor = encodingExecutor;
+    }
+
+    /**
+     * Returns the <code>ExecutorService</code> that is currently set
+     * to be used for compressing the image strips or tiles in
+     * parallel, or <code>null</code> if none has been set.
+     *
+     * @return the current <code>ExecutorService</code>, or
+     * <code>null</code>.
+     *
+     * @see #setEncodingExecutor(ExecutorService)
+     */
+    public ExecutorService getEncodingExecutor() {
+        return this.encodingExecutor;
+    }
+
+    /**
+     * Specifies whether the IFD should be written after the image
+     * data.  By default the IFD is written before the image data and
+     * the offset and byte count of each strip or tile are filled in
+     * as soon as it has been written, which requires seeking back to
+     * the IFD once per strip or tile.  When this setting is enabled
+     * the offsets and byte counts are collected in memory and the
+     * IFD, including its tables, is written once after all the image
+     * data, so that the output is written sequentially apart from the
+     * final update of the pointer to the IFD.  This is beneficial for
+     * outputs where random writes are expensive, such as network file
+     * systems, or which are cached because they cannot seek, such as
+     * sockets and pipes.
+     *
+     * <p> The setting has no effect on images written by means of
+     * <code>prepareWriteEmpty</code> and <code>prepareInsertEmpty</code>,
+     * and on JPEG interchange format EXIF images.
+     *
+     * @param trailingIFD <code>true</code> to write the IFD after the
+     * image data.
+     *
+     * @see #isTrailingIFD
+     */
+    public void setTrailingIFD(boolean trailingIFD) {
+        this.trailingIFD = trailingIFD;
+    }
+
+    /**
+     * Returns whether the IFD will be written after the image data.
+     *
+     * @return <code>true</code> if the IFD will be written after the
+     * image data.
+     *
+     * @see #setTrailingIFD(boolean)
+     */
+    public boolean isTrailingIFD() {
+        return trailingIFD;
+    }
+
+    /**
+     * Requests the generation of reduced resolution versions of the
+     * image, which are written as additional IFDs having the
+     * <code>NewSubfileType</code> field set to
+     * {@link BaselineTIFFTagSet#NEW_SUBFILE_TYPE_REDUCED_RESOLUTION}
+     * right after the IFD of the image.  This applies to the images
+     * written by <code>write</code>, <code>writeToSequence</code> and
+     * <code>writeInsert</code>.  Each level halves the
+     * dimensions of the previous one and is computed from it strip by
+     * strip or tile by tile while being written, so that neither the
+     * image nor its overviews are ever held in memory as a whole.  The
+     * generation stops earlier if the image is reduced to a single
+     * pixel.
+     *
+     * <p> The overviews are written with the same tiling, compression
+     * settings, color converter and encoding executor as the image,
+     * hence their strips or tiles are computed in parallel when an
+     * executor has been set by means of <code>setEncodingExecutor</code>.
+     * Each level pulls its pixels from the previous level, which only
+     * keeps its most recent strips or tiles in a small cache.  The
+     * previous levels are hence computed again while a level is
+     * written, and the source image is read once per level.
+     *
+     * <p> The average resampling of images having an
+     * <code>IndexColorModel</code> falls back to the mode, as averaging
+     * palette indices is meaningless.
+     *
+     * @param numOverviews the number of overview levels to write, 0
+     * (the default) to write none.
+     * @param resampling one of <code>OVERVIEW_RESAMPLING_NEAREST</code>,
+     * <code>OVERVIEW_RESAMPLING_AVERAGE</code> and
+     * <code>OVERVIEW_RESAMPLING_MODE</code>.
+     *
+     * @throws IllegalArgumentException if <code>numOverviews</code> is
+     * negative or <code>resampling</code> is not one of the supported
+     * values.
+     *
+     * @see #getNumOverviews
+     * @see #getOverviewResampling
+     */
+    public void setOverviews(int numOverviews, int resampling) {
+        if (numOverviews < 0) {
+            throw new IllegalArgumentException("numOverviews < 0!");
+        }
+        if (resampling != OVERVIEW_RESAMPLING_NEAREST &&
+            resampling != OVERVIEW_RESAMPLING_AVERAGE &&
+            resampling != OVERVIEW_RESAMPLING_MODE) {
+            throw new IllegalArgumentException("Invalid resampling: " +
+                                               resampling);
+        }
+        this.numOverviews = numOverviews;
+        this.overviewResampling = resampling;
+    }
+
+    /**
+     * Returns the number of overview levels to be written after the
+     * image.
+     *
+     * @return the number of overview levels, 0 if none.
+     *
+     * @see #setOverviews(int, int)
+     */
+    public int getNumOverviews() {
+        return numOverviews;
+    }
+
+    /**
+     * Returns the resampling used to compute the overviews.
+     *
+     * @return one of <code>OVERVIEW_RESAMPLING_NEAREST</code>,
+     * <code>OVERVIEW_RESAMPLING_AVERAGE</code> and
+     * <code>OVERVIEW_RESAMPLING_MODE</code>.
+     *
+     * @see #setOverviews(int, int)
+     */
+    public int getOverviewResampling() {
+        return overviewResampling;
+    }
+
+    /**
+     * Specifies whether the image and its overviews should be written
+     * in the cloud optimized layout, which lets readers fetch the
+     * metadata of all the resolution levels with a single range request
+     * at the beginning of the file, then each strip or tile with one
+     * more.  In this layout the IFDs of the image and of the overviews
+     * requested by means of <code>setOverviews</code> are all written
+     * after the header, their sizes being known before the image data
+     * is encoded, followed by the strips or tiles of each level, from
+     * the smallest overview to the full resolution image.  The layout
+     * is described by a GDAL structural metadata block following the
+     * header.
+     *
+     * <p> The setting is honoured by <code>write</code> only, images
+     * appended by means of <code>writeToSequence</code> and
+     * <code>writeInsert</code> are written in the usual layout.  The
+     * trailing IFD setting is ignored when it is enabled.
+     *
+     * @param cloudOptimized <code>true</code> to write the cloud
+     * optimized layout.
+     *
+     * @see #isCloudOptimized
+     * @see #setTileDataAlignment(int)
+     * @see #setTileLeaderTrailer(boolean)
+     */
+    public void setCloudOptimized(boolean cloudOptimized) {
+        this.cloudOptimized = cloudOptimized;
+    }
+
+    /**
+     * Returns whether the image will be written in the cloud optimized
+     * layout.
+     *
+     * @return <code>true</code> if the cloud optimized layout will be
+     * written.
+     *
+     * @see #setCloudOptimized(boolean)
+     */
+    public boolean isCloudOptimized() {
+        return cloudOptimized;
+    }
+
+    /**
+     * Sets the alignment of the data of each strip or tile in the
+     * cloud optimized layout, the gaps being filled with zeros.  The
+     * default value of 1 leaves no gaps.
+     *
+     * @param tileDataAlignment the number of bytes the offset of each
+     * strip or tile is a multiple of.
+     *
+     * @throws IllegalArgumentException if <code>tileDataAlignment</code>
+     * is not positive.
+     *
+     * @see #getTileDataAlignment
+     */
+    public void setTileDataAlignment(int tileDataAlignment) {
+        if (tileDataAlignment <= 0) {
+            throw new IllegalArgumentException("tileDataAlignment <= 0!");
+        }
+        this.tileDataAlignment = tileDataAlignment;
+    }
+
+    /**
+     * Returns the alignment of the data of each strip or tile in the
+     * cloud optimized layout.
+     *
+     * @return the number of bytes the offset of each strip or tile is a
+     * multiple of.
+     *
+     * @see #setTileDataAlignment(int)
+     */
+    public int getTileDataAlignment() {
+        return tileDataAlignment;
+    }
+
+    /**
+     * Specifies whether, in the cloud optimized layout, the data of each
+     * strip or tile should be preceded by its byte count, as a 4 bytes
+     * little endian unsigned integer, and followed by a copy of its last
+     * 4 bytes.  A reader can then fetch a strip or tile knowing its
+     * offset only, and verify that the file has not been modified by
+     * software unaware of the layout.
+     *
+     * @param tileLeaderTrailer <code>true</code> to write the leader and
+     * trailer of each strip or tile.
+     *
+     * @see #isTileLeaderTrailer
+     */
+    public void setTileLeaderTrailer(boolean tileLeaderTrailer) {
+        this.tileLeaderTrailer = tileLeaderTrailer;
+    }
+
+    /**
+     * Returns whether the data of each strip or tile will be framed by
+     * its byte count and a copy of its last bytes in the cloud optimized
+     * layout.
+     *
+     * @return <code>true</code> if the leader and trailer of each strip
+     * or tile will be written.
+     *
+     * @see #setTileLeaderTrailer(boolean)
+     */
+    public boolean isTileLeaderTrailer() {
+        return tileLeaderTrailer;
+    }
 }
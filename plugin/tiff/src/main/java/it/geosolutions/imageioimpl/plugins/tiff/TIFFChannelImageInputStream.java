@@ -0,0 +1,127 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import javax.imageio.stream.ImageInputStreamImpl;
+
+/**
+ * An {@link javax.imageio.stream.ImageInputStream} reading from a shared
+ * {@link FileChannel} by means of positional reads only. The position of the
+ * channel is never used, hence any number of these streams can read
+ * concurrently from the same channel, each one from its own thread.
+ *
+ * <p>
+ * Closing the stream does not close the underlying channel.
+ */
+final class TIFFChannelImageInputStream extends ImageInputStreamImpl {
+
+    private static final int BUFFER_SIZE = 8192;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    private final byte[] buffer = new byte[BUFFER_SIZE];
+
+    /** The position in the channel of the first buffered byte. */
+    private long bufferStart = 0;
+
+    /** The number of valid bytes in the buffer. */
+    private int bufferLength = 0;
+
+    TIFFChannelImageInputStream(FileChannel channel, long length) {
+        this.channel = channel;
+        this.length = length;
+    }
+
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        if (streamPos < bufferStart || streamPos >= bufferStart + bufferLength) {
+            if (!fillBuffer()) {
+                return -1;
+            }
+        }
+        return buffer[(int) (streamPos++ - bufferStart)] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
+        }
+
+        // Serve from the buffer when possible
+        if (streamPos >= bufferStart && streamPos < bufferStart + bufferLength) {
+            int n = Math.min(len, (int) (bufferStart + bufferLength - streamPos));
+            System.arraycopy(buffer, (int) (streamPos - bufferStart), b, off, n);
+            streamPos += n;
+            return n;
+        }
+
+        // Large reads go straight to the channel
+        if (len >= BUFFER_SIZE) {
+            int n = channel.read(ByteBuffer.wrap(b, off, len), streamPos);
+            if (n > 0) {
+                streamPos += n;
+            }
+            return n;
+        }
+
+        if (!fillBuffer()) {
+            return -1;
+        }
+        int n = Math.min(len, bufferLength);
+        System.arraycopy(buffer, 0, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    private boolean fillBuffer() throws IOException {
+        bufferStart = streamPos;
+        bufferLength = 0;
+        ByteBuffer bb = ByteBuffer.wrap(buffer);
+        int n = channel.read(bb, bufferStart);
+        if (n <= 0) {
+            return false;
+        }
+        bufferLength = n;
+        return true;
+    }
+
+    public long length() {
+        return length;
+    }
+
+    public boolean isCached() {
+        return false;
+    }
+}
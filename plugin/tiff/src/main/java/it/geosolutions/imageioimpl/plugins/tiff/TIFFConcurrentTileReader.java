@@ -0,0 +1,184 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
+
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.imageio.metadata.IIOMetadata;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Reads strips or tiles of a TIFF file concurrently from multiple threads.
+ * 
+ * <p>
+ * A {@link TIFFImageReader} is not thread safe, hence callers like JAI tile
+ * schedulers have to serialize their {@link TIFFImageReader#readTile(int, int, int)}
+ * calls. This class instead parses the IFD of each image only once, shares
+ * the resulting offsets among all the callers and lets each
+ * {@link #readTile(int, int, int)} call read the compressed data by means of
+ * positional reads on a shared {@link FileChannel}, decoding it with a
+ * {@link it.geosolutions.imageio.plugins.tiff.TIFFDecompressor} taken from a
+ * per image pool.
+ * 
+ * <p>
+ * The {@link #dispose()} method has to be called once the reader is no longer
+ * needed, in order to release the underlying file.
+ */
+public class TIFFConcurrentTileReader {
+
+    private final File file;
+
+    /** The reader used to parse the IFDs, guarded by itself */
+    private final TIFFImageReader reader;
+
+    private final ImageInputStream readerStream;
+
+    private final RandomAccessFile raf;
+
+    private final FileChannel channel;
+
+    private final long length;
+
+    private final Map<Integer, TIFFTileDecoder> decoders = new ConcurrentHashMap<Integer, TIFFTileDecoder>();
+
+    /**
+     * Creates a {@link TIFFConcurrentTileReader} for the specified file.
+     * 
+     * @param file the TIFF file to be read.
+     * @throws IOException if the file cannot be opened or is not a TIFF file.
+     */
+    public TIFFConcurrentTileReader(File file) throws IOException {
+        if (file == null) {
+            throw new IllegalArgumentException("file == null!");
+        }
+        this.file = file;
+        this.readerStream = new FileImageInputStreamExtImpl(file);
+        this.reader = (TIFFImageReader) new TIFFImageReaderSpi().createReaderInstance();
+        RandomAccessFile raf = null;
+        try {
+            reader.setInput(readerStream);
+            raf = new RandomAccessFile(file, "r");
+        } catch (IOException e) {
+            reader.dispose();
+            readerStream.close();
+            throw e;
+        }
+        this.raf = raf;
+        this.channel = raf.getChannel();
+        this.length = file.length();
+    }
+
+    /**
+     * @return the file being read.
+     */
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * @return the number of images in the file.
+     */
+    public int getNumImages() throws IOException {
+        synchronized (reader) {
+            return reader.getNumImages(true);
+        }
+    }
+
+    public int getWidth(int imageIndex) throws IOException {
+        return getDecoder(imageIndex).getWidth();
+    }
+
+    public int getHeight(int imageIndex) throws IOException {
+        return getDecoder(imageIndex).getHeight();
+    }
+
+    public int getTileWidth(int imageIndex) throws IOException {
+        return getDecoder(imageIndex).getTileWidth();
+    }
+
+    public int getTileHeight(int imageIndex) throws IOException {
+        return getDecoder(imageIndex).getTileHeight();
+    }
+
+    public IIOMetadata getImageMetadata(int imageIndex) throws IOException {
+        return getDecoder(imageIndex).getImageMetadata();
+    }
+
+    /**
+     * Reads the strip or tile <code>(tileX, tileY)</code> of the specified
+     * image. This method can be invoked concurrently by any number of threads.
+     * 
+     * @return a {@link BufferedImage} having the size of the strip or tile,
+     *         clipped against the image bounds.
+     * @throws IllegalArgumentException if the tile indices are out of bounds.
+     */
+    public BufferedImage readTile(int imageIndex, int tileX, int tileY) throws IOException {
+        final TIFFTileDecoder decoder = getDecoder(imageIndex);
+        final ImageInputStream stream = new TIFFChannelImageInputStream(channel, length);
+        try {
+            return decoder.decodeTile(tileX, tileY, stream);
+        } finally {
+            stream.close();
+        }
+    }
+
+    private TIFFTileDecoder getDecoder(int imageIndex) throws IOException {
+        TIFFTileDecoder decoder = decoders.get(imageIndex);
+        if (decoder == null) {
+            synchronized (reader) {
+                decoder = decoders.get(imageIndex);
+                if (decoder == null) {
+                    decoder = reader.createTileDecoder(imageIndex);
+                    decoders.put(imageIndex, decoder);
+                }
+            }
+        }
+        return decoder;
+    }
+
+    /**
+     * Releases the underlying file and the pooled decompressors. No tiles
+     * can be read after this method has been called.
+     */
+    public void dispose() {
+        for (TIFFTileDecoder decoder : decoders.values()) {
+            decoder.dispose();
+        }
+        decoders.clear();
+        synchronized (reader) {
+            reader.dispose();
+        }
+        try {
+            readerStream.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+        try {
+            raf.close();
+        } catch (IOException e) {
+            // Ignore
+        }
+    }
+}
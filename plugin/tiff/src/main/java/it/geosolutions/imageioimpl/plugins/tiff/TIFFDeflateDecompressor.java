@@ -73,11 +73,9 @@
  */
 package it.geosolutions.imageioimpl.plugins.tiff;
 
-import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
 
 import java.io.IOException;
-import java.nio.ByteOrder;
 import java.util.zip.DataFormatException;
 import java.util.zip.Inflater;
 
@@ -89,23 +87,12 @@ public class TIFFDeflateDecompressor extends TIFFDecompressor {
     private static final boolean DEBUG = false;
 
     Inflater inflater = null;
-    int predictor;
+    final TIFFPredictor predictor;
 
     public TIFFDeflateDecompressor(int predictor) throws IIOException {
         inflater = new Inflater();
 
-        if (predictor != BaselineTIFFTagSet.PREDICTOR_NONE && 
-            predictor != 
-            BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
-            throw new IIOException("Illegal value for Predictor in " +
-                                   "TIFF file");
-        }
-
-        if(DEBUG) {
-            System.out.println("Using horizontal differencing predictor");
-        }
-
-        this.predictor = predictor;
+        this.predictor = new TIFFPredictor(predictor);
     }
 
     public synchronized void decodeRaw(byte[] b,
@@ -114,26 +101,7 @@ public class TIFFDeflateDecompressor extends TIFFDecompressor {
                                        int scanlineStride) throws IOException {
 
         // Check bitsPerSample.
-        if (predictor == 
-            BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
-            int len = bitsPerSample.length;
-            final int bps=bitsPerSample[0];
-            if (bps != 8 && bps != 16) {
-                throw new IIOException
-                    (bps + "-bit samples " +
-                     "are not supported for Horizontal " +
-                     "differencing Predictor");
-            }
-            for (int i = 0; i < len; i++) {
-                if( bitsPerSample[i] != bps) {
-                    throw new IIOException
-                        ("Varying sample width is not " +
-                         "supported for Horizontal " +
-                         "differencing Predictor (first: " +
-                         bps + ", unexpected:" + bitsPerSample[i] + ")");
-                }
-            }
-        }
+        predictor.checkBitsPerSample(bitsPerSample);
 
         // Seek to current tile data offset.
         stream.seek(offset);
@@ -167,47 +135,9 @@ public class TIFFDeflateDecompressor extends TIFFDecompressor {
         // Reset the Inflater.
         inflater.reset();
 
-        if (predictor == BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
-            if (bitsPerSample[0] == 8) {
-                for (int j = 0; j < srcHeight; j++) {
-                    int count = bufOffset + samplesPerPixel * (j * srcWidth + 1);
-                    for (int i = samplesPerPixel; i < srcWidth * samplesPerPixel; i++) {
-                        buf[count] += buf[count - samplesPerPixel];
-                        count++;
-                    }
-                }
-            }
-            else if(bitsPerSample[0]==16) {
-                if (stream.getByteOrder() == ByteOrder.LITTLE_ENDIAN) {
-                    for (int j = 0; j < srcHeight; j++) {
-                        int count = dstOffset + samplesPerPixel * (j * srcWidth + 1) * 2;
-                        for (int i = samplesPerPixel; i < srcWidth * samplesPerPixel; i++) {
-                            int curr=(((int)buf[count]) & 0xFF) + (buf[count+1]<<8);
-                            int prev=(((int)buf[count-samplesPerPixel*2]) & 0xFF)+(buf[count+1-samplesPerPixel*2]<<8);
-                            curr+=prev;
-                            buf[count]=(byte)curr;
-                            buf[count+1]=(byte)(curr>>8);
-                            count+=2;
-                        }
-                    }
-                }
-                else
-                {
-                    for (int j = 0; j < srcHeight; j++) {
-                        int count = dstOffset + samplesPerPixel * (j * srcWidth + 1) * 2;
-                        for (int i = samplesPerPixel; i < srcWidth * samplesPerPixel; i++) {
-                            int curr=(((int)buf[count+1]) & 0xFF) + (buf[count]<<8);
-                            int prev=(((int)buf[count+1-samplesPerPixel*2]) & 0xFF)+(buf[count-samplesPerPixel*2]<<8);
-                            curr+=prev;
-                            buf[count+1]=(byte)curr;
-                            buf[count]=(byte)(curr>>8);
-                            count+=2;
-                        }
-                    }
-                }
-            }
-            else throw new IIOException("Unexpected branch of Horizontal differencing Predictor, bps="+bitsPerSample[0]);
-        }
+        predictor.decode(buf, bufOffset, srcWidth, srcHeight, bytesPerRow,
+                         samplesPerPixel, bitsPerSample[0],
+                         stream.getByteOrder());
 
         if(bytesPerRow != scanlineStride) {
             if(DEBUG) {
@@ -88,6 +88,7 @@ public class TIFFDeflater extends TIFFCompressor {
 
     Deflater deflater;
     int predictor;
+    TIFFPredictor rowPredictor;
 
     public TIFFDeflater(String compressionType,
                         int compressionTagValue,
@@ -122,26 +123,41 @@ public class TIFFDeflater extends TIFFCompressor {
         // block, plus 6 header bytes
         byte[] compData = new byte[inputSize + 5*blocks + 6];
 
+        int samplesPerPixel = bitsPerSample.length;
+        int bitsPerPixel = 0;
+        for (int i = 0; i < samplesPerPixel; i++) {
+            bitsPerPixel += bitsPerSample[i];
+        }
+        int bytesPerRow = (bitsPerPixel*width + 7)/8;
+
         int numCompressedBytes = 0;
-        if(predictor == BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
-            int samplesPerPixel = bitsPerSample.length;
-            int bitsPerPixel = 0;
-            for (int i = 0; i < samplesPerPixel; i++) {
-                bitsPerPixel += bitsPerSample[i];
+        boolean usePredictor =
+            predictor == BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING ||
+            predictor == BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT;
+        if(usePredictor || bytesPerRow != scanlineStride) {
+            byte[] rowBuf = null;
+            if(usePredictor) {
+                if(rowPredictor == null) {
+                    rowPredictor = new TIFFPredictor(predictor);
+                }
+                rowPredictor.checkBitsPerSample(bitsPerSample);
+                rowBuf = new byte[bytesPerRow];
             }
-            int bytesPerRow = (bitsPerPixel*width + 7)/8;
-            byte[] rowBuf = new byte[bytesPerRow];
 
             int maxRow = height - 1;
             for(int i = 0; i < height; i++) {
-                // Cannot modify b[] in place as it might be a data
-                // array from the image being written so make a copy.
-                System.arraycopy(b, off, rowBuf, 0, bytesPerRow);
-                for(int j = bytesPerRow - 1; j >= samplesPerPixel; j--) {
-                    rowBuf[j] -= rowBuf[j - samplesPerPixel];
+                if(usePredictor) {
+                    // Cannot modify b[] in place as it might be a data
+                    // array from the image being written so encode into
+                    // a copy.
+                    rowPredictor.encodeRow(b, off, rowBuf, width,
+                                           samplesPerPixel, bitsPerSample[0],
+                                           stream.getByteOrder());
+                    deflater.setInput(rowBuf);
+                } else {
+                    // Skip the padding between the rows
+                    deflater.setInput(b, off, bytesPerRow);
                 }
-
-                deflater.setInput(rowBuf);
                 if(i == maxRow) {
                     deflater.finish();
                 }
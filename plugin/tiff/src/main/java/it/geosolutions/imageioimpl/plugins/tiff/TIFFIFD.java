@@ -94,7 +94,7 @@ import javax.imageio.stream.ImageOutputStream;
 public class TIFFIFD extends TIFFDirectory {
 	
 	/** we do not allow lazy loading by default.**/
-    private static final boolean LAZY_LOADING = Boolean.getBoolean("it.geosolutions.imageio.tiff.lazy");
+    static final boolean LAZY_LOADING = Boolean.getBoolean("it.geosolutions.imageio.tiff.lazy");
 	private long stripOrTileByteCountsPosition = -1;
     private long stripOrTileOffsetsPosition = -1;
     private long lastPosition = -1;
@@ -80,6 +80,8 @@ import it.geosolutions.imageio.plugins.tiff.TIFFColorConverter;
 import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
 import it.geosolutions.imageio.plugins.tiff.TIFFField;
 import it.geosolutions.imageio.plugins.tiff.TIFFImageReadParam;
+import it.geosolutions.imageio.plugins.tiff.TIFFTagSet;
+import it.geosolutions.imageio.stream.input.FileImageInputStreamExt;
 import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
 
 import java.awt.Point;
@@ -92,7 +94,10 @@ import java.awt.image.ColorModel;
 import java.awt.image.ComponentColorModel;
 import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.MultiPixelPackedSampleModel;
 import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.lang.ref.SoftReference;
@@ -101,8 +106,13 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 
 import javax.imageio.IIOException;
 import javax.imageio.ImageIO;
@@ -112,6 +122,7 @@ import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.spi.ImageReaderSpi;
 import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.MemoryCacheImageInputStream;
 
 import org.w3c.dom.Node;
 
@@ -129,7 +140,7 @@ public class TIFFImageReader extends ImageReader {
      * @author Simone Giannecchini, GeoSoltions S.A.S.
      *
      */
-    private final static class PageInfo {
+    final static class PageInfo {
 
         private SoftReference<TIFFImageMetadata> imageMetadata;
 
@@ -388,6 +399,21 @@ public class TIFFImageReader extends ImageReader {
     /** {@link DatasetLayout} implementation containing info about overviews and masks*/
     private TiffDatasetLayoutImpl layout;
 
+    /** Shared metadata of the input file, if the metadata cache is enabled */
+    private TIFFMetadataCache.FileEntry cacheEntry;
+
+    /** The input file, if the input is a file stream */
+    private File inputFile;
+
+    /** Identity of the input file in the decoded tile cache */
+    private TIFFTileCache.FileKey tileCacheKey;
+
+    /** Decoded tile cache used by the current read, if any */
+    private TIFFTileCache tileCache;
+
+    /** Type of the decoded strips or tiles held in the tile cache */
+    private ImageTypeSpecifier tileImageType;
+
     /** External File containing TIFF masks*/
     private File externalMask;
 
@@ -444,6 +470,20 @@ public class TIFFImageReader extends ImageReader {
                     }
                 }
             }
+            // Look for the shared metadata of the input file
+            if (input instanceof FileImageInputStreamExt) {
+                inputFile = ((FileImageInputStreamExt) input).getFile();
+                TIFFMetadataCache cache = TIFFMetadataCache.getInstance();
+                if (inputFile != null && cache.isEnabled()) {
+                    try {
+                        cacheEntry = cache.getEntry(new TIFFMetadataCache.FileKey(
+                                inputFile, ignoreMetadata, getAllowedTagSets()));
+                    } catch (IOException e) {
+                        // The cache is just an optimization, go on without it
+                        cacheEntry = null;
+                    }
+                }
+            }
         } else {
             this.stream = null;
         }
@@ -514,6 +554,14 @@ public class TIFFImageReader extends ImageReader {
             if (offset >= 0) {
                 imageStartPosition.add(Long.valueOf(offset));
                 stream.seek(offset);
+
+                // Reuse the IFD positions already located by other readers
+                if (cacheEntry != null) {
+                    long[] positions = cacheEntry.getImageStartPositions();
+                    for (int i = 1; i < positions.length; i++) {
+                        imageStartPosition.add(Long.valueOf(positions[i]));
+                    }
+                }
             } else 
                 processWarningOccurred("Error calculating offset");
                      
@@ -682,6 +730,9 @@ public class TIFFImageReader extends ImageReader {
                         imageMetadata = null;
                         // the current image index has changed, we got to reinitialized
                         initialized = false;                        
+                        if (cacheEntry != null) {
+                            cacheEntry.setImageStartPositions(imageStartPosition);
+                        }
                         return index;
                     }
 
@@ -702,6 +753,9 @@ public class TIFFImageReader extends ImageReader {
                         imageMetadata = null;
                         // the current image index has changed, we got to reinitialized
                         initialized = false;                        
+                        if (cacheEntry != null) {
+                            cacheEntry.setImageStartPositions(imageStartPosition);
+                        }
                         return index;
                     }
                     
@@ -715,6 +769,10 @@ public class TIFFImageReader extends ImageReader {
             throw new IIOException("Couldn't seek!", e);
         }
 
+        if (cacheEntry != null) {
+            cacheEntry.setImageStartPositions(imageStartPosition);
+        }
+
         // are we changing ImageIndex??? If so, we got to reload the ImageMetadata as well as the
         // various fields we initialized from them!
         if (currIndex != imageIndex) {
@@ -738,8 +796,15 @@ public class TIFFImageReader extends ImageReader {
         if (numImages > 0) {
             return numImages;
         }
+        if (cacheEntry != null && cacheEntry.getNumImages() > 0) {
+            this.numImages = cacheEntry.getNumImages();
+            return numImages;
+        }
         if (allowSearch) {
             this.numImages = locateImage(Integer.MAX_VALUE) + 1;
+            if (cacheEntry != null) {
+                cacheEntry.setNumImages(numImages);
+            }
         }
         return numImages;
     }
@@ -815,9 +880,28 @@ public class TIFFImageReader extends ImageReader {
                     
             }
         }
+
+        // look for the page in the process wide cache before parsing it
+        final boolean shared = imageMetadata == null && cacheEntry != null
+                && cacheEntry.getKey().matches(getAllowedTagSets());
+        if (shared) {
+            final PageInfo info = cacheEntry.getPage(index);
+            final TIFFImageMetadata metadata = info != null ? info.imageMetadata.get() : null;
+            if (metadata != null) {
+                TIFFMetadataCache.getInstance().recordHit();
+                pagesInfo.put(i, info);
+                initializeFromCachedInfo(info, metadata);
+                return;
+            }
+        }
         
         readMetadata();
         initializeFromMetadata();
+
+        if (shared) {
+            TIFFMetadataCache.getInstance().recordMiss();
+            cacheEntry.putPage(index, pagesInfo.get(i));
+        }
     }
 
     private void initializeFromCachedInfo(PageInfo pageInfo, TIFFImageMetadata imageMetadata) {
@@ -853,16 +937,7 @@ public class TIFFImageReader extends ImageReader {
         
         try {
             // Create an object to store the image metadata
-            List<BaselineTIFFTagSet> tagSets;
-            if (imageReadParam instanceof TIFFImageReadParam) {
-                tagSets =
-                    ((TIFFImageReadParam)imageReadParam).getAllowedTagSets();
-            } else {
-                tagSets = new ArrayList<BaselineTIFFTagSet>(1);
-                tagSets.add(BaselineTIFFTagSet.getInstance());
-            }
-
-            this.imageMetadata = new TIFFImageMetadata(tagSets);
+            this.imageMetadata = new TIFFImageMetadata(getAllowedTagSets());
             imageMetadata.initializeFromStream(stream, ignoreMetadata, bigtiff);
             // we got to reinitialized!!!
             initialized = false;
@@ -873,6 +948,19 @@ public class TIFFImageReader extends ImageReader {
         }
     }
 
+    // Returns the tag sets to be used for parsing the image metadata
+    private List<BaselineTIFFTagSet> getAllowedTagSets() {
+        List<BaselineTIFFTagSet> tagSets;
+        if (imageReadParam instanceof TIFFImageReadParam) {
+            tagSets =
+                ((TIFFImageReadParam)imageReadParam).getAllowedTagSets();
+        } else {
+            tagSets = new ArrayList<BaselineTIFFTagSet>(1);
+            tagSets.add(BaselineTIFFTagSet.getInstance());
+        }
+        return tagSets;
+    }
+
     // Returns tile width if image is tiled, else image width
     private int getTileOrStripWidth() {
         TIFFField f =
@@ -1495,6 +1583,36 @@ public class TIFFImageReader extends ImageReader {
         return read(imageIndex, param);
     }
 
+    /**
+     * Captures the IFD information needed to decode the strips or tiles of
+     * the specified image, so that they can be decoded concurrently without
+     * any further access to the state of this reader.
+     */
+    TIFFTileDecoder createTileDecoder(int imageIndex) throws IOException {
+        seekToImage(imageIndex);
+        ImageTypeSpecifier imageType = getImageTypes(imageIndex).next();
+
+        boolean isPlanar = planarConfiguration ==
+            BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR;
+        int numTiles =
+            ((width + tileOrStripWidth - 1)/tileOrStripWidth)*
+            ((height + tileOrStripHeight - 1)/tileOrStripHeight)*
+            (isPlanar ? numBands : 1);
+        long[] offsets = new long[numTiles];
+        long[] byteCounts = new long[numTiles];
+        for (int i = 0; i < numTiles; i++) {
+            offsets[i] = getTileOrStripOffset(i);
+            byteCounts[i] = getTileOrStripByteCount(i);
+        }
+
+        return new TIFFTileDecoder(this, imageMetadata, imageType,
+                stream.getByteOrder(), width, height, tileOrStripWidth,
+                tileOrStripHeight, isImageTiled, isPlanar, numBands,
+                compression, photometricInterpretation, samplesPerPixel,
+                bitsPerSample, sampleFormat, extraSamples, colorMap, noData,
+                offsets, byteCounts);
+    }
+
     public boolean canReadRaster() {
         // Enable this?
         return false;
@@ -1511,6 +1629,42 @@ public class TIFFImageReader extends ImageReader {
 
     private TIFFDecompressor decompressor;
 
+    /**
+     * The regions involved in the decoding of a single strip or tile.
+     */
+    private final static class TileRegion {
+
+        private final Rectangle srcRect;
+
+        private final Rectangle dstRect;
+
+        private final Rectangle activeSrcRect;
+
+        private TileRegion(Rectangle srcRect, Rectangle dstRect,
+                Rectangle activeSrcRect) {
+            this.srcRect = srcRect;
+            this.dstRect = dstRect;
+            this.activeSrcRect = activeSrcRect;
+        }
+
+        private void setOn(TIFFDecompressor decompressor) {
+            decompressor.setSrcMinX(srcRect.x);
+            decompressor.setSrcMinY(srcRect.y);
+            decompressor.setSrcWidth(srcRect.width);
+            decompressor.setSrcHeight(srcRect.height);
+
+            decompressor.setDstMinX(dstRect.x);
+            decompressor.setDstMinY(dstRect.y);
+            decompressor.setDstWidth(dstRect.width);
+            decompressor.setDstHeight(dstRect.height);
+
+            decompressor.setActiveSrcMinX(activeSrcRect.x);
+            decompressor.setActiveSrcMinY(activeSrcRect.y);
+            decompressor.setActiveSrcWidth(activeSrcRect.width);
+            decompressor.setActiveSrcHeight(activeSrcRect.height);
+        }
+    }
+
     // floor(num/den)
     private static int ifloor(int num, int den) {
         if (num < 0) {
@@ -1593,11 +1747,15 @@ public class TIFFImageReader extends ImageReader {
                                      width, height);
     }
 
-    private void decodeTile(int ti, int tj, int band) throws IOException {
-        if(DEBUG) {
-            System.out.println("decodeTile("+ti+","+tj+","+band+")");
-        }
-
+    /**
+     * Computes the source, destination and active source regions involved
+     * in the decoding of the strip or tile <code>(ti, tj)</code>.
+     * 
+     * @return the regions of the strip or tile, or <code>null</code> if the
+     *         strip or tile lies outside the image bounds. The destination
+     *         region may be empty.
+     */
+    private TileRegion computeTileRegion(int ti, int tj) {
         // Compute the region covered by the strip or tile
         Rectangle tileRect = new Rectangle(ti*tileOrStripWidth,
                                            tj*tileOrStripHeight,
@@ -1613,7 +1771,7 @@ public class TIFFImageReader extends ImageReader {
 
         // Return if the intersection is empty.
         if(tileRect.width <= 0 || tileRect.height <= 0) {
-            return;
+            return null;
         }
         
         int srcMinX = tileRect.x;
@@ -1624,16 +1782,16 @@ public class TIFFImageReader extends ImageReader {
         // Determine dest region that can be derived from the
         // source region
         
-        dstMinX = iceil(srcMinX - sourceXOffset, srcXSubsampling);
+        int dstMinX = iceil(srcMinX - sourceXOffset, srcXSubsampling);
         int dstMaxX = ifloor(srcMinX + srcWidth - 1 - sourceXOffset,
                          srcXSubsampling);
         
-        dstMinY = iceil(srcMinY - sourceYOffset, srcYSubsampling);
+        int dstMinY = iceil(srcMinY - sourceYOffset, srcYSubsampling);
         int dstMaxY = ifloor(srcMinY + srcHeight - 1 - sourceYOffset,
                              srcYSubsampling);
         
-        dstWidth = dstMaxX - dstMinX + 1;
-        dstHeight = dstMaxY - dstMinY + 1;
+        int dstWidth = dstMaxX - dstMinX + 1;
+        int dstHeight = dstMaxY - dstMinY + 1;
         
         dstMinX += dstXOffset;
         dstMinY += dstYOffset;
@@ -1651,7 +1809,7 @@ public class TIFFImageReader extends ImageReader {
         dstHeight = dstRect.height;
         
         if (dstWidth <= 0 || dstHeight <= 0) {
-            return;
+            return new TileRegion(tileRect, dstRect, null);
         }
         
         // Backwards map dest region to source to determine
@@ -1670,48 +1828,93 @@ public class TIFFImageReader extends ImageReader {
             (dstMinY + dstHeight - 1 - dstYOffset)*srcYSubsampling +
             sourceYOffset;
         int activeSrcHeight = symax - activeSrcMinY + 1;
-        
-        decompressor.setSrcMinX(srcMinX);
-        decompressor.setSrcMinY(srcMinY);
-        decompressor.setSrcWidth(srcWidth);
-        decompressor.setSrcHeight(srcHeight);
-        
-        decompressor.setDstMinX(dstMinX);
-        decompressor.setDstMinY(dstMinY);
-        decompressor.setDstWidth(dstWidth);
-        decompressor.setDstHeight(dstHeight);
-        
-        decompressor.setActiveSrcMinX(activeSrcMinX);
-        decompressor.setActiveSrcMinY(activeSrcMinY);
-        decompressor.setActiveSrcWidth(activeSrcWidth);
-        decompressor.setActiveSrcHeight(activeSrcHeight);
 
+        return new TileRegion(tileRect, dstRect, new Rectangle(activeSrcMinX,
+                activeSrcMinY, activeSrcWidth, activeSrcHeight));
+    }
+
+    private int getTileIndex(int ti, int tj, int band) {
         int tileIndex = tj*tilesAcross + ti;
 
         if (planarConfiguration ==
             BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR) {
             tileIndex += band*tilesAcross*tilesDown;
         }
-        
-        long offset = getTileOrStripOffset(tileIndex);
-        long byteCount = getTileOrStripByteCount(tileIndex);
+        return tileIndex;
+    }
 
-        //
-        // Attempt to handle truncated streams, i.e., where reading the
-        // compressed strip or tile would result in an EOFException. The
-        // number of bytes to read is clamped to the number available
-        // from the stream starting at the indicated position in the hope
-        // that the decompressor will handle it.
-        //
+    /**
+     * Attempts to handle truncated streams, i.e., where reading the
+     * compressed strip or tile would result in an EOFException. The
+     * number of bytes to read is clamped to the number available
+     * from the stream starting at the indicated position in the hope
+     * that the decompressor will handle it.
+     * 
+     * @return the number of bytes to be read, or -1 if no bytes are
+     *         available for the strip or tile.
+     */
+    private long clampByteCount(long offset, long byteCount)
+        throws IOException {
         long streamLength = stream.length();
         if(streamLength > 0 && offset + byteCount > streamLength) {
             processWarningOccurred("Attempting to process truncated stream.");
             if(Math.max(byteCount = streamLength - offset, 0) == 0) {
                 processWarningOccurred("No bytes in strip/tile: skipping.");
+                return -1;
+            }
+        }
+        return byteCount;
+    }
+
+    private void decodeTile(int ti, int tj, int band) throws IOException {
+        if(DEBUG) {
+            System.out.println("decodeTile("+ti+","+tj+","+band+")");
+        }
+
+        TileRegion region = computeTileRegion(ti, tj);
+        if (region == null) {
+            return;
+        }
+
+        dstMinX = region.dstRect.x;
+        dstMinY = region.dstRect.y;
+        dstWidth = region.dstRect.width;
+        dstHeight = region.dstRect.height;
+
+        if (dstWidth <= 0 || dstHeight <= 0) {
+            return;
+        }
+
+        int tileIndex = getTileIndex(ti, tj, band);
+        TIFFTileCache.TileKey key = null;
+        if (tileCache != null) {
+            key = new TIFFTileCache.TileKey(tileCacheKey, currIndex, tileIndex);
+            Raster tile = tileCache.getTile(key);
+            if (tile != null) {
+                copyTile(tile, region);
                 return;
             }
         }
 
+        long offset = getTileOrStripOffset(tileIndex);
+        long byteCount = clampByteCount(offset,
+                getTileOrStripByteCount(tileIndex));
+        if (byteCount < 0) {
+            return;
+        }
+
+        if (key != null) {
+            stream.mark();
+            Raster tile = decodeWholeTile(decompressor, region, stream,
+                                          offset, (int)byteCount);
+            stream.reset();
+            tileCache.putTile(key, tile);
+            copyTile(tile, region);
+            return;
+        }
+
+        region.setOn(decompressor);
+
         decompressor.setStream(stream);
         decompressor.setOffset(offset);
         decompressor.setByteCount((int)byteCount);
@@ -1723,6 +1926,107 @@ public class TIFFImageReader extends ImageReader {
         stream.reset();
     }
 
+    /**
+     * Returns the decoded tile cache to be used by the current read, or
+     * <code>null</code> if the strips or tiles have to be decoded straight
+     * into the destination image.
+     */
+    private TIFFTileCache getTileCache(TIFFTileCache tileCache,
+            boolean hasUserDecompressor, TIFFColorConverter colorConverter)
+        throws IOException {
+        if (tileCache == null) {
+            tileCache = TIFFTileCache.getInstance();
+        }
+        if (!tileCache.isEnabled() || inputFile == null ||
+            hasUserDecompressor || colorConverter != null ||
+            imageReadParam.getDestinationType() != null ||
+            planarConfiguration ==
+            BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR) {
+            return null;
+        }
+        if (tileCacheKey == null) {
+            tileCacheKey = new TIFFTileCache.FileKey(inputFile);
+        }
+        tileImageType = getImageTypes(currIndex).next();
+        return tileCache;
+    }
+
+    /**
+     * Decodes a whole strip or tile, with all its bands and no subsampling,
+     * into a new raster of the default image type, to be held in the tile
+     * cache.
+     */
+    private Raster decodeWholeTile(TIFFDecompressor tileDecompressor,
+            TileRegion region, ImageInputStream tileStream, long offset,
+            int byteCount) throws IOException {
+        Rectangle srcRect = region.srcRect;
+        BufferedImage tileImage =
+            tileImageType.createBufferedImage(srcRect.width, srcRect.height);
+        int[] bands = new int[numBands];
+        for (int i = 0; i < numBands; i++) {
+            bands[i] = i;
+        }
+
+        tileDecompressor.setImage(tileImage);
+        tileDecompressor.setSourceXOffset(srcRect.x);
+        tileDecompressor.setSourceYOffset(srcRect.y);
+        tileDecompressor.setSubsampleX(1);
+        tileDecompressor.setSubsampleY(1);
+        tileDecompressor.setDstXOffset(0);
+        tileDecompressor.setDstYOffset(0);
+        tileDecompressor.setSourceBands(bands);
+        tileDecompressor.setDestinationBands(bands);
+        new TileRegion(srcRect,
+                       new Rectangle(0, 0, srcRect.width, srcRect.height),
+                       srcRect).setOn(tileDecompressor);
+
+        tileDecompressor.setStream(tileStream);
+        tileDecompressor.setOffset(offset);
+        tileDecompressor.setByteCount(byteCount);
+        tileDecompressor.setNoData(noData);
+        tileDecompressor.beginDecoding();
+        tileDecompressor.decode();
+        return tileImage.getRaster();
+    }
+
+    /**
+     * Copies the destination region of a strip or tile from its decoded
+     * raster, applying the subsampling and bands of the current read.
+     */
+    private void copyTile(Raster tile, TileRegion region) {
+        Rectangle dstRect = region.dstRect;
+        int sx = region.activeSrcRect.x - region.srcRect.x;
+        int sy = region.activeSrcRect.y - region.srcRect.y;
+        WritableRaster raster = theImage.getRaster();
+
+        if (srcXSubsampling == 1 && srcYSubsampling == 1) {
+            Raster src = tile.createChild(sx, sy,
+                                          dstRect.width, dstRect.height,
+                                          dstRect.x, dstRect.y,
+                                          sourceBands);
+            raster.createWritableChild(dstRect.x, dstRect.y,
+                                       dstRect.width, dstRect.height,
+                                       dstRect.x, dstRect.y,
+                                       destinationBands).setRect(src);
+            return;
+        }
+
+        int activeWidth = region.activeSrcRect.width;
+        double[] srcRow = new double[activeWidth];
+        double[] dstRow = new double[dstRect.width];
+        for (int i = 0; i < sourceBands.length; i++) {
+            for (int y = 0; y < dstRect.height; y++) {
+                tile.getSamples(sx, sy + y*srcYSubsampling, activeWidth, 1,
+                                sourceBands[i], srcRow);
+                for (int x = 0; x < dstRect.width; x++) {
+                    dstRow[x] = srcRow[x*srcXSubsampling];
+                }
+                raster.setSamples(dstRect.x, dstRect.y + y, dstRect.width, 1,
+                                  destinationBands[i], dstRow);
+            }
+        }
+    }
+
     private void reportProgress() {
         // Report image progress/update to listeners after each tile
         pixelsRead += dstWidth*dstHeight;
@@ -1733,8 +2037,647 @@ public class TIFFImageReader extends ImageReader {
                            destinationBands);
     }
 
+    /**
+     * Creates the standard decompressor for the current image, based on its
+     * compression and photometric interpretation.
+     */
+    private TIFFDecompressor createDecompressor() throws IIOException {
+        return createDecompressor(this, imageMetadata, compression,
+                photometricInterpretation, theImage.getColorModel());
+    }
+
+    /**
+     * Creates the standard decompressor for an image having the given
+     * metadata, compression and photometric interpretation, to be decoded
+     * into a destination having the given color model.
+     */
+    static TIFFDecompressor createDecompressor(TIFFImageReader reader,
+            TIFFImageMetadata imageMetadata, int compression,
+            int photometricInterpretation, ColorModel destColorModel)
+        throws IIOException {
+        TIFFDecompressor decompressor = null;
+        if (compression ==
+            BaselineTIFFTagSet.COMPRESSION_NONE) {
+            // Get the fillOrder field.
+            TIFFField fillOrderField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_FILL_ORDER);
+
+            // Set the decompressor based on the fill order.
+            if(fillOrderField != null && fillOrderField.getAsInt(0) == 2) {
+                decompressor = new TIFFLSBDecompressor();
+            } else {
+                decompressor = new TIFFNullDecompressor();
+            }
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_CCITT_T_6) {
+
+            // Try to create the codecLib decompressor.
+            if(PackageUtil.isCodecLibAvailable()) {
+                try {
+                    decompressor =
+                        new TIFFCodecLibFaxDecompressor(compression);
+                    if(DEBUG) {
+                        System.out.println
+                            ("Using codecLib T.6 decompressor");
+                    }
+                } catch (RuntimeException re) {
+                    if(DEBUG) {
+                        System.out.println(re);
+                    }
+                }
+            }
+
+            // Fall back to the Java decompressor.
+            if (decompressor == null) {
+                if(DEBUG) {
+                    System.out.println("Using Java T.6 decompressor");
+                }
+                decompressor = new TIFFFaxDecompressor();
+            }
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_CCITT_T_4) {
+
+            if(PackageUtil.isCodecLibAvailable()) {
+                // Try to create the codecLib decompressor.
+                try {
+                    decompressor =
+                        new TIFFCodecLibFaxDecompressor(compression);
+                    if(DEBUG) {
+                        System.out.println
+                            ("Using codecLib T.4 decompressor");
+                    }
+                } catch (RuntimeException re) {
+                    if(DEBUG) {
+                        System.out.println(re);
+                    }
+                }
+            }
+
+            // Fall back to the Java decompressor.
+            if (decompressor == null) {
+                if(DEBUG) {
+                    System.out.println("Using Java T.4 decompressor");
+                }
+                decompressor = new TIFFFaxDecompressor();
+            }
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_CCITT_RLE) {
+            decompressor = new TIFFFaxDecompressor();
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_PACKBITS) {
+            if(DEBUG) {
+                System.out.println("Using TIFFPackBitsDecompressor");
+            }
+            decompressor = new TIFFPackBitsDecompressor();
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_LZW) {
+            if(DEBUG) {
+                System.out.println("Using TIFFLZWDecompressor");
+            }
+            TIFFField predictorField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
+            int predictor = ((predictorField == null) ?
+                             BaselineTIFFTagSet.PREDICTOR_NONE :
+                             predictorField.getAsInt(0));
+            decompressor = new TIFFLZWDecompressor(predictor);
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_JPEG) {
+            decompressor = new TIFFJPEGDecompressor();
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_ZLIB ||
+                   compression ==
+                   BaselineTIFFTagSet.COMPRESSION_DEFLATE) {
+            TIFFField predictorField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
+            int predictor = ((predictorField == null) ?
+                             BaselineTIFFTagSet.PREDICTOR_NONE :
+                             predictorField.getAsInt(0));
+            decompressor = new TIFFDeflateDecompressor(predictor);
+        } else if (compression ==
+                   BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
+            TIFFField JPEGProcField =
+                imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_JPEG_PROC);
+            if(JPEGProcField == null) {
+                reader.processWarningOccurred
+                    ("JPEGProc field missing; assuming baseline sequential JPEG process.");
+            } else if(JPEGProcField.getAsInt(0) !=
+               BaselineTIFFTagSet.JPEG_PROC_BASELINE) {
+                throw new IIOException
+                    ("Old-style JPEG supported for baseline sequential JPEG process only!");
+            }
+            decompressor = new TIFFOldJPEGDecompressor();
+            //throw new IIOException("Old-style JPEG not supported!");
+        } else {
+            throw new IIOException
+                ("Unsupported compression type (tag number = "+
+                 compression+")!");
+        }
+
+        if (photometricInterpretation ==
+            BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_Y_CB_CR &&
+            compression != BaselineTIFFTagSet.COMPRESSION_JPEG &&
+            compression != BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
+            boolean convertYCbCrToRGB =
+                destColorModel.getColorSpace().getType() ==
+                ColorSpace.TYPE_RGB;
+            TIFFDecompressor wrappedDecompressor =
+                decompressor instanceof TIFFNullDecompressor ?
+                null : decompressor;
+            decompressor =
+                new TIFFYCbCrDecompressor(wrappedDecompressor,
+                                          convertYCbCrToRGB);
+        }
+
+        return decompressor;
+    }
+
+    /**
+     * Creates the color converter needed to decode an image having the
+     * given metadata, compression and photometric interpretation into a
+     * destination having the given color model, or returns <code>null</code>
+     * if no conversion is needed.
+     */
+    static TIFFColorConverter createColorConverter(
+            TIFFImageMetadata imageMetadata, int compression,
+            int photometricInterpretation, ColorModel destColorModel,
+            TIFFDecompressor decompressor) {
+        TIFFColorConverter colorConverter = null;
+        if (photometricInterpretation ==
+            BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_CIELAB &&
+            destColorModel.getColorSpace().getType() ==
+            ColorSpace.TYPE_RGB) {
+            colorConverter = new TIFFCIELabColorConverter();
+         } else if (photometricInterpretation ==
+                    BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_Y_CB_CR &&
+                    !(decompressor instanceof TIFFYCbCrDecompressor) &&
+                    compression != BaselineTIFFTagSet.COMPRESSION_JPEG &&
+                    compression != BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
+             colorConverter = new TIFFYCbCrColorConverter(imageMetadata);
+        }
+        return colorConverter;
+    }
+
+    /**
+     * Sets on the given decompressor the image, metadata and read
+     * parameters of the current read operation.
+     */
+    private void configureDecompressor(TIFFDecompressor decompressor,
+            TIFFColorConverter colorConverter) {
+        decompressor.setReader(this);
+        decompressor.setMetadata(imageMetadata);
+        decompressor.setImage(theImage);
+
+        decompressor.setPhotometricInterpretation(photometricInterpretation);
+        decompressor.setCompression(compression);
+        decompressor.setSamplesPerPixel(samplesPerPixel);
+        decompressor.setBitsPerSample(bitsPerSample);
+        decompressor.setSampleFormat(sampleFormat);
+        decompressor.setExtraSamples(extraSamples);
+        decompressor.setColorMap(colorMap);
+
+        decompressor.setColorConverter(colorConverter);
+
+        decompressor.setSourceXOffset(sourceXOffset);
+        decompressor.setSourceYOffset(sourceYOffset);
+        decompressor.setSubsampleX(srcXSubsampling);
+        decompressor.setSubsampleY(srcYSubsampling);
+
+        decompressor.setDstXOffset(dstXOffset);
+        decompressor.setDstYOffset(dstYOffset);
+
+        decompressor.setSourceBands(sourceBands);
+        decompressor.setDestinationBands(destinationBands);
+    }
+
+    /**
+     * Returns whether the strips or tiles in the given range can be decoded
+     * concurrently into the destination image.
+     */
+    private boolean canDecodeInParallel(int minTileX, int minTileY,
+            int maxTileX, int maxTileY) {
+        if (minTileX == maxTileX && minTileY == maxTileY) {
+            return false;
+        }
+
+        // Old-style JPEG data may be located through absolute offsets
+        // outside the strip or tile, hence it is read from the main stream.
+        if (compression == BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
+            return false;
+        }
+
+        // Adjacent tiles may share bytes of a packed destination raster.
+        return !isImageTiled || !(theImage.getSampleModel()
+                instanceof MultiPixelPackedSampleModel);
+    }
+
+    /**
+     * Decodes the strips or tiles in the given range using the provided
+     * executor. The compressed data of each strip or tile is read from the
+     * stream on the calling thread and then decompressed by a task running
+     * on the executor, using a decompressor which is not shared with any
+     * other running task.
+     * 
+     * @return <code>true</code> if the read has been aborted.
+     */
+    private boolean decodeTilesInParallel(ExecutorService executor,
+            TIFFColorConverter colorConverter, int minTileX, int minTileY,
+            int maxTileX, int maxTileY) throws IOException {
+        final boolean isPlanar = planarConfiguration ==
+            BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR;
+        final int numPlanes = isPlanar ? numBands : 1;
+
+        // Bound the number of strips or tiles held in memory
+        final int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+        final LinkedList<Future<Rectangle>> pending =
+            new LinkedList<Future<Rectangle>>();
+        final LinkedList<TIFFDecompressor> decompressors =
+            new LinkedList<TIFFDecompressor>();
+        final List<TIFFDecompressor> created =
+            new ArrayList<TIFFDecompressor>();
+
+        decompressor.setPlanar(isPlanar);
+        decompressors.add(decompressor);
+        created.add(decompressor);
+
+        boolean isAbortRequested = false;
+        stream.mark();
+        try {
+            for (int tj = minTileY; tj <= maxTileY && !isAbortRequested; tj++) {
+                for (int ti = minTileX; ti <= maxTileX; ti++) {
+                    // The method abortRequested() is synchronized
+                    // so check it only once per loop just before
+                    // doing any actual decoding.
+                    if(abortRequested()) {
+                        isAbortRequested = true;
+                        break;
+                    }
+
+                    final TileRegion region = computeTileRegion(ti, tj);
+                    if (region == null || region.dstRect.isEmpty()) {
+                        continue;
+                    }
+
+                    // Look for the decoded strip or tile, if cached
+                    TIFFTileCache.TileKey key = null;
+                    Raster tile = null;
+                    if (tileCache != null) {
+                        key = new TIFFTileCache.TileKey(tileCacheKey,
+                                currIndex, getTileIndex(ti, tj, -1));
+                        tile = tileCache.getTile(key);
+                    }
+                    final TIFFTileCache.TileKey tileKey = key;
+                    final Raster cachedTile = tile;
+
+                    // Fetch the compressed data of each plane, leaving null
+                    // the ones which have to be skipped
+                    final byte[][] data = new byte[numPlanes][];
+                    for (int band = 0; band < numPlanes && tile == null; band++) {
+                        int tileIndex = getTileIndex(ti, tj, isPlanar ? band : -1);
+                        long offset = getTileOrStripOffset(tileIndex);
+                        long byteCount = clampByteCount(offset,
+                                getTileOrStripByteCount(tileIndex));
+                        if (byteCount >= 0) {
+                            data[band] = new byte[(int)byteCount];
+                            stream.seek(offset);
+                            stream.readFully(data[band]);
+                        }
+                    }
+
+                    if (pending.size() >= maxPending) {
+                        reportProgress(waitForTile(pending.removeFirst()));
+                    }
+
+                    // Make sure each running task can get its own decompressor
+                    if (created.size() <= pending.size()) {
+                        TIFFDecompressor newDecompressor = createDecompressor();
+                        configureDecompressor(newDecompressor, colorConverter);
+                        newDecompressor.setPlanar(isPlanar);
+                        synchronized (decompressors) {
+                            decompressors.add(newDecompressor);
+                        }
+                        created.add(newDecompressor);
+                    }
+
+                    pending.add(executor.submit(new Callable<Rectangle>() {
+                        public Rectangle call() throws Exception {
+                            TIFFDecompressor tileDecompressor;
+                            synchronized (decompressors) {
+                                tileDecompressor = decompressors.removeFirst();
+                            }
+                            try {
+                                if (tileKey != null) {
+                                    decodeCachedTile(tileDecompressor, region,
+                                            tileKey, cachedTile, data[0]);
+                                } else {
+                                    decodeTile(tileDecompressor, region, data);
+                                }
+                            } finally {
+                                synchronized (decompressors) {
+                                    decompressors.add(tileDecompressor);
+                                }
+                            }
+                            return region.dstRect;
+                        }
+                    }));
+                }
+            }
+
+            while (!pending.isEmpty()) {
+                reportProgress(waitForTile(pending.removeFirst()));
+            }
+        } finally {
+            // Never leave running tasks writing into the destination
+            for (Future<Rectangle> future : pending) {
+                try {
+                    future.get();
+                } catch (Exception e) {
+                    // Already failing, ignore
+                }
+            }
+            for (TIFFDecompressor d : created) {
+                if (d != decompressor) {
+                    d.dispose();
+                }
+            }
+            stream.reset();
+        }
+
+        return isAbortRequested;
+    }
+
+    /**
+     * Decodes a strip or tile whose compressed data (one array per plane)
+     * has been already read from the stream.
+     */
+    private void decodeTile(TIFFDecompressor tileDecompressor,
+            TileRegion region, byte[][] data) throws IOException {
+        int[] sb = new int[1];
+        int[] db = new int[1];
+        region.setOn(tileDecompressor);
+        for (int band = 0; band < data.length; band++) {
+            if (data.length > 1) {
+                sb[0] = sourceBands[band];
+                tileDecompressor.setSourceBands(sb);
+                db[0] = destinationBands[band];
+                tileDecompressor.setDestinationBands(db);
+            }
+            byte[] bytes = data[band];
+            if (bytes == null) {
+                continue;
+            }
+            // Empty tiles are recognized by the decompressor through a zero
+            // offset and byte count, as in the main stream
+            ImageInputStream tileStream = new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(bytes));
+            tileStream.setByteOrder(stream.getByteOrder());
+            tileDecompressor.setStream(tileStream);
+            tileDecompressor.setOffset(0);
+            tileDecompressor.setByteCount(bytes.length);
+            tileDecompressor.setNoData(noData);
+            tileDecompressor.beginDecoding();
+            tileDecompressor.decode();
+            tileStream.close();
+        }
+    }
+
+    /**
+     * Copies a strip or tile into the destination image from its cached
+     * raster, if any, or from the raster decoded from the compressed data
+     * already read from the stream, adding the latter to the tile cache.
+     */
+    private void decodeCachedTile(TIFFDecompressor tileDecompressor,
+            TileRegion region, TIFFTileCache.TileKey key, Raster tile,
+            byte[] bytes) throws IOException {
+        if (tile == null) {
+            if (bytes == null) {
+                return;
+            }
+            ImageInputStream tileStream = new MemoryCacheImageInputStream(
+                    new ByteArrayInputStream(bytes));
+            tileStream.setByteOrder(stream.getByteOrder());
+            tile = decodeWholeTile(tileDecompressor, region, tileStream, 0,
+                                   bytes.length);
+            tileStream.close();
+            tileCache.putTile(key, tile);
+        }
+        copyTile(tile, region);
+    }
+
+    private static Rectangle waitForTile(Future<Rectangle> future)
+        throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IIOException("Interrupted while decoding", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException)cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException)cause;
+            } else if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw new IIOException("Error while decoding", cause);
+        }
+    }
+
+    private void reportProgress(Rectangle dstRect) {
+        dstMinX = dstRect.x;
+        dstMinY = dstRect.y;
+        dstWidth = dstRect.width;
+        dstHeight = dstRect.height;
+        reportProgress();
+    }
+
+    /**
+     * Serves a subsampled read from the reduced resolution image best
+     * matching the requested subsampling: the smallest one, among the
+     * internal overviews following the image and the images of the
+     * external overviews file, whose decimation does not exceed the
+     * subsampling.
+     *
+     * @return the image read from the overview, or <code>null</code> if
+     *         no overview can serve the request.
+     */
+    private BufferedImage readFromOverview(int imageIndex,
+                                           TIFFImageReadParam param)
+        throws IOException {
+        if ((param.getSourceXSubsampling() == 1 &&
+             param.getSourceYSubsampling() == 1) ||
+            param.getDestinationType() != null) {
+            return null;
+        }
+
+        seekToImage(imageIndex);
+        if (getNewSubfileType() != 0) {
+            // Overviews and masks have no overviews of their own
+            return null;
+        }
+        final int imageWidth = width;
+        final int imageHeight = height;
+        final int imageBands = numBands;
+        final int[] imageBitsPerSample = bitsPerSample;
+
+        Rectangle srcRegion = new Rectangle(0, 0, 0, 0);
+        Rectangle destRegion = new Rectangle(0, 0, 0, 0);
+        computeRegions(param, imageWidth, imageHeight, param.getDestination(),
+                       srcRegion, destRegion);
+
+        // Internal overviews follow the image, possibly together with
+        // masks and mask overviews, up to the next full resolution image
+        int bestIndex = -1;
+        long bestSize = Long.MAX_VALUE;
+        TIFFImageReadParam bestParam = null;
+        int numImages = getNumImages(true);
+        for (int i = imageIndex + 1; i < numImages; i++) {
+            seekToImage(i);
+            long type = getNewSubfileType();
+            if ((type & BaselineTIFFTagSet.NEW_SUBFILE_TYPE_TRANSPARENCY) != 0) {
+                continue;
+            }
+            if ((type & BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION) == 0) {
+                break;
+            }
+            if (numBands != imageBands ||
+                !Arrays.equals(bitsPerSample, imageBitsPerSample) ||
+                (long)width*height >= bestSize) {
+                continue;
+            }
+            TIFFImageReadParam overviewParam = createOverviewParam(param,
+                    imageWidth, imageHeight, width, height,
+                    srcRegion, destRegion);
+            if (overviewParam != null) {
+                bestIndex = i;
+                bestSize = (long)width*height;
+                bestParam = overviewParam;
+            }
+        }
+
+        // The external overviews refer to the first image
+        if (imageIndex == 0 && externalOverviews != null) {
+            TIFFImageReader reader = new TIFFImageReader(originatingProvider);
+            FileImageInputStreamExtImpl overviewStream =
+                new FileImageInputStreamExtImpl(externalOverviews);
+            try {
+                reader.setInput(overviewStream);
+                int externalIndex = -1;
+                TIFFImageReadParam externalParam = null;
+                int numOverviews = reader.getNumImages(true);
+                for (int i = 0; i < numOverviews; i++) {
+                    reader.seekToImage(i);
+                    if ((reader.getNewSubfileType() &
+                         BaselineTIFFTagSet.NEW_SUBFILE_TYPE_TRANSPARENCY) != 0 ||
+                        reader.numBands != imageBands ||
+                        !Arrays.equals(reader.bitsPerSample, imageBitsPerSample) ||
+                        (long)reader.width*reader.height >= bestSize) {
+                        continue;
+                    }
+                    TIFFImageReadParam overviewParam = createOverviewParam(param,
+                            imageWidth, imageHeight, reader.width, reader.height,
+                            srcRegion, destRegion);
+                    if (overviewParam != null) {
+                        externalIndex = i;
+                        bestSize = (long)reader.width*reader.height;
+                        externalParam = overviewParam;
+                    }
+                }
+                if (externalParam != null) {
+                    return reader.read(externalIndex, externalParam);
+                }
+            } finally {
+                reader.dispose();
+                overviewStream.close();
+            }
+        }
+
+        if (bestParam == null) {
+            return null;
+        }
+        return read(bestIndex, bestParam);
+    }
+
+    /**
+     * Returns the NewSubfileType of the current image, 0 if not set.
+     */
+    private long getNewSubfileType() {
+        TIFFField f = imageMetadata.getTIFFField(
+                BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE);
+        return f != null ? f.getAsLong(0) : 0;
+    }
+
+    /**
+     * Rescales the parameters of a subsampled read of the full resolution
+     * image to an overview of the provided size, so that the same
+     * destination region is filled.
+     *
+     * @return the parameters of the read from the overview, or
+     *         <code>null</code> if the overview resolution is lower than
+     *         the requested one or does not match the subsampling.
+     */
+    private static TIFFImageReadParam createOverviewParam(
+            TIFFImageReadParam param, int imageWidth, int imageHeight,
+            int overviewWidth, int overviewHeight,
+            Rectangle srcRegion, Rectangle destRegion) {
+        double xScale = (double)imageWidth/overviewWidth;
+        double yScale = (double)imageHeight/overviewHeight;
+        int xSubsampling = param.getSourceXSubsampling();
+        int ySubsampling = param.getSourceYSubsampling();
+        if (xScale > xSubsampling || yScale > ySubsampling) {
+            return null;
+        }
+
+        // Keep the number of sampled pixels, which sets the destination size,
+        // and require the sampled area to drift by less than a pixel of the
+        // overview from the requested one
+        double xStep = xSubsampling/xScale;
+        double yStep = ySubsampling/yScale;
+        int overviewXSubsampling = Math.max(1, (int)Math.round(xStep));
+        int overviewYSubsampling = Math.max(1, (int)Math.round(yStep));
+        if (Math.abs(overviewXSubsampling - xStep)*(destRegion.width - 1) > 1 ||
+            Math.abs(overviewYSubsampling - yStep)*(destRegion.height - 1) > 1) {
+            return null;
+        }
+        int width = (destRegion.width - 1)*overviewXSubsampling + 1;
+        int height = (destRegion.height - 1)*overviewYSubsampling + 1;
+        if (width > overviewWidth || height > overviewHeight) {
+            return null;
+        }
+        int x = Math.min((int)(srcRegion.x/xScale), overviewWidth - width);
+        int y = Math.min((int)(srcRegion.y/yScale), overviewHeight - height);
+
+        TIFFImageReadParam overviewParam = new TIFFImageReadParam();
+        for (Object tagSet : overviewParam.getAllowedTagSets().toArray()) {
+            overviewParam.removeAllowedTagSet((TIFFTagSet)tagSet);
+        }
+        for (Object tagSet : param.getAllowedTagSets()) {
+            overviewParam.addAllowedTagSet((TIFFTagSet)tagSet);
+        }
+        overviewParam.setTIFFDecompressor(param.getTIFFDecompressor());
+        overviewParam.setColorConverter(param.getColorConverter());
+        overviewParam.setDecodingExecutor(param.getDecodingExecutor());
+        overviewParam.setTileCache(param.getTileCache());
+        overviewParam.setSourceBands(param.getSourceBands());
+        overviewParam.setDestinationBands(param.getDestinationBands());
+        overviewParam.setDestination(param.getDestination());
+        overviewParam.setDestinationOffset(destRegion.getLocation());
+        overviewParam.setSourceRegion(new Rectangle(x, y, width, height));
+        overviewParam.setSourceSubsampling(overviewXSubsampling,
+                                           overviewYSubsampling, 0, 0);
+        return overviewParam;
+    }
+
     public BufferedImage read(int imageIndex, ImageReadParam param)
         throws IOException {
+        if (param instanceof TIFFImageReadParam &&
+            ((TIFFImageReadParam)param).getUseOverviews()) {
+            BufferedImage image =
+                readFromOverview(imageIndex, (TIFFImageReadParam)param);
+            if (image != null) {
+                return image;
+            }
+        }
         prepareRead(imageIndex, param);
         this.theImage = getDestination(param,
                                        getImageTypes(imageIndex),
@@ -1771,146 +2714,22 @@ public class TIFFImageReader extends ImageReader {
         // Attempt to get decompressor and color converted from the read param
         
         TIFFColorConverter colorConverter = null;
+        ExecutorService decodingExecutor = null;
+        TIFFTileCache tileCache = null;
+        boolean hasUserDecompressor = false;
         if (imageReadParam instanceof TIFFImageReadParam) {
             TIFFImageReadParam tparam =
                 (TIFFImageReadParam)imageReadParam;
             this.decompressor = tparam.getTIFFDecompressor();
             colorConverter = tparam.getColorConverter();
+            decodingExecutor = tparam.getDecodingExecutor();
+            tileCache = tparam.getTileCache();
+            hasUserDecompressor = this.decompressor != null;
         }
 
         // If we didn't find one, use a standard decompressor
         if (this.decompressor == null) {
-            if (compression ==
-                BaselineTIFFTagSet.COMPRESSION_NONE) {
-                // Get the fillOrder field.
-                TIFFField fillOrderField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_FILL_ORDER);
-
-                // Set the decompressor based on the fill order.
-                if(fillOrderField != null && fillOrderField.getAsInt(0) == 2) {
-                    this.decompressor = new TIFFLSBDecompressor();
-                } else {
-                    this.decompressor = new TIFFNullDecompressor();
-                }
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_CCITT_T_6) {
-
-                // Try to create the codecLib decompressor.
-                if(PackageUtil.isCodecLibAvailable()) {
-                    try {
-                        this.decompressor =
-                            new TIFFCodecLibFaxDecompressor(compression);
-                        if(DEBUG) {
-                            System.out.println
-                                ("Using codecLib T.6 decompressor");
-                        }
-                    } catch (RuntimeException re) {
-                        if(DEBUG) {
-                            System.out.println(re);
-                        }
-                    }
-                }
-
-                // Fall back to the Java decompressor.
-                if (this.decompressor == null) {
-                    if(DEBUG) {
-                        System.out.println("Using Java T.6 decompressor");
-                    }
-                    this.decompressor = new TIFFFaxDecompressor();
-                }
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_CCITT_T_4) {
-
-                if(PackageUtil.isCodecLibAvailable()) {
-                    // Try to create the codecLib decompressor.
-                    try {
-                        this.decompressor =
-                            new TIFFCodecLibFaxDecompressor(compression);
-                        if(DEBUG) {
-                            System.out.println
-                                ("Using codecLib T.4 decompressor");
-                        }
-                    } catch (RuntimeException re) {
-                        if(DEBUG) {
-                            System.out.println(re);
-                        }
-                    }
-                }
-
-                // Fall back to the Java decompressor.
-                if (this.decompressor == null) {
-                    if(DEBUG) {
-                        System.out.println("Using Java T.4 decompressor");
-                    }
-                    this.decompressor = new TIFFFaxDecompressor();
-                }
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_CCITT_RLE) {
-                this.decompressor = new TIFFFaxDecompressor();
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_PACKBITS) {
-                if(DEBUG) {
-                    System.out.println("Using TIFFPackBitsDecompressor");
-                }
-                this.decompressor = new TIFFPackBitsDecompressor();
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_LZW) {
-                if(DEBUG) {
-                    System.out.println("Using TIFFLZWDecompressor");
-                }
-                TIFFField predictorField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
-                int predictor = ((predictorField == null) ?
-                                 BaselineTIFFTagSet.PREDICTOR_NONE :
-                                 predictorField.getAsInt(0));
-                this.decompressor = new TIFFLZWDecompressor(predictor);
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_JPEG) {
-                this.decompressor = new TIFFJPEGDecompressor();
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_ZLIB ||
-                       compression ==
-                       BaselineTIFFTagSet.COMPRESSION_DEFLATE) {
-                TIFFField predictorField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
-                int predictor = ((predictorField == null) ?
-                                 BaselineTIFFTagSet.PREDICTOR_NONE :
-                                 predictorField.getAsInt(0));
-                this.decompressor = new TIFFDeflateDecompressor(predictor);
-            } else if (compression ==
-                       BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
-                TIFFField JPEGProcField =
-                    imageMetadata.getTIFFField(BaselineTIFFTagSet.TAG_JPEG_PROC);
-                if(JPEGProcField == null) {
-                    processWarningOccurred
-                        ("JPEGProc field missing; assuming baseline sequential JPEG process.");
-                } else if(JPEGProcField.getAsInt(0) !=
-                   BaselineTIFFTagSet.JPEG_PROC_BASELINE) {
-                    throw new IIOException
-                        ("Old-style JPEG supported for baseline sequential JPEG process only!");
-                }
-                this.decompressor = new TIFFOldJPEGDecompressor();
-                //throw new IIOException("Old-style JPEG not supported!");
-            } else {
-                throw new IIOException
-                    ("Unsupported compression type (tag number = "+
-                     compression+")!");
-            }
-
-            if (photometricInterpretation ==
-                BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_Y_CB_CR &&
-                compression != BaselineTIFFTagSet.COMPRESSION_JPEG &&
-                compression != BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
-                boolean convertYCbCrToRGB =
-                    theImage.getColorModel().getColorSpace().getType() ==
-                    ColorSpace.TYPE_RGB;
-                TIFFDecompressor wrappedDecompressor =
-                    this.decompressor instanceof TIFFNullDecompressor ?
-                    null : this.decompressor;
-                this.decompressor =
-                    new TIFFYCbCrDecompressor(wrappedDecompressor,
-                                              convertYCbCrToRGB);
-            }
+            this.decompressor = createDecompressor();
         }
 
         if(DEBUG) {
@@ -1919,44 +2738,15 @@ public class TIFFImageReader extends ImageReader {
         }
 
         if (colorConverter == null) {
-            if (photometricInterpretation ==
-                BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_CIELAB &&
-                theImage.getColorModel().getColorSpace().getType() ==
-                ColorSpace.TYPE_RGB) {
-                colorConverter = new TIFFCIELabColorConverter();
-             } else if (photometricInterpretation ==
-                        BaselineTIFFTagSet.PHOTOMETRIC_INTERPRETATION_Y_CB_CR &&
-                        !(this.decompressor instanceof TIFFYCbCrDecompressor) &&
-                        compression != BaselineTIFFTagSet.COMPRESSION_JPEG &&
-                        compression != BaselineTIFFTagSet.COMPRESSION_OLD_JPEG) {
-                 colorConverter = new TIFFYCbCrColorConverter(imageMetadata);
-            }
+            colorConverter = createColorConverter(imageMetadata, compression,
+                    photometricInterpretation, theImage.getColorModel(),
+                    this.decompressor);
         }
         
-        decompressor.setReader(this);
-        decompressor.setMetadata(imageMetadata);
-        decompressor.setImage(theImage);
-
-        decompressor.setPhotometricInterpretation(photometricInterpretation);
-        decompressor.setCompression(compression);
-        decompressor.setSamplesPerPixel(samplesPerPixel);
-        decompressor.setBitsPerSample(bitsPerSample);
-        decompressor.setSampleFormat(sampleFormat);
-        decompressor.setExtraSamples(extraSamples);
-        decompressor.setColorMap(colorMap);
+        configureDecompressor(decompressor, colorConverter);
 
-        decompressor.setColorConverter(colorConverter);
-
-        decompressor.setSourceXOffset(sourceXOffset);
-        decompressor.setSourceYOffset(sourceYOffset);
-        decompressor.setSubsampleX(srcXSubsampling);
-        decompressor.setSubsampleY(srcYSubsampling);
-
-        decompressor.setDstXOffset(dstXOffset);
-        decompressor.setDstYOffset(dstYOffset);
-
-        decompressor.setSourceBands(sourceBands);
-        decompressor.setDestinationBands(destinationBands);
+        this.tileCache = getTileCache(tileCache, hasUserDecompressor,
+                                      colorConverter);
 
         // Compute bounds on the tile indices for this source region.
         int minTileX =
@@ -1971,7 +2761,11 @@ public class TIFFImageReader extends ImageReader {
                                      0, tileOrStripHeight);
 
         boolean isAbortRequested = false;
-        if (planarConfiguration ==
+        if (decodingExecutor != null && !hasUserDecompressor &&
+            canDecodeInParallel(minTileX, minTileY, maxTileX, maxTileY)) {
+            isAbortRequested = decodeTilesInParallel(decodingExecutor,
+                    colorConverter, minTileX, minTileY, maxTileX, maxTileY);
+        } else if (planarConfiguration ==
             BaselineTIFFTagSet.PLANAR_CONFIGURATION_PLANAR) {
             
             decompressor.setPlanar(true);
@@ -2060,6 +2854,10 @@ public class TIFFImageReader extends ImageReader {
         tileOrStripWidth = -1;
         tileOrStripHeight = -1;
         planarConfiguration = BaselineTIFFTagSet.PLANAR_CONFIGURATION_CHUNKY;
+        cacheEntry = null;
+        inputFile = null;
+        tileCacheKey = null;
+        tileCache = null;
     }
 
     /**
@@ -103,7 +103,12 @@ import java.io.IOException;
 import java.nio.ByteOrder;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -238,6 +243,11 @@ public class TIFFImageWriter extends ImageWriter {
     TIFFCompressor compressor;
     TIFFColorConverter colorConverter;
 
+    // The executor used to compress strips or tiles in parallel, if any
+    ExecutorService encodingExecutor;
+    // Whether the compressor has been provided through the write param
+    boolean hasUserCompressor;
+
     TIFFStreamMetadata streamMetadata;
     TIFFImageMetadata imageMetadata;
 
@@ -286,9 +296,33 @@ public class TIFFImageWriter extends ImageWriter {
 
     int totalPixels;
     int pixelsDone;
+    int progressStep;
 
     long nextIFDPointerPos;
 
+    // Position of the pointer to the IFD being written
+    long ifdPointerPos;
+
+    // Positions of the strip or tile offsets and byte counts in the IFD
+    long stripOrTileOffsetsPosition;
+    long stripOrTileByteCountsPosition;
+
+    // Strip or tile offsets and byte counts, collected in memory when the
+    // IFD is written after the image data, null otherwise
+    long[] stripOrTileOffsets;
+    long[] stripOrTileByteCounts;
+
+    // Whether the image being written uses the cloud optimized layout, and
+    // how its strips or tiles are framed
+    boolean isCloudOptimized = false;
+    int tileDataAlignment;
+    boolean tileLeaderTrailer;
+
+    // Positions of the strip or tile offsets and byte counts in the IFD
+    // written ahead of the image data in the cloud optimized layout, null
+    // otherwise
+    long[] aheadIFDPositions;
+
     // Next available space.
     long nextSpace = 0L;
 
@@ -770,8 +804,10 @@ public class TIFFImageWriter extends ImageWriter {
 
         this.compressor = null;
         this.colorConverter = null;
+        this.encodingExecutor = null;
         if (param instanceof TIFFImageWriteParam) {
             TIFFImageWriteParam tparam = (TIFFImageWriteParam)param;
+            encodingExecutor = tparam.getEncodingExecutor();
             if(tparam.getCompressionMode() == tparam.MODE_EXPLICIT) {
                 compressor = tparam.getTIFFCompressor();
                 String compressionType = param.getCompressionType();
@@ -840,13 +876,28 @@ public class TIFFImageWriter extends ImageWriter {
             rootIFD.getTIFFField(BaselineTIFFTagSet.TAG_PREDICTOR);
 	if (predictorField != null) {
 	    this.predictor = predictorField.getAsInt(0);
-	    
-	    // We only support Horizontal Predictor for a bitDepth of 8
-	    if (sampleSize[0] != 8 || 
-		// Check the value of the tag for validity
-		(predictor != BaselineTIFFTagSet.PREDICTOR_NONE && 
-		 predictor != 
-		 BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING)) {
+
+	    // The predictors are supported for samples of the same size,
+	    // horizontal differencing for 8, 16 and 32 bit integers and
+	    // floating point for 16, 24, 32 and 64 bit floating point data.
+	    TIFFField sampleFormatField =
+	        rootIFD.getTIFFField(BaselineTIFFTagSet.TAG_SAMPLE_FORMAT);
+	    int dataType = sm.getDataType();
+	    int predictorSampleFormat = sampleFormatField != null ?
+	        sampleFormatField.getAsInt(0) :
+	        (dataType == DataBuffer.TYPE_FLOAT ||
+	         dataType == DataBuffer.TYPE_DOUBLE) ?
+	        BaselineTIFFTagSet.SAMPLE_FORMAT_FLOATING_POINT :
+	        BaselineTIFFTagSet.SAMPLE_FORMAT_UNDEFINED;
+	    boolean isPredictorSupported =
+	        TIFFPredictor.isSupported(predictor, sampleSize[0],
+	                                  predictorSampleFormat);
+	    for (int i = 1; i < sampleSize.length; i++) {
+	        if (sampleSize[i] != sampleSize[0]) {
+	            isPredictorSupported = false;
+	        }
+	    }
+	    if (!isPredictorSupported) {
 		// XXX processWarningOccured ???
 		// Set to default
 		predictor = BaselineTIFFTagSet.PREDICTOR_NONE;		
@@ -860,6 +911,8 @@ public class TIFFImageWriter extends ImageWriter {
 
 	    // XXX Do we need to ensure that predictor is not passed on if
 	    // the compression is not either Deflate or LZW?
+	} else {
+	    this.predictor = BaselineTIFFTagSet.PREDICTOR_NONE;
 	}
 
         TIFFField compressionField =
@@ -904,6 +957,7 @@ public class TIFFImageWriter extends ImageWriter {
         boolean isJPEGInterchange =
             isEXIF && compression == BaselineTIFFTagSet.COMPRESSION_OLD_JPEG;
 
+        hasUserCompressor = compressor != null;
         if (compressor == null) {
             if (compression == BaselineTIFFTagSet.COMPRESSION_CCITT_RLE) {
                 if(PackageUtil.isCodecLibAvailable()) {
@@ -2611,7 +2665,13 @@ public class TIFFImageWriter extends ImageWriter {
     public void write(IIOMetadata sm,
                       IIOImage iioimage,
                       ImageWriteParam p) throws IOException {
+	if (p instanceof TIFFImageWriteParam &&
+	    ((TIFFImageWriteParam)p).isCloudOptimized()) {
+	    writeCloudOptimized(sm, iioimage, (TIFFImageWriteParam)p);
+	    return;
+	}
 	write(sm, iioimage, p, true, true);
+	writeOverviews(p, 0L);
     }
     
     private void writeHeader() throws IOException {
@@ -2714,6 +2774,7 @@ public class TIFFImageWriter extends ImageWriter {
                 sourceBands = sBands;
                 this.numBands = sourceBands.length;
             } else {
+                this.sourceBands = null;
                 this.numBands = sampleModel.getNumBands();
             }
 
@@ -2744,7 +2805,7 @@ public class TIFFImageWriter extends ImageWriter {
         // this.bitDepth = 8; // XXX fix?
 
         clearAbortRequest();
-        int progressStep = 1;
+        this.progressStep = 1;
         processImageStarted(0);
 
         int[] sampleSize = sampleModel.getSampleSize();
@@ -2755,8 +2816,10 @@ public class TIFFImageWriter extends ImageWriter {
     	long sizeImage = (tot * this.sourceHeight * this.sourceWidth)/8;
     	long var = 4294967296L;
     	boolean isForceToBigTIFF = false;
+    	boolean isTrailingIFD = false;
     	if (p instanceof TIFFImageWriteParam){
     		isForceToBigTIFF = ((TIFFImageWriteParam)p).isForceToBigTIFF();
+    		isTrailingIFD = ((TIFFImageWriteParam)p).isTrailingIFD();
     	}
     	if (sizeImage > var || isForceToBigTIFF || isBtiff == true) 
     		isBtiff = true;
@@ -2783,21 +2846,27 @@ public class TIFFImageWriter extends ImageWriter {
 
             // Write the header.
 	    writeHeader();
+	    if (isCloudOptimized) {
+	        writeStructuralMetadata();
+	    }
 
 
 	    // 1) Seek to the position of the IFD pointer in the header.
  		// 2) Ensure IFD is written on a proper type boundary
 	    // 3) Write the pointer to the first IFD after the header.
   		if(!isBtiff) {
-  				stream.seek(headerPosition + 4);
+  				ifdPointerPos = headerPosition + 4;
+  				stream.seek(ifdPointerPos);
  				nextSpace = (nextSpace + 3) & ~0x3;
  				stream.writeInt((int)nextSpace);
  		
   		} else {
- 				stream.seek(headerPosition + 8);
+  				ifdPointerPos = headerPosition + 8;
+ 				stream.seek(ifdPointerPos);
  				nextSpace = (nextSpace + 7) & ~0x7;
  				stream.writeLong(nextSpace);
  		}
+	    stream.seek(nextSpace);
 	}
 
         // Write out the IFD and any sub IFDs, followed by a zero
@@ -2869,99 +2938,658 @@ public class TIFFImageWriter extends ImageWriter {
 
         TIFFIFD rootIFD = imageMetadata.getRootIFD();
 
-        rootIFD.writeToStream(stream,isBtiff);
-
-        this.nextIFDPointerPos = stream.getStreamPosition();
-        if (!isBtiff) {
-            stream.writeInt(0);
+        // Fields receiving the strip or tile offsets and byte counts
+        TIFFField offsetsField = rootIFD.getTIFFField(isTiled ?
+            BaselineTIFFTagSet.TAG_TILE_OFFSETS :
+            BaselineTIFFTagSet.TAG_STRIP_OFFSETS);
+        TIFFField byteCountsField = rootIFD.getTIFFField(isTiled ?
+            BaselineTIFFTagSet.TAG_TILE_BYTE_COUNTS :
+            BaselineTIFFTagSet.TAG_STRIP_BYTE_COUNTS);
+        this.stripOrTileOffsets = null;
+        this.stripOrTileByteCounts = null;
+
+        if (aheadIFDPositions != null && writeData &&
+            offsetsField != null && byteCountsField != null) {
+            // The IFD has already been written, collect the offsets and
+            // byte counts to fill them in after the image data
+            stripOrTileOffsets = (long[])offsetsField.getData();
+            stripOrTileByteCounts = (long[])byteCountsField.getData();
+            stream.seek(nextSpace);
+        } else if (isTrailingIFD && writeData &&
+            offsetsField != null && byteCountsField != null) {
+            // Collect the offsets and byte counts in the fields data, the
+            // IFD will be written after the image data
+            stripOrTileOffsets = (long[])offsetsField.getData();
+            stripOrTileByteCounts = (long[])byteCountsField.getData();
+            stream.seek(nextSpace);
         } else {
-            stream.writeLong(0);
-        }
+            rootIFD.writeToStream(stream,isBtiff);
 
-        // Seek to end of IFD data
-        long lastIFDPosition = rootIFD.getLastPosition();
-        stream.seek(lastIFDPosition);
-        if(lastIFDPosition > this.nextSpace) {
-            this.nextSpace = lastIFDPosition;
-        }
+            this.nextIFDPointerPos = stream.getStreamPosition();
+            if (!isBtiff) {
+                stream.writeInt(0);
+            } else {
+                stream.writeLong(0);
+            }
 
-        // If not writing the image data, i.e., if writing or inserting an
-        // empty image, return.
-        if(!writeData) {
-            return;
-        }
+            // Seek to end of IFD data
+            long lastIFDPosition = rootIFD.getLastPosition();
+            stream.seek(lastIFDPosition);
+            if(lastIFDPosition > this.nextSpace) {
+                this.nextSpace = lastIFDPosition;
+            }
 
-        // Get positions of fields within the IFD to update as we write
-        // each strip or tile
-        long stripOrTileByteCountsPosition =
-            rootIFD.getStripOrTileByteCountsPosition();
-        long stripOrTileOffsetsPosition =
-            rootIFD.getStripOrTileOffsetsPosition();
+            // Get positions of fields within the IFD to update as we write
+            // each strip or tile
+            this.stripOrTileByteCountsPosition =
+                rootIFD.getStripOrTileByteCountsPosition();
+            this.stripOrTileOffsetsPosition =
+                rootIFD.getStripOrTileOffsetsPosition();
+
+            // If not writing the image data, i.e., if writing or inserting an
+            // empty image, return.
+            if(!writeData) {
+                return;
+            }
+        }
 
         // Compute total number of pixels for progress notification
         this.totalPixels = tileWidth*tileLength*tilesDown*tilesAcross;
         this.pixelsDone = 0;
 
         // Write the image, a strip or tile at a time
-        for (int tj = 0; tj < tilesDown; tj++) {
-            for (int ti = 0; ti < tilesAcross; ti++) {
-                long pos = stream.getStreamPosition();
-
-                // Write the (possibly compressed) tile data
+        if (encodingExecutor != null && !hasUserCompressor &&
+            tilesDown*tilesAcross > 1 && canEncodeInParallel()) {
+            if (writeTilesInParallel(encodingExecutor)) {
+                processWriteAborted();
+                return;
+            }
+        } else {
+            // Strips or tiles to be framed are compressed in memory first
+            TIFFMemoryImageOutputStream tileData = null;
+            if (isCloudOptimized) {
+                tileData = new TIFFMemoryImageOutputStream(
+                        tileWidth*tileLength*numBands*((bitDepth + 7)/8));
+                tileData.setByteOrder(stream.getByteOrder());
+                compressor.setStream(tileData);
+            }
+            for (int tj = 0; tj < tilesDown; tj++) {
+                for (int ti = 0; ti < tilesAcross; ti++) {
+                    long pos = stream.getStreamPosition();
 
-                Rectangle tileRect =
-                    new Rectangle(sourceXOffset + ti*tileWidth*periodX,
-                                  sourceYOffset + tj*tileLength*periodY,
-                                  tileWidth*periodX,
-                                  tileLength*periodY);
-                // tileRect = tileRect.intersection(imageBounds); // XXX
+                    // Write the (possibly compressed) tile data
 
-                try {
-                    int byteCount = writeTile(tileRect, compressor);
+                    Rectangle tileRect = getTileRect(ti, tj);
 
-                    if(pos + byteCount > nextSpace) {
-                        nextSpace = pos + byteCount;
+                    try {
+                        if (tileData != null) {
+                            tileData.clear();
+                        }
+                        int byteCount = writeTile(tileRect, compressor);
+                        if (tileData != null) {
+                            pos = writeTileData(tileData);
+                        }
+                        tileWritten(tileRect, tj*tilesAcross + ti, pos,
+                                    byteCount);
+                    } catch (IOException e) {
+                        throw new IIOException("I/O error writing TIFF file!", e);
                     }
 
-                    pixelsDone += tileRect.width * tileRect.height;
-                    float currentProgress = 100.0F * pixelsDone / totalPixels;
-                    if (currentProgress > progressStep * PROGRESS_FACTOR_MULTIPLIER){
-                        processImageProgress(currentProgress);
-                        progressStep++;
+                    if (abortRequested()) {
+                        processWriteAborted();
+                        return;
                     }
+                }
+            }
+            if (tileData != null) {
+                compressor.setStream(stream);
+            }
+        }
+
+        if (stripOrTileOffsets != null) {
+            if (aheadIFDPositions != null) {
+                fillInAheadIFD();
+            } else {
+                writeTrailingIFD(rootIFD);
+            }
+        }
         
-                    // Fill in the offset and byte count for the file
-                    stream.mark();
-                    stream.seek(stripOrTileOffsetsPosition);
-                    
-                    if(!isBtiff){
-	                    stream.writeInt((int)pos);
-	                    stripOrTileOffsetsPosition += 4;
-	                    
-	                    stream.seek(stripOrTileByteCountsPosition);
-	                    stream.writeInt(byteCount);
-	                    stripOrTileByteCountsPosition += 4;
+        processImageComplete();
+    }
+
+    /**
+     * Writes the IFD, whose offsets and byte counts have been collected while
+     * writing the image data, at the next available space and updates the
+     * pointer to it.
+     */
+    private void writeTrailingIFD(TIFFIFD rootIFD) throws IOException {
+        try {
+            // Ensure the IFD is written on a proper type boundary
+            if (!isBtiff) {
+                nextSpace = (nextSpace + 3) & ~0x3;
+            } else {
+                nextSpace = (nextSpace + 7) & ~0x7;
+            }
+            long ifdPosition = nextSpace;
+            stream.seek(ifdPosition);
+            rootIFD.writeToStream(stream, isBtiff);
+
+            this.nextIFDPointerPos = stream.getStreamPosition();
+            if (!isBtiff) {
+                stream.writeInt(0);
+            } else {
+                stream.writeLong(0);
+            }
+
+            long lastIFDPosition = rootIFD.getLastPosition();
+            if(lastIFDPosition > this.nextSpace) {
+                this.nextSpace = lastIFDPosition;
+            }
+
+            // Point to the IFD and go back to the end of the IFD data
+            stream.seek(ifdPointerPos);
+            if (!isBtiff) {
+                stream.writeInt((int)ifdPosition);
+            } else {
+                stream.writeLong(ifdPosition);
+            }
+            stream.seek(lastIFDPosition);
+        } catch (IOException e) {
+            throw new IIOException("I/O error writing TIFF file!", e);
+        }
+    }
+
+    /**
+     * Writes the overviews requested by the write parameters of the image
+     * just written, each in a new IFD linked after the previous one. The
+     * IFD of the last overview is made to point to the provided IFD, which
+     * was following the image.
+     */
+    private void writeOverviews(ImageWriteParam p, long nextIFD)
+        throws IOException {
+        if (!(p instanceof TIFFImageWriteParam) || abortRequested()) {
+            return;
+        }
+        TIFFImageWriteParam tparam = (TIFFImageWriteParam)p;
+        if (tparam.getNumOverviews() <= 0) {
+            return;
+        }
+
+        TIFFImageWriteParam overviewParam = createOverviewParam(tparam);
+        for (IIOImage overview : createOverviews(tparam, overviewParam)) {
+            linkNextIFD();
+            write(null, overview, overviewParam, false, true);
+            if (abortRequested()) {
+                return;
+            }
+        }
+
+        if (nextIFD != 0) {
+            long pos = stream.getStreamPosition();
+            stream.seek(nextIFDPointerPos);
+            if (!isBtiff) {
+                stream.writeInt((int)nextIFD);
+            } else {
+                stream.writeLong(nextIFD);
+            }
+            stream.seek(pos);
+        }
+    }
+
+    /**
+     * Returns the overviews requested by the write parameters of the image
+     * just written, from the largest to the smallest one, together with
+     * their metadata. The overviews are computed while they are written.
+     */
+    private List<IIOImage> createOverviews(TIFFImageWriteParam tparam,
+                                           TIFFImageWriteParam overviewParam)
+        throws IOException {
+        List<IIOImage> overviews = new ArrayList<IIOImage>();
+
+        // The first overview reads the image as it has been written
+        int width = (sourceWidth + periodX - 1)/periodX;
+        int height = (sourceHeight + periodY - 1)/periodY;
+        TIFFOverviewImage overview = null;
+        for (int i = 0; i < tparam.getNumOverviews(); i++) {
+            if (width == 1 && height == 1) {
+                break;
+            }
+            if (overview == null) {
+                overview = new TIFFOverviewImage(
+                        image, sourceXOffset, sourceYOffset, periodX, periodY,
+                        sourceBands, width, height, imageType.getColorModel(),
+                        tparam.getOverviewResampling());
+            } else {
+                overview = new TIFFOverviewImage(
+                        overview, tparam.getOverviewResampling());
+            }
+            width = overview.getWidth();
+            height = overview.getHeight();
+
+            TIFFImageMetadata overviewMetadata = (TIFFImageMetadata)
+                getDefaultImageMetadata(new ImageTypeSpecifier(overview),
+                                        overviewParam);
+            TIFFTag newSubfileTypeTag = BaselineTIFFTagSet.getInstance()
+                .getTag(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE);
+            overviewMetadata.getRootIFD().addTIFFField(
+                new TIFFField(newSubfileTypeTag, TIFFTag.TIFF_LONG, 1,
+                    new long[] {
+                        BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION
+                    }));
+            overviews.add(new IIOImage(overview, null, overviewMetadata));
+        }
+        return overviews;
+    }
+
+    /**
+     * Points the IFD just written to the next available space, where the
+     * next IFD is going to be written.
+     */
+    private void linkNextIFD() throws IOException {
+        if (!isBtiff) {
+            nextSpace = (nextSpace + 3) & ~0x3;
+        } else {
+            nextSpace = (nextSpace + 7) & ~0x7;
+        }
+        ifdPointerPos = nextIFDPointerPos;
+        stream.seek(ifdPointerPos);
+        if (!isBtiff) {
+            stream.writeInt((int)nextSpace);
+        } else {
+            stream.writeLong(nextSpace);
+        }
+        stream.seek(nextSpace);
+    }
+
+    /**
+     * Writes an image and its overviews in the cloud optimized layout: the
+     * IFDs of all the levels are written first, with empty strip or tile
+     * offsets and byte counts, then the image data of each level, from the
+     * smallest overview to the full resolution image, filling in the IFDs.
+     */
+    private void writeCloudOptimized(IIOMetadata sm, IIOImage iioimage,
+                                     TIFFImageWriteParam p)
+        throws IOException {
+        this.isCloudOptimized = true;
+        this.tileDataAlignment = p.getTileDataAlignment();
+        this.tileLeaderTrailer = p.isTileLeaderTrailer();
+        try {
+            List<long[]> positions = new ArrayList<long[]>();
+            write(sm, iioimage, p, true, false);
+            positions.add(new long[] {stripOrTileOffsetsPosition,
+                                      stripOrTileByteCountsPosition});
+
+            TIFFImageWriteParam overviewParam = createOverviewParam(p);
+            overviewParam.setTrailingIFD(false);
+            List<IIOImage> overviews = createOverviews(p, overviewParam);
+            for (IIOImage overview : overviews) {
+                linkNextIFD();
+                write(null, overview, overviewParam, false, false);
+                positions.add(new long[] {stripOrTileOffsetsPosition,
+                                          stripOrTileByteCountsPosition});
+            }
+
+            for (int i = overviews.size(); i >= 0; i--) {
+                aheadIFDPositions = positions.get(i);
+                if (i > 0) {
+                    write(null, overviews.get(i - 1), overviewParam,
+                          false, true);
+                } else {
+                    write(null, iioimage, p, false, true);
+                }
+                if (abortRequested()) {
+                    return;
+                }
+            }
+        } finally {
+            this.isCloudOptimized = false;
+            this.aheadIFDPositions = null;
+        }
+    }
+
+    /**
+     * Writes at the next available space the GDAL structural metadata block
+     * describing the cloud optimized layout.
+     */
+    private void writeStructuralMetadata() throws IOException {
+        StringBuilder layout = new StringBuilder();
+        layout.append("LAYOUT=IFDS_BEFORE_DATA\n");
+        layout.append("BLOCK_ORDER=ROW_MAJOR\n");
+        if (tileLeaderTrailer) {
+            layout.append("BLOCK_LEADER=SIZE_AS_UINT4\n");
+            layout.append("BLOCK_TRAILER=LAST_4_BYTES_REPEATED\n");
+        }
+        layout.append("KNOWN_INCOMPATIBLE_EDITION=NO\n ");
+        String size = String.valueOf(layout.length());
+        while (size.length() < 6) {
+            size = "0" + size;
+        }
+        String block = "GDAL_STRUCTURAL_METADATA_SIZE=" + size + " bytes\n" +
+            layout;
+        stream.seek(nextSpace);
+        stream.write(block.getBytes("US-ASCII"));
+        nextSpace = stream.getStreamPosition();
+    }
+
+    /**
+     * Writes the data of a strip or tile compressed in memory at the current
+     * position, aligning and framing it as required by the cloud optimized
+     * layout.
+     *
+     * @return the position of the data.
+     */
+    private long writeTileData(TIFFMemoryImageOutputStream data)
+        throws IOException {
+        if (!isCloudOptimized) {
+            long pos = stream.getStreamPosition();
+            data.writeTo(stream);
+            return pos;
+        }
+
+        long start = stream.getStreamPosition();
+        int leaderSize = tileLeaderTrailer ? 4 : 0;
+        long pos = start + leaderSize;
+        if (pos % tileDataAlignment != 0) {
+            pos += tileDataAlignment - pos % tileDataAlignment;
+        }
+        for (long i = start; i < pos - leaderSize; i++) {
+            stream.write(0);
+        }
+        int byteCount = (int)data.length();
+        if (tileLeaderTrailer) {
+            stream.write(byteCount & 0xff);
+            stream.write((byteCount >>> 8) & 0xff);
+            stream.write((byteCount >>> 16) & 0xff);
+            stream.write((byteCount >>> 24) & 0xff);
+        }
+        data.writeTo(stream);
+        if (tileLeaderTrailer) {
+            data.writeTailTo(stream, 4);
+        }
+        if (stream.getStreamPosition() > nextSpace) {
+            nextSpace = stream.getStreamPosition();
+        }
+        return pos;
+    }
+
+    /**
+     * Fills in the offsets and byte counts of the IFD written ahead of the
+     * image data, as collected while writing it.
+     */
+    private void fillInAheadIFD() throws IOException {
+        long pos = stream.getStreamPosition();
+        try {
+            stream.seek(aheadIFDPositions[0]);
+            for (int i = 0; i < stripOrTileOffsets.length; i++) {
+                if (!isBtiff) {
+                    stream.writeInt((int)stripOrTileOffsets[i]);
+                } else {
+                    stream.writeLong(stripOrTileOffsets[i]);
+                }
+            }
+            stream.seek(aheadIFDPositions[1]);
+            for (int i = 0; i < stripOrTileByteCounts.length; i++) {
+                if (!isBtiff) {
+                    stream.writeInt((int)stripOrTileByteCounts[i]);
+                } else {
+                    stream.writeLong(stripOrTileByteCounts[i]);
+                }
+            }
+        } catch (IOException e) {
+            throw new IIOException("I/O error writing TIFF file!", e);
+        }
+        stream.seek(pos);
+    }
+
+    /**
+     * Returns the parameters used to write the overviews of an image, which
+     * use the same tiling and compression of the image.
+     */
+    private TIFFImageWriteParam createOverviewParam(TIFFImageWriteParam p) {
+        TIFFImageWriteParam overviewParam =
+            new TIFFImageWriteParam(getLocale());
+        if (isTiled) {
+            overviewParam.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            overviewParam.setTiling(tileWidth, tileLength, 0, 0);
+        } else {
+            overviewParam.setTilingMode(ImageWriteParam.MODE_DISABLED);
+        }
+        overviewParam.setCompressionMode(p.getCompressionMode());
+        if (p.getCompressionMode() == ImageWriteParam.MODE_EXPLICIT) {
+            TIFFCompressor tiffCompressor = p.getTIFFCompressor();
+            if (tiffCompressor != null) {
+                overviewParam.setTIFFCompressor(tiffCompressor);
+            }
+            String compressionType = p.getCompressionType();
+            if (compressionType != null) {
+                overviewParam.setCompressionType(compressionType);
+                overviewParam.setCompressionQuality(
+                    p.getCompressionQuality());
+            }
+        }
+        if (p.getColorConverter() != null) {
+            overviewParam.setColorConverter(p.getColorConverter(),
+                                            p.getPhotometricInterpretation());
+        }
+        overviewParam.setEncodingExecutor(p.getEncodingExecutor());
+        overviewParam.setForceToBigTIFF(isBtiff);
+        overviewParam.setTrailingIFD(p.isTrailingIFD());
+        return overviewParam;
+    }
+
+    /**
+     * Returns the area of the source image to be written as the given strip
+     * or tile, which might be outside the image.
+     */
+    private Rectangle getTileRect(int ti, int tj) {
+        return new Rectangle(sourceXOffset + ti*tileWidth*periodX,
+                             sourceYOffset + tj*tileLength*periodY,
+                             tileWidth*periodX,
+                             tileLength*periodY);
+        // tileRect = tileRect.intersection(imageBounds); // XXX
+    }
+
+    /**
+     * Updates the progress and fills in the offset and byte count of a
+     * strip or tile which has just been written at the given position.
+     */
+    private void tileWritten(Rectangle tileRect, int tileIndex, long pos,
+                             int byteCount) throws IOException {
+        if(pos + byteCount > nextSpace) {
+            nextSpace = pos + byteCount;
+        }
+
+        pixelsDone += tileRect.width * tileRect.height;
+        float currentProgress = 100.0F * pixelsDone / totalPixels;
+        if (currentProgress > progressStep * PROGRESS_FACTOR_MULTIPLIER){
+            processImageProgress(currentProgress);
+            progressStep++;
+        }
+
+        if (stripOrTileOffsets != null) {
+            // The IFD will be written after the image data
+            stripOrTileOffsets[tileIndex] = pos;
+            stripOrTileByteCounts[tileIndex] = byteCount;
+            return;
+        }
+
+        // Fill in the offset and byte count for the file
+        stream.mark();
+        if(!isBtiff){
+            stream.seek(stripOrTileOffsetsPosition + 4L*tileIndex);
+            stream.writeInt((int)pos);
+            stream.seek(stripOrTileByteCountsPosition + 4L*tileIndex);
+            stream.writeInt(byteCount);
+        } else {
+            stream.seek(stripOrTileOffsetsPosition + 8L*tileIndex);
+            stream.writeLong(pos);
+            stream.seek(stripOrTileByteCountsPosition + 8L*tileIndex);
+            stream.writeLong(byteCount);
+        }
+        stream.reset();
+    }
+
+    /**
+     * Returns whether the current compressor can be replicated by
+     * {@link #createParallelCompressor()}.
+     */
+    private boolean canEncodeInParallel() {
+        if (colorConverter != null) {
+            return false;
+        }
+        Class<?> type = compressor.getClass();
+        return type == TIFFNullCompressor.class ||
+            type == TIFFLSBCompressor.class ||
+            type == TIFFPackBitsCompressor.class ||
+            type == TIFFLZWCompressor.class ||
+            type == TIFFDeflateCompressor.class ||
+            type == TIFFZLibCompressor.class;
+    }
+
+    /**
+     * Returns a new compressor equivalent to the current one, to be used by
+     * a parallel compression task, or <code>null</code> if the current
+     * compressor cannot be replicated.
+     */
+    private TIFFCompressor createParallelCompressor() {
+        Class<?> type = compressor.getClass();
+        if (type == TIFFNullCompressor.class) {
+            return new TIFFNullCompressor();
+        } else if (type == TIFFLSBCompressor.class) {
+            return new TIFFLSBCompressor();
+        } else if (type == TIFFPackBitsCompressor.class) {
+            return new TIFFPackBitsCompressor();
+        } else if (type == TIFFLZWCompressor.class) {
+            return new TIFFLZWCompressor(predictor);
+        } else if (type == TIFFDeflateCompressor.class) {
+            return new TIFFDeflateCompressor(param, predictor);
+        } else if (type == TIFFZLibCompressor.class) {
+            return new TIFFZLibCompressor(param, predictor);
+        }
+        return null;
+    }
+
+    /**
+     * A compressor writing into its own memory buffer, so that a strip or
+     * tile can be fetched and compressed by a task running on the encoding
+     * executor while the main thread writes the previous ones.
+     */
+    private final class TileEncoder implements Callable<Integer> {
+
+        final TIFFCompressor tileCompressor;
+
+        final TIFFMemoryImageOutputStream output;
+
+        Rectangle tileRect;
+
+        Future<Integer> result;
+
+        TileEncoder(TIFFCompressor tileCompressor) {
+            this.tileCompressor = tileCompressor;
+            this.output = new TIFFMemoryImageOutputStream(
+                    tileWidth*tileLength*numBands*((bitDepth + 7)/8));
+            output.setByteOrder(stream.getByteOrder());
+            tileCompressor.setWriter(TIFFImageWriter.this);
+            tileCompressor.setMetadata(imageMetadata);
+            tileCompressor.setStream(output);
+        }
+
+        public Integer call() throws Exception {
+            output.clear();
+            return Integer.valueOf(writeTile(tileRect, tileCompressor));
+        }
+
+        /**
+         * Waits for the compression to be completed, returning the byte
+         * count of the compressed data.
+         */
+        int waitForCompletion() throws IOException {
+            try {
+                return result.get().intValue();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IIOException("Interrupted while encoding", e);
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) {
+                    throw (IOException)cause;
+                } else if (cause instanceof RuntimeException) {
+                    throw (RuntimeException)cause;
+                } else if (cause instanceof Error) {
+                    throw (Error)cause;
+                }
+                throw new IIOException("Error while encoding", cause);
+            } finally {
+                result = null;
+            }
+        }
+    }
+
+    /**
+     * Writes all the strips or tiles fetching and compressing them on the
+     * provided executor. The compressed data is written to the stream in the
+     * same order used by the serial code path by the calling thread, hence
+     * the output is identical. At most twice as many strips or tiles as the
+     * available processors are held in memory at any time.
+     * 
+     * @return <code>true</code> if the write has been aborted.
+     */
+    private boolean writeTilesInParallel(ExecutorService executor)
+        throws IOException {
+        final int maxPending = 2 * Runtime.getRuntime().availableProcessors();
+        final LinkedList<TileEncoder> pending = new LinkedList<TileEncoder>();
+        final LinkedList<TileEncoder> available = new LinkedList<TileEncoder>();
+        final List<TileEncoder> created = new ArrayList<TileEncoder>();
+        try {
+            int submitted = 0;
+            int written = 0;
+            final int numTiles = tilesDown*tilesAcross;
+            while (submitted < numTiles || !pending.isEmpty()) {
+                // Keep the executor busy with the next strips or tiles
+                while (submitted < numTiles && pending.size() < maxPending) {
+                    TileEncoder encoder;
+                    if (available.isEmpty()) {
+                        encoder = new TileEncoder(createParallelCompressor());
+                        created.add(encoder);
                     } else {
-	                    stream.writeLong(pos);
-	                    stripOrTileOffsetsPosition += 8;
-	                    
-	                    stream.seek(stripOrTileByteCountsPosition);
-	                    stream.writeLong(byteCount);
-	                    stripOrTileByteCountsPosition += 8;
+                        encoder = available.removeFirst();
                     }
-                    stream.reset();
+                    encoder.tileRect = getTileRect(submitted % tilesAcross,
+                                                   submitted / tilesAcross);
+                    encoder.result = executor.submit(encoder);
+                    pending.add(encoder);
+                    submitted++;
+                }
+
+                // Write the first strip or tile in order
+                TileEncoder encoder = pending.removeFirst();
+                int byteCount = encoder.waitForCompletion();
+                try {
+                    long pos = writeTileData(encoder.output);
+                    tileWritten(encoder.tileRect, written++, pos, byteCount);
                 } catch (IOException e) {
                     throw new IIOException("I/O error writing TIFF file!", e);
                 }
+                available.add(encoder);
 
                 if (abortRequested()) {
-                    processWriteAborted();
-                    return;
+                    return true;
                 }
             }
+        } finally {
+            // Never leave running tasks using the compressors
+            for (TileEncoder encoder : pending) {
+                try {
+                    encoder.result.get();
+                } catch (Exception e) {
+                    // Already failing, ignore
+                }
+            }
+            for (TileEncoder encoder : created) {
+                encoder.tileCompressor.dispose();
+            }
         }
-        
-        processImageComplete();
+        return false;
     }
 
     public boolean canWriteSequence() {
@@ -2998,7 +3626,7 @@ public class TIFFImageWriter extends ImageWriter {
                 ("prepareWriteSequence() has not been called!");
         }
 
-        // Append image.
+        // Append image, followed by its overviews if any.
 	writeInsert(-1, image, param);
     }
 
@@ -3181,6 +3809,7 @@ public class TIFFImageWriter extends ImageWriter {
 
         // Seek to the position containing the pointer to the old IFD.
 	stream.seek(ifdpos[0]);
+	ifdPointerPos = ifdpos[0];
 
         // Update next space pointer in anticipation of next write.
 		if (!isBtiff) {
@@ -3213,6 +3842,10 @@ public class TIFFImageWriter extends ImageWriter {
         // Update the new IFD to point to the old IFD.
 	stream.writeInt((int)ifd[0]);
         // Don't need to update nextSpace here as already done in write().
+
+        if (writeData) {
+            writeOverviews(param, ifd[0]);
+        }
     }
 
     // ----- BEGIN insert/writeEmpty methods -----
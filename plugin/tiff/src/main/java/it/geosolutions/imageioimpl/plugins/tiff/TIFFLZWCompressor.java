@@ -87,6 +87,7 @@ import com.sun.media.imageioimpl.common.LZWCompressor;
 public class TIFFLZWCompressor extends TIFFCompressor {
 
     int predictor;
+    TIFFPredictor rowPredictor;
 
     public TIFFLZWCompressor(int predictorValue) {
         super("LZW", BaselineTIFFTagSet.COMPRESSION_LZW, true);
@@ -114,7 +115,14 @@ public class TIFFLZWCompressor extends TIFFCompressor {
         long initialStreamPosition = stream.getStreamPosition();
 
         boolean usePredictor =
-            predictor == BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING;
+            predictor == BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING ||
+            predictor == BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT;
+        if(usePredictor) {
+            if(rowPredictor == null) {
+                rowPredictor = new TIFFPredictor(predictor);
+            }
+            rowPredictor.checkBitsPerSample(bitsPerSample);
+        }
 
         if(bytesPerRow == scanlineStride && !usePredictor) {
             lzwCompressor.compress(b, off, bytesPerRow*height);
@@ -123,11 +131,11 @@ public class TIFFLZWCompressor extends TIFFCompressor {
             for(int i = 0; i < height; i++) {
                 if(usePredictor) {
                     // Cannot modify b[] in place as it might be a data
-                    // array from the image being written so make a copy.
-                    System.arraycopy(b, off, rowBuf, 0, bytesPerRow);
-                    for(int j = bytesPerRow - 1; j >= samplesPerPixel; j--) {
-                        rowBuf[j] -= rowBuf[j - samplesPerPixel];
-                    }
+                    // array from the image being written so encode into
+                    // a copy.
+                    rowPredictor.encodeRow(b, off, rowBuf, width,
+                                           samplesPerPixel, bitsPerSample[0],
+                                           stream.getByteOrder());
                     lzwCompressor.compress(rowBuf, 0, bytesPerRow);
                 } else {
                     lzwCompressor.compress(b, off, bytesPerRow);
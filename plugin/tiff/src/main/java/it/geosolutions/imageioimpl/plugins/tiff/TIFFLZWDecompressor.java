@@ -73,13 +73,11 @@
  */
 package it.geosolutions.imageioimpl.plugins.tiff;
 
-import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
 import it.geosolutions.imageio.plugins.tiff.TIFFTag;
 
 import java.awt.Rectangle;
 import java.io.IOException;
-import java.nio.ByteOrder;
 import javax.imageio.IIOException;
 import javax.imageio.ImageReader;
 
@@ -95,7 +93,7 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
 	4095
     };
 
-    int predictor;
+    final TIFFPredictor predictor;
 
     byte[] srcData;
     byte[] dstData;
@@ -103,27 +101,37 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
     int srcIndex;
     int dstIndex;
 
-    byte stringTable[][];
+    // number of valid bytes in srcData
+    int srcLimit;
+
+    // The string table. Each string is stored as the code of its prefix
+    // string plus a suffix byte, along with its length and first byte, so
+    // that no allocation is needed while decoding.
+    final int[] prefix = new int[4096];
+    final byte[] suffix = new byte[4096];
+    final byte[] first = new byte[4096];
+    final int[] length = new int[4096];
+
     int tableIndex, bitsToGet = 9;
 
     int nextData = 0;
     int nextBits = 0;
 
+    // buffers reused across strips and tiles
+    private byte[] compressedBuffer;
+    private byte[] rowBuffer;
+
     public TIFFLZWDecompressor(int predictor) throws IIOException {
         super();
 
-        if (predictor != BaselineTIFFTagSet.PREDICTOR_NONE && 
-            predictor != 
-            BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
-            throw new IIOException("Illegal value for Predictor in " +
-                                   "TIFF file");
-        }
+        this.predictor = new TIFFPredictor(predictor);
 
-        if(DEBUG) {
-            System.out.println("Using horizontal differencing predictor");
+        for (int i = 0; i < 256; i++) {
+            prefix[i] = -1;
+            suffix[i] = (byte)i;
+            first[i] = (byte)i;
+            length[i] = 1;
         }
-
-        this.predictor = predictor;
     }
 
     public void decodeRaw(byte[] b,
@@ -132,31 +140,15 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
                           int scanlineStride) throws IOException {
 
         // Check bitsPerSample.
-        if (predictor == 
-            BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
-            int len = bitsPerSample.length;
-            final int bps=bitsPerSample[0];
-            if (bps != 8 && bps != 16) {
-                throw new IIOException
-                    (bps + "-bit samples "+
-                     "are not supported for Horizontal "+
-                     "differencing Predictor");
-            }
-            for(int i=1;i<len;i++) {
-                if(bitsPerSample[i]!=bps) {
-                    throw new IIOException
-                        ("Varying sample width is not "+
-                         "supported for Horizontal "+
-                         "differencing Predictor (first: "+
-                         bps+", unexpected:"+bitsPerSample[i]+")");
-                }
-            }
-        }
+        predictor.checkBitsPerSample(bitsPerSample);
 
         stream.seek(offset);
 
-        byte[] sdata = new byte[byteCount];
-        stream.readFully(sdata);
+        if (compressedBuffer == null || compressedBuffer.length < byteCount) {
+            compressedBuffer = new byte[byteCount];
+        }
+        byte[] sdata = compressedBuffer;
+        stream.readFully(sdata, 0, byteCount);
 
         int bytesPerRow = (srcWidth*bitsPerPixel + 7)/8;
         byte[] buf;
@@ -165,11 +157,15 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
             buf = b;
             bufOffset = dstOffset;
         } else {
-            buf = new byte[bytesPerRow*srcHeight];
+            if (rowBuffer == null ||
+                rowBuffer.length != bytesPerRow*srcHeight) {
+                rowBuffer = new byte[bytesPerRow*srcHeight];
+            }
+            buf = rowBuffer;
             bufOffset = 0;
         }
 
-        int numBytesDecoded = decode(sdata, 0, buf, bufOffset);
+        int numBytesDecoded = decode(sdata, 0, byteCount, buf, bufOffset);
 
         if(bytesPerRow != scanlineStride) {
             if(DEBUG) {
@@ -187,7 +183,14 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
     public int decode(byte[] sdata, int srcOffset,
                       byte[] ddata, int dstOffset)
         throws IOException {
-        if (sdata[0] == (byte)0x00 && sdata[1] == (byte)0x01) {
+        return decode(sdata, srcOffset, sdata.length - srcOffset, ddata, dstOffset);
+    }
+
+    private int decode(byte[] sdata, int srcOffset, int srcLength,
+                       byte[] ddata, int dstOffset)
+        throws IOException {
+        if (sdata[srcOffset] == (byte)0x00 &&
+            sdata[srcOffset + 1] == (byte)0x01) {
             throw new IIOException
                 ("TIFF 5.0-style LZW compression is not supported!");
         }
@@ -196,83 +199,51 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
         this.dstData = ddata;
 
         this.srcIndex = srcOffset;
+        this.srcLimit = srcOffset + srcLength;
         this.dstIndex = dstOffset;
 
-	this.nextData = 0;
-	this.nextBits = 0;
+        this.nextData = 0;
+        this.nextBits = 0;
 
         initializeStringTable();
 
-	int code, oldCode = 0;
-	byte[] string;
-
-	while ((code = getNextCode()) != 257) {
-	    if (code == 256) {
-		initializeStringTable();
-		code = getNextCode();
-		if (code == 257) {
-		    break;
-		}
-
-		writeString(stringTable[code]);
-		oldCode = code;
-	    } else {
-		if (code < tableIndex) {
-		    string = stringTable[code];
-
-		    writeString(string);
-		    addStringToTable(stringTable[oldCode], string[0]); 
-		    oldCode = code;
-		} else {
-		    string = stringTable[oldCode];
-		    string = composeString(string, string[0]);
-		    writeString(string);
-		    addStringToTable(string);
-		    oldCode = code;
-		}
-	    }
-	}
-
-        if (predictor == BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING) {
-            if(bitsPerSample[0]==8) {
-                for (int j = 0; j < srcHeight; j++) {
-                    int count = dstOffset + samplesPerPixel * (j * srcWidth + 1);
-                    for (int i = samplesPerPixel; i < srcWidth * samplesPerPixel; i++) {
-                        dstData[count] += dstData[count - samplesPerPixel];
-                        count++;
-                    }
-                }
-            }
-            else if(bitsPerSample[0]==16) {
-                if(stream.getByteOrder()==ByteOrder.LITTLE_ENDIAN) {
-                    for (int j = 0; j < srcHeight; j++) {
-                        int count = dstOffset + samplesPerPixel * (j * srcWidth + 1) * 2;
-                        for (int i = samplesPerPixel; i < srcWidth * samplesPerPixel; i++) {
-                            int curr=(((int)dstData[count]) & 0xFF) + (dstData[count+1]<<8);
-                            int prev=(((int)dstData[count-samplesPerPixel*2]) & 0xFF)+(dstData[count+1-samplesPerPixel*2]<<8);
-                            curr+=prev;
-                            dstData[count]=(byte)curr;
-                            dstData[count+1]=(byte)(curr>>8);
-                            count+=2;
-                        }
-                    }
+        int code, oldCode = 0;
+
+        while ((code = getNextCode()) != 257) {
+            if (code == 256) {
+                initializeStringTable();
+                code = getNextCode();
+                if (code == 257) {
+                    break;
                 }
-                else
-                {
-                    for (int j = 0; j < srcHeight; j++) {
-                        int count = dstOffset + samplesPerPixel * (j * srcWidth + 1) * 2;
-                        for (int i = samplesPerPixel; i < srcWidth * samplesPerPixel; i++) {
-                            int curr=(((int)dstData[count+1]) & 0xFF) + (dstData[count]<<8);
-                            int prev=(((int)dstData[count+1-samplesPerPixel*2]) & 0xFF)+(dstData[count-samplesPerPixel*2]<<8);
-                            curr+=prev;
-                            dstData[count+1]=(byte)curr;
-                            dstData[count]=(byte)(curr>>8);
-                            count+=2;
-                        }
+
+                writeString(code);
+                oldCode = code;
+            } else {
+                if (code < tableIndex) {
+                    writeString(code);
+                    addStringToTable(oldCode, first[code]);
+                    oldCode = code;
+                } else {
+                    // The code is being defined right now: it is the
+                    // previous string followed by its own first byte.
+                    // Write it directly, as it may not fit in a full table
+                    final byte firstByte = first[oldCode];
+                    writeString(oldCode);
+                    if (dstIndex < dstData.length) {
+                        dstData[dstIndex++] = firstByte;
                     }
+                    addStringToTable(oldCode, firstByte);
+                    oldCode = code;
                 }
             }
-            else throw new IIOException("Unexpected branch of Horizontal differencing Predictor, bps="+bitsPerSample[0]);
+        }
+
+        if (predictor.isActive()) {
+            int bytesPerRow = (srcWidth*samplesPerPixel*bitsPerSample[0] + 7)/8;
+            predictor.decode(dstData, dstOffset, srcWidth, srcHeight,
+                             bytesPerRow, samplesPerPixel, bitsPerSample[0],
+                             stream.getByteOrder());
         }
 
         return dstIndex - dstOffset;
@@ -282,105 +253,138 @@ public class TIFFLZWDecompressor extends TIFFDecompressor {
      * Initialize the string table.
      */
     public void initializeStringTable() {
-	stringTable = new byte[4096][];
-	
-	for (int i = 0; i < 256; i++) {
-	    stringTable[i] = new byte[1];
-	    stringTable[i][0] = (byte)i;
-	}
+        // The 256 single byte strings never change
+        tableIndex = 258;
+        bitsToGet = 9;
+    }
+
+    /**
+     * Write out the string just uncompressed. Strings are stored backwards
+     * in the table, hence they are written from their last byte.
+     */
+    private void writeString(int code) {
+        final int dstLimit = dstData.length;
+        if(dstIndex >= dstLimit) {
+            return;
+        }
+
+        int end = dstIndex + length[code];
+        int i = end - 1;
+
+        // Skip the bytes which do not fit in the destination
+        while (i >= dstLimit) {
+            code = prefix[code];
+            i--;
+        }
+        while (i >= dstIndex) {
+            dstData[i--] = suffix[code];
+            code = prefix[code];
+        }
+        dstIndex = Math.min(end, dstLimit);
+    }
+    
+    /**
+     * Add a new string to the string table, made of the string having code
+     * <code>oldCode</code> followed by <code>newByte</code>.
+     */
+    private void addStringToTable(int oldCode, byte newByte) {
+        if (tableIndex >= 4096) {
+            return;
+        }
+        prefix[tableIndex] = oldCode;
+        suffix[tableIndex] = newByte;
+        first[tableIndex] = first[oldCode];
+        length[tableIndex] = length[oldCode] + 1;
+        tableIndex++;
 	
-	tableIndex = 258;
-	bitsToGet = 9;
+        if (tableIndex == 511) {
+            bitsToGet = 10;
+        } else if (tableIndex == 1023) {
+            bitsToGet = 11;
+        } else if (tableIndex == 2047) {
+            bitsToGet = 12;
+        } 
     }
 
     /**
      * Write out the string just uncompressed.
+     *
+     * @deprecated strings are no longer decoded as byte arrays, this method
+     *             is not used by the decoder and will be removed.
      */
     public void writeString(byte string[]) {
         if(dstIndex < dstData.length) {
             int maxIndex = Math.min(string.length,
-				    dstData.length - dstIndex);
+                                    dstData.length - dstIndex);
 
             for (int i=0; i < maxIndex; i++) {
                 dstData[dstIndex++] = string[i];
             }
         }
     }
-    
+
     /**
      * Add a new string to the string table.
+     *
+     * @deprecated the string table no longer holds byte arrays.
+     * @throws UnsupportedOperationException always.
      */
     public void addStringToTable(byte oldString[], byte newString) {
-	int length = oldString.length;
-	byte string[] = new byte[length + 1];
-	System.arraycopy(oldString, 0, string, 0, length);
-	string[length] = newString;
-	
-	// Add this new String to the table
-	stringTable[tableIndex++] = string;
-	
-	if (tableIndex == 511) {
-	    bitsToGet = 10;
-	} else if (tableIndex == 1023) {
-	    bitsToGet = 11;
-	} else if (tableIndex == 2047) {
-	    bitsToGet = 12;
-	} 
+        throw new UnsupportedOperationException(
+                "The string table no longer holds byte arrays");
     }
 
     /**
      * Add a new string to the string table.
+     *
+     * @deprecated the string table no longer holds byte arrays.
+     * @throws UnsupportedOperationException always.
      */
     public void addStringToTable(byte string[]) {
-	// Add this new String to the table
-	stringTable[tableIndex++] = string;
-	
-	if (tableIndex == 511) {
-	    bitsToGet = 10;
-	} else if (tableIndex == 1023) {
-	    bitsToGet = 11;
-	} else if (tableIndex == 2047) {
-	    bitsToGet = 12;
-	} 
+        throw new UnsupportedOperationException(
+                "The string table no longer holds byte arrays");
     }
 
     /**
      * Append <code>newString</code> to the end of <code>oldString</code>.
+     *
+     * @deprecated strings are no longer decoded as byte arrays, this method
+     *             is not used by the decoder and will be removed.
      */
     public byte[] composeString(byte oldString[], byte newString) {
-	int length = oldString.length;
-	byte string[] = new byte[length + 1];
-	System.arraycopy(oldString, 0, string, 0, length);
-	string[length] = newString;
+        int length = oldString.length;
+        byte string[] = new byte[length + 1];
+        System.arraycopy(oldString, 0, string, 0, length);
+        string[length] = newString;
 
-	return string;
+        return string;
     }
 
     // Returns the next 9, 10, 11 or 12 bits
     public int getNextCode() {
-        // Attempt to get the next code. The exception is caught to make
-        // this robust to cases wherein the EndOfInformation code has been
-        // omitted from a strip. Examples of such cases have been observed
-        // in practice.
+        // Attempt to get the next code. Running out of data is handled
+        // to make this robust to cases wherein the EndOfInformation code
+        // has been omitted from a strip. Examples of such cases have been
+        // observed in practice.
+        if (srcIndex >= srcLimit) {
+            // Strip not terminated as expected: return EndOfInformation code.
+            return 257;
+        }
+        nextData = (nextData << 8) | (srcData[srcIndex++] & 0xff);
+        nextBits += 8;
 
-        try {
+        if (nextBits < bitsToGet) {
+            if (srcIndex >= srcLimit) {
+                return 257;
+            }
             nextData = (nextData << 8) | (srcData[srcIndex++] & 0xff);
             nextBits += 8;
+        }
 
-            if (nextBits < bitsToGet) {
-                nextData = (nextData << 8) | (srcData[srcIndex++] & 0xff);
-                nextBits += 8;
-            }
-
-            int code =
-                (nextData >> (nextBits - bitsToGet)) & andTable[bitsToGet - 9];
-            nextBits -= bitsToGet;
+        int code =
+            (nextData >> (nextBits - bitsToGet)) & andTable[bitsToGet - 9];
+        nextBits -= bitsToGet;
 
-            return code;
-        } catch (ArrayIndexOutOfBoundsException e) {
-            // Strip not terminated as expected: return EndOfInformation code.
-            return 257;
-        }
+        return code;
     }
 }
-
@@ -0,0 +1,134 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import java.io.IOException;
+
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.ImageOutputStreamImpl;
+
+/**
+ * An {@link ImageOutputStream} collecting the written bytes in a growable
+ * array, used to compress a strip or tile away from the actual output
+ * stream. The stream can be reused by means of {@link #clear()}.
+ */
+final class TIFFMemoryImageOutputStream extends ImageOutputStreamImpl {
+
+    private byte[] buffer;
+
+    /** The number of valid bytes in the buffer. */
+    private int length = 0;
+
+    TIFFMemoryImageOutputStream(int initialSize) {
+        this.buffer = new byte[Math.max(initialSize, 16)];
+    }
+
+    public int read() throws IOException {
+        checkClosed();
+        bitOffset = 0;
+        if (streamPos >= length) {
+            return -1;
+        }
+        return buffer[(int) streamPos++] & 0xff;
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        bitOffset = 0;
+        if (len == 0) {
+            return 0;
+        }
+        if (streamPos >= length) {
+            return -1;
+        }
+        int n = Math.min(len, (int) (length - streamPos));
+        System.arraycopy(buffer, (int) streamPos, b, off, n);
+        streamPos += n;
+        return n;
+    }
+
+    public void write(int b) throws IOException {
+        checkClosed();
+        flushBits();
+        ensureCapacity(streamPos + 1);
+        buffer[(int) streamPos++] = (byte) b;
+        if (streamPos > length) {
+            length = (int) streamPos;
+        }
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+        checkClosed();
+        if (off < 0 || len < 0 || off + len > b.length) {
+            throw new IndexOutOfBoundsException();
+        }
+        flushBits();
+        ensureCapacity(streamPos + len);
+        System.arraycopy(b, off, buffer, (int) streamPos, len);
+        streamPos += len;
+        if (streamPos > length) {
+            length = (int) streamPos;
+        }
+    }
+
+    private void ensureCapacity(long capacity) throws IOException {
+        if (capacity > Integer.MAX_VALUE) {
+            throw new IOException("Strip or tile too large to be buffered");
+        }
+        if (capacity > buffer.length) {
+            long newSize = Math.max(capacity, 2L * buffer.length);
+            byte[] newBuffer = new byte[(int) Math.min(newSize, Integer.MAX_VALUE)];
+            System.arraycopy(buffer, 0, newBuffer, 0, length);
+            buffer = newBuffer;
+        }
+    }
+
+    public long length() {
+        return length;
+    }
+
+    /**
+     * Discards the written bytes, keeping the allocated buffer.
+     */
+    void clear() throws IOException {
+        length = 0;
+        flushedPos = 0;
+        seek(0);
+    }
+
+    /**
+     * Writes all the collected bytes to the provided stream.
+     */
+    void writeTo(ImageOutputStream out) throws IOException {
+        out.write(buffer, 0, length);
+    }
+
+    /**
+     * Writes the last collected bytes to the provided stream, preceded by
+     * zeros if less than <code>count</code> bytes have been collected.
+     */
+    void writeTailTo(ImageOutputStream out, int count) throws IOException {
+        int n = Math.min(count, length);
+        for (int i = n; i < count; i++) {
+            out.write(0);
+        }
+        out.write(buffer, length - n, n);
+    }
+}
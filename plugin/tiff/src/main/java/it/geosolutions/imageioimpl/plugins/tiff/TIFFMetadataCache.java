@@ -0,0 +1,304 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A process wide cache of the parsed TIFF headers and IFDs, shared by all the
+ * {@link TIFFImageReader} instances reading from a
+ * {@link it.geosolutions.imageio.stream.input.FileImageInputStreamExt}.
+ * 
+ * <p>
+ * Files are identified by their canonical path, length and last modification
+ * time, so a file being rewritten is parsed again. The cache holds at most
+ * {@link #getMaxEntries()} files, evicting the least recently used ones. It
+ * is disabled by default, it can be enabled by means of
+ * {@link #setMaxEntries(int)} or through the {@link #MAX_ENTRIES_KEY} system
+ * property.
+ * 
+ * <p>
+ * The cache is bypassed when the <code>it.geosolutions.imageio.tiff.lazy</code>
+ * lazy loading of tile offsets is enabled, since the parsed IFDs would then
+ * keep references to the stream of the reader which parsed them.
+ */
+public final class TIFFMetadataCache {
+
+    /** System property setting the initial maximum number of cached files */
+    public static final String MAX_ENTRIES_KEY = "it.geosolutions.imageio.tiff.metadataCache.maxEntries";
+
+    private static final TIFFMetadataCache INSTANCE = new TIFFMetadataCache(Integer.getInteger(
+            MAX_ENTRIES_KEY, 0));
+
+    /**
+     * The identity of a file as seen by the cache, together with the reading
+     * options affecting the parsed metadata.
+     */
+    static final class FileKey {
+
+        private final String path;
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final boolean ignoreMetadata;
+
+        private final List<?> tagSets;
+
+        FileKey(File file, boolean ignoreMetadata, List<?> tagSets) throws IOException {
+            this.path = file.getCanonicalPath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+            this.ignoreMetadata = ignoreMetadata;
+            this.tagSets = new ArrayList<Object>(tagSets);
+        }
+
+        /**
+         * @return <code>true</code> if metadata parsed with the given tag sets
+         *         can be shared through this key.
+         */
+        boolean matches(List<?> tagSets) {
+            return this.tagSets.equals(tagSets);
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + path.hashCode();
+            result = prime * result + (int) (length ^ (length >>> 32));
+            result = prime * result + (int) (lastModified ^ (lastModified >>> 32));
+            result = prime * result + (ignoreMetadata ? 1231 : 1237);
+            result = prime * result + tagSets.hashCode();
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof FileKey))
+                return false;
+            FileKey other = (FileKey) obj;
+            return path.equals(other.path) && length == other.length
+                    && lastModified == other.lastModified
+                    && ignoreMetadata == other.ignoreMetadata && tagSets.equals(other.tagSets);
+        }
+
+        @Override
+        public String toString() {
+            return "FileKey [path=" + path + ", length=" + length + ", lastModified="
+                    + lastModified + ", ignoreMetadata=" + ignoreMetadata + "]";
+        }
+    }
+
+    /**
+     * The parsed structure of a single file. Instances are shared among
+     * readers, hence all the accessors are synchronized.
+     */
+    static final class FileEntry {
+
+        private final FileKey key;
+
+        private long[] imageStartPositions = new long[0];
+
+        private int numImages = -1;
+
+        private final Map<Integer, TIFFImageReader.PageInfo> pages = new HashMap<Integer, TIFFImageReader.PageInfo>();
+
+        private FileEntry(FileKey key) {
+            this.key = key;
+        }
+
+        FileKey getKey() {
+            return key;
+        }
+
+        synchronized long[] getImageStartPositions() {
+            return imageStartPositions;
+        }
+
+        /**
+         * Records the known IFD positions, unless a longer chain is already
+         * known.
+         */
+        synchronized void setImageStartPositions(List<Long> positions) {
+            if (positions.size() > imageStartPositions.length) {
+                long[] newPositions = new long[positions.size()];
+                for (int i = 0; i < newPositions.length; i++) {
+                    newPositions[i] = positions.get(i);
+                }
+                this.imageStartPositions = newPositions;
+            }
+        }
+
+        synchronized int getNumImages() {
+            return numImages;
+        }
+
+        synchronized void setNumImages(int numImages) {
+            this.numImages = numImages;
+        }
+
+        synchronized TIFFImageReader.PageInfo getPage(int imageIndex) {
+            return pages.get(imageIndex);
+        }
+
+        synchronized void putPage(int imageIndex, TIFFImageReader.PageInfo page) {
+            pages.put(imageIndex, page);
+        }
+    }
+
+    private final LinkedHashMap<FileKey, FileEntry> entries = new LinkedHashMap<FileKey, FileEntry>(
+            16, 0.75f, true);
+
+    private int maxEntries;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    private TIFFMetadataCache(int maxEntries) {
+        this.maxEntries = Math.max(0, maxEntries);
+    }
+
+    /**
+     * @return the process wide {@link TIFFMetadataCache}.
+     */
+    public static TIFFMetadataCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return <code>true</code> if the cache holds at least one file.
+     */
+    public synchronized boolean isEnabled() {
+        return maxEntries > 0 && !TIFFIFD.LAZY_LOADING;
+    }
+
+    /**
+     * @return the maximum number of files whose metadata is cached.
+     */
+    public synchronized int getMaxEntries() {
+        return maxEntries;
+    }
+
+    /**
+     * Sets the maximum number of files whose metadata is cached, evicting the
+     * least recently used ones if needed. A value of 0 disables the cache.
+     */
+    public synchronized void setMaxEntries(int maxEntries) {
+        if (maxEntries < 0) {
+            throw new IllegalArgumentException("maxEntries < 0!");
+        }
+        this.maxEntries = maxEntries;
+        evictExceeding();
+    }
+
+    /**
+     * Returns the entry for the file identified by the given key, creating it
+     * if needed, or <code>null</code> if the cache is disabled.
+     */
+    synchronized FileEntry getEntry(FileKey key) {
+        if (!isEnabled()) {
+            return null;
+        }
+        FileEntry entry = entries.get(key);
+        if (entry == null) {
+            entry = new FileEntry(key);
+            entries.put(key, entry);
+            evictExceeding();
+        }
+        return entry;
+    }
+
+    private void evictExceeding() {
+        while (entries.size() > maxEntries) {
+            entries.remove(entries.keySet().iterator().next());
+            evictions++;
+        }
+    }
+
+    synchronized void recordHit() {
+        hits++;
+    }
+
+    synchronized void recordMiss() {
+        misses++;
+    }
+
+    /**
+     * @return the number of IFDs retrieved from the cache instead of being
+     *         parsed.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of IFDs which had to be parsed since they were not
+     *         cached.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of files evicted from the cache.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of files currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Removes all the cached files.
+     */
+    public synchronized void clear() {
+        entries.clear();
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TIFFMetadataCache [maxEntries=" + maxEntries + ", size=" + entries.size()
+                + ", hits=" + hits + ", misses=" + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -75,6 +75,7 @@ package it.geosolutions.imageioimpl.plugins.tiff;
 
 import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
 
+import java.io.EOFException;
 import java.io.IOException;
 
 
@@ -239,4 +240,126 @@ public class TIFFNullDecompressor extends TIFFDecompressor {
             }
         }
     }
+
+    //
+    // The uncompressed data of 16, 32 and 64 bit samples is read straight
+    // into the destination arrays by means of the primitive readFully
+    // methods of the stream, which honour its byte order, instead of going
+    // through a temporary byte array converted sample by sample.
+    //
+
+    public void decodeRaw(short[] s,
+                          int dstOffset,
+                          int bitsPerPixel,
+                          int scanlineStride) throws IOException {
+        if(bitsPerPixel % 16 != 0) {
+            super.decodeRaw(s, dstOffset, bitsPerPixel, scanlineStride);
+            return;
+        }
+        int shortsPerRow = srcWidth*bitsPerPixel/16;
+        try {
+            if(!isReadActiveOnly && shortsPerRow == scanlineStride) {
+                stream.seek(offset);
+                stream.readFully(s, dstOffset, shortsPerRow*srcHeight);
+            } else {
+                for (int y = 0; y < srcHeight; y++) {
+                    stream.seek(getRowPosition(y, bitsPerPixel));
+                    stream.readFully(s, dstOffset, shortsPerRow);
+                    dstOffset += scanlineStride;
+                }
+            }
+        } catch(EOFException e) {
+            // Truncated data: keep what has been read, as decodeRaw(byte[]).
+        }
+    }
+
+    public void decodeRaw(int[] i,
+                          int dstOffset,
+                          int bitsPerPixel,
+                          int scanlineStride) throws IOException {
+        if(bitsPerPixel % 32 != 0) {
+            super.decodeRaw(i, dstOffset, bitsPerPixel, scanlineStride);
+            return;
+        }
+        int intsPerRow = srcWidth*bitsPerPixel/32;
+        try {
+            if(!isReadActiveOnly && intsPerRow == scanlineStride) {
+                stream.seek(offset);
+                stream.readFully(i, dstOffset, intsPerRow*srcHeight);
+            } else {
+                for (int y = 0; y < srcHeight; y++) {
+                    stream.seek(getRowPosition(y, bitsPerPixel));
+                    stream.readFully(i, dstOffset, intsPerRow);
+                    dstOffset += scanlineStride;
+                }
+            }
+        } catch(EOFException e) {
+            // Truncated data: keep what has been read, as decodeRaw(byte[]).
+        }
+    }
+
+    public void decodeRaw(float[] f,
+                          int dstOffset,
+                          int bitsPerPixel,
+                          int scanlineStride) throws IOException {
+        if(bitsPerPixel % 32 != 0) {
+            super.decodeRaw(f, dstOffset, bitsPerPixel, scanlineStride);
+            return;
+        }
+        int floatsPerRow = srcWidth*bitsPerPixel/32;
+        try {
+            if(!isReadActiveOnly && floatsPerRow == scanlineStride) {
+                stream.seek(offset);
+                stream.readFully(f, dstOffset, floatsPerRow*srcHeight);
+            } else {
+                for (int y = 0; y < srcHeight; y++) {
+                    stream.seek(getRowPosition(y, bitsPerPixel));
+                    stream.readFully(f, dstOffset, floatsPerRow);
+                    dstOffset += scanlineStride;
+                }
+            }
+        } catch(EOFException e) {
+            // Truncated data: keep what has been read, as decodeRaw(byte[]).
+        }
+    }
+
+    public void decodeRaw(double[] d,
+                          int dstOffset,
+                          int bitsPerPixel,
+                          int scanlineStride) throws IOException {
+        if(bitsPerPixel % 64 != 0) {
+            super.decodeRaw(d, dstOffset, bitsPerPixel, scanlineStride);
+            return;
+        }
+        int doublesPerRow = srcWidth*bitsPerPixel/64;
+        try {
+            if(!isReadActiveOnly && doublesPerRow == scanlineStride) {
+                stream.seek(offset);
+                stream.readFully(d, dstOffset, doublesPerRow*srcHeight);
+            } else {
+                for (int y = 0; y < srcHeight; y++) {
+                    stream.seek(getRowPosition(y, bitsPerPixel));
+                    stream.readFully(d, dstOffset, doublesPerRow);
+                    dstOffset += scanlineStride;
+                }
+            }
+        } catch(EOFException e) {
+            // Truncated data: keep what has been read, as decodeRaw(byte[]).
+        }
+    }
+
+    /**
+     * Returns the stream position of the first byte of row <code>y</code>
+     * of the region being decoded, which is the active region when
+     * <code>isReadActiveOnly</code> is set.
+     */
+    private long getRowPosition(int y, int bitsPerPixel) {
+        if(isReadActiveOnly) {
+            long totalBytesPerRow = (originalSrcWidth*bitsPerPixel + 7)/8;
+            return offset +
+                (activeSrcMinY - originalSrcMinY + y)*totalBytesPerRow +
+                ((activeSrcMinX - originalSrcMinX)*bitsPerPixel)/8;
+        }
+        return offset + y*(long)((srcWidth*bitsPerPixel + 7)/8);
+    }
 }
@@ -0,0 +1,265 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
+
+import java.awt.Point;
+import java.awt.Rectangle;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentSampleModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.IndexColorModel;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
+import java.awt.image.RenderedImage;
+import java.awt.image.SampleModel;
+import java.awt.image.WritableRaster;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import com.sun.media.imageioimpl.common.ImageUtil;
+import com.sun.media.imageioimpl.common.SimpleRenderedImage;
+
+/**
+ * A {@link RenderedImage} halving the resolution of a source image, whose
+ * tiles are computed on demand from the source tiles, so that a pyramid of
+ * overviews can be written tile by tile without holding any level in memory.
+ *
+ * <p>
+ * The first level reads a view of the source image, as selected by the
+ * source region, subsampling and bands of the write parameters, each
+ * further level reads the previous one. The most recently computed tiles
+ * are kept in a small LRU cache, large enough to hold the tiles shared by
+ * consecutive requests of the next level. Tiles can be computed by
+ * concurrent threads.
+ */
+@SuppressWarnings("unchecked") // raw getSources() of SimpleRenderedImage
+final class TIFFOverviewImage extends SimpleRenderedImage {
+
+    static final int TILE_SIZE = 256;
+
+    private final RenderedImage source;
+
+    /** Position in the source image of the first pixel of the view. */
+    private final int sourceXOffset;
+
+    private final int sourceYOffset;
+
+    /** Distance in the source image between two pixels of the view. */
+    private final int periodX;
+
+    private final int periodY;
+
+    /** Source bands of the view, <code>null</code> for all of them. */
+    private final int[] sourceBands;
+
+    /** Size of the view. */
+    private final int sourceWidth;
+
+    private final int sourceHeight;
+
+    private final int resampling;
+
+    private final boolean isFloatingPoint;
+
+    private final Map<Point, Raster> tiles;
+
+    /**
+     * Creates the first overview of a view of the provided image.
+     */
+    TIFFOverviewImage(RenderedImage source, int sourceXOffset,
+                      int sourceYOffset, int periodX, int periodY,
+                      int[] sourceBands, int sourceWidth, int sourceHeight,
+                      ColorModel colorModel, int resampling) {
+        this.source = source;
+        this.sourceXOffset = sourceXOffset;
+        this.sourceYOffset = sourceYOffset;
+        this.periodX = periodX;
+        this.periodY = periodY;
+        this.sourceBands = sourceBands;
+        this.sourceWidth = sourceWidth;
+        this.sourceHeight = sourceHeight;
+
+        this.minX = 0;
+        this.minY = 0;
+        this.width = (sourceWidth + 1)/2;
+        this.height = (sourceHeight + 1)/2;
+        this.tileGridXOffset = 0;
+        this.tileGridYOffset = 0;
+        this.tileWidth = Math.min(TILE_SIZE, width);
+        this.tileHeight = Math.min(TILE_SIZE, height);
+
+        SampleModel sm = source.getSampleModel();
+        if (sourceBands == null) {
+            this.sampleModel =
+                sm.createCompatibleSampleModel(tileWidth, tileHeight);
+            this.colorModel = colorModel;
+        } else {
+            int numBands = sourceBands.length;
+            if (sm instanceof ComponentSampleModel) {
+                int[] bandOffsets = new int[numBands];
+                for (int i = 0; i < numBands; i++) {
+                    bandOffsets[i] = i;
+                }
+                this.sampleModel = new PixelInterleavedSampleModel(
+                        sm.getDataType(), tileWidth, tileHeight, numBands,
+                        tileWidth*numBands, bandOffsets);
+            } else {
+                this.sampleModel = sm.createSubsetSampleModel(sourceBands)
+                    .createCompatibleSampleModel(tileWidth, tileHeight);
+            }
+            this.colorModel = ImageUtil.createColorModel(sampleModel);
+        }
+
+        int dataType = sampleModel.getDataType();
+        this.isFloatingPoint = dataType == DataBuffer.TYPE_FLOAT ||
+            dataType == DataBuffer.TYPE_DOUBLE;
+        if (resampling == TIFFImageWriteParam.OVERVIEW_RESAMPLING_AVERAGE &&
+            this.colorModel instanceof IndexColorModel) {
+            resampling = TIFFImageWriteParam.OVERVIEW_RESAMPLING_MODE;
+        }
+        this.resampling = resampling;
+
+        // Two rows of tiles, plus the ones being computed concurrently
+        final int cacheSize = 2*(getNumXTiles() + 1) +
+            2*Runtime.getRuntime().availableProcessors();
+        this.tiles = new LinkedHashMap<Point, Raster>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            protected boolean removeEldestEntry(Map.Entry<Point, Raster> e) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * Creates the overview of the provided overview.
+     */
+    TIFFOverviewImage(TIFFOverviewImage previous, int resampling) {
+        this(previous, 0, 0, 1, 1, null, previous.getWidth(),
+             previous.getHeight(), previous.getColorModel(), resampling);
+    }
+
+    public Raster getTile(int tileX, int tileY) {
+        Point key = new Point(tileX, tileY);
+        Raster tile;
+        synchronized (tiles) {
+            tile = tiles.get(key);
+        }
+        if (tile == null) {
+            tile = computeTile(tileX, tileY);
+            synchronized (tiles) {
+                tiles.put(key, tile);
+            }
+        }
+        return tile;
+    }
+
+    private Raster computeTile(int tileX, int tileY) {
+        int x0 = tileXToX(tileX);
+        int y0 = tileYToY(tileY);
+        WritableRaster tile =
+            Raster.createWritableRaster(sampleModel, new Point(x0, y0));
+        int w = Math.min(tileWidth, width - x0);
+        int h = Math.min(tileHeight, height - y0);
+
+        // The source pixels of the tile, in view coordinates
+        int vx = 2*x0;
+        int vy = 2*y0;
+        int vw = Math.min(2*w, sourceWidth - vx);
+        int vh = Math.min(2*h, sourceHeight - vy);
+        int sx = sourceXOffset + vx*periodX;
+        int sy = sourceYOffset + vy*periodY;
+        int sw = (vw - 1)*periodX + 1;
+        Raster data = source.getData(
+                new Rectangle(sx, sy, sw, (vh - 1)*periodY + 1));
+
+        int numBands = sampleModel.getNumBands();
+        double[] row0 = new double[sw];
+        double[] row1 = new double[sw];
+        double[] samples = new double[w];
+        double[] block = new double[4];
+        for (int y = 0; y < h; y++) {
+            boolean hasRow1 = 2*y + 1 < vh;
+            for (int b = 0; b < numBands; b++) {
+                int band = sourceBands == null ? b : sourceBands[b];
+                data.getSamples(sx, sy + 2*y*periodY, sw, 1, band, row0);
+                if (hasRow1 &&
+                    resampling != TIFFImageWriteParam.OVERVIEW_RESAMPLING_NEAREST) {
+                    data.getSamples(sx, sy + (2*y + 1)*periodY, sw, 1, band,
+                                    row1);
+                }
+                for (int x = 0; x < w; x++) {
+                    int i0 = 2*x*periodX;
+                    if (resampling ==
+                        TIFFImageWriteParam.OVERVIEW_RESAMPLING_NEAREST) {
+                        samples[x] = row0[i0];
+                        continue;
+                    }
+                    boolean hasColumn1 = 2*x + 1 < vw;
+                    int n = 0;
+                    block[n++] = row0[i0];
+                    if (hasColumn1) {
+                        block[n++] = row0[i0 + periodX];
+                    }
+                    if (hasRow1) {
+                        block[n++] = row1[i0];
+                        if (hasColumn1) {
+                            block[n++] = row1[i0 + periodX];
+                        }
+                    }
+                    samples[x] = resampling ==
+                        TIFFImageWriteParam.OVERVIEW_RESAMPLING_AVERAGE ?
+                        average(block, n) : mode(block, n);
+                }
+                tile.setSamples(x0, y0 + y, w, 1, b, samples);
+            }
+        }
+        return tile;
+    }
+
+    private double average(double[] block, int n) {
+        double sum = 0;
+        for (int i = 0; i < n; i++) {
+            sum += block[i];
+        }
+        return isFloatingPoint ? sum/n : Math.floor(sum/n + 0.5);
+    }
+
+    /**
+     * Returns the most frequent value, the first one in scan order in case
+     * of ties.
+     */
+    private static double mode(double[] block, int n) {
+        double value = block[0];
+        int count = 0;
+        for (int i = 0; i < n; i++) {
+            int c = 1;
+            for (int j = i + 1; j < n; j++) {
+                if (block[j] == block[i]) {
+                    c++;
+                }
+            }
+            if (c > count) {
+                value = block[i];
+                count = c;
+            }
+        }
+        return value;
+    }
+}
@@ -0,0 +1,289 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+
+import java.nio.ByteOrder;
+
+import javax.imageio.IIOException;
+
+/**
+ * Implementation of the TIFF predictors, shared by the LZW and Deflate
+ * compressors and decompressors.
+ * 
+ * <p>
+ * The horizontal differencing predictor (Predictor = 2) stores each sample as
+ * the difference with the same sample of the previous pixel, and is supported
+ * for 8, 16 and 32 bit samples. The floating point predictor (Predictor = 3,
+ * as defined by the Adobe Photoshop TIFF Technical Note 3) first splits the
+ * bytes of each row in planes, from the most to the least significant one,
+ * and then applies byte-wise horizontal differencing to the whole row. It is
+ * supported for 16, 24, 32 and 64 bit samples.
+ * 
+ * <p>
+ * Samples are always read and written in the byte order of the TIFF stream.
+ * Instances are not thread safe.
+ */
+final class TIFFPredictor {
+
+    private final int predictor;
+
+    /** Scratch row used to reorder the bytes of floating point samples. */
+    private byte[] rowBuffer;
+
+    TIFFPredictor(int predictor) throws IIOException {
+        if (predictor != BaselineTIFFTagSet.PREDICTOR_NONE
+                && predictor != BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING
+                && predictor != BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT) {
+            throw new IIOException("Illegal value for Predictor in TIFF file");
+        }
+        this.predictor = predictor;
+    }
+
+    int getPredictor() {
+        return predictor;
+    }
+
+    /**
+     * Returns <code>true</code> if the data needs to be transformed, that is
+     * the predictor is not {@link BaselineTIFFTagSet#PREDICTOR_NONE}.
+     */
+    boolean isActive() {
+        return predictor != BaselineTIFFTagSet.PREDICTOR_NONE;
+    }
+
+    /**
+     * Tells whether the given predictor can be applied to samples of the
+     * given size and format.
+     */
+    static boolean isSupported(int predictor, int bitsPerSample, int sampleFormat) {
+        switch (predictor) {
+        case BaselineTIFFTagSet.PREDICTOR_NONE:
+            return true;
+        case BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING:
+            return sampleFormat != BaselineTIFFTagSet.SAMPLE_FORMAT_FLOATING_POINT
+                    && (bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 32);
+        case BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT:
+            return bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32
+                    || bitsPerSample == 64;
+        default:
+            return false;
+        }
+    }
+
+    /**
+     * Checks that all the samples have the same size and that the predictor
+     * can deal with it.
+     * 
+     * @throws IIOException if the predictor cannot be applied.
+     */
+    void checkBitsPerSample(int[] bitsPerSample) throws IIOException {
+        if (!isActive()) {
+            return;
+        }
+        final String name = predictor == BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT ?
+                "Floating point" : "Horizontal differencing";
+        final int bps = bitsPerSample[0];
+        final boolean supported = predictor == BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT ?
+                (bps == 16 || bps == 24 || bps == 32 || bps == 64) :
+                (bps == 8 || bps == 16 || bps == 32);
+        if (!supported) {
+            throw new IIOException(bps + "-bit samples are not supported for "
+                    + name + " Predictor");
+        }
+        for (int i = 1; i < bitsPerSample.length; i++) {
+            if (bitsPerSample[i] != bps) {
+                throw new IIOException("Varying sample width is not supported for "
+                        + name + " Predictor (first: " + bps + ", unexpected:"
+                        + bitsPerSample[i] + ")");
+            }
+        }
+    }
+
+    /**
+     * Reverts the predictor in place on a block of decoded rows.
+     * 
+     * @param b the decoded data.
+     * @param off the offset of the first row.
+     * @param width the number of pixels per row.
+     * @param height the number of rows.
+     * @param rowStride the distance in bytes between two rows.
+     * @param samplesPerPixel the number of samples per pixel.
+     * @param bitsPerSample the size of each sample.
+     * @param byteOrder the byte order of the samples.
+     */
+    void decode(byte[] b, int off, int width, int height, int rowStride,
+            int samplesPerPixel, int bitsPerSample, ByteOrder byteOrder) {
+        if (!isActive()) {
+            return;
+        }
+        final int count = width * samplesPerPixel;
+        final boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+        for (int j = 0; j < height; j++, off += rowStride) {
+            if (predictor == BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT) {
+                decodeFloatingPointRow(b, off, count, samplesPerPixel, bitsPerSample / 8,
+                        bigEndian);
+                continue;
+            }
+            switch (bitsPerSample) {
+            case 8:
+                for (int i = off + samplesPerPixel, end = off + count; i < end; i++) {
+                    b[i] += b[i - samplesPerPixel];
+                }
+                break;
+            case 16:
+                for (int i = samplesPerPixel; i < count; i++) {
+                    int pos = off + 2 * i;
+                    int prev = pos - 2 * samplesPerPixel;
+                    putShort(b, pos, getShort(b, pos, bigEndian) + getShort(b, prev, bigEndian),
+                            bigEndian);
+                }
+                break;
+            case 32:
+                for (int i = samplesPerPixel; i < count; i++) {
+                    int pos = off + 4 * i;
+                    int prev = pos - 4 * samplesPerPixel;
+                    putInt(b, pos, getInt(b, pos, bigEndian) + getInt(b, prev, bigEndian),
+                            bigEndian);
+                }
+                break;
+            default:
+                throw new IllegalArgumentException("Unexpected branch of Horizontal "
+                        + "differencing Predictor, bps=" + bitsPerSample);
+            }
+        }
+    }
+
+    private void decodeFloatingPointRow(byte[] b, int off, int count, int samplesPerPixel,
+            int bytesPerSample, boolean bigEndian) {
+        final int rowLength = count * bytesPerSample;
+        for (int i = off + samplesPerPixel, end = off + rowLength; i < end; i++) {
+            b[i] += b[i - samplesPerPixel];
+        }
+
+        // Gather the byte planes back into samples
+        if (rowBuffer == null || rowBuffer.length < rowLength) {
+            rowBuffer = new byte[rowLength];
+        }
+        final byte[] planes = rowBuffer;
+        System.arraycopy(b, off, planes, 0, rowLength);
+        for (int k = 0; k < bytesPerSample; k++) {
+            int pos = off + (bigEndian ? k : bytesPerSample - 1 - k);
+            for (int i = 0, p = k * count; i < count; i++, p++, pos += bytesPerSample) {
+                b[pos] = planes[p];
+            }
+        }
+    }
+
+    /**
+     * Applies the predictor to a single row, leaving the source untouched.
+     * 
+     * @param src the row to be encoded.
+     * @param srcOff the offset of the row in <code>src</code>.
+     * @param dst the destination of the encoded row, starting at index 0.
+     * @param width the number of pixels in the row.
+     * @param samplesPerPixel the number of samples per pixel.
+     * @param bitsPerSample the size of each sample.
+     * @param byteOrder the byte order of the samples.
+     */
+    void encodeRow(byte[] src, int srcOff, byte[] dst, int width, int samplesPerPixel,
+            int bitsPerSample, ByteOrder byteOrder) {
+        final int count = width * samplesPerPixel;
+        final int bytesPerSample = bitsPerSample / 8;
+        final int rowLength = count * bytesPerSample;
+        final boolean bigEndian = byteOrder == ByteOrder.BIG_ENDIAN;
+
+        if (predictor == BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT) {
+            // Scatter the bytes of each sample in planes, most significant first
+            for (int k = 0; k < bytesPerSample; k++) {
+                int pos = srcOff + (bigEndian ? k : bytesPerSample - 1 - k);
+                for (int i = 0, p = k * count; i < count; i++, p++, pos += bytesPerSample) {
+                    dst[p] = src[pos];
+                }
+            }
+            for (int i = rowLength - 1; i >= samplesPerPixel; i--) {
+                dst[i] -= dst[i - samplesPerPixel];
+            }
+            return;
+        }
+
+        switch (bitsPerSample) {
+        case 8:
+            System.arraycopy(src, srcOff, dst, 0, rowLength);
+            for (int i = rowLength - 1; i >= samplesPerPixel; i--) {
+                dst[i] -= dst[i - samplesPerPixel];
+            }
+            break;
+        case 16:
+            System.arraycopy(src, srcOff, dst, 0, 2 * samplesPerPixel);
+            for (int i = samplesPerPixel; i < count; i++) {
+                int pos = srcOff + 2 * i;
+                putShort(dst, 2 * i, getShort(src, pos, bigEndian)
+                        - getShort(src, pos - 2 * samplesPerPixel, bigEndian), bigEndian);
+            }
+            break;
+        case 32:
+            System.arraycopy(src, srcOff, dst, 0, 4 * samplesPerPixel);
+            for (int i = samplesPerPixel; i < count; i++) {
+                int pos = srcOff + 4 * i;
+                putInt(dst, 4 * i, getInt(src, pos, bigEndian)
+                        - getInt(src, pos - 4 * samplesPerPixel, bigEndian), bigEndian);
+            }
+            break;
+        default:
+            throw new IllegalArgumentException("Unexpected branch of Horizontal "
+                    + "differencing Predictor, bps=" + bitsPerSample);
+        }
+    }
+
+    private static int getShort(byte[] b, int pos, boolean bigEndian) {
+        return bigEndian ? ((b[pos] & 0xff) << 8) | (b[pos + 1] & 0xff)
+                : ((b[pos + 1] & 0xff) << 8) | (b[pos] & 0xff);
+    }
+
+    private static void putShort(byte[] b, int pos, int value, boolean bigEndian) {
+        if (bigEndian) {
+            b[pos] = (byte) (value >> 8);
+            b[pos + 1] = (byte) value;
+        } else {
+            b[pos] = (byte) value;
+            b[pos + 1] = (byte) (value >> 8);
+        }
+    }
+
+    private static int getInt(byte[] b, int pos, boolean bigEndian) {
+        return bigEndian ? ((b[pos] & 0xff) << 24) | ((b[pos + 1] & 0xff) << 16)
+                | ((b[pos + 2] & 0xff) << 8) | (b[pos + 3] & 0xff)
+                : ((b[pos + 3] & 0xff) << 24) | ((b[pos + 2] & 0xff) << 16)
+                | ((b[pos + 1] & 0xff) << 8) | (b[pos] & 0xff);
+    }
+
+    private static void putInt(byte[] b, int pos, int value, boolean bigEndian) {
+        if (bigEndian) {
+            b[pos] = (byte) (value >> 24);
+            b[pos + 1] = (byte) (value >> 16);
+            b[pos + 2] = (byte) (value >> 8);
+            b[pos + 3] = (byte) value;
+        } else {
+            b[pos] = (byte) value;
+            b[pos + 1] = (byte) (value >> 8);
+            b[pos + 2] = (byte) (value >> 16);
+            b[pos + 3] = (byte) (value >> 24);
+        }
+    }
+}
@@ -0,0 +1,450 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import java.awt.Point;
+import java.awt.image.DataBuffer;
+import java.awt.image.DataBufferByte;
+import java.awt.image.DataBufferDouble;
+import java.awt.image.DataBufferFloat;
+import java.awt.image.DataBufferInt;
+import java.awt.image.DataBufferShort;
+import java.awt.image.DataBufferUShort;
+import java.awt.image.Raster;
+import java.awt.image.SampleModel;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.LinkedHashMap;
+
+/**
+ * A cache of decoded strips and tiles, which can be shared by the
+ * {@link TIFFImageReader} instances reading from a
+ * {@link it.geosolutions.imageio.stream.input.FileImageInputStreamExt}, so
+ * that overlapping reads of the same file don't decompress the same data
+ * again.
+ *
+ * <p>
+ * Strips and tiles are identified by the canonical path, length and last
+ * modification time of the file, the index of the image and the index of the
+ * strip or tile. They are cached fully decoded, at full resolution and with
+ * all their bands, the source region, subsampling and bands of each read
+ * being applied while copying them into the destination. The cache holds at
+ * most {@link #getMaxBytes()} bytes of sample data, evicting the least
+ * recently used strips and tiles. The samples can be stored off heap, in
+ * direct buffers, in which case they are copied back into a new raster at
+ * each hit.
+ *
+ * <p>
+ * The process wide instance returned by {@link #getInstance()} is disabled by
+ * default, it can be enabled by means of {@link #setMaxBytes(long)} or
+ * through the {@link #MAX_BYTES_KEY} system property. Other instances can be
+ * handed to the reader through
+ * {@link it.geosolutions.imageio.plugins.tiff.TIFFImageReadParam#setTileCache(TIFFTileCache)}.
+ */
+public final class TIFFTileCache {
+
+    /** System property setting the initial size in bytes of the process wide cache */
+    public static final String MAX_BYTES_KEY = "it.geosolutions.imageio.tiff.tileCache.maxBytes";
+
+    /** System property making the process wide cache store the samples off heap */
+    public static final String OFF_HEAP_KEY = "it.geosolutions.imageio.tiff.tileCache.offHeap";
+
+    private static final TIFFTileCache INSTANCE = new TIFFTileCache(Long.getLong(MAX_BYTES_KEY,
+            0), Boolean.getBoolean(OFF_HEAP_KEY));
+
+    /**
+     * The identity of a file as seen by the cache.
+     */
+    static final class FileKey {
+
+        private final String path;
+
+        private final long length;
+
+        private final long lastModified;
+
+        FileKey(File file) throws IOException {
+            this.path = file.getCanonicalPath();
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + path.hashCode();
+            result = prime * result + (int) (length ^ (length >>> 32));
+            result = prime * result + (int) (lastModified ^ (lastModified >>> 32));
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof FileKey))
+                return false;
+            FileKey other = (FileKey) obj;
+            return path.equals(other.path) && length == other.length
+                    && lastModified == other.lastModified;
+        }
+
+        @Override
+        public String toString() {
+            return "FileKey [path=" + path + ", length=" + length + ", lastModified="
+                    + lastModified + "]";
+        }
+    }
+
+    /**
+     * The identity of a strip or tile of an image of a file.
+     */
+    static final class TileKey {
+
+        private final FileKey file;
+
+        private final int imageIndex;
+
+        private final int tileIndex;
+
+        TileKey(FileKey file, int imageIndex, int tileIndex) {
+            this.file = file;
+            this.imageIndex = imageIndex;
+            this.tileIndex = tileIndex;
+        }
+
+        @Override
+        public int hashCode() {
+            final int prime = 31;
+            int result = 1;
+            result = prime * result + file.hashCode();
+            result = prime * result + imageIndex;
+            result = prime * result + tileIndex;
+            return result;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (this == obj)
+                return true;
+            if (!(obj instanceof TileKey))
+                return false;
+            TileKey other = (TileKey) obj;
+            return imageIndex == other.imageIndex && tileIndex == other.tileIndex
+                    && file.equals(other.file);
+        }
+
+        @Override
+        public String toString() {
+            return "TileKey [file=" + file + ", imageIndex=" + imageIndex + ", tileIndex="
+                    + tileIndex + "]";
+        }
+    }
+
+    /**
+     * A cached strip or tile, holding either its raster or a copy of its
+     * samples stored off heap.
+     */
+    private static final class Entry {
+
+        private final Raster raster;
+
+        private final SampleModel sampleModel;
+
+        private final ByteBuffer samples;
+
+        private final long size;
+
+        private Entry(Raster raster, boolean offHeap) {
+            DataBuffer dataBuffer = raster.getDataBuffer();
+            this.size = (long) dataBuffer.getNumBanks() * dataBuffer.getSize()
+                    * (DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8);
+            if (offHeap && size <= Integer.MAX_VALUE) {
+                this.raster = null;
+                this.sampleModel = raster.getSampleModel();
+                this.samples = ByteBuffer.allocateDirect((int) size);
+                store(dataBuffer, samples.duplicate().order(ByteOrder.nativeOrder()));
+            } else {
+                this.raster = raster;
+                this.sampleModel = null;
+                this.samples = null;
+            }
+        }
+
+        private Raster getRaster() {
+            if (raster != null) {
+                return raster;
+            }
+            DataBuffer dataBuffer = sampleModel.createDataBuffer();
+            load(samples.duplicate().order(ByteOrder.nativeOrder()), dataBuffer);
+            return Raster.createRaster(sampleModel, dataBuffer, new Point(0, 0));
+        }
+
+        private static void store(DataBuffer dataBuffer, ByteBuffer buffer) {
+            int n = dataBuffer.getSize();
+            for (int b = 0; b < dataBuffer.getNumBanks(); b++) {
+                switch (dataBuffer.getDataType()) {
+                case DataBuffer.TYPE_BYTE:
+                    buffer.put(((DataBufferByte) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                    buffer.asShortBuffer().put(((DataBufferUShort) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_SHORT:
+                    buffer.asShortBuffer().put(((DataBufferShort) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    buffer.asIntBuffer().put(((DataBufferInt) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    buffer.asFloatBuffer().put(((DataBufferFloat) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_DOUBLE:
+                    buffer.asDoubleBuffer().put(((DataBufferDouble) dataBuffer).getData(b), 0, n);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported data type "
+                            + dataBuffer.getDataType());
+                }
+                advance(buffer, dataBuffer);
+            }
+        }
+
+        private static void load(ByteBuffer buffer, DataBuffer dataBuffer) {
+            int n = dataBuffer.getSize();
+            for (int b = 0; b < dataBuffer.getNumBanks(); b++) {
+                switch (dataBuffer.getDataType()) {
+                case DataBuffer.TYPE_BYTE:
+                    buffer.get(((DataBufferByte) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_USHORT:
+                    buffer.asShortBuffer().get(((DataBufferUShort) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_SHORT:
+                    buffer.asShortBuffer().get(((DataBufferShort) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_INT:
+                    buffer.asIntBuffer().get(((DataBufferInt) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_FLOAT:
+                    buffer.asFloatBuffer().get(((DataBufferFloat) dataBuffer).getData(b), 0, n);
+                    break;
+                case DataBuffer.TYPE_DOUBLE:
+                    buffer.asDoubleBuffer().get(((DataBufferDouble) dataBuffer).getData(b), 0, n);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unsupported data type "
+                            + dataBuffer.getDataType());
+                }
+                advance(buffer, dataBuffer);
+            }
+        }
+
+        /**
+         * Moves the position of the buffer past a bank written or read
+         * through a view of another type, which doesn't move it.
+         */
+        private static void advance(ByteBuffer buffer, DataBuffer dataBuffer) {
+            if (dataBuffer.getDataType() != DataBuffer.TYPE_BYTE) {
+                buffer.position(buffer.position() + dataBuffer.getSize()
+                        * (DataBuffer.getDataTypeSize(dataBuffer.getDataType()) / 8));
+            }
+        }
+    }
+
+    private final LinkedHashMap<TileKey, Entry> entries = new LinkedHashMap<TileKey, Entry>(
+            16, 0.75f, true);
+
+    private final boolean offHeap;
+
+    private long maxBytes;
+
+    private long bytes;
+
+    private long hits;
+
+    private long misses;
+
+    private long evictions;
+
+    /**
+     * Creates a cache holding at most the given number of bytes of decoded
+     * samples.
+     *
+     * @param maxBytes
+     *            the size of the cache, 0 to disable it.
+     * @param offHeap
+     *            <code>true</code> to store the samples in direct buffers.
+     */
+    public TIFFTileCache(long maxBytes, boolean offHeap) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes < 0!");
+        }
+        this.maxBytes = maxBytes;
+        this.offHeap = offHeap;
+    }
+
+    /**
+     * @return the process wide {@link TIFFTileCache}.
+     */
+    public static TIFFTileCache getInstance() {
+        return INSTANCE;
+    }
+
+    /**
+     * @return <code>true</code> if the cache can hold some data.
+     */
+    public synchronized boolean isEnabled() {
+        return maxBytes > 0;
+    }
+
+    /**
+     * @return <code>true</code> if the samples are stored off heap.
+     */
+    public boolean isOffHeap() {
+        return offHeap;
+    }
+
+    /**
+     * @return the maximum number of bytes of decoded samples which are cached.
+     */
+    public synchronized long getMaxBytes() {
+        return maxBytes;
+    }
+
+    /**
+     * Sets the maximum number of bytes of decoded samples which are cached,
+     * evicting the least recently used strips and tiles if needed. A value of
+     * 0 disables the cache.
+     */
+    public synchronized void setMaxBytes(long maxBytes) {
+        if (maxBytes < 0) {
+            throw new IllegalArgumentException("maxBytes < 0!");
+        }
+        this.maxBytes = maxBytes;
+        evictExceeding();
+    }
+
+    /**
+     * Returns the cached strip or tile with the given key, or
+     * <code>null</code> if it is not cached. The returned raster must not be
+     * modified.
+     */
+    Raster getTile(TileKey key) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry == null) {
+                misses++;
+                return null;
+            }
+            hits++;
+        }
+        return entry.getRaster();
+    }
+
+    /**
+     * Caches a decoded strip or tile, which must not be modified afterwards.
+     * Rasters larger than the cache are not stored.
+     */
+    void putTile(TileKey key, Raster tile) {
+        Entry entry = new Entry(tile, offHeap);
+        synchronized (this) {
+            if (entry.size > maxBytes) {
+                return;
+            }
+            Entry previous = entries.put(key, entry);
+            if (previous != null) {
+                bytes -= previous.size;
+            }
+            bytes += entry.size;
+            evictExceeding();
+        }
+    }
+
+    private void evictExceeding() {
+        while (bytes > maxBytes) {
+            Entry eldest = entries.remove(entries.keySet().iterator().next());
+            bytes -= eldest.size;
+            evictions++;
+        }
+    }
+
+    /**
+     * @return the number of strips and tiles retrieved from the cache instead
+     *         of being decoded.
+     */
+    public synchronized long getHitCount() {
+        return hits;
+    }
+
+    /**
+     * @return the number of strips and tiles which had to be decoded since
+     *         they were not cached.
+     */
+    public synchronized long getMissCount() {
+        return misses;
+    }
+
+    /**
+     * @return the number of strips and tiles evicted from the cache.
+     */
+    public synchronized long getEvictionCount() {
+        return evictions;
+    }
+
+    /**
+     * @return the number of strips and tiles currently cached.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return the number of bytes of decoded samples currently cached.
+     */
+    public synchronized long getSizeInBytes() {
+        return bytes;
+    }
+
+    /**
+     * Removes all the cached strips and tiles.
+     */
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Resets the hit, miss and eviction counters.
+     */
+    public synchronized void resetStatistics() {
+        hits = 0;
+        misses = 0;
+        evictions = 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "TIFFTileCache [maxBytes=" + maxBytes + ", offHeap=" + offHeap + ", size="
+                + entries.size() + ", bytes=" + bytes + ", hits=" + hits + ", misses="
+                + misses + ", evictions=" + evictions + "]";
+    }
+}
@@ -0,0 +1,273 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageioimpl.plugins.tiff;
+
+import it.geosolutions.imageio.plugins.tiff.TIFFColorConverter;
+import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
+
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import javax.imageio.ImageTypeSpecifier;
+import javax.imageio.stream.ImageInputStream;
+
+/**
+ * Decodes single strips or tiles of a TIFF image, using the IFD information
+ * captured once by a {@link TIFFImageReader}. Instances are thread safe: each
+ * decoding takes its own {@link TIFFDecompressor} from an internal pool and
+ * reads the compressed data from the {@link ImageInputStream} provided by the
+ * caller, which must not be shared with other threads.
+ */
+final class TIFFTileDecoder {
+
+    private final TIFFImageReader reader;
+
+    private final TIFFImageMetadata imageMetadata;
+
+    private final ImageTypeSpecifier imageType;
+
+    private final ByteOrder byteOrder;
+
+    private final int width;
+
+    private final int height;
+
+    private final int tileOrStripWidth;
+
+    private final int tileOrStripHeight;
+
+    private final int tilesAcross;
+
+    private final int tilesDown;
+
+    private final boolean isImageTiled;
+
+    private final boolean isPlanar;
+
+    private final int numBands;
+
+    private final int compression;
+
+    private final int photometricInterpretation;
+
+    private final int samplesPerPixel;
+
+    private final int[] bitsPerSample;
+
+    private final int[] sampleFormat;
+
+    private final int[] extraSamples;
+
+    private final char[] colorMap;
+
+    private final Double noData;
+
+    private final long[] offsets;
+
+    private final long[] byteCounts;
+
+    private final ConcurrentLinkedQueue<TIFFDecompressor> decompressors =
+        new ConcurrentLinkedQueue<TIFFDecompressor>();
+
+    TIFFTileDecoder(TIFFImageReader reader, TIFFImageMetadata imageMetadata,
+            ImageTypeSpecifier imageType, ByteOrder byteOrder, int width,
+            int height, int tileOrStripWidth, int tileOrStripHeight,
+            boolean isImageTiled, boolean isPlanar, int numBands,
+            int compression, int photometricInterpretation,
+            int samplesPerPixel, int[] bitsPerSample, int[] sampleFormat,
+            int[] extraSamples, char[] colorMap, Double noData,
+            long[] offsets, long[] byteCounts) {
+        this.reader = reader;
+        this.imageMetadata = imageMetadata;
+        this.imageType = imageType;
+        this.byteOrder = byteOrder;
+        this.width = width;
+        this.height = height;
+        this.tileOrStripWidth = tileOrStripWidth;
+        this.tileOrStripHeight = tileOrStripHeight;
+        this.tilesAcross = (width + tileOrStripWidth - 1) / tileOrStripWidth;
+        this.tilesDown = (height + tileOrStripHeight - 1) / tileOrStripHeight;
+        this.isImageTiled = isImageTiled;
+        this.isPlanar = isPlanar;
+        this.numBands = numBands;
+        this.compression = compression;
+        this.photometricInterpretation = photometricInterpretation;
+        this.samplesPerPixel = samplesPerPixel;
+        this.bitsPerSample = bitsPerSample;
+        this.sampleFormat = sampleFormat;
+        this.extraSamples = extraSamples;
+        this.colorMap = colorMap;
+        this.noData = noData;
+        this.offsets = offsets;
+        this.byteCounts = byteCounts;
+    }
+
+    int getWidth() {
+        return width;
+    }
+
+    int getHeight() {
+        return height;
+    }
+
+    int getTileWidth() {
+        return tileOrStripWidth;
+    }
+
+    int getTileHeight() {
+        return tileOrStripHeight;
+    }
+
+    TIFFImageMetadata getImageMetadata() {
+        return imageMetadata;
+    }
+
+    /**
+     * Decodes the strip or tile <code>(tileX, tileY)</code>, reading the
+     * compressed data from the given stream. The returned image has the
+     * size of the strip or tile, clipped against the image bounds.
+     */
+    BufferedImage decodeTile(int tileX, int tileY, ImageInputStream stream)
+        throws IOException {
+        if (tileX < 0 || tileY < 0 || tileX >= tilesAcross
+                || tileY >= tilesDown) {
+            throw new IllegalArgumentException(
+                    "Tile indices are out of bounds!");
+        }
+
+        // The region covered by the strip or tile. If the image is tiled,
+        // the tile may legally extend beyond the image bounds.
+        Rectangle tileRect = new Rectangle(tileX * tileOrStripWidth, tileY
+                * tileOrStripHeight, tileOrStripWidth, tileOrStripHeight);
+        Rectangle activeRect = tileRect.intersection(new Rectangle(0, 0,
+                width, height));
+        if (!isImageTiled) {
+            tileRect = activeRect;
+        }
+
+        BufferedImage image = imageType.createBufferedImage(activeRect.width,
+                activeRect.height);
+        stream.setByteOrder(byteOrder);
+
+        TIFFDecompressor decompressor = decompressors.poll();
+        if (decompressor == null) {
+            decompressor = createDecompressor();
+        }
+        try {
+            decompressor.setImage(image);
+            decompressor.setSourceXOffset(activeRect.x);
+            decompressor.setSourceYOffset(activeRect.y);
+
+            decompressor.setSrcMinX(tileRect.x);
+            decompressor.setSrcMinY(tileRect.y);
+            decompressor.setSrcWidth(tileRect.width);
+            decompressor.setSrcHeight(tileRect.height);
+
+            decompressor.setDstMinX(0);
+            decompressor.setDstMinY(0);
+            decompressor.setDstWidth(activeRect.width);
+            decompressor.setDstHeight(activeRect.height);
+
+            decompressor.setActiveSrcMinX(activeRect.x);
+            decompressor.setActiveSrcMinY(activeRect.y);
+            decompressor.setActiveSrcWidth(activeRect.width);
+            decompressor.setActiveSrcHeight(activeRect.height);
+
+            int[] band = new int[1];
+            for (int b = 0; b < (isPlanar ? numBands : 1); b++) {
+                int tileIndex = tileY * tilesAcross + tileX;
+                if (isPlanar) {
+                    band[0] = b;
+                    decompressor.setSourceBands(band);
+                    decompressor.setDestinationBands(band);
+                    tileIndex += b * tilesAcross * tilesDown;
+                }
+
+                long offset = offsets[tileIndex];
+                long byteCount = byteCounts[tileIndex];
+
+                // Clamp the number of bytes to the ones available
+                long streamLength = stream.length();
+                if (streamLength > 0 && offset + byteCount > streamLength) {
+                    reader.forwardWarningMessage("Attempting to process truncated stream.");
+                    if (Math.max(byteCount = streamLength - offset, 0) == 0) {
+                        reader.forwardWarningMessage("No bytes in strip/tile: skipping.");
+                        continue;
+                    }
+                }
+
+                decompressor.setStream(stream);
+                decompressor.setOffset(offset);
+                decompressor.setByteCount((int) byteCount);
+                decompressor.setNoData(noData);
+                decompressor.beginDecoding();
+                decompressor.decode();
+            }
+        } finally {
+            decompressors.offer(decompressor);
+        }
+        return image;
+    }
+
+    private TIFFDecompressor createDecompressor() throws IOException {
+        ColorModel colorModel = imageType.getColorModel();
+        TIFFDecompressor decompressor = TIFFImageReader.createDecompressor(
+                reader, imageMetadata, compression, photometricInterpretation,
+                colorModel);
+        TIFFColorConverter colorConverter = TIFFImageReader
+                .createColorConverter(imageMetadata, compression,
+                        photometricInterpretation, colorModel, decompressor);
+
+        decompressor.setReader(reader);
+        decompressor.setMetadata(imageMetadata);
+
+        decompressor.setPhotometricInterpretation(photometricInterpretation);
+        decompressor.setCompression(compression);
+        decompressor.setSamplesPerPixel(samplesPerPixel);
+        decompressor.setBitsPerSample(bitsPerSample);
+        decompressor.setSampleFormat(sampleFormat);
+        decompressor.setExtraSamples(extraSamples);
+        decompressor.setColorMap(colorMap);
+
+        decompressor.setColorConverter(colorConverter);
+
+        decompressor.setSubsampleX(1);
+        decompressor.setSubsampleY(1);
+        decompressor.setDstXOffset(0);
+        decompressor.setDstYOffset(0);
+
+        int[] bands = new int[numBands];
+        for (int i = 0; i < numBands; i++) {
+            bands[i] = i;
+        }
+        decompressor.setSourceBands(bands);
+        decompressor.setDestinationBands(bands);
+        decompressor.setPlanar(isPlanar);
+        return decompressor;
+    }
+
+    void dispose() {
+        TIFFDecompressor decompressor;
+        while ((decompressor = decompressors.poll()) != null) {
+            decompressor.dispose();
+        }
+    }
+}
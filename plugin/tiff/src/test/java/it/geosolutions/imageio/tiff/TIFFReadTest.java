@@ -15,28 +15,56 @@
  */
 package it.geosolutions.imageio.tiff;
 
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
 import it.geosolutions.imageio.plugins.tiff.PrivateTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFImageReadParam;
+import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
 import it.geosolutions.imageio.stream.input.FileImageInputStreamExt;
 import it.geosolutions.imageio.stream.input.FileImageInputStreamExtImpl;
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFConcurrentTileReader;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReader;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriter;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFLZWCompressor;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFLZWDecompressor;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFMetadataCache;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFStreamMetadata;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFStreamMetadata.MetadataNode;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFTileCache;
 import it.geosolutions.resources.TestData;
 
 import java.awt.Rectangle;
 import java.awt.image.BufferedImage;
+import java.awt.image.DataBuffer;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
+import javax.imageio.IIOImage;
 import javax.imageio.ImageReadParam;
+import javax.imageio.ImageWriteParam;
 import javax.imageio.metadata.IIOMetadata;
 import javax.imageio.metadata.IIOMetadataNode;
 import javax.imageio.stream.FileImageInputStream;
+import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.media.jai.PlanarImage;
 
 import org.junit.Assert;
@@ -666,6 +694,504 @@ public class TIFFReadTest extends Assert {
         }
     }
 
+    @Test
+    public void readWithDecodingExecutor() throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Tiled, with empty tiles
+            assertParallelReadEquals(TestData.file(this, "emptyTiles.tif"), null, executor);
+
+            // Stripped, with predictor
+            assertParallelReadEquals(TestData.file(this, "lzwtest.tif"), null, executor);
+            assertParallelReadEquals(TestData.file(this, "deflatetest.tif"), null, executor);
+
+            // Subsampled source region
+            ImageReadParam param = new ImageReadParam();
+            param.setSourceRegion(new Rectangle(100, 50, 1000, 600));
+            param.setSourceSubsampling(3, 2, 1, 1);
+            assertParallelReadEquals(TestData.file(this, "emptyTiles.tif"), param, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void readTilesConcurrently() throws Exception {
+        final ExecutorService executor = Executors.newFixedThreadPool(8);
+        try {
+            // Tiled, with empty tiles
+            assertConcurrentTilesEqual(TestData.file(this, "emptyTiles.tif"), executor);
+
+            // Stripped, with predictor
+            assertConcurrentTilesEqual(TestData.file(this, "deflatetest.tif"), executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private void assertConcurrentTilesEqual(File file, ExecutorService executor)
+            throws IOException, InterruptedException, ExecutionException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        final TIFFConcurrentTileReader tileReader = new TIFFConcurrentTileReader(file);
+        FileImageInputStream inputStream = new FileImageInputStream(file);
+        try {
+            reader.setInput(inputStream);
+            final int tileWidth = reader.getTileWidth(0);
+            final int tileHeight = reader.getTileHeight(0);
+            final int tilesX = (reader.getWidth(0) + tileWidth - 1) / tileWidth;
+            final int tilesY = (reader.getHeight(0) + tileHeight - 1) / tileHeight;
+            assertEquals(reader.getWidth(0), tileReader.getWidth(0));
+            assertEquals(reader.getTileHeight(0), tileReader.getTileHeight(0));
+
+            // Read each tile twice from concurrent tasks
+            List<Future<BufferedImage>> tiles = new ArrayList<Future<BufferedImage>>();
+            for (int k = 0; k < 2; k++) {
+                for (int y = 0; y < tilesY; y++) {
+                    for (int x = 0; x < tilesX; x++) {
+                        final int tileX = x;
+                        final int tileY = y;
+                        tiles.add(executor.submit(new Callable<BufferedImage>() {
+                            public BufferedImage call() throws Exception {
+                                return tileReader.readTile(0, tileX, tileY);
+                            }
+                        }));
+                    }
+                }
+            }
+
+            int i = 0;
+            for (int k = 0; k < 2; k++) {
+                for (int y = 0; y < tilesY; y++) {
+                    for (int x = 0; x < tilesX; x++) {
+                        Raster expected = reader.readTile(0, x, y).getRaster();
+                        Raster actual = tiles.get(i++).get().getRaster();
+                        assertEquals(expected.getWidth(), actual.getWidth());
+                        assertEquals(expected.getHeight(), actual.getHeight());
+                        for (int b = 0; b < expected.getNumBands(); b++) {
+                            assertArrayEquals(expected.getSamples(0, 0, expected.getWidth(),
+                                    expected.getHeight(), b, (double[]) null), actual.getSamples(0,
+                                    0, actual.getWidth(), actual.getHeight(), b, (double[]) null), 0d);
+                        }
+                    }
+                }
+            }
+        } finally {
+            tileReader.dispose();
+
+            if (inputStream != null) {
+                inputStream.close();
+            }
+
+            if (reader != null) {
+                reader.dispose();
+            }
+        }
+    }
+
+    @Test
+    public void readWithMetadataCache() throws IOException {
+        final TIFFMetadataCache cache = TIFFMetadataCache.getInstance();
+        final int maxEntries = cache.getMaxEntries();
+        cache.setMaxEntries(1);
+        cache.clear();
+        cache.resetStatistics();
+        try {
+            final File file = TestData.file(this, "test.tif");
+
+            // First reader parses the IFDs
+            BufferedImage first = readWithExtStream(file, 2);
+            final long misses = cache.getMissCount();
+            assertTrue(misses > 0);
+            assertEquals(0, cache.getHitCount());
+            assertEquals(1, cache.size());
+
+            // Second reader gets them from the cache
+            BufferedImage second = readWithExtStream(file, 2);
+            assertEquals(misses, cache.getMissCount());
+            assertTrue(cache.getHitCount() > 0);
+            assertArrayEquals(first.getRaster().getPixels(0, 0, first.getWidth(),
+                    first.getHeight(), (int[]) null), second.getRaster().getPixels(0, 0,
+                    second.getWidth(), second.getHeight(), (int[]) null));
+
+            // Reading another file evicts the first one
+            readWithExtStream(TestData.file(this, "lzwtest.tif"), 0);
+            assertEquals(1, cache.size());
+            assertEquals(1, cache.getEvictionCount());
+        } finally {
+            cache.setMaxEntries(maxEntries);
+            cache.clear();
+        }
+    }
+
+    private BufferedImage readWithExtStream(File file, int imageIndex) throws IOException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        FileImageInputStreamExt inputStream = new FileImageInputStreamExtImpl(file);
+        try {
+            reader.setInput(inputStream);
+            assertTrue(reader.getNumImages(true) > imageIndex);
+            return reader.read(imageIndex);
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void readWithTileCache() throws IOException {
+        final ExecutorService executor = Executors.newFixedThreadPool(4);
+        try {
+            // Tiled, with empty tiles, on and off heap
+            assertTileCacheReadEquals(TestData.file(this, "emptyTiles.tif"),
+                    new TIFFTileCache(64 * 1024 * 1024, false), null);
+            assertTileCacheReadEquals(TestData.file(this, "emptyTiles.tif"),
+                    new TIFFTileCache(64 * 1024 * 1024, true), executor);
+
+            // Stripped, with predictor
+            assertTileCacheReadEquals(TestData.file(this, "deflatetest.tif"),
+                    new TIFFTileCache(64 * 1024 * 1024, true), null);
+
+            // A cache smaller than the image keeps evicting tiles
+            final TIFFTileCache cache = new TIFFTileCache(1024 * 1024, false);
+            final File file = TestData.file(this, "emptyTiles.tif");
+            assertRasterEquals(readWithTileCache(file, null, null, 1, null).getRaster(),
+                    readWithTileCache(file, cache, null, 1, null).getRaster());
+            assertTrue(cache.getEvictionCount() > 0);
+            assertTrue(cache.getSizeInBytes() <= cache.getMaxBytes());
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Checks that overlapping reads through the given cache return the same
+     * pixels as uncached reads, the second one being served from the cache.
+     */
+    private void assertTileCacheReadEquals(File file, TIFFTileCache cache,
+            ExecutorService executor) throws IOException {
+        final BufferedImage image = readWithTileCache(file, null, null, 1, null);
+        final int width = image.getWidth();
+        final int height = image.getHeight();
+        final Rectangle first = new Rectangle(width / 8, height / 8, width / 2, height / 2);
+        final Rectangle second = new Rectangle(width / 3, height / 3, width / 2, height / 2);
+
+        assertRasterEquals(readWithTileCache(file, null, first, 1, null).getRaster(),
+                readWithTileCache(file, cache, first, 1, executor).getRaster());
+        final long misses = cache.getMissCount();
+        assertTrue(misses > 0);
+        assertEquals(0, cache.getHitCount());
+        assertEquals(misses, cache.size());
+
+        // The overlapping tiles come from the cache
+        assertRasterEquals(readWithTileCache(file, null, second, 1, null).getRaster(),
+                readWithTileCache(file, cache, second, 1, executor).getRaster());
+        assertTrue(cache.getHitCount() > 0);
+
+        // Subsampled reads are served from the same tiles
+        final long hits = cache.getHitCount();
+        final long decoded = cache.getMissCount();
+        assertRasterEquals(readWithTileCache(file, null, second, 3, null).getRaster(),
+                readWithTileCache(file, cache, second, 3, executor).getRaster());
+        assertEquals(decoded, cache.getMissCount());
+        assertTrue(cache.getHitCount() > hits);
+    }
+
+    private BufferedImage readWithTileCache(File file, TIFFTileCache cache,
+            Rectangle sourceRegion, int subsampling, ExecutorService executor)
+            throws IOException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        FileImageInputStreamExt inputStream = new FileImageInputStreamExtImpl(file);
+        try {
+            reader.setInput(inputStream);
+            TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+            param.setTileCache(cache);
+            param.setDecodingExecutor(executor);
+            if (sourceRegion != null) {
+                param.setSourceRegion(sourceRegion);
+            }
+            param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+            return reader.read(0, param);
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void readLZWMatchesSourceData() throws IOException {
+        // 8 and 16 bits, tiled and stripped
+        BufferedImage source = TIFFWriteTest.createGradientImage(300,
+                BufferedImage.TYPE_3BYTE_BGR);
+        assertRasterEquals(source.getRaster(),
+                readFirstImage(TIFFWriteTest.writeSampleFile(source, "LZW", 64)).getRaster());
+        source = TIFFWriteTest.createGradientImage(300, BufferedImage.TYPE_USHORT_GRAY);
+        assertRasterEquals(source.getRaster(),
+                readFirstImage(TIFFWriteTest.writeSampleFile(source, "LZW", 0)).getRaster());
+
+        // Horizontal differencing predictor: lzwtest.tif holds the
+        // uncompressed samples of test.tif converted to UInt16
+        assertRasterEquals(readFirstImage(TestData.file(this, "test.tif")).getRaster(),
+                readFirstImage(TestData.file(this, "lzwtest.tif")).getRaster());
+    }
+
+    @Test
+    public void decodeLZWFromOffset() throws IOException {
+        // constant runs produce codes which are defined while being used,
+        // noise fills the table up to the point it is reset
+        final byte[] data = new byte[64 * 1024];
+        final Random random = new Random(42);
+        for (int i = 0; i < data.length; i += 4096) {
+            if ((i / 4096) % 2 == 0) {
+                Arrays.fill(data, i, i + 4096, (byte) (i / 4096));
+            } else {
+                for (int j = i; j < i + 4096; j++) {
+                    data[j] = (byte) random.nextInt(256);
+                }
+            }
+        }
+
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final MemoryCacheImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+        final TIFFLZWCompressor compressor = new TIFFLZWCompressor(
+                BaselineTIFFTagSet.PREDICTOR_NONE);
+        compressor.setStream(out);
+        compressor.encode(data, 0, 256, data.length / 256, new int[] { 8 }, 256);
+        out.close();
+        final byte[] compressed = bytes.toByteArray();
+
+        // drop the last byte, truncating the EndOfInformation code, so that
+        // decoding stops at the end of the source array
+        final int length = compressed.length - 1;
+        for (int srcOffset = 0; srcOffset < 8; srcOffset += 7) {
+            final byte[] sdata = new byte[srcOffset + length];
+            System.arraycopy(compressed, 0, sdata, srcOffset, length);
+            final byte[] ddata = new byte[data.length];
+            final TIFFLZWDecompressor decompressor = new TIFFLZWDecompressor(
+                    BaselineTIFFTagSet.PREDICTOR_NONE);
+            assertEquals(data.length, decompressor.decode(sdata, srcOffset, ddata, 0));
+            assertArrayEquals(data, ddata);
+        }
+    }
+
+    @Test
+    public void readUncompressedPrimitives() throws IOException {
+        final int size = 100;
+        final int[] dataTypes = new int[] { DataBuffer.TYPE_USHORT, DataBuffer.TYPE_INT,
+                DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE };
+        final Rectangle region = new Rectangle(10, 20, 50, 30);
+        for (int dataType : dataTypes) {
+            final BufferedImage image = TIFFWriteTest.createSampleImage(dataType, 2, size);
+            final Raster raster = image.getRaster();
+            for (int tileSize : new int[] { 0, 64 }) {
+                for (ByteOrder byteOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+                        ByteOrder.LITTLE_ENDIAN }) {
+                    final File file = TestData.temp(this, "uncompressed.tif", true);
+                    final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                            .createWriterInstance();
+                    final ImageWriteParam writeParam = new TIFFImageWriteParam(
+                            Locale.getDefault());
+                    if (tileSize > 0) {
+                        writeParam.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+                        writeParam.setTiling(tileSize, tileSize, 0, 0);
+                    }
+                    final TIFFStreamMetadata streamMetadata = new TIFFStreamMetadata();
+                    streamMetadata.byteOrder = byteOrder;
+                    final FileImageOutputStream out = new FileImageOutputStream(file);
+                    try {
+                        writer.setOutput(out);
+                        writer.write(streamMetadata, new IIOImage(image, null, null), writeParam);
+                    } finally {
+                        out.close();
+                        writer.dispose();
+                    }
+
+                    // whole image and source region, the latter reading the active region only
+                    final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                            .createReaderInstance();
+                    final FileImageInputStreamExtImpl in = new FileImageInputStreamExtImpl(file);
+                    try {
+                        reader.setInput(in);
+                        final Raster result = reader.read(0).getRaster();
+                        final ImageReadParam readParam = reader.getDefaultReadParam();
+                        readParam.setSourceRegion(region);
+                        final Raster subset = reader.read(0, readParam).getRaster();
+                        for (int b = 0; b < 2; b++) {
+                            assertArrayEquals(raster.getSamples(0, 0, size, size, b,
+                                    (double[]) null), result.getSamples(0, 0, size, size, b,
+                                    (double[]) null), 0d);
+                            assertArrayEquals(raster.getSamples(region.x, region.y,
+                                    region.width, region.height, b, (double[]) null), subset
+                                    .getSamples(0, 0, region.width, region.height, b,
+                                            (double[]) null), 0d);
+                        }
+                    } finally {
+                        in.close();
+                        reader.dispose();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void readFromOverviews() throws IOException {
+        // masks.tif has a 13x19 image followed by 7x10, 4x5, 2x3 and 1x2 overviews
+        final File file = TestData.file(this, "masks.tif");
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        FileImageInputStream inputStream = new FileImageInputStream(file);
+        try {
+            reader.setInput(inputStream);
+
+            // the coarsest overview not exceeding the subsampling is used
+            assertOverviewReadEquals(reader, 2, null, 2, 1, null);
+            assertOverviewReadEquals(reader, 4, null, 3, 1, null);
+            assertOverviewReadEquals(reader, 2, new Rectangle(4, 4, 8, 12), 2, 1,
+                    new Rectangle(2, 2, 4, 6));
+            // no overview can be sampled like 13x19 by 5, the image itself is read
+            assertOverviewReadEquals(reader, 5, null, 0, 5, null);
+
+            // no subsampling, no overview
+            TIFFImageReadParam param = new TIFFImageReadParam();
+            param.setUseOverviews(true);
+            BufferedImage image = reader.read(0, param);
+            assertEquals(13, image.getWidth());
+            assertEquals(19, image.getHeight());
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+
+        // external overviews
+        final File base = TIFFWriteTest.writeSampleFile(TIFFWriteTest.createGradientImage(300,
+                BufferedImage.TYPE_3BYTE_BGR), null, 64);
+        final File overview = new File(base.getPath() + ".ovr");
+        overview.deleteOnExit();
+        assertTrue(TIFFWriteTest.writeSampleFile(TIFFWriteTest.createGradientImage(150,
+                BufferedImage.TYPE_3BYTE_BGR), null, 64)
+                .renameTo(overview));
+        final TIFFImageReader baseReader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        final TIFFImageReader ovrReader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        final FileImageInputStreamExtImpl ovrStream = new FileImageInputStreamExtImpl(overview);
+        final FileImageInputStreamExtImpl baseStream = new FileImageInputStreamExtImpl(base);
+        try {
+            ovrReader.setInput(ovrStream);
+            baseReader.setInput(baseStream);
+            TIFFImageReadParam param = new TIFFImageReadParam();
+            param.setUseOverviews(true);
+            param.setSourceSubsampling(4, 4, 0, 0);
+            Raster actual = baseReader.read(0, param).getRaster();
+            TIFFImageReadParam expectedParam = new TIFFImageReadParam();
+            expectedParam.setSourceSubsampling(2, 2, 0, 0);
+            assertRasterEquals(ovrReader.read(0, expectedParam).getRaster(), actual);
+        } finally {
+            baseStream.close();
+            ovrStream.close();
+            baseReader.dispose();
+            ovrReader.dispose();
+        }
+    }
+
+    /**
+     * Checks that a read of the first image with the given subsampling and
+     * source region returns the given region of the overview, sampled as
+     * specified.
+     */
+    private void assertOverviewReadEquals(TIFFImageReader reader, int subsampling,
+            Rectangle sourceRegion, int overviewIndex, int overviewSubsampling,
+            Rectangle overviewRegion) throws IOException {
+        TIFFImageReadParam param = new TIFFImageReadParam();
+        param.setSourceSubsampling(subsampling, subsampling, 0, 0);
+        if (sourceRegion != null) {
+            param.setSourceRegion(sourceRegion);
+        }
+        Raster fullResolution = reader.read(0, param).getRaster();
+        param.setUseOverviews(true);
+        Raster actual = reader.read(0, param).getRaster();
+        assertEquals(fullResolution.getWidth(), actual.getWidth());
+        assertEquals(fullResolution.getHeight(), actual.getHeight());
+
+        TIFFImageReadParam overviewParam = new TIFFImageReadParam();
+        overviewParam.setSourceSubsampling(overviewSubsampling, overviewSubsampling, 0, 0);
+        if (overviewRegion != null) {
+            overviewParam.setSourceRegion(overviewRegion);
+        }
+        assertRasterEquals(reader.read(overviewIndex, overviewParam).getRaster(), actual);
+    }
+
+    private void assertRasterEquals(Raster expected, Raster actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        assertEquals(expected.getNumBands(), actual.getNumBands());
+        for (int b = 0; b < expected.getNumBands(); b++) {
+            assertArrayEquals(expected.getSamples(0, 0, expected.getWidth(),
+                    expected.getHeight(), b, (int[]) null), actual.getSamples(0, 0,
+                    actual.getWidth(), actual.getHeight(), b, (int[]) null));
+        }
+    }
+
+    private BufferedImage readFirstImage(File file) throws IOException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        FileImageInputStream inputStream = new FileImageInputStream(file);
+        try {
+            reader.setInput(inputStream);
+            return reader.read(0);
+        } finally {
+            inputStream.close();
+            reader.dispose();
+        }
+    }
+
+    private void assertParallelReadEquals(File file, ImageReadParam param,
+            ExecutorService executor) throws IOException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+
+        FileImageInputStream inputStream = new FileImageInputStream(file);
+        try {
+            reader.setInput(inputStream);
+            TIFFImageReadParam serialParam = (TIFFImageReadParam) reader.getDefaultReadParam();
+            TIFFImageReadParam parallelParam = (TIFFImageReadParam) reader.getDefaultReadParam();
+            if (param != null) {
+                serialParam.setSourceRegion(param.getSourceRegion());
+                serialParam.setSourceSubsampling(param.getSourceXSubsampling(),
+                        param.getSourceYSubsampling(), 1, 1);
+                parallelParam.setSourceRegion(param.getSourceRegion());
+                parallelParam.setSourceSubsampling(param.getSourceXSubsampling(),
+                        param.getSourceYSubsampling(), 1, 1);
+            }
+            parallelParam.setDecodingExecutor(executor);
+
+            Raster expected = reader.read(0, serialParam).getRaster();
+            Raster actual = reader.read(0, parallelParam).getRaster();
+            assertEquals(expected.getWidth(), actual.getWidth());
+            assertEquals(expected.getHeight(), actual.getHeight());
+            assertEquals(expected.getNumBands(), actual.getNumBands());
+            for (int b = 0; b < expected.getNumBands(); b++) {
+                double[] expectedSamples = expected.getSamples(0, 0, expected.getWidth(),
+                        expected.getHeight(), b, (double[]) null);
+                double[] actualSamples = actual.getSamples(0, 0, actual.getWidth(),
+                        actual.getHeight(), b, (double[]) null);
+                assertArrayEquals(expectedSamples, actualSamples, 0d);
+            }
+        } finally {
+
+            if (inputStream != null) {
+                inputStream.flush();
+                inputStream.close();
+            }
+
+            if (reader != null) {
+                reader.dispose();
+            }
+        }
+    }
+
     private double getNoDataValue(Node rootNode) {
         final IIOMetadataNode noDataNode = getTiffField(rootNode, PrivateTIFFTagSet.TAG_GDAL_NODATA);
         if (noDataNode == null) {
@@ -0,0 +1,178 @@
+/*
+ *    ImageI/O-Ext - OpenSource Java Image translation Library
+ *    http://www.geo-solutions.it/
+ *    http://java.net/projects/imageio-ext/
+ *    (C) 2007 - 2016, GeoSolutions
+ *
+ *    This library is free software; you can redistribute it and/or
+ *    modify it under the terms of the GNU Lesser General Public
+ *    License as published by the Free Software Foundation;
+ *    either version 3 of the License, or (at your option) any later version.
+ *
+ *    This library is distributed in the hope that it will be useful,
+ *    but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *    MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *    Lesser General Public License for more details.
+ */
+package it.geosolutions.imageio.tiff;
+
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFDecompressor;
+import it.geosolutions.imageio.plugins.tiff.TIFFImageReadParam;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReader;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.RenderedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.logging.Logger;
+
+import javax.imageio.stream.FileImageInputStream;
+
+import org.junit.Ignore;
+import org.junit.Test;
+
+/**
+ * Timing tests for the TIFF plugin. They are ignored by default, enable them
+ * to compare the performance of different reading and writing strategies.
+ */
+public class TIFFSpeedTest {
+
+    private static final Logger LOGGER = Logger.getLogger(TIFFSpeedTest.class.toString());
+
+    private static final int LOOP = 10;
+
+    private static final int SIZE = 4096;
+
+    private static final int TILE_SIZE = 256;
+
+    static void reportTime(String message, long total, int loop) {
+        LOGGER.info(message + ": total " + (total / 1000000) + " ms, average "
+                + (total / loop / 1000000d) + " ms");
+    }
+
+    @Test
+    @Ignore
+    public void testParallelDecoding() throws IOException {
+        for (String compression : new String[] { "Deflate", "LZW" }) {
+            final File file = TIFFWriteTest.writeSampleFile(TIFFWriteTest.createGradientImage(
+                    SIZE, BufferedImage.TYPE_3BYTE_BGR), compression, TILE_SIZE);
+            final int processors = Runtime.getRuntime().availableProcessors();
+            for (int threads = 0; threads <= processors; threads = threads == 0 ? 1 : threads * 2) {
+                final ExecutorService executor = threads == 0 ? null : Executors
+                        .newFixedThreadPool(threads);
+                try {
+                    // warm up
+                    read(file, executor);
+
+                    long start = System.nanoTime();
+                    for (int i = 0; i < LOOP; i++) {
+                        read(file, executor);
+                    }
+                    reportTime(compression + ", " + (threads == 0 ? "serial" : threads + " threads"),
+                            System.nanoTime() - start, LOOP);
+                } finally {
+                    if (executor != null) {
+                        executor.shutdown();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testParallelEncoding() throws IOException {
+        final RenderedImage image = TIFFWriteTest.createGradientImage(SIZE,
+                BufferedImage.TYPE_3BYTE_BGR);
+        for (String compression : new String[] { "Deflate", "LZW" }) {
+            for (int tileSize : new int[] { 0, TILE_SIZE }) {
+                final int processors = Runtime.getRuntime().availableProcessors();
+                for (int threads = 0; threads <= processors; threads = threads == 0 ? 1
+                        : threads * 2) {
+                    final ExecutorService executor = threads == 0 ? null : Executors
+                            .newFixedThreadPool(threads);
+                    try {
+                        // warm up
+                        TIFFWriteTest.writeSampleFile(image, compression, tileSize, executor)
+                                .delete();
+
+                        long start = System.nanoTime();
+                        for (int i = 0; i < LOOP; i++) {
+                            TIFFWriteTest.writeSampleFile(image, compression, tileSize,
+                                    executor).delete();
+                        }
+                        reportTime(compression + (tileSize > 0 ? ", tiles" : ", strips") + ", "
+                                + (threads == 0 ? "serial" : threads + " threads"),
+                                System.nanoTime() - start, LOOP);
+                    } finally {
+                        if (executor != null) {
+                            executor.shutdown();
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    @Ignore
+    public void testLZWDecoding() throws IOException {
+        final int[] imageTypes = new int[] { BufferedImage.TYPE_3BYTE_BGR,
+                BufferedImage.TYPE_USHORT_GRAY };
+        for (int imageType : imageTypes) {
+            final File file = TIFFWriteTest.writeSampleFile(
+                    TIFFWriteTest.createGradientImage(SIZE, imageType), "LZW", TILE_SIZE);
+            final String name = imageType == BufferedImage.TYPE_3BYTE_BGR ? "8 bits" : "16 bits";
+            for (int k = 0; k < 2; k++) {
+                final boolean reference = k == 0;
+                // warm up
+                read(file, reference);
+
+                long start = System.nanoTime();
+                for (int i = 0; i < LOOP; i++) {
+                    read(file, reference);
+                }
+                reportTime("LZW " + name + (reference ? ", reference decoder" : ", table decoder"),
+                        System.nanoTime() - start, LOOP);
+            }
+        }
+    }
+
+    private static void read(File file, boolean referenceLZW) throws IOException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        final FileImageInputStream in = new FileImageInputStream(file);
+        try {
+            reader.setInput(in);
+            final TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+            if (referenceLZW) {
+                TIFFDecompressor decompressor = new TIFFLZWReferenceDecompressor(
+                        BaselineTIFFTagSet.PREDICTOR_NONE);
+                param.setTIFFDecompressor(decompressor);
+            }
+            reader.read(0, param).flush();
+        } finally {
+            in.close();
+            reader.dispose();
+        }
+    }
+
+    private static void read(File file, ExecutorService executor) throws IOException {
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        final FileImageInputStream in = new FileImageInputStream(file);
+        try {
+            reader.setInput(in);
+            final TIFFImageReadParam param = (TIFFImageReadParam) reader.getDefaultReadParam();
+            param.setDecodingExecutor(executor);
+            reader.read(0, param).flush();
+        } finally {
+            in.close();
+            reader.dispose();
+        }
+    }
+}
@@ -15,29 +15,52 @@
  */
 package it.geosolutions.imageio.tiff;
 
+import it.geosolutions.imageio.plugins.tiff.BaselineTIFFTagSet;
+import it.geosolutions.imageio.plugins.tiff.TIFFField;
 import it.geosolutions.imageio.plugins.tiff.TIFFImageWriteParam;
+import it.geosolutions.imageio.plugins.tiff.TIFFTag;
 import it.geosolutions.imageio.utilities.ImageIOUtilities;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageMetadata;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReader;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageReaderSpi;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriter;
 import it.geosolutions.imageioimpl.plugins.tiff.TIFFImageWriterSpi;
+import it.geosolutions.imageioimpl.plugins.tiff.TIFFStreamMetadata;
 import it.geosolutions.resources.TestData;
 
 import java.awt.Rectangle;
+import java.awt.Transparency;
+import java.awt.color.ColorSpace;
 import java.awt.image.BufferedImage;
+import java.awt.image.ColorModel;
+import java.awt.image.ComponentColorModel;
+import java.awt.image.DataBuffer;
+import java.awt.image.PixelInterleavedSampleModel;
+import java.awt.image.Raster;
 import java.awt.image.RenderedImage;
+import java.awt.image.WritableRaster;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Locale;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.logging.Logger;
 
 import javax.imageio.IIOImage;
 import javax.imageio.ImageReadParam;
+import javax.imageio.ImageTypeSpecifier;
 import javax.imageio.ImageWriteParam;
 import javax.imageio.ImageWriter;
 import javax.imageio.event.IIOWriteProgressListener;
 import javax.imageio.stream.FileImageInputStream;
 import javax.imageio.stream.FileImageOutputStream;
+import javax.imageio.stream.ImageOutputStream;
+import javax.imageio.stream.MemoryCacheImageOutputStream;
 import javax.media.jai.PlanarImage;
 
 import org.junit.Assert;
@@ -261,4 +284,647 @@ public class TIFFWriteTest extends Assert {
         
         reader.dispose();
     }
+
+    @Test
+    public void writePredictors() throws IOException {
+        final int size = 100;
+        final int[] dataTypes = new int[] { DataBuffer.TYPE_BYTE, DataBuffer.TYPE_USHORT,
+                DataBuffer.TYPE_INT, DataBuffer.TYPE_FLOAT, DataBuffer.TYPE_DOUBLE };
+        for (int dataType : dataTypes) {
+            final boolean floatingPoint = dataType == DataBuffer.TYPE_FLOAT
+                    || dataType == DataBuffer.TYPE_DOUBLE;
+            final int predictor = floatingPoint ? BaselineTIFFTagSet.PREDICTOR_FLOATING_POINT
+                    : BaselineTIFFTagSet.PREDICTOR_HORIZONTAL_DIFFERENCING;
+            final int numBands = dataType == DataBuffer.TYPE_BYTE ? 3 : 1;
+            final WritableRaster raster = Raster.createWritableRaster(
+                    new PixelInterleavedSampleModel(dataType, size, size, numBands, size
+                            * numBands, numBands == 3 ? new int[] { 0, 1, 2 } : new int[] { 0 }),
+                    null);
+            for (int y = 0; y < size; y++) {
+                for (int x = 0; x < size; x++) {
+                    for (int b = 0; b < numBands; b++) {
+                        raster.setSample(x, y, b, floatingPoint ? Math.sin(x / 10d) * y + 0.5
+                                : (x * 3 + y * 7 + b) % 250);
+                    }
+                }
+            }
+            final ColorModel colorModel = new ComponentColorModel(ColorSpace
+                    .getInstance(numBands == 3 ? ColorSpace.CS_sRGB : ColorSpace.CS_GRAY),
+                    false, false, Transparency.OPAQUE, dataType);
+            final RenderedImage image = new BufferedImage(colorModel, raster, false, null);
+
+            for (String compression : new String[] { "LZW", "Deflate" }) {
+                for (ByteOrder byteOrder : new ByteOrder[] { ByteOrder.BIG_ENDIAN,
+                        ByteOrder.LITTLE_ENDIAN }) {
+                    final File file = TestData.temp(this, "predictor.tif", true);
+                    writeWithPredictor(image, file, compression, byteOrder, predictor);
+
+                    final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                            .createReaderInstance();
+                    final FileImageInputStream in = new FileImageInputStream(file);
+                    try {
+                        reader.setInput(in);
+                        final TIFFImageMetadata metadata = (TIFFImageMetadata) reader
+                                .getImageMetadata(0);
+                        assertEquals(predictor, metadata.getTIFFField(
+                                BaselineTIFFTagSet.TAG_PREDICTOR).getAsInt(0));
+
+                        final Raster result = reader.read(0).getRaster();
+                        for (int b = 0; b < numBands; b++) {
+                            assertArrayEquals(raster.getSamples(0, 0, size, size, b,
+                                    (double[]) null), result.getSamples(0, 0, size, size, b,
+                                    (double[]) null), 0d);
+                        }
+                    } finally {
+                        in.close();
+                        reader.dispose();
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void writeInParallel() throws IOException {
+        final BufferedImage image = createSampleImage(DataBuffer.TYPE_BYTE, 3, 300);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (String compression : new String[] { null, "LZW", "Deflate", "PackBits" }) {
+                for (int tileSize : new int[] { 0, 64 }) {
+                    final byte[] serial = write(image, compression, tileSize, null);
+                    final byte[] parallel = write(image, compression, tileSize, executor);
+                    assertArrayEquals(compression + " " + tileSize, serial, parallel);
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void writeTrailingIFD() throws IOException {
+        final int size = 300;
+        final BufferedImage image = createSampleImage(DataBuffer.TYPE_BYTE, 3, size);
+        final Raster raster = image.getRaster();
+        final ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (String compression : new String[] { null, "Deflate" }) {
+                for (int tileSize : new int[] { 0, 64 }) {
+                    for (boolean bigTIFF : new boolean[] { false, true }) {
+                        for (ExecutorService encodingExecutor : new ExecutorService[] { null,
+                                executor }) {
+                            final TIFFImageWriteParam writeParam = createWriteParam(
+                                    compression, tileSize, encodingExecutor);
+                            writeParam.setForceToBigTIFF(bigTIFF);
+                            writeParam.setTrailingIFD(true);
+
+                            // write to a cached output, in sequence (classic TIFF only)
+                            final int numImages = bigTIFF ? 1 : 2;
+                            final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                            final ImageOutputStream out = new MemoryCacheImageOutputStream(
+                                    bytes);
+                            final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                                    .createWriterInstance();
+                            try {
+                                writer.setOutput(out);
+                                if (numImages == 1) {
+                                    writer.write(null, new IIOImage(image, null, null),
+                                            writeParam);
+                                } else {
+                                    writer.prepareWriteSequence(null);
+                                    for (int i = 0; i < numImages; i++) {
+                                        writer.writeToSequence(new IIOImage(image, null, null),
+                                                writeParam);
+                                    }
+                                    writer.endWriteSequence();
+                                }
+                            } finally {
+                                out.close();
+                                writer.dispose();
+                            }
+
+                            // the first IFD follows the image data
+                            final byte[] data = bytes.toByteArray();
+                            final ByteBuffer header = ByteBuffer.wrap(data);
+                            final long firstIFD = bigTIFF ? header.getLong(8) : header
+                                    .getInt(4);
+                            if (compression == null) {
+                                assertTrue(firstIFD >= size * size * 3);
+                            }
+
+                            final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                                    .createReaderInstance();
+                            final File file = TestData.temp(this, "trailing.tif", true);
+                            final FileImageOutputStream fileOut = new FileImageOutputStream(file);
+                            fileOut.write(data);
+                            fileOut.close();
+                            final FileImageInputStream in = new FileImageInputStream(file);
+                            try {
+                                reader.setInput(in);
+                                assertEquals(numImages, reader.getNumImages(true));
+                                for (int i = 0; i < numImages; i++) {
+                                    final Raster result = reader.read(i).getRaster();
+                                    for (int b = 0; b < 3; b++) {
+                                        assertArrayEquals(raster.getSamples(0, 0, size, size,
+                                                b, (int[]) null), result.getSamples(0, 0, size,
+                                                size, b, (int[]) null));
+                                    }
+                                }
+                            } finally {
+                                in.close();
+                                reader.dispose();
+                            }
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void writeOverviews() throws IOException {
+        final int size = 300;
+        final BufferedImage image = createSampleImage(DataBuffer.TYPE_BYTE, 3, size);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (int resampling : new int[] { TIFFImageWriteParam.OVERVIEW_RESAMPLING_NEAREST,
+                    TIFFImageWriteParam.OVERVIEW_RESAMPLING_AVERAGE,
+                    TIFFImageWriteParam.OVERVIEW_RESAMPLING_MODE }) {
+                // compute the expected levels from the previous ones
+                final Raster[] levels = new Raster[4];
+                levels[0] = image.getRaster();
+                for (int i = 1; i < levels.length; i++) {
+                    levels[i] = downsample(levels[i - 1], resampling);
+                }
+
+                for (int tileSize : new int[] { 0, 64 }) {
+                    byte[] serial = null;
+                    for (ExecutorService encodingExecutor : new ExecutorService[] { null,
+                            executor }) {
+                        final TIFFImageWriteParam writeParam = createWriteParam("Deflate",
+                                tileSize, encodingExecutor);
+                        writeParam.setOverviews(3, resampling);
+
+                        // a sequence of two images, each followed by its overviews
+                        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+                        final ImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+                        final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                                .createWriterInstance();
+                        try {
+                            writer.setOutput(out);
+                            writer.prepareWriteSequence(null);
+                            for (int i = 0; i < 2; i++) {
+                                writer.writeToSequence(new IIOImage(image, null, null),
+                                        writeParam);
+                            }
+                            writer.endWriteSequence();
+                        } finally {
+                            out.close();
+                            writer.dispose();
+                        }
+                        final byte[] data = bytes.toByteArray();
+                        if (serial == null) {
+                            serial = data;
+                        } else {
+                            assertArrayEquals(serial, data);
+                        }
+
+                        final File file = TestData.temp(this, "overviews.tif", true);
+                        final FileImageOutputStream fileOut = new FileImageOutputStream(file);
+                        fileOut.write(data);
+                        fileOut.close();
+                        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                                .createReaderInstance();
+                        final FileImageInputStream in = new FileImageInputStream(file);
+                        try {
+                            reader.setInput(in);
+                            assertEquals(8, reader.getNumImages(true));
+                            for (int i = 0; i < 8; i++) {
+                                final TIFFField newSubfileType = ((TIFFImageMetadata) reader
+                                        .getImageMetadata(i))
+                                        .getTIFFField(BaselineTIFFTagSet.TAG_NEW_SUBFILE_TYPE);
+                                final Raster expected = levels[i % 4];
+                                if (i % 4 == 0) {
+                                    assertNull(newSubfileType);
+                                } else {
+                                    assertEquals(
+                                            BaselineTIFFTagSet.NEW_SUBFILE_TYPE_REDUCED_RESOLUTION,
+                                            newSubfileType.getAsInt(0));
+                                    assertEquals(tileSize > 0, reader.isImageTiled(i));
+                                }
+                                assertRasterEquals(expected, reader.read(i).getRaster());
+                            }
+                        } finally {
+                            in.close();
+                            reader.dispose();
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    @Test
+    public void writeOverviewsOfSubsampledImage() throws IOException {
+        final BufferedImage image = createSampleImage(DataBuffer.TYPE_BYTE, 3, 100);
+        final TIFFImageWriteParam writeParam = createWriteParam(null, 0, null);
+        writeParam.setSourceRegion(new Rectangle(10, 20, 80, 60));
+        writeParam.setSourceSubsampling(3, 2, 0, 0);
+        writeParam.setSourceBands(new int[] { 2, 0 });
+        writeParam.setOverviews(10, TIFFImageWriteParam.OVERVIEW_RESAMPLING_NEAREST);
+
+        final File file = TestData.temp(this, "subsampled-overviews.tif", true);
+        final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                .createWriterInstance();
+        final FileImageOutputStream out = new FileImageOutputStream(file);
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            out.close();
+            writer.dispose();
+        }
+
+        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                .createReaderInstance();
+        final FileImageInputStream in = new FileImageInputStream(file);
+        try {
+            reader.setInput(in);
+            // 27x30, then down to a single pixel in 5 levels
+            assertEquals(6, reader.getNumImages(true));
+            final Raster overview = reader.read(1).getRaster();
+            assertEquals(14, overview.getWidth());
+            assertEquals(15, overview.getHeight());
+            assertEquals(2, overview.getNumBands());
+            final Raster raster = image.getRaster();
+            for (int y = 0; y < overview.getHeight(); y++) {
+                for (int x = 0; x < overview.getWidth(); x++) {
+                    assertEquals(raster.getSample(10 + 6 * x, 20 + 4 * y, 2),
+                            overview.getSample(x, y, 0));
+                    assertEquals(raster.getSample(10 + 6 * x, 20 + 4 * y, 0),
+                            overview.getSample(x, y, 1));
+                }
+            }
+            final Raster last = reader.read(5).getRaster();
+            assertEquals(1, last.getWidth());
+            assertEquals(1, last.getHeight());
+        } finally {
+            in.close();
+            reader.dispose();
+        }
+    }
+
+    @Test
+    public void writeCloudOptimized() throws IOException {
+        final int size = 300;
+        final BufferedImage image = createSampleImage(DataBuffer.TYPE_BYTE, 3, size);
+        final ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            for (String compression : new String[] { null, "Deflate" }) {
+                for (boolean bigTIFF : new boolean[] { false, true }) {
+                    for (ExecutorService encodingExecutor : new ExecutorService[] { null,
+                            executor }) {
+                        final TIFFImageWriteParam writeParam = createWriteParam(compression, 64,
+                                encodingExecutor);
+                        writeParam.setForceToBigTIFF(bigTIFF);
+                        writeParam.setOverviews(3,
+                                TIFFImageWriteParam.OVERVIEW_RESAMPLING_AVERAGE);
+                        final byte[] reference = writeToBytes(image, writeParam);
+
+                        writeParam.setCloudOptimized(true);
+                        writeParam.setTileDataAlignment(16);
+                        writeParam.setTileLeaderTrailer(true);
+                        final byte[] data = writeToBytes(image, writeParam);
+                        assertTrue(new String(data, 0, 100, "US-ASCII").startsWith(
+                                "GDAL_STRUCTURAL_METADATA_SIZE=", bigTIFF ? 16 : 8));
+
+                        final File file = TestData.temp(this, "cog.tif", true);
+                        final FileImageOutputStream fileOut = new FileImageOutputStream(file);
+                        fileOut.write(data);
+                        fileOut.close();
+                        final File referenceFile = TestData.temp(this, "not-cog.tif", true);
+                        final FileImageOutputStream referenceOut = new FileImageOutputStream(
+                                referenceFile);
+                        referenceOut.write(reference);
+                        referenceOut.close();
+
+                        final TIFFImageReader reader = (TIFFImageReader) new TIFFImageReaderSpi()
+                                .createReaderInstance();
+                        final TIFFImageReader referenceReader = (TIFFImageReader) new TIFFImageReaderSpi()
+                                .createReaderInstance();
+                        final FileImageInputStream in = new FileImageInputStream(file);
+                        final FileImageInputStream referenceIn = new FileImageInputStream(
+                                referenceFile);
+                        try {
+                            reader.setInput(in);
+                            referenceReader.setInput(referenceIn);
+                            assertEquals(4, reader.getNumImages(true));
+                            final ByteBuffer buffer = ByteBuffer.wrap(data);
+                            final long[][][] layout = readTileLayout(buffer, bigTIFF);
+                            assertEquals(4, layout.length);
+                            buffer.order(ByteOrder.LITTLE_ENDIAN);
+                            long previousLevelStart = data.length;
+                            for (int i = 0; i < 4; i++) {
+                                assertRasterEquals(referenceReader.read(i).getRaster(), reader
+                                        .read(i).getRaster());
+
+                                // the tiles of each level come before the ones of the
+                                // previous level, each one aligned and framed
+                                final long[] offsets = layout[i][1];
+                                final long[] byteCounts = layout[i][2];
+                                for (int t = 0; t < offsets.length; t++) {
+                                    final int offset = (int) offsets[t];
+                                    final int byteCount = (int) byteCounts[t];
+                                    assertEquals(0, offset % 16);
+                                    assertTrue(offset + byteCount + 4 <= previousLevelStart);
+                                    assertEquals(byteCount, buffer.getInt(offset - 4));
+                                    assertEquals(buffer.getInt(offset + byteCount - 4), buffer
+                                            .getInt(offset + byteCount));
+                                    if (t > 0) {
+                                        assertTrue(offset > offsets[t - 1]);
+                                    }
+                                }
+                                previousLevelStart = offsets[0] - 4;
+                            }
+
+                            // all the IFDs come before the image data
+                            for (int i = 0; i < 4; i++) {
+                                assertTrue(layout[i][0][0] < previousLevelStart);
+                            }
+                        } finally {
+                            in.close();
+                            referenceIn.close();
+                            reader.dispose();
+                            referenceReader.dispose();
+                        }
+                    }
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Returns, for each IFD of a TIFF file, its offset, the offsets of its
+     * tiles and their byte counts.
+     */
+    private static long[][][] readTileLayout(ByteBuffer buffer, boolean bigTIFF) {
+        buffer.order(buffer.get(0) == 'I' ? ByteOrder.LITTLE_ENDIAN : ByteOrder.BIG_ENDIAN);
+        final List<long[][]> layout = new ArrayList<long[][]>();
+        long ifd = bigTIFF ? buffer.getLong(8) : buffer.getInt(4) & 0xffffffffL;
+        while (ifd != 0) {
+            int pos = (int) ifd;
+            final long numEntries = bigTIFF ? buffer.getLong(pos) : buffer.getShort(pos);
+            pos += bigTIFF ? 8 : 2;
+            long[] offsets = null;
+            long[] byteCounts = null;
+            for (int e = 0; e < numEntries; e++, pos += bigTIFF ? 20 : 12) {
+                final int tag = buffer.getShort(pos) & 0xffff;
+                if (tag != BaselineTIFFTagSet.TAG_TILE_OFFSETS
+                        && tag != BaselineTIFFTagSet.TAG_TILE_BYTE_COUNTS) {
+                    continue;
+                }
+                final int size = buffer.getShort(pos + 2) == TIFFTag.TIFF_LONG8 ? 8 : 4;
+                final int count = (int) (bigTIFF ? buffer.getLong(pos + 4) : buffer
+                        .getInt(pos + 4));
+                int valuePos = pos + (bigTIFF ? 12 : 8);
+                if (count * size > (bigTIFF ? 8 : 4)) {
+                    valuePos = (int) (bigTIFF ? buffer.getLong(valuePos) : buffer
+                            .getInt(valuePos));
+                }
+                final long[] values = new long[count];
+                for (int i = 0; i < count; i++) {
+                    values[i] = size == 8 ? buffer.getLong(valuePos + 8 * i) : buffer
+                            .getInt(valuePos + 4 * i) & 0xffffffffL;
+                }
+                if (tag == BaselineTIFFTagSet.TAG_TILE_OFFSETS) {
+                    offsets = values;
+                } else {
+                    byteCounts = values;
+                }
+            }
+            layout.add(new long[][] { { ifd }, offsets, byteCounts });
+            ifd = bigTIFF ? buffer.getLong(pos) : buffer.getInt(pos) & 0xffffffffL;
+        }
+        return layout.toArray(new long[layout.size()][][]);
+    }
+
+    private static byte[] writeToBytes(RenderedImage image, ImageWriteParam writeParam)
+            throws IOException {
+        final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                .createWriterInstance();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            out.close();
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * Halves the resolution of a raster as the writer is expected to do for
+     * the overviews.
+     */
+    private static Raster downsample(Raster raster, int resampling) {
+        final int width = (raster.getWidth() + 1) / 2;
+        final int height = (raster.getHeight() + 1) / 2;
+        final WritableRaster result = raster.createCompatibleWritableRaster(width, height);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                for (int b = 0; b < raster.getNumBands(); b++) {
+                    final int[] block = new int[4];
+                    int n = 0;
+                    for (int j = 2 * y; j < Math.min(2 * y + 2, raster.getHeight()); j++) {
+                        for (int i = 2 * x; i < Math.min(2 * x + 2, raster.getWidth()); i++) {
+                            block[n++] = raster.getSample(i, j, b);
+                        }
+                    }
+                    int value = block[0];
+                    if (resampling == TIFFImageWriteParam.OVERVIEW_RESAMPLING_AVERAGE) {
+                        int sum = 0;
+                        for (int k = 0; k < n; k++) {
+                            sum += block[k];
+                        }
+                        value = (int) Math.floor((double) sum / n + 0.5);
+                    } else if (resampling == TIFFImageWriteParam.OVERVIEW_RESAMPLING_MODE) {
+                        int count = 0;
+                        for (int k = 0; k < n; k++) {
+                            int c = 0;
+                            for (int l = k; l < n; l++) {
+                                if (block[l] == block[k]) {
+                                    c++;
+                                }
+                            }
+                            if (c > count) {
+                                value = block[k];
+                                count = c;
+                            }
+                        }
+                    }
+                    result.setSample(x, y, b, value);
+                }
+            }
+        }
+        return result;
+    }
+
+    private static void assertRasterEquals(Raster expected, Raster actual) {
+        assertEquals(expected.getWidth(), actual.getWidth());
+        assertEquals(expected.getHeight(), actual.getHeight());
+        for (int b = 0; b < expected.getNumBands(); b++) {
+            assertArrayEquals(expected.getSamples(0, 0, expected.getWidth(),
+                    expected.getHeight(), b, (int[]) null), actual.getSamples(0, 0,
+                    expected.getWidth(), expected.getHeight(), b, (int[]) null));
+        }
+    }
+
+    private static TIFFImageWriteParam createWriteParam(String compression, int tileSize,
+            ExecutorService executor) {
+        final TIFFImageWriteParam writeParam = new TIFFImageWriteParam(Locale.getDefault());
+        if (compression != null) {
+            writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParam.setCompressionType(compression);
+        }
+        if (tileSize > 0) {
+            writeParam.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+            writeParam.setTiling(tileSize, tileSize, 0, 0);
+        }
+        writeParam.setEncodingExecutor(executor);
+        return writeParam;
+    }
+
+    private static byte[] write(RenderedImage image, String compression, int tileSize,
+            ExecutorService executor) throws IOException {
+        final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                .createWriterInstance();
+        final TIFFImageWriteParam writeParam = createWriteParam(compression, tileSize,
+                executor);
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final ImageOutputStream out = new MemoryCacheImageOutputStream(bytes);
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null), writeParam);
+        } finally {
+            out.close();
+            writer.dispose();
+        }
+        return bytes.toByteArray();
+    }
+
+    static BufferedImage createSampleImage(int dataType, int numBands, int size) {
+        final boolean floatingPoint = dataType == DataBuffer.TYPE_FLOAT
+                || dataType == DataBuffer.TYPE_DOUBLE;
+        final int[] bandOffsets = new int[numBands];
+        for (int b = 0; b < numBands; b++) {
+            bandOffsets[b] = b;
+        }
+        final WritableRaster raster = Raster.createWritableRaster(
+                new PixelInterleavedSampleModel(dataType, size, size, numBands, size * numBands,
+                        bandOffsets), null);
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int b = 0; b < numBands; b++) {
+                    raster.setSample(x, y, b, floatingPoint ? Math.sin(x / 10d) * y + 0.5
+                            : (x * 3 + y * 7 + b) % 250);
+                }
+            }
+        }
+        final ColorModel colorModel = new ComponentColorModel(ColorSpace
+                .getInstance(numBands == 3 ? ColorSpace.CS_sRGB : ColorSpace.CS_GRAY),
+                numBands == 2, false, numBands == 2 ? Transparency.TRANSLUCENT
+                        : Transparency.OPAQUE, dataType);
+        return new BufferedImage(colorModel, raster, false, null);
+    }
+
+    /**
+     * Creates a synthetic image of the given type, made of smooth gradients
+     * with some noise, to get realistic compression ratios.
+     */
+    static BufferedImage createGradientImage(int size, int imageType) {
+        final BufferedImage image = new BufferedImage(size, size, imageType);
+        final WritableRaster raster = image.getRaster();
+        final int numBands = raster.getNumBands();
+        final int max = (1 << raster.getSampleModel().getSampleSize(0)) - 1;
+        final int[] pixel = new int[numBands];
+        for (int y = 0; y < size; y++) {
+            for (int x = 0; x < size; x++) {
+                for (int b = 0; b < numBands; b++) {
+                    pixel[b] = b == 0 ? (x + y) * (max / 255)
+                            : b == 1 ? (x * y) >> 4 : ((x ^ y) & 0x0F);
+                    pixel[b] &= max;
+                }
+                raster.setPixel(x, y, pixel);
+            }
+        }
+        return image;
+    }
+
+    /**
+     * Writes the given image to a temporary file, with the specified
+     * compression type and tile size (strips are written if the tile size is
+     * not positive).
+     */
+    static File writeSampleFile(RenderedImage image, String compression, int tileSize)
+            throws IOException {
+        return writeSampleFile(image, compression, tileSize, null);
+    }
+
+    /**
+     * Same as {@link #writeSampleFile(RenderedImage, String, int)}, compressing
+     * the strips or tiles with the provided executor, if any.
+     */
+    static File writeSampleFile(RenderedImage image, String compression, int tileSize,
+            ExecutorService executor) throws IOException {
+        final File file = File.createTempFile("sample", ".tif");
+        file.deleteOnExit();
+        final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                .createWriterInstance();
+        final FileImageOutputStream out = new FileImageOutputStream(file);
+        try {
+            writer.setOutput(out);
+            writer.write(null, new IIOImage(image, null, null),
+                    createWriteParam(compression, tileSize, executor));
+        } finally {
+            out.close();
+            writer.dispose();
+        }
+        return file;
+    }
+
+    private static void writeWithPredictor(RenderedImage image, File file, String compression,
+            ByteOrder byteOrder, int predictor) throws IOException {
+        final TIFFImageWriter writer = (TIFFImageWriter) new TIFFImageWriterSpi()
+                .createWriterInstance();
+        final ImageWriteParam writeParam = new TIFFImageWriteParam(Locale.getDefault());
+        writeParam.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParam.setCompressionType(compression);
+        writeParam.setTilingMode(ImageWriteParam.MODE_EXPLICIT);
+        writeParam.setTiling(64, 64, 0, 0);
+
+        final TIFFImageMetadata metadata = (TIFFImageMetadata) writer.getDefaultImageMetadata(
+                new ImageTypeSpecifier(image), writeParam);
+        metadata.getRootIFD().addTIFFField(
+                new TIFFField(BaselineTIFFTagSet.getInstance().getTag(
+                        BaselineTIFFTagSet.TAG_PREDICTOR), predictor));
+        final TIFFStreamMetadata streamMetadata = new TIFFStreamMetadata();
+        streamMetadata.byteOrder = byteOrder;
+
+        final FileImageOutputStream out = new FileImageOutputStream(file);
+        try {
+            writer.setOutput(out);
+            writer.write(streamMetadata, new IIOImage(image, null, metadata), writeParam);
+        } finally {
+            out.close();
+            writer.dispose();
+        }
+    }
 }